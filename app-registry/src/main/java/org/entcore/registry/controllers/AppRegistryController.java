@@ -52,6 +52,7 @@ import org.vertx.java.core.json.JsonObject;
 import static fr.wseduc.webutils.request.RequestUtils.bodyToJson;
 import static org.entcore.common.appregistry.AppRegistryEvents.APP_REGISTRY_PUBLISH_ADDRESS;
 import static org.entcore.common.appregistry.AppRegistryEvents.PROFILE_GROUP_ACTIONS_UPDATED;
+import static org.entcore.common.appregistry.ApplicationUtils.publishRightsUpdated;
 import static org.entcore.common.bus.BusResponseHandler.busArrayHandler;
 import static org.entcore.common.bus.BusResponseHandler.busResponseHandler;
 import static org.entcore.common.http.response.DefaultResponseHandler.*;
@@ -136,7 +137,8 @@ public class AppRegistryController extends BaseController {
 						actions.size() > 0 && !roleName.trim().isEmpty()) {
 					final JsonObject role = new JsonObject().putString("name", roleName);
 					String structureId = request.params().get("structureId");
-					appRegistryService.createRole(structureId, role, actions, notEmptyResponseHandler(request, 201, 409));
+					appRegistryService.createRole(structureId, role, actions,
+							publishRightsUpdated(eb, notEmptyResponseHandler(request, 201, 409)));
 				} else {
 					badRequest(request, "invalid.parameters");
 				}
@@ -159,7 +161,8 @@ public class AppRegistryController extends BaseController {
 					if (roleName != null && !roleName.trim().isEmpty()) {
 						role.putString("name", roleName);
 					}
-					appRegistryService.updateRole(roleId, role, actions, notEmptyResponseHandler(request));
+					appRegistryService.updateRole(roleId, role, actions,
+							publishRightsUpdated(eb, notEmptyResponseHandler(request)));
 				} else {
 					badRequest(request, "invalid.id");
 				}
@@ -173,7 +176,7 @@ public class AppRegistryController extends BaseController {
 	public void deleteRole(final HttpServerRequest request) {
 		String roleId = request.params().get("id");
 		if (roleId != null && !roleId.trim().isEmpty()) {
-			appRegistryService.deleteRole(roleId, defaultResponseHandler(request, 204));
+			appRegistryService.deleteRole(roleId, publishRightsUpdated(eb, defaultResponseHandler(request, 204)));
 		} else {
 			badRequest(request, "invalid.id");
 		}
@@ -213,7 +216,7 @@ public class AppRegistryController extends BaseController {
 	public void addGroupLink(final HttpServerRequest request) {
 		final String groupId = request.params().get("groupId");
 		final String roleId = request.params().get("roleId");
-		appRegistryService.addGroupLink(groupId, roleId, defaultResponseHandler(request));
+		appRegistryService.addGroupLink(groupId, roleId, publishRightsUpdated(eb, defaultResponseHandler(request)));
 	}
 
 	@Delete("/authorize/group/:groupId/role/:roleId")
@@ -222,7 +225,7 @@ public class AppRegistryController extends BaseController {
 	public void removeGroupLink(final HttpServerRequest request) {
 		final String groupId = request.params().get("groupId");
 		final String roleId = request.params().get("roleId");
-		appRegistryService.deleteGroupLink(groupId, roleId, defaultResponseHandler(request, 204));
+		appRegistryService.deleteGroupLink(groupId, roleId, publishRightsUpdated(eb, defaultResponseHandler(request, 204)));
 	}
 
 	@Get("/roles")
@@ -272,7 +275,8 @@ public class AppRegistryController extends BaseController {
 
 				// don't check url for standard app or oauth connector
 				if (!updateCas || addressURL != null) {
-					appRegistryService.createApplication(structureId, body, null, new Handler<Either<String, JsonObject>>() {
+					appRegistryService.createApplication(structureId, body, null, publishRightsUpdated(eb,
+							new Handler<Either<String, JsonObject>>() {
 						@Override
 						public void handle(Either<String, JsonObject> event) {
 							if (event.isLeft()) {
@@ -291,7 +295,7 @@ public class AppRegistryController extends BaseController {
 								Renders.renderJson(request, error, 400);
 							}
 						}
-					});
+					}));
 				} else {
 					badRequest(request, "appregistry.failed.app.url");
 				}
@@ -341,7 +345,8 @@ public class AppRegistryController extends BaseController {
 
 					// don't check url for standard app or oauth connector
 					if (!updateCas ||  addressURL != null) {
-						appRegistryService.updateApplication(applicationId, body, new Handler<Either<String, JsonObject>>() {
+						appRegistryService.updateApplication(applicationId, body, publishRightsUpdated(eb,
+								new Handler<Either<String, JsonObject>>() {
 							public void handle(Either<String, JsonObject> event) {
 								if (event.isLeft()) {
 									JsonObject error = new JsonObject()
@@ -353,7 +358,7 @@ public class AppRegistryController extends BaseController {
 								sendPatternToCasConfiguration(updateCas, body, addressURL, casType);
 								Renders.renderJson(request, event.right().getValue());
 							}
-						});
+						}));
 					} else {
 						badRequest(request, "appregistry.failed.app.url");
 					}
@@ -370,7 +375,7 @@ public class AppRegistryController extends BaseController {
 	public void deleteApplication(final HttpServerRequest request) {
 		String id = request.params().get("id");
 		if (id != null && !id.trim().isEmpty()) {
-			appRegistryService.deleteApplication(id, defaultResponseHandler(request, 204));
+			appRegistryService.deleteApplication(id, publishRightsUpdated(eb, defaultResponseHandler(request, 204)));
 		} else {
 			badRequest(request, "invalid.application.id");
 		}
@@ -398,7 +403,8 @@ public class AppRegistryController extends BaseController {
 		final String application = app.getString("name");
 		final JsonArray securedActions = message.body().getArray("actions");
 		if (application != null && securedActions != null && !application.trim().isEmpty()) {
-			appRegistryService.createApplication(null, app, securedActions, new Handler<Either<String, JsonObject>>() {
+			appRegistryService.createApplication(null, app, securedActions, publishRightsUpdated(eb,
+					new Handler<Either<String, JsonObject>>() {
 				@Override
 				public void handle(Either<String, JsonObject> event) {
 					JsonObject j = new JsonObject();
@@ -409,7 +415,7 @@ public class AppRegistryController extends BaseController {
 					}
 					message.reply(j);
 				}
-			});
+			}));
 		} else {
 			message.reply(new JsonObject().putString("status", "error").putString("message", "invalid.parameters"));
 		}
@@ -475,7 +481,7 @@ public class AppRegistryController extends BaseController {
 		switch (message.body().getString("action", "")) {
 			case "setDefaultClassRoles" :
 				appRegistryService.setDefaultClassRoles(message.body().getString("classId"),
-						new Handler<Either<String, JsonObject>>() {
+						publishRightsUpdated(eb, new Handler<Either<String, JsonObject>>() {
 					@Override
 					public void handle(Either<String, JsonObject> r) {
 						if (r.isRight()) {
@@ -485,7 +491,7 @@ public class AppRegistryController extends BaseController {
 									.putString("message", "invalid.classId"));
 						}
 					}
-				});
+				}));
 				break;
 			case "create-external-application" :
 				appRegistryService.createApplication(structureId,
@@ -494,7 +500,7 @@ public class AppRegistryController extends BaseController {
 			case "create-role" :
 				final JsonObject role = message.body().getObject("role");
 				final JsonArray actions = message.body().getArray("actions");
-				appRegistryService.createRole(structureId, role, actions, busResponseHandler(message));
+				appRegistryService.createRole(structureId, role, actions, publishRightsUpdated(eb, busResponseHandler(message)));
 				break;
 			case "link-role-group" :
 				final String groupId = message.body().getString("groupId");
@@ -537,6 +543,7 @@ public class AppRegistryController extends BaseController {
 			message.putArray("groups", new JsonArray().add(groupId));
 		}
 		eb.publish(APP_REGISTRY_PUBLISH_ADDRESS, message);
+		publishRightsUpdated(eb);
 	}
 
 }
@@ -24,6 +24,7 @@ import static org.entcore.common.bus.BusResponseHandler.busArrayHandler;
 import static org.entcore.common.http.response.DefaultResponseHandler.arrayResponseHandler;
 import static org.entcore.common.http.response.DefaultResponseHandler.defaultResponseHandler;
 import static org.entcore.common.http.response.DefaultResponseHandler.leftToResponse;
+import static org.entcore.common.appregistry.ApplicationUtils.publishRightsUpdated;
 
 import java.net.URL;
 import java.util.List;
@@ -165,7 +166,7 @@ public class ExternalApplicationController extends BaseController {
 			return;
 		}
 
-		externalAppService.massAuthorize(applicationId, profiles, defaultResponseHandler(request));
+		externalAppService.massAuthorize(applicationId, profiles, publishRightsUpdated(eb, defaultResponseHandler(request)));
 	}
 
 	@Delete("/application/external/:id/authorize")
@@ -180,7 +181,7 @@ public class ExternalApplicationController extends BaseController {
 			return;
 		}
 
-		externalAppService.massUnauthorize(applicationId, profiles, defaultResponseHandler(request, 204));
+		externalAppService.massUnauthorize(applicationId, profiles, publishRightsUpdated(eb, defaultResponseHandler(request, 204)));
 	}
 
 	@BusAddress("external-application")
@@ -20,6 +20,7 @@
 package org.entcore.registry.controllers;
 
 import static fr.wseduc.webutils.request.RequestUtils.bodyToJson;
+import static org.entcore.common.appregistry.ApplicationUtils.publishRightsUpdated;
 import static org.entcore.common.http.response.DefaultResponseHandler.*;
 
 import java.util.ArrayList;
@@ -76,7 +77,7 @@ public class WidgetController extends BaseController {
 	@ResourceFilter(SuperAdminFilter.class)
 	public void deleteWidget(final HttpServerRequest request){
 		final String widgetId = request.params().get("id");
-		service.deleteWidget(widgetId, defaultResponseHandler(request, 201));
+		service.deleteWidget(widgetId, publishRightsUpdated(eb, defaultResponseHandler(request, 201)));
 	}
 
 	@Put("/widget/:id/lock")
@@ -94,7 +95,7 @@ public class WidgetController extends BaseController {
 		final String widgetId = request.params().get("id");
 		final List<String> groupIds = new ArrayList<String>();
 		groupIds.add(request.params().get("groupId"));
-		service.linkWidget(widgetId, groupIds, defaultResponseHandler(request));
+		service.linkWidget(widgetId, groupIds, publishRightsUpdated(eb, defaultResponseHandler(request)));
 	}
 
 	@Delete("/widget/:id/link/:groupId")
@@ -104,7 +105,7 @@ public class WidgetController extends BaseController {
 		final String widgetId = request.params().get("id");
 		final List<String> groupIds = new ArrayList<String>();
 		groupIds.add(request.params().get("groupId"));
-		service.unlinkWidget(widgetId, groupIds, defaultResponseHandler(request));
+		service.unlinkWidget(widgetId, groupIds, publishRightsUpdated(eb, defaultResponseHandler(request)));
 
 	}
 
@@ -115,7 +116,7 @@ public class WidgetController extends BaseController {
 		final String widgetId = request.params().get("id");
 		final List<String> groupIds = new ArrayList<String>();
 		groupIds.add(request.params().get("groupId"));
-		service.setMandatory(widgetId, groupIds, defaultResponseHandler(request));
+		service.setMandatory(widgetId, groupIds, publishRightsUpdated(eb, defaultResponseHandler(request)));
 	}
 
 	@Delete("/widget/:id/mandatory/:groupId")
@@ -125,7 +126,7 @@ public class WidgetController extends BaseController {
 		final String widgetId = request.params().get("id");
 		final List<String> groupIds = new ArrayList<String>();
 		groupIds.add(request.params().get("groupId"));
-		service.removeMandatory(widgetId, groupIds, defaultResponseHandler(request));
+		service.removeMandatory(widgetId, groupIds, publishRightsUpdated(eb, defaultResponseHandler(request)));
 	}
 
 	@Put("/widget/:id/authorize/:structureId")
@@ -135,7 +136,7 @@ public class WidgetController extends BaseController {
 		final String structureId = request.params().get("structureId");
 		List<String> profiles = request.params().getAll("profile");
 
-		service.massAuthorize(widgetId, structureId, profiles, defaultResponseHandler(request));
+		service.massAuthorize(widgetId, structureId, profiles, publishRightsUpdated(eb, defaultResponseHandler(request)));
 	}
 
 	@Delete("/widget/:id/authorize/:structureId")
@@ -145,7 +146,7 @@ public class WidgetController extends BaseController {
 		final String structureId = request.params().get("structureId");
 		List<String> profiles = request.params().getAll("profile");
 
-		service.massUnauthorize(widgetId, structureId, profiles, defaultResponseHandler(request));
+		service.massUnauthorize(widgetId, structureId, profiles, publishRightsUpdated(eb, defaultResponseHandler(request)));
 	}
 
 	@Put("/widget/:id/mandatory/:structureId/mass")
@@ -155,7 +156,7 @@ public class WidgetController extends BaseController {
 		final String structureId = request.params().get("structureId");
 		List<String> profiles = request.params().getAll("profile");
 
-		service.massSetMandatory(widgetId, structureId, profiles, defaultResponseHandler(request));
+		service.massSetMandatory(widgetId, structureId, profiles, publishRightsUpdated(eb, defaultResponseHandler(request)));
 	}
 
 	@Delete("/widget/:id/mandatory/:structureId/mass")
@@ -165,7 +166,7 @@ public class WidgetController extends BaseController {
 		final String structureId = request.params().get("structureId");
 		List<String> profiles = request.params().getAll("profile");
 
-		service.massRemoveMandatory(widgetId, structureId, profiles, defaultResponseHandler(request));
+		service.massRemoveMandatory(widgetId, structureId, profiles, publishRightsUpdated(eb, defaultResponseHandler(request)));
 	}
 
 	@Post("/widget")
@@ -225,7 +226,7 @@ public class WidgetController extends BaseController {
 		final String applicationName = widget.getString("applicationName");
 		widget.removeField("applicationName");
 		if (widgetName != null && !widgetName.trim().isEmpty()) {
-			service.createWidget(applicationName, widget, new Handler<Either<String, JsonObject>>() {
+			service.createWidget(applicationName, widget, publishRightsUpdated(eb, new Handler<Either<String, JsonObject>>() {
 				@Override
 				public void handle(Either<String, JsonObject> event) {
 					JsonObject j = new JsonObject();
@@ -236,7 +237,7 @@ public class WidgetController extends BaseController {
 					}
 					handler.handle(j);
 				}
-			});
+			}));
 		} else {
 			handler.handle(new JsonObject().putString("status", "error").putString("message", "invalid.parameters"));
 		}
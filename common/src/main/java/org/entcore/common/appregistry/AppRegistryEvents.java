@@ -24,6 +24,8 @@ public final class AppRegistryEvents {
 
 	public static final String APP_REGISTRY_PUBLISH_ADDRESS = "app.registry.events";
 
+	public static final String RIGHTS_UPDATED_PUBLISH_ADDRESS = "app.registry.rights.updated";
+
 	public static final String PROFILE_GROUP_ACTIONS_UPDATED = "PROFILE_GROUP_ACTIONS_UPDATED";
 
 	public static final String USER_GROUP_UPDATED = "USER_GROUP_UPDATED";
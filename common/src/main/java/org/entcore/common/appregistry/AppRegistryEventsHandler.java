@@ -47,7 +47,12 @@ public final class AppRegistryEventsHandler implements Handler<Message<JsonObjec
 					appRegistryEventsService.userGroupUpdated(event.body().getArray("users"), event);
 					break;
 				case IMPORT_SUCCEEDED:
-					appRegistryEventsService.importSucceeded();
+					if (appRegistryEventsService instanceof ImportEventsService) {
+						((ImportEventsService) appRegistryEventsService)
+								.importSucceeded(event.body().getArray("structures"));
+					} else {
+						appRegistryEventsService.importSucceeded();
+					}
 					break;
 			}
 		}
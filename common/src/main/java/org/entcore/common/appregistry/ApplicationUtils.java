@@ -19,6 +19,7 @@
 
 package org.entcore.common.appregistry;
 
+import fr.wseduc.webutils.Either;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.EventBus;
 import org.vertx.java.core.eventbus.Message;
@@ -27,6 +28,7 @@ import org.vertx.java.core.json.JsonObject;
 
 import static org.entcore.common.appregistry.AppRegistryEvents.APP_REGISTRY_PUBLISH_ADDRESS;
 import static org.entcore.common.appregistry.AppRegistryEvents.IMPORT_SUCCEEDED;
+import static org.entcore.common.appregistry.AppRegistryEvents.RIGHTS_UPDATED_PUBLISH_ADDRESS;
 import static org.entcore.common.appregistry.AppRegistryEvents.USER_GROUP_UPDATED;
 
 public final class ApplicationUtils {
@@ -92,10 +94,33 @@ public final class ApplicationUtils {
 		eb.send(APP_REGISTRY_BUS_ADDRESS, json, handler);
 	}
 
+	public static void publishRightsUpdated(EventBus eb) {
+		eb.publish(RIGHTS_UPDATED_PUBLISH_ADDRESS, new JsonObject());
+	}
+
+	public static Handler<Either<String, JsonObject>> publishRightsUpdated(final EventBus eb,
+			final Handler<Either<String, JsonObject>> handler) {
+		return new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> event) {
+				if (event.isRight()) {
+					publishRightsUpdated(eb);
+				}
+				handler.handle(event);
+			}
+		};
+	}
+
 	public static void afterImport(EventBus eb) {
-		eb.publish(APP_REGISTRY_PUBLISH_ADDRESS,
-				new JsonObject().putString("type", IMPORT_SUCCEEDED)
-		);
+		afterImport(eb, null);
+	}
+
+	public static void afterImport(EventBus eb, JsonArray structures) {
+		final JsonObject m = new JsonObject().putString("type", IMPORT_SUCCEEDED);
+		if (structures != null) {
+			m.putArray("structures", structures);
+		}
+		eb.publish(APP_REGISTRY_PUBLISH_ADDRESS, m);
 	}
 
 }
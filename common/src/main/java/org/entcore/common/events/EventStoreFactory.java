@@ -21,6 +21,7 @@ package org.entcore.common.events;
 
 import org.entcore.common.events.impl.MongoDbEventStoreFactory;
 import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.platform.Container;
 
 import java.util.ServiceLoader;
@@ -50,6 +51,10 @@ public abstract class EventStoreFactory {
 
 	public abstract EventStore getEventStore(String module);
 
+	protected JsonObject getConfig() {
+		return container != null ? container.config() : new JsonObject();
+	}
+
 	public void setVertx(Vertx vertx) {
 		this.vertx = vertx;
 	}
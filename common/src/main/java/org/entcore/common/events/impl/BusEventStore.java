@@ -20,12 +20,17 @@
 package org.entcore.common.events.impl;
 
 import fr.wseduc.webutils.Either;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 public class BusEventStore extends GenericEventStore {
 
+	private static final long STORE_TIMEOUT = 10000l;
+
 	@Override
 	protected void storeEvent(final JsonObject event, final Handler<Either<String, Void>> handler) {
 		eventBus.send("event.store", event, new Handler<Message<JsonObject>>(){
@@ -41,4 +46,21 @@ public class BusEventStore extends GenericEventStore {
 		});
 	}
 
+	@Override
+	protected void storeEvents(final JsonArray events, final Handler<Either<String, Void>> handler) {
+		eventBus.sendWithTimeout("event.store.bulk", new JsonObject().putArray("events", events), STORE_TIMEOUT,
+				new AsyncResultHandler<Message<JsonObject>>(){
+			@Override
+			public void handle(AsyncResult<Message<JsonObject>> ar) {
+				if (ar.failed()) {
+					handler.handle(new Either.Left<String, Void>("Error : " + ar.cause().getMessage()));
+				} else if ("ok".equals(ar.result().body().getString("status"))) {
+					handler.handle(new Either.Right<String, Void>(null));
+				} else {
+					handler.handle(new Either.Left<String, Void>("Error : " + ar.result().body().getString("message")));
+				}
+			}
+		});
+	}
+
 }
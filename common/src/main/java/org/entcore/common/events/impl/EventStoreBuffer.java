@@ -0,0 +1,188 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.common.events.impl;
+
+import fr.wseduc.webutils.Either;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded queue of events written in batches by the event store, when the batch is full or
+ * periodically. Only one batch is written at a time : while it is in progress the events are
+ * queued, and dropped once the queue is full. A batch without reply after the flush timeout is
+ * considered failed, so a lost reply can't block the buffer.
+ */
+public class EventStoreBuffer {
+
+	private static final Logger log = LoggerFactory.getLogger(EventStoreBuffer.class);
+	private final GenericEventStore eventStore;
+	private final ArrayDeque<JsonObject> queue = new ArrayDeque<>();
+	private final int batchSize;
+	private static final List<EventStoreBuffer> buffers = new ArrayList<>();
+	private final int maxQueueSize;
+	private final long flushTimeout;
+	private boolean flushing = false;
+	private long flushStart = 0;
+	private long flushId = 0;
+	private int flushSize = 0;
+	private long stored = 0;
+	private long failed = 0;
+	private long dropped = 0;
+	private long reportedDropped = 0;
+
+	public EventStoreBuffer(Vertx vertx, GenericEventStore eventStore, JsonObject config) {
+		this.eventStore = eventStore;
+		this.batchSize = config.getInteger("event-buffer-batch-size", 100);
+		this.maxQueueSize = config.getInteger("event-buffer-max-size", 10000);
+		this.flushTimeout = config.getLong("event-buffer-flush-timeout", 30000l);
+		synchronized (buffers) {
+			buffers.add(this);
+		}
+		vertx.setPeriodic(config.getLong("event-buffer-flush-delay", 1000l), new Handler<Long>() {
+			@Override
+			public void handle(Long timerId) {
+				flush();
+			}
+		});
+	}
+
+	public void add(JsonObject event) {
+		final boolean full;
+		synchronized (this) {
+			if (queue.size() >= maxQueueSize) {
+				dropped++;
+				return;
+			}
+			queue.add(event);
+			full = queue.size() >= batchSize;
+		}
+		if (full) {
+			flush();
+		}
+	}
+
+	public void flush() {
+		final JsonArray events = new JsonArray();
+		final long newDropped;
+		final long id;
+		synchronized (this) {
+			if (flushing && System.currentTimeMillis() - flushStart > flushTimeout) {
+				flushing = false;
+				failed += flushSize;
+				log.warn("Event store batch without reply after " + flushTimeout + " ms.");
+			}
+			if (flushing || queue.isEmpty()) {
+				return;
+			}
+			while (events.size() < batchSize && !queue.isEmpty()) {
+				events.addObject(queue.poll());
+			}
+			flushing = true;
+			flushStart = System.currentTimeMillis();
+			flushSize = events.size();
+			id = ++flushId;
+			newDropped = dropped - reportedDropped;
+			reportedDropped = dropped;
+		}
+		if (newDropped > 0) {
+			log.warn("Event store queue full : " + newDropped + " events dropped.");
+		}
+		eventStore.storeEvents(events, new Handler<Either<String, Void>>() {
+			@Override
+			public void handle(Either<String, Void> event) {
+				final boolean next;
+				synchronized (EventStoreBuffer.this) {
+					if (id != flushId || !flushing) {
+						// duplicated reply or batch already counted as failed by the flush timeout
+						return;
+					}
+					if (event.isRight()) {
+						stored += events.size();
+					} else {
+						failed += events.size();
+					}
+					flushing = false;
+					next = queue.size() >= batchSize;
+				}
+				if (event.isLeft()) {
+					log.error("Error adding " + events.size() + " events : " + event.left().getValue());
+				}
+				if (next) {
+					flush();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Send all the queued events without waiting for the batch in progress. Used when the verticle stops.
+	 */
+	public void close() {
+		final List<JsonArray> batches = new ArrayList<>();
+		synchronized (this) {
+			while (!queue.isEmpty()) {
+				final JsonArray events = new JsonArray();
+				while (events.size() < batchSize && !queue.isEmpty()) {
+					events.addObject(queue.poll());
+				}
+				batches.add(events);
+			}
+		}
+		for (final JsonArray events : batches) {
+			eventStore.storeEvents(events, new Handler<Either<String, Void>>() {
+				@Override
+				public void handle(Either<String, Void> event) {
+					if (event.isLeft()) {
+						log.error("Error adding " + events.size() + " events : " + event.left().getValue());
+					}
+				}
+			});
+		}
+		log.info("Event store buffer closed : " + stats().encode());
+	}
+
+	public static void closeAll() {
+		final List<EventStoreBuffer> l;
+		synchronized (buffers) {
+			l = new ArrayList<>(buffers);
+			buffers.clear();
+		}
+		for (EventStoreBuffer b : l) {
+			b.close();
+		}
+	}
+
+	public synchronized JsonObject stats() {
+		return new JsonObject()
+				.putNumber("queued", queue.size())
+				.putNumber("stored", stored)
+				.putNumber("failed", failed)
+				.putNumber("dropped", dropped);
+	}
+
+}
@@ -26,6 +26,7 @@ import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.user.UserInfos;
 import org.entcore.common.user.UserUtils;
 import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
 import org.vertx.java.core.eventbus.EventBus;
 import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.http.HttpServerRequest;
@@ -34,12 +35,15 @@ import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 public abstract class GenericEventStore implements EventStore {
 
 	protected String module;
 	protected EventBus eventBus;
 	protected JsonArray userBlacklist;
+	private EventStoreBuffer buffer;
 	protected static final Logger logger = LoggerFactory.getLogger(GenericEventStore.class);
 
 	@Override
@@ -97,7 +101,12 @@ public abstract class GenericEventStore implements EventStore {
 	private void execute(UserInfos user, String eventType, HttpServerRequest request,
 			JsonObject customAttributes) {
 		if (user == null || !userBlacklist.contains(user.getUserId())) {
-			storeEvent(generateEvent(eventType, user, request, customAttributes), new Handler<Either<String, Void>>() {
+			final JsonObject event = generateEvent(eventType, user, request, customAttributes);
+			if (buffer != null) {
+				buffer.add(event);
+				return;
+			}
+			storeEvent(event, new Handler<Either<String, Void>>() {
 				@Override
 				public void handle(Either<String, Void> event) {
 					if (event.isLeft()) {
@@ -139,6 +148,28 @@ public abstract class GenericEventStore implements EventStore {
 
 	protected abstract void storeEvent(JsonObject event, Handler<Either<String, Void>> handler);
 
+	protected void storeEvents(final JsonArray events, final Handler<Either<String, Void>> handler) {
+		final AtomicInteger remains = new AtomicInteger(events.size());
+		final StringBuilder errors = new StringBuilder();
+		for (Object o : events) {
+			storeEvent((JsonObject) o, new Handler<Either<String, Void>>() {
+				@Override
+				public void handle(Either<String, Void> event) {
+					if (event.isLeft()) {
+						errors.append(event.left().getValue()).append("\n");
+					}
+					if (remains.decrementAndGet() == 0) {
+						if (errors.length() > 0) {
+							handler.handle(new Either.Left<String, Void>(errors.toString()));
+						} else {
+							handler.handle(new Either.Right<String, Void>(null));
+						}
+					}
+				}
+			});
+		}
+	}
+
 	private void initBlacklist() {
 		eventBus.send("event.blacklist", new JsonObject(), new Handler<Message<JsonArray>>() {
 			@Override
@@ -157,4 +188,10 @@ public abstract class GenericEventStore implements EventStore {
 		this.module = module;
 	}
 
+	public void initBuffer(Vertx vertx, JsonObject config) {
+		if (vertx != null && config.getBoolean("event-buffer", true)) {
+			this.buffer = new EventStoreBuffer(vertx, this, config);
+		}
+	}
+
 }
@@ -25,10 +25,12 @@ import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.http.HttpClient;
 import org.vertx.java.core.http.HttpClientRequest;
 import org.vertx.java.core.http.HttpClientResponse;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 public class HttpLocalhostEventStore extends GenericEventStore {
 
+	private static final long STORE_TIMEOUT = 10000l;
 	private final HttpClient httpClient;
 
 	public HttpLocalhostEventStore(HttpClient httpClient) {
@@ -37,7 +39,16 @@ public class HttpLocalhostEventStore extends GenericEventStore {
 
 	@Override
 	protected void storeEvent(final JsonObject event, final Handler<Either<String, Void>> handler) {
-		HttpClientRequest req = httpClient.post("/infra/event/localhost/store", new Handler<HttpClientResponse>() {
+		post("/infra/event/localhost/store", event, handler);
+	}
+
+	@Override
+	protected void storeEvents(final JsonArray events, final Handler<Either<String, Void>> handler) {
+		post("/infra/event/localhost/store/bulk", new JsonObject().putArray("events", events), handler);
+	}
+
+	private void post(String uri, final JsonObject event, final Handler<Either<String, Void>> handler) {
+		HttpClientRequest req = httpClient.post(uri, new Handler<HttpClientResponse>() {
 			@Override
 			public void handle(final HttpClientResponse response) {
 				if (response.statusCode() == 200) {
@@ -62,6 +73,13 @@ public class HttpLocalhostEventStore extends GenericEventStore {
 				}
 			}
 		});
+		req.exceptionHandler(new Handler<Throwable>() {
+			@Override
+			public void handle(Throwable t) {
+				handler.handle(new Either.Left<String, Void>("Error : " + t.getMessage() + ", Event : " + event.encode()));
+			}
+		});
+		req.setTimeout(STORE_TIMEOUT);
 		req.end(event.encode());
 	}
 
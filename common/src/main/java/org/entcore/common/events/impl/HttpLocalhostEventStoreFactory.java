@@ -36,6 +36,7 @@ public class HttpLocalhostEventStoreFactory extends EventStoreFactory {
 		HttpLocalhostEventStore eventStore = new HttpLocalhostEventStore(httpClient);
 		eventStore.setEventBus(Server.getEventBus(vertx));
 		eventStore.setModule(module);
+		eventStore.initBuffer(vertx, getConfig());
 		return eventStore;
 	}
 
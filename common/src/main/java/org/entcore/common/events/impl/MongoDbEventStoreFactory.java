@@ -30,6 +30,7 @@ public class MongoDbEventStoreFactory extends EventStoreFactory {
 		MongoDbEventStore eventStore =  new MongoDbEventStore();
 		eventStore.setEventBus(Server.getEventBus(vertx));
 		eventStore.setModule(module);
+		eventStore.initBuffer(vertx, getConfig());
 		return eventStore;
 	}
 
@@ -34,6 +34,7 @@ import fr.wseduc.webutils.validation.JsonSchemaValidator;
 import org.entcore.common.controller.ConfController;
 import org.entcore.common.controller.RightsController;
 import org.entcore.common.events.EventStoreFactory;
+import org.entcore.common.events.impl.EventStoreBuffer;
 import org.entcore.common.http.filter.*;
 import org.entcore.common.http.response.SecurityHookRender;
 import org.entcore.common.http.response.OverrideThemeHookRender;
@@ -45,6 +46,7 @@ import org.entcore.common.sql.DB;
 import org.entcore.common.sql.Sql;
 import org.entcore.common.user.RepositoryEvents;
 import org.entcore.common.user.RepositoryHandler;
+import org.entcore.common.user.SessionCache;
 import org.entcore.common.user.UserUtils;
 import org.entcore.common.utils.Config;
 import org.entcore.common.utils.Zip;
@@ -86,6 +88,10 @@ public abstract class BaseServer extends Server {
 
 		Config.getInstance().setConfig(config);
 
+		if (config.getBoolean("session-cache", true)) {
+			SessionCache.getInstance().init(vertx, config);
+		}
+
 		if (node != null) {
 			initModulesHelpers(node);
 		}
@@ -113,6 +119,12 @@ public abstract class BaseServer extends Server {
 		SecurityHandler.setVertx(vertx);
 	}
 
+	@Override
+	public void stop() {
+		EventStoreBuffer.closeAll();
+		super.stop();
+	}
+
 	protected void initFilters() {
 		clearFilters();
 		addFilter(new AccessLoggerFilter(accessLogger));
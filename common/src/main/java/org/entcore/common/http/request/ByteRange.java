@@ -0,0 +1,150 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.common.http.request;
+
+import fr.wseduc.webutils.http.ETag;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
+
+/**
+ * Single byte range of a "Range: bytes=..." request header.
+ * Stored files are never modified in place, so their id is used as a strong validator.
+ */
+public final class ByteRange {
+
+	private final long start;
+	private final long end;
+
+	private ByteRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	public long length() {
+		return end - start + 1;
+	}
+
+	/**
+	 * The client already has the file of the given id : its If-None-Match matches the id.
+	 * If-Modified-Since is ignored, the storages don't keep the modification date of the files.
+	 * The caller must check that the file still exists before sending a 304.
+	 */
+	public static boolean notModified(HttpServerRequest request, String id) {
+		return request.headers().get("If-None-Match") != null && ETag.check(request, id);
+	}
+
+	public static void sendNotModified(HttpServerRequest request, String id) {
+		final HttpServerResponse resp = request.response();
+		ETag.addHeader(resp, id);
+		resp.setStatusCode(304).setStatusMessage("Not Modified").end();
+	}
+
+	public static boolean hasRange(HttpServerRequest request, String id) {
+		final String range = request.headers().get("Range");
+		if (range == null || !range.startsWith("bytes=")) {
+			return false;
+		}
+		final String ifRange = request.headers().get("If-Range");
+		return ifRange == null || (!ifRange.trim().startsWith("W/") && id.equals(unquote(ifRange)));
+	}
+
+	/**
+	 * Parse the request range for a file of the given length.
+	 * @return the range, null if the whole file must be sent (no range, several ranges or
+	 * If-Range mismatch) or an empty range (start > end) if the range can't be satisfied
+	 */
+	public static ByteRange parse(HttpServerRequest request, String id, long length) {
+		if (!hasRange(request, id)) {
+			return null;
+		}
+		final String spec = request.headers().get("Range").substring(6).trim();
+		if (spec.contains(",")) {
+			return null;
+		}
+		final int idx = spec.indexOf('-');
+		if (idx < 0) {
+			return null;
+		}
+		try {
+			final String first = spec.substring(0, idx).trim();
+			final String last = spec.substring(idx + 1).trim();
+			long start;
+			long end;
+			if (first.isEmpty()) {
+				final long suffix = Long.parseLong(last);
+				start = Math.max(0, length - suffix);
+				end = length - 1;
+				if (suffix == 0) {
+					start = 1;
+					end = 0;
+				}
+			} else {
+				start = Long.parseLong(first);
+				end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+				if (start >= length || end < start) {
+					start = 1;
+					end = 0;
+				}
+			}
+			return new ByteRange(start, end);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	public boolean isSatisfiable() {
+		return start <= end;
+	}
+
+	/**
+	 * Set the status and headers of a partial response, or end the response with a 416 status
+	 * if the range can't be satisfied.
+	 * @return true if the partial content must be written
+	 */
+	public boolean prepareResponse(HttpServerResponse resp, long fileLength) {
+		resp.putHeader("Accept-Ranges", "bytes");
+		if (!isSatisfiable()) {
+			resp.putHeader("Content-Range", "bytes */" + fileLength);
+			resp.setStatusCode(416).setStatusMessage("Requested Range Not Satisfiable").end();
+			return false;
+		}
+		resp.putHeader("Content-Range", "bytes " + start + "-" + end + "/" + fileLength);
+		resp.putHeader("Content-Length", String.valueOf(length()));
+		resp.setStatusCode(206).setStatusMessage("Partial Content");
+		return true;
+	}
+
+	private static String unquote(String etag) {
+		final String e = etag.trim();
+		if (e.length() > 1 && e.startsWith("\"") && e.endsWith("\"")) {
+			return e.substring(1, e.length() - 1);
+		}
+		return e;
+	}
+
+}
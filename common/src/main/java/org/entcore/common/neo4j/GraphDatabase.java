@@ -27,6 +27,8 @@ public interface GraphDatabase {
 
 	void execute(String query, JsonObject params, Handler<JsonObject> handler);
 
+	void executeRows(String query, JsonObject params, Handler<JsonObject> rowHandler, Handler<JsonObject> handler);
+
 	void executeBatch(JsonArray queries, Handler<JsonObject> handler);
 
 	void executeTransaction(JsonArray statements, Integer transactionId,
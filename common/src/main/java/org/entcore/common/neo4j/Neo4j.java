@@ -81,6 +81,15 @@ public class Neo4j {
 		database.execute(query, params, resultHandler(handler));
 	}
 
+	/**
+	 * Execute a query and give each row to the row handler as soon as it is read,
+	 * without keeping the whole result in memory.
+	 */
+	public void executeRows(String query, JsonObject params, Handler<JsonObject> rowHandler,
+			Handler<Message<JsonObject>> handler) {
+		database.executeRows(query, params, rowHandler, resultHandler(handler));
+	}
+
 	public void execute(String query, Map<String,Object> params, Handler<Message<JsonObject>> handler) {
 		execute(query, params != null ? new JsonObject(params) : null, handler);
 	}
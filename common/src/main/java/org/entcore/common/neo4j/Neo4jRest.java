@@ -31,6 +31,7 @@ import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
+import java.io.IOException;
 import java.net.URI;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -94,6 +95,12 @@ public class Neo4jRest implements GraphDatabase {
 
 	@Override
 	public void execute(String query, JsonObject p, final Handler<JsonObject> handler) {
+		executeRows(query, p, null, handler);
+	}
+
+	@Override
+	public void executeRows(String query, JsonObject p, final Handler<JsonObject> rowHandler,
+			final Handler<JsonObject> handler) {
 		JsonObject params = p;
 		if (params == null) {
 			params = new JsonObject();
@@ -111,14 +118,22 @@ public class Neo4jRest implements GraphDatabase {
 
 						@Override
 						public void handle(Buffer b) {
-							logger.debug(b.toString());
-							if (resp.statusCode() != 404 && resp.statusCode() != 500) {
-								JsonObject json = new JsonObject(b.toString("UTF-8"));
-								if (resp.statusCode() == 200) {
-									handler.handle(new JsonObject().putArray("result", transformJson(json)));
-								} else {
-									handler.handle(json);
+							if (logger.isDebugEnabled()) {
+								logger.debug(b.toString());
+							}
+							if (resp.statusCode() == 200) {
+								try {
+									JsonArray result = Neo4jResultParser.parseCypher(b, rowHandler);
+									if (rowHandler != null) {
+										handler.handle(new JsonObject());
+									} else {
+										handler.handle(new JsonObject().putArray("result", result));
+									}
+								} catch (IOException | RuntimeException e) {
+									handler.handle(new JsonObject().putString("message", e.getMessage()));
 								}
+							} else if (resp.statusCode() != 404 && resp.statusCode() != 500) {
+								handler.handle(new JsonObject(b.toString("UTF-8")));
 							} else {
 								handler.handle(new JsonObject().putString("message",
 										resp.statusMessage() + " : " + b.toString()));
@@ -153,17 +168,16 @@ public class Neo4jRest implements GraphDatabase {
 
 						@Override
 						public void handle(Buffer b) {
-							logger.debug(b.toString());
+							if (logger.isDebugEnabled()) {
+								logger.debug(b.toString());
+							}
 							if (resp.statusCode() != 404 && resp.statusCode() != 500) {
-								JsonArray json = new JsonArray(b.toString("UTF-8"));
-								JsonArray out = new JsonArray();
-								for (Object j : json) {
-									JsonObject qr = (JsonObject) j;
-									out.add(new JsonObject().putArray("result",
-											transformJson(qr.getObject("body", new JsonObject())))
-											.putNumber("idx", qr.getNumber("id")));
+								try {
+									handler.handle(new JsonObject().putArray("results",
+											Neo4jResultParser.parseBatch(b)));
+								} catch (IOException | RuntimeException e) {
+									handler.handle(new JsonObject().putString("message", e.getMessage()));
 								}
-								handler.handle(new JsonObject().putArray("results", out));
 							} else {
 								handler.handle(new JsonObject().putString("message",
 										resp.statusMessage() + " : " + b.toString()));
@@ -200,18 +214,20 @@ public class Neo4jRest implements GraphDatabase {
 
 						@Override
 						public void handle(Buffer b) {
-							logger.debug(b.toString());
+							if (logger.isDebugEnabled()) {
+								logger.debug(b.toString());
+							}
 							if (resp.statusCode() != 404 && resp.statusCode() != 500) {
-								JsonObject json = new JsonObject(b.toString("UTF-8"));
+								final JsonObject json;
+								try {
+									json = Neo4jResultParser.parseTransaction(b, null);
+								} catch (IOException | RuntimeException e) {
+									handler.handle(new JsonObject().putString("message", e.getMessage()));
+									return;
+								}
 								JsonArray results = json.getArray("results");
 								if (json.getArray("errors", new JsonArray()).size() == 0 &&
 										results != null) {
-									JsonArray out = new JsonArray();
-									for (Object o : results) {
-										if (!(o instanceof JsonObject)) continue;
-										out.add(transformJson((JsonObject) o));
-									}
-									json.putArray("results", out);
 									String commit = json.getString("commit");
 									if (commit != null) {
 										String[] c = commit.split("/");
@@ -330,46 +346,6 @@ public class Neo4jRest implements GraphDatabase {
 		nodeManager.close();
 	}
 
-	private JsonArray transformJson(JsonObject json) {
-		final JsonArray columns = json.getArray("columns");
-		final JsonArray data = json.getArray("data");
-		final JsonArray out = new JsonArray();
-
-		if (data != null && columns != null) {
-			for (Object r: data) {
-				JsonArray row;
-				if (r instanceof JsonArray) {
-					row = (JsonArray) r;
-				} else if (r instanceof JsonObject) {
-					row = ((JsonObject) r).getArray("row");
-				} else {
-					continue;
-				}
-				JsonObject outRow = new JsonObject();
-				out.addObject(outRow);
-				for (int j = 0; j < row.size(); j++) {
-					Object value = row.get(j);
-					if (value == null) {
-						outRow.putValue((String) columns.get(j), null);
-					} else if (value instanceof String) {
-						outRow.putString((String) columns.get(j), (String) value);
-					} else if (value instanceof JsonArray) {
-						outRow.putArray((String) columns.get(j), (JsonArray) value);
-					} else if (value instanceof JsonObject) {
-						outRow.putObject((String) columns.get(j), (JsonObject) value);
-					} else if (value instanceof Boolean) {
-						outRow.putBoolean((String) columns.get(j), (Boolean) value);
-					} else if (value instanceof Number) {
-						outRow.putNumber((String) columns.get(j), (Number) value);
-					} else {
-						outRow.putString((String) columns.get(j), value.toString());
-					}
-				}
-			}
-		}
-		return out;
-	}
-
 	private void sendRequest(String path, JsonElement body, final Handler<HttpClientResponse> handler)
 			throws Neo4jConnectionException {
 		sendRequest(path, body, false, handler);
@@ -0,0 +1,216 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.common.neo4j;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming parser of the Neo4j REST responses. Rows are mapped to objects keyed by column names
+ * while reading the response, without building the intermediate json tree. When a row handler is
+ * given, rows are passed to it and are not kept in the result.
+ */
+class Neo4jResultParser {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private Neo4jResultParser() {}
+
+	/**
+	 * Parse a cypher endpoint response : {"columns":[...],"data":[[...],...]}.
+	 * @return rows, empty if a row handler is given
+	 */
+	static JsonArray parseCypher(Buffer b, Handler<JsonObject> rowHandler) throws IOException {
+		try (JsonParser p = mapper.getFactory().createParser(b.getBytes())) {
+			if (p.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("Invalid cypher response.");
+			}
+			return readResult(p, rowHandler);
+		}
+	}
+
+	/**
+	 * Parse a batch endpoint response : [{"id":0,"body":{"columns":[...],"data":[...]}},...].
+	 * @return results as {"result":[...],"idx":id}
+	 */
+	static JsonArray parseBatch(Buffer b) throws IOException {
+		final JsonArray out = new JsonArray();
+		try (JsonParser p = mapper.getFactory().createParser(b.getBytes())) {
+			if (p.nextToken() != JsonToken.START_ARRAY) {
+				throw new IOException("Invalid batch response.");
+			}
+			while (p.nextToken() == JsonToken.START_OBJECT) {
+				Object id = null;
+				JsonArray result = new JsonArray();
+				while (p.nextToken() == JsonToken.FIELD_NAME) {
+					final String field = p.getCurrentName();
+					final JsonToken t = p.nextToken();
+					if ("id".equals(field)) {
+						id = readValue(p);
+					} else if ("body".equals(field) && t == JsonToken.START_OBJECT) {
+						result = readResult(p, null);
+					} else {
+						p.skipChildren();
+					}
+				}
+				out.addObject(new JsonObject().putArray("result", result).putValue("idx", id));
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Parse a transaction endpoint response : {"commit":"...","results":[{"columns":[...],
+	 * "data":[{"row":[...]},...]},...],"transaction":{...},"errors":[...]}.
+	 * @return the response with results replaced by the rows of each statement
+	 */
+	static JsonObject parseTransaction(Buffer b, Handler<JsonObject> rowHandler) throws IOException {
+		final JsonObject json = new JsonObject();
+		try (JsonParser p = mapper.getFactory().createParser(b.getBytes())) {
+			if (p.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("Invalid transaction response.");
+			}
+			while (p.nextToken() == JsonToken.FIELD_NAME) {
+				final String field = p.getCurrentName();
+				final JsonToken t = p.nextToken();
+				if ("results".equals(field) && t == JsonToken.START_ARRAY) {
+					final JsonArray results = new JsonArray();
+					while (p.nextToken() == JsonToken.START_OBJECT) {
+						results.addArray(readResult(p, rowHandler));
+					}
+					json.putArray("results", results);
+				} else {
+					json.putValue(field, readValue(p));
+				}
+			}
+		}
+		return json;
+	}
+
+	private static JsonArray readResult(JsonParser p, Handler<JsonObject> rowHandler) throws IOException {
+		final JsonArray out = new JsonArray();
+		List<String> columns = null;
+		List<List<Object>> pending = null;
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = p.getCurrentName();
+			final JsonToken t = p.nextToken();
+			if ("columns".equals(field) && t == JsonToken.START_ARRAY) {
+				columns = new ArrayList<>();
+				while (p.nextToken() != JsonToken.END_ARRAY) {
+					columns.add(p.getText());
+				}
+			} else if ("data".equals(field) && t == JsonToken.START_ARRAY) {
+				while ((p.nextToken()) != JsonToken.END_ARRAY) {
+					if (p.getCurrentToken() == JsonToken.START_OBJECT) {
+						while (p.nextToken() == JsonToken.FIELD_NAME) {
+							final JsonToken rt = p.nextToken();
+							if ("row".equals(p.getCurrentName()) && rt == JsonToken.START_ARRAY) {
+								pending = readRow(p, columns, pending, out, rowHandler);
+							} else {
+								p.skipChildren();
+							}
+						}
+					} else if (p.getCurrentToken() == JsonToken.START_ARRAY) {
+						pending = readRow(p, columns, pending, out, rowHandler);
+					} else {
+						p.skipChildren();
+					}
+				}
+			} else {
+				p.skipChildren();
+			}
+		}
+		if (pending != null && columns != null) {
+			for (List<Object> values : pending) {
+				final JsonObject row = new JsonObject();
+				for (int i = 0; i < values.size() && i < columns.size(); i++) {
+					row.putValue(columns.get(i), values.get(i));
+				}
+				emit(row, out, rowHandler);
+			}
+		}
+		return out;
+	}
+
+	private static List<List<Object>> readRow(JsonParser p, List<String> columns, List<List<Object>> pending,
+			JsonArray out, Handler<JsonObject> rowHandler) throws IOException {
+		if (columns == null) {
+			// data received before columns : keep raw values until columns are known
+			final List<Object> values = new ArrayList<>();
+			while (p.nextToken() != JsonToken.END_ARRAY) {
+				values.add(readValue(p));
+			}
+			final List<List<Object>> l = (pending != null) ? pending : new ArrayList<List<Object>>();
+			l.add(values);
+			return l;
+		}
+		final JsonObject row = new JsonObject();
+		int i = 0;
+		while (p.nextToken() != JsonToken.END_ARRAY) {
+			final Object value = readValue(p);
+			if (i < columns.size()) {
+				row.putValue(columns.get(i), value);
+			}
+			i++;
+		}
+		emit(row, out, rowHandler);
+		return pending;
+	}
+
+	private static void emit(JsonObject row, JsonArray out, Handler<JsonObject> rowHandler) {
+		if (rowHandler != null) {
+			rowHandler.handle(row);
+		} else {
+			out.addObject(row);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object readValue(JsonParser p) throws IOException {
+		switch (p.getCurrentToken()) {
+			case VALUE_STRING:
+				return p.getText();
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				return p.getNumberValue();
+			case VALUE_TRUE:
+				return Boolean.TRUE;
+			case VALUE_FALSE:
+				return Boolean.FALSE;
+			case START_OBJECT:
+				return new JsonObject(mapper.readValue(p, Map.class));
+			case START_ARRAY:
+				return new JsonArray(mapper.readValue(p, List.class));
+			default:
+				return null;
+		}
+	}
+
+}
@@ -19,9 +19,19 @@
 
 package org.entcore.common.storage;
 
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonArray;
 
 public interface AntivirusClient {
 
 	void scan(String path);
 
+	/**
+	 * Send several files in one scan request.
+	 * @param paths files to scan
+	 * @param handler called when the antivirus has scanned the files
+	 */
+	void scan(JsonArray paths, Handler<AsyncResult<Void>> handler);
+
 }
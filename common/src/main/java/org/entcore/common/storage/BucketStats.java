@@ -23,6 +23,8 @@ public class BucketStats {
 
 	private long storageSize;
 	private long objectNumber;
+	private long logicalSize;
+	private long physicalSize;
 
 	public long getStorageSize() {
 		return storageSize;
@@ -40,4 +42,27 @@ public class BucketStats {
 		this.objectNumber = objectNumber;
 	}
 
+	public long getLogicalSize() {
+		return logicalSize;
+	}
+
+	public void setLogicalSize(long logicalSize) {
+		this.logicalSize = logicalSize;
+	}
+
+	public long getPhysicalSize() {
+		return physicalSize;
+	}
+
+	public void setPhysicalSize(long physicalSize) {
+		this.physicalSize = physicalSize;
+	}
+
+	/**
+	 * @return size of deduplicated files divided by the size of the blobs really stored.
+	 */
+	public double getDedupRatio() {
+		return physicalSize > 0 ? (double) logicalSize / physicalSize : 1d;
+	}
+
 }
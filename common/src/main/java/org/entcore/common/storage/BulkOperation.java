@@ -0,0 +1,185 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.common.storage;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Applies an asynchronous operation to a list of items with at most <code>concurrency</code>
+ * operations in flight. Item errors are aggregated and the end handler receives
+ * <code>{"status" : "ok|error", "errors" : [...], "metrics" : {...}}</code>.
+ * @param <T> item type
+ */
+public class BulkOperation<T> {
+
+	private static final Logger log = LoggerFactory.getLogger(BulkOperation.class);
+	public static final int DEFAULT_CONCURRENCY = 16;
+	private final Iterator<T> items;
+	private final int total;
+	private final int concurrency;
+	private final Operation<T> operation;
+	private final JsonArray errors = new JsonArray();
+	private Handler<JsonObject> progressHandler;
+	private int progressInterval;
+	private Handler<JsonObject> endHandler;
+	private int inFlight = 0;
+	private int processed = 0;
+	private boolean filling = false;
+	private long start;
+
+	public interface Operation<T> {
+
+		/**
+		 * @param item item to process
+		 * @param done must be called once, with null on success or with an error object
+		 */
+		void execute(T item, Handler<JsonObject> done);
+
+	}
+
+	public BulkOperation(List<T> items, int concurrency, Operation<T> operation) {
+		this.items = items.iterator();
+		this.total = items.size();
+		this.concurrency = (concurrency > 0) ? concurrency : DEFAULT_CONCURRENCY;
+		this.operation = operation;
+	}
+
+	/**
+	 * @param interval number of processed items between two calls
+	 * @param progressHandler receives <code>{"processed" : n, "total" : n, "failed" : n}</code>
+	 */
+	public BulkOperation<T> progressHandler(int interval, Handler<JsonObject> progressHandler) {
+		this.progressInterval = (interval > 0) ? interval : 1;
+		this.progressHandler = progressHandler;
+		return this;
+	}
+
+	public void start(Handler<JsonObject> endHandler) {
+		this.endHandler = endHandler;
+		this.start = System.currentTimeMillis();
+		if (total == 0) {
+			end();
+		} else {
+			fill();
+		}
+	}
+
+	private void fill() {
+		synchronized (this) {
+			if (filling) {
+				return;
+			}
+			filling = true;
+		}
+		for (;;) {
+			final T item;
+			synchronized (this) {
+				if (inFlight >= concurrency || !items.hasNext()) {
+					filling = false;
+					return;
+				}
+				item = items.next();
+				inFlight++;
+			}
+			try {
+				operation.execute(item, new Handler<JsonObject>() {
+					@Override
+					public void handle(JsonObject error) {
+						done(error);
+					}
+				});
+			} catch (RuntimeException e) {
+				log.error(e.getMessage(), e);
+				done(new JsonObject().putString("message", e.getMessage()));
+			}
+		}
+	}
+
+	private void done(JsonObject error) {
+		final boolean end;
+		JsonObject progress = null;
+		synchronized (this) {
+			inFlight--;
+			processed++;
+			if (error != null) {
+				errors.add(error);
+			}
+			if (progressHandler != null && (processed % progressInterval == 0 || processed == total)) {
+				progress = new JsonObject().putNumber("processed", processed)
+						.putNumber("total", total).putNumber("failed", errors.size());
+			}
+			end = processed == total;
+		}
+		if (progress != null) {
+			progressHandler.handle(progress);
+		}
+		if (end) {
+			end();
+		} else {
+			fill();
+		}
+	}
+
+	/**
+	 * Split items in arrays of at most <code>size</code> elements, for backends which process batches.
+	 */
+	public static List<JsonArray> partition(List<?> items, int size) {
+		final List<JsonArray> batches = new ArrayList<>();
+		JsonArray batch = null;
+		for (Object item : items) {
+			if (batch == null || batch.size() >= size) {
+				batch = new JsonArray();
+				batches.add(batch);
+			}
+			batch.add(item);
+		}
+		return batches;
+	}
+
+	private void end() {
+		final long duration = System.currentTimeMillis() - start;
+		final JsonObject metrics = new JsonObject()
+				.putNumber("count", total)
+				.putNumber("failed", errors.size())
+				.putNumber("duration", duration)
+				.putNumber("throughput", (total * 1000l) / Math.max(duration, 1l));
+		if (log.isDebugEnabled()) {
+			log.debug("Bulk operation : " + metrics.encode());
+		}
+		final JsonObject res = new JsonObject().putObject("metrics", metrics);
+		if (errors.size() == 0) {
+			res.putString("status", "ok");
+		} else {
+			res.putString("status", "error").putArray("errors", errors).putString("message", errors.encode());
+		}
+		if (endHandler != null) {
+			endHandler.handle(res);
+		}
+	}
+
+}
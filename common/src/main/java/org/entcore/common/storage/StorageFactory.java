@@ -29,6 +29,8 @@ import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
 import org.vertx.java.core.shareddata.ConcurrentSharedMap;
 
 import java.net.URI;
@@ -38,10 +40,15 @@ import static fr.wseduc.webutils.Utils.isNotEmpty;
 
 public class StorageFactory {
 
+	private static final Logger log = LoggerFactory.getLogger(StorageFactory.class);
 	private final Vertx vertx;
 	private JsonObject swift;
 	private JsonObject fs;
 	private String gridfsAddress;
+	private boolean dedup = false;
+	private boolean dedupResolve = false;
+	private long dedupMaxSize = DedupStorage.DEFAULT_MAX_SIZE;
+	private int bulkConcurrency = BulkOperation.DEFAULT_CONCURRENCY;
 
 	public StorageFactory(Vertx vertx) {
 		this(vertx, null);
@@ -63,6 +70,19 @@ public class StorageFactory {
 			this.fs = new JsonObject(s);
 		}
 		this.gridfsAddress = (String) server.get("gridfsAddress");
+		// the dedup index is shared by all modules : platform wide settings (infra sharedConf)
+		final Object d = server.get("storage-dedup");
+		if (d instanceof Boolean) {
+			this.dedup = (Boolean) d;
+		}
+		final Object r = server.get("storage-dedup-resolve");
+		if (r instanceof Boolean) {
+			this.dedupResolve = (Boolean) r;
+		}
+		final Object m = server.get("storage-dedup-max-size");
+		if (m instanceof Number) {
+			this.dedupMaxSize = ((Number) m).longValue();
+		}
 		if (config != null && config.getObject("swift") != null) {
 			this.swift = config.getObject("swift");
 		} else if (config != null && config.getObject("file-system") != null) {
@@ -71,6 +91,14 @@ public class StorageFactory {
 			this.gridfsAddress = config.getString("gridfs-address");
 		}
 
+		if (config != null) {
+			final Object moduleDedup = config.getValue("storage-dedup");
+			if (moduleDedup instanceof Boolean && (Boolean) moduleDedup != dedup) {
+				log.warn("Module storage-dedup ignored, the platform value is used : " + dedup);
+			}
+			this.bulkConcurrency = config.getInteger("storage-bulk-concurrency", BulkOperation.DEFAULT_CONCURRENCY);
+		}
+
 		if (applicationStorage != null) {
 			applicationStorage.setVertx(vertx);
 			vertx.eventBus().registerLocalHandler("storage", applicationStorage);
@@ -85,19 +113,28 @@ public class StorageFactory {
 			String username = swift.getString("user");
 			String password = swift.getString("key");
 			try {
-				storage = new SwiftStorage(vertx, new URI(uri), container, username, password);
+				SwiftStorage swiftStorage = new SwiftStorage(vertx, new URI(uri), container, username, password);
+				swiftStorage.setBulkConcurrency(bulkConcurrency);
+				storage = swiftStorage;
 			} catch (URISyntaxException e) {
 				e.printStackTrace();
 			}
 		} else if (fs != null) {
-			storage = new FileStorage(vertx, fs.getString("path"), fs.getBoolean("flat", false));
+			final int levels = fs.getInteger("levels", fs.getBoolean("flat", false) ? 0 : FileStorage.DEFAULT_LEVELS);
+			storage = new FileStorage(vertx, fs.getString("path"), levels, fs.getInteger("previous-levels", -1));
+			((FileStorage) storage).setUsageCounter(fs.getBoolean("usage-counter", false));
 			JsonObject antivirus = fs.getObject("antivirus");
 			if (antivirus != null) {
 				final String h = antivirus.getString("host");
 				final String c = antivirus.getString("credential");
 				if (isNotEmpty(h) && isNotEmpty(c)) {
-					AntivirusClient av = new HttpAntivirusClient(vertx, h, c);
+					HttpAntivirusClient av = new HttpAntivirusClient(vertx, h, c);
+					av.setScanTimeout(antivirus.getLong("scan-timeout", 300000l));
 					((FileStorage) storage).setAntivirus(av);
+					if (antivirus.getBoolean("scan-queue", true)) {
+						AntivirusScanQueue.getInstance().init(vertx, av, antivirus);
+						((FileStorage) storage).setScanQueue(AntivirusScanQueue.getInstance());
+					}
 				}
 			}
 			FileValidator fileValidator = new QuotaFileSizeValidation();
@@ -106,8 +143,18 @@ public class StorageFactory {
 				fileValidator.setNext(new ExtensionValidator(blockedExtensions));
 			}
 			((FileStorage) storage).setValidator(fileValidator);
+			((FileStorage) storage).setBulkConcurrency(bulkConcurrency);
 		} else {
-			storage = new GridfsStorage(vertx, Server.getEventBus(vertx), gridfsAddress);
+			GridfsStorage gridfsStorage = new GridfsStorage(vertx, Server.getEventBus(vertx), gridfsAddress);
+			gridfsStorage.setBulkConcurrency(bulkConcurrency);
+			storage = gridfsStorage;
+		}
+		if ((dedup || dedupResolve) && storage != null) {
+			DedupStorage dedupStorage = new DedupStorage(vertx, storage);
+			dedupStorage.setIndexing(dedup);
+			dedupStorage.setMaxSize(dedupMaxSize);
+			dedupStorage.setBulkConcurrency(bulkConcurrency);
+			storage = dedupStorage;
 		}
 		return storage;
 	}
@@ -0,0 +1,331 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.common.storage.impl;
+
+import fr.wseduc.mongodb.MongoDb;
+import fr.wseduc.webutils.DefaultAsyncResult;
+import org.entcore.common.storage.AntivirusClient;
+import org.entcore.common.storage.StorageException;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+import org.vertx.java.core.shareddata.ConcurrentSharedMap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Queue of antivirus scans, persisted in mongo before being acknowledged.
+ * Pending scans are sent by batches to the antivirus with a limited number of requests
+ * in flight, and failed batches are retried with an exponential backoff.
+ * Scans left by a previous run of the node are claimed at init by one of the queues of the node
+ * (one by module classloader) and reloaded page by page.
+ * A scan is removed from the queue when the antivirus has scanned the file.
+ */
+public class AntivirusScanQueue {
+
+	private static final Logger log = LoggerFactory.getLogger(AntivirusScanQueue.class);
+	public static final String QUEUE_COLLECTION = "antivirus.scan.queue";
+	private static final long MAX_RETRY_DELAY = 600000l;
+	private static final int RELOAD_PAGE_SIZE = 500;
+	private final MongoDb mongo = MongoDb.getInstance();
+	private final Deque<PendingScan> pending = new ArrayDeque<>();
+	private Vertx vertx;
+	private AntivirusClient client;
+	private String node;
+	private String run;
+	private final String owner = UUID.randomUUID().toString();
+	private int batchSize;
+	private int concurrency;
+	private int maxAttempts;
+	private long flushDelay;
+	private long retryDelay;
+	private boolean enabled = false;
+	private int inFlight = 0;
+	private long timerId = -1;
+	private long scanned = 0;
+	private long failed = 0;
+	private long retried = 0;
+	private long totalLatency = 0;
+	private long maxLatency = 0;
+
+	private static final class PendingScan {
+		private final String path;
+		private final long created;
+		private int attempts;
+
+		private PendingScan(String path, long created, int attempts) {
+			this.path = path;
+			this.created = created;
+			this.attempts = attempts;
+		}
+	}
+
+	private AntivirusScanQueue() {}
+
+	private static class AntivirusScanQueueHolder {
+		private static final AntivirusScanQueue instance = new AntivirusScanQueue();
+	}
+
+	public static AntivirusScanQueue getInstance() {
+		return AntivirusScanQueueHolder.instance;
+	}
+
+	public synchronized void init(Vertx vertx, AntivirusClient client, JsonObject config) {
+		if (enabled) {
+			return;
+		}
+		this.vertx = vertx;
+		this.client = client;
+		this.batchSize = config.getInteger("scan-batch-size", 50);
+		this.concurrency = config.getInteger("scan-concurrency", 2);
+		this.maxAttempts = config.getInteger("scan-max-attempts", 5);
+		this.flushDelay = config.getLong("scan-flush-delay", 1000l);
+		this.retryDelay = config.getLong("scan-retry-delay", 5000l);
+		final ConcurrentSharedMap<Object, Object> server = vertx.sharedData().getMap("server");
+		final String n = (String) server.get("node");
+		this.node = (n != null) ? n : "";
+		// same run id for all the queues of the node, scans of other runs are left by a previous start
+		final String runId = UUID.randomUUID().toString();
+		final Object r = server.putIfAbsent("antivirus-scan-run", runId);
+		this.run = (r != null) ? (String) r : runId;
+		enabled = true;
+		reload();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Persist a scan request.
+	 * @param path file to scan
+	 * @param handler called once the scan is durably enqueued
+	 */
+	public void enqueue(final String path, final Handler<AsyncResult<Void>> handler) {
+		final long now = System.currentTimeMillis();
+		final JsonObject doc = new JsonObject()
+				.putString("_id", path)
+				.putString("node", node)
+				.putString("run", run)
+				.putString("owner", owner)
+				.putNumber("created", now)
+				.putNumber("attempts", 0);
+		mongo.save(QUEUE_COLLECTION, doc, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if ("ok".equals(event.body().getString("status"))) {
+					add(new PendingScan(path, now, 0));
+					handler.handle(new DefaultAsyncResult<>((Void) null));
+				} else {
+					handler.handle(new DefaultAsyncResult<Void>(
+							new StorageException(event.body().getString("message"))));
+				}
+			}
+		});
+	}
+
+	public synchronized JsonObject stats() {
+		return new JsonObject()
+				.putBoolean("enabled", enabled)
+				.putNumber("depth", pending.size())
+				.putNumber("inFlight", inFlight)
+				.putNumber("scanned", scanned)
+				.putNumber("failed", failed)
+				.putNumber("retried", retried)
+				.putNumber("averageLatency", (scanned > 0) ? totalLatency / scanned : 0)
+				.putNumber("maxLatency", maxLatency);
+	}
+
+	private void add(PendingScan scan) {
+		final boolean full;
+		synchronized (this) {
+			pending.add(scan);
+			full = pending.size() >= batchSize;
+		}
+		if (full) {
+			flush(false);
+		} else {
+			scheduleFlush();
+		}
+	}
+
+	private synchronized void scheduleFlush() {
+		if (timerId != -1 || pending.isEmpty()) {
+			return;
+		}
+		timerId = vertx.setTimer(flushDelay, new Handler<Long>() {
+			@Override
+			public void handle(Long event) {
+				synchronized (AntivirusScanQueue.this) {
+					timerId = -1;
+				}
+				flush(true);
+			}
+		});
+	}
+
+	private void flush(boolean partial) {
+		for (;;) {
+			final List<PendingScan> batch = new ArrayList<>();
+			synchronized (this) {
+				if (inFlight >= concurrency || pending.isEmpty() || (!partial && pending.size() < batchSize)) {
+					break;
+				}
+				while (batch.size() < batchSize && !pending.isEmpty()) {
+					batch.add(pending.poll());
+				}
+				inFlight++;
+			}
+			send(batch);
+		}
+		scheduleFlush();
+	}
+
+	private void send(final List<PendingScan> batch) {
+		final JsonArray paths = new JsonArray();
+		for (PendingScan scan : batch) {
+			paths.addString(scan.path);
+		}
+		client.scan(paths, new Handler<AsyncResult<Void>>() {
+			@Override
+			public void handle(AsyncResult<Void> event) {
+				if (event.succeeded()) {
+					scanned(batch, paths);
+				} else {
+					log.error("Antivirus scan request failed for " + paths.size() + " files.", event.cause());
+					retry(batch);
+				}
+				synchronized (AntivirusScanQueue.this) {
+					inFlight--;
+				}
+				flush(false);
+			}
+		});
+	}
+
+	private void scanned(List<PendingScan> batch, JsonArray paths) {
+		final long now = System.currentTimeMillis();
+		synchronized (this) {
+			for (PendingScan scan : batch) {
+				final long latency = now - scan.created;
+				totalLatency += latency;
+				if (latency > maxLatency) {
+					maxLatency = latency;
+				}
+			}
+			scanned += batch.size();
+		}
+		mongo.delete(QUEUE_COLLECTION, new JsonObject().putObject("_id", new JsonObject().putArray("$in", paths)));
+	}
+
+	private void retry(List<PendingScan> batch) {
+		for (final PendingScan scan : batch) {
+			scan.attempts++;
+			final JsonObject query = new JsonObject().putString("_id", scan.path);
+			final JsonObject set = new JsonObject().putNumber("attempts", scan.attempts);
+			if (scan.attempts >= maxAttempts) {
+				synchronized (this) {
+					failed++;
+				}
+				log.error("Antivirus scan abandoned after " + scan.attempts + " attempts : " + scan.path);
+				set.putBoolean("failed", true);
+				mongo.update(QUEUE_COLLECTION, query, new JsonObject().putObject("$set", set), false, false);
+				continue;
+			}
+			synchronized (this) {
+				retried++;
+			}
+			mongo.update(QUEUE_COLLECTION, query, new JsonObject().putObject("$set", set), false, false);
+			final long delay = Math.min(retryDelay << (scan.attempts - 1), MAX_RETRY_DELAY);
+			vertx.setTimer(delay, new Handler<Long>() {
+				@Override
+				public void handle(Long event) {
+					add(scan);
+				}
+			});
+		}
+	}
+
+	private void reload() {
+		final JsonObject query = new JsonObject()
+				.putString("node", node)
+				.putObject("run", new JsonObject().putString("$ne", run))
+				.putObject("failed", new JsonObject().putBoolean("$exists", false));
+		final JsonObject claim = new JsonObject().putObject("$set", new JsonObject()
+				.putString("run", run).putString("owner", owner));
+		// each document is claimed atomically : only one queue of the node gets it
+		mongo.update(QUEUE_COLLECTION, query, claim, false, true, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if (!"ok".equals(event.body().getString("status"))) {
+					log.error("Error claiming pending antivirus scans : " + event.body().getString("message"));
+				} else if (event.body().getInteger("number", 0) > 0) {
+					reload(null, 0);
+				}
+			}
+		});
+	}
+
+	private void reload(final String lastId, final int count) {
+		final JsonObject query = new JsonObject()
+				.putString("owner", owner)
+				.putObject("failed", new JsonObject().putBoolean("$exists", false));
+		if (lastId != null) {
+			query.putObject("_id", new JsonObject().putString("$gt", lastId));
+		}
+		final JsonObject sort = new JsonObject().putNumber("_id", 1);
+		mongo.find(QUEUE_COLLECTION, query, sort, null, 0, RELOAD_PAGE_SIZE, RELOAD_PAGE_SIZE,
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonArray results = event.body().getArray("results");
+				if (!"ok".equals(event.body().getString("status")) || results == null) {
+					log.error("Error loading pending antivirus scans : " + event.body().getString("message"));
+					return;
+				}
+				String last = null;
+				for (Object o : results) {
+					if (!(o instanceof JsonObject)) {
+						continue;
+					}
+					final JsonObject j = (JsonObject) o;
+					last = j.getString("_id");
+					add(new PendingScan(last, j.getLong("created", System.currentTimeMillis()),
+							j.getInteger("attempts", 0)));
+				}
+				if (results.size() == RELOAD_PAGE_SIZE && last != null) {
+					reload(last, count + results.size());
+				} else if (count + results.size() > 0) {
+					log.info("Reloaded " + (count + results.size()) + " pending antivirus scans.");
+				}
+			}
+		});
+	}
+
+}
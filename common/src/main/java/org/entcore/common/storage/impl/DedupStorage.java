@@ -0,0 +1,815 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.common.storage.impl;
+
+import fr.wseduc.mongodb.MongoDb;
+import fr.wseduc.webutils.DefaultAsyncResult;
+import org.entcore.common.storage.BucketStats;
+import org.entcore.common.storage.BulkOperation;
+import org.entcore.common.storage.Storage;
+import org.entcore.common.validation.FileValidator;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.file.FileProps;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Content addressed storage in front of any {@link Storage} implementation.
+ * Files are indexed by the SHA-256 of their content : identical contents share one blob
+ * of the underlying storage, with a reference count. Copies only add a reference and
+ * bytes are removed with the last reference.
+ * Ids which are not indexed (files written before the activation) are sent as is
+ * to the underlying storage.
+ * Files bigger than the max size are not read back to be hashed : they are stored as is.
+ * Hashes are computed by a small thread pool, out of the event loop.
+ * The index is shared by all modules using the storage, so the activation must be the same
+ * everywhere : a storage which doesn't index new files still resolves indexed ids.
+ */
+public class DedupStorage implements Storage {
+
+	private static final Logger log = LoggerFactory.getLogger(DedupStorage.class);
+	public static final String FILES_COLLECTION = "storage.dedup.files";
+	public static final String BLOBS_COLLECTION = "storage.dedup.blobs";
+	public static final String STATS_COLLECTION = "storage.dedup.stats";
+	public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+	private static final ExecutorService hashExecutor = Executors.newFixedThreadPool(
+			Math.max(1, Runtime.getRuntime().availableProcessors() / 2), new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			final Thread t = new Thread(r, "storage-dedup-hash");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private final Vertx vertx;
+	private final Storage storage;
+	private final MongoDb mongo = MongoDb.getInstance();
+	private int bulkConcurrency = BulkOperation.DEFAULT_CONCURRENCY;
+	private long maxSize = DEFAULT_MAX_SIZE;
+	private boolean indexing = true;
+
+	public DedupStorage(Vertx vertx, Storage storage) {
+		this.vertx = vertx;
+		this.storage = storage;
+	}
+
+	@Override
+	public void writeUploadFile(HttpServerRequest request, Handler<JsonObject> handler) {
+		writeUploadFile(request, null, handler);
+	}
+
+	@Override
+	public void writeUploadFile(HttpServerRequest request, Long maxSize, final Handler<JsonObject> handler) {
+		storage.writeUploadFile(request, maxSize, new Handler<JsonObject>() {
+			@Override
+			public void handle(final JsonObject res) {
+				if (!indexing || !"ok".equals(res.getString("status"))) {
+					handler.handle(res);
+					return;
+				}
+				final String id = res.getString("_id");
+				final long size = res.getObject("metadata", new JsonObject()).getLong("size", -1l);
+				if (size < 0 || size > DedupStorage.this.maxSize) {
+					handler.handle(res);
+					return;
+				}
+				storage.readFile(id, new Handler<Buffer>() {
+					@Override
+					public void handle(final Buffer buff) {
+						if (buff == null) {
+							handler.handle(res);
+							return;
+						}
+						hash(buff, new Handler<String>() {
+							@Override
+							public void handle(String hash) {
+								if (hash == null) {
+									handler.handle(res);
+								} else {
+									indexStoredFile(id, hash, buff.length(), res, handler);
+								}
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	private void indexStoredFile(final String id, final String hash, final long size, final JsonObject res,
+			final Handler<JsonObject> handler) {
+		findBlob(hash, new Handler<JsonObject>() {
+			@Override
+			public void handle(final JsonObject blob) {
+				if (blob == null) {
+					indexBlob(id, id, hash, size, res, handler);
+					return;
+				}
+				addReference(id, blob, new Handler<Boolean>() {
+					@Override
+					public void handle(Boolean referenced) {
+						if (referenced) {
+							storage.removeFile(id, new Handler<JsonObject>() {
+								@Override
+								public void handle(JsonObject event) {
+									if (!"ok".equals(event.getString("status"))) {
+										log.warn("Error removing duplicated file " + id + " : " +
+												event.getString("message"));
+									}
+								}
+							});
+							handler.handle(res);
+						} else {
+							indexBlob(id, id, hash, size, res, handler);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	@Override
+	public void writeBuffer(Buffer buff, String contentType, String filename, Handler<JsonObject> handler) {
+		writeBuffer(UUID.randomUUID().toString(), buff, contentType, filename, handler);
+	}
+
+	@Override
+	public void writeBuffer(final String id, final Buffer buff, final String contentType, final String filename,
+			final Handler<JsonObject> handler) {
+		if (!indexing) {
+			storeBuffer(id, null, buff, contentType, filename, handler);
+			return;
+		}
+		hash(buff, new Handler<String>() {
+			@Override
+			public void handle(String hash) {
+				storeBuffer(id, hash, buff, contentType, filename, handler);
+			}
+		});
+	}
+
+	/**
+	 * @param hash null if the content isn't deduplicated
+	 */
+	private void storeBuffer(final String id, final String hash, final Buffer buff, final String contentType,
+			final String filename, final Handler<JsonObject> handler) {
+		unindex(id, new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean shared) {
+				if (hash != null) {
+					indexBuffer(id, hash, buff, contentType, filename, handler);
+				} else if (shared) {
+					storePrivateBlob(id, buff, contentType, filename, handler);
+				} else {
+					storage.writeBuffer(id, buff, contentType, filename, handler);
+				}
+			}
+		});
+	}
+
+	private void indexBuffer(final String id, final String hash, final Buffer buff, final String contentType,
+			final String filename, final Handler<JsonObject> handler) {
+		final JsonObject res = new JsonObject().putString("status", "ok").putString("_id", id)
+				.putObject("metadata", new JsonObject().putString("content-type", contentType)
+						.putString("filename", filename).putNumber("size", buff.length()));
+		findBlob(hash, new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject blob) {
+				if (blob == null) {
+					storeBlob(id, hash, buff, contentType, filename, res, handler);
+					return;
+				}
+				addReference(id, blob, new Handler<Boolean>() {
+					@Override
+					public void handle(Boolean referenced) {
+						if (referenced) {
+							handler.handle(res);
+						} else {
+							storeBlob(id, hash, buff, contentType, filename, res, handler);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private void storeBlob(final String id, final String hash, final Buffer buff, String contentType,
+			String filename, final JsonObject res, final Handler<JsonObject> handler) {
+		final String blobId = UUID.randomUUID().toString();
+		storage.writeBuffer(blobId, buff, contentType, filename, new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject event) {
+				if ("ok".equals(event.getString("status"))) {
+					indexBlob(id, blobId, hash, buff.length(), res, handler);
+				} else {
+					handler.handle(event);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Store content which isn't deduplicated under a new blob, when the bytes stored under
+	 * the id are still referenced by copies.
+	 */
+	private void storePrivateBlob(final String id, final Buffer buff, String contentType, String filename,
+			final Handler<JsonObject> handler) {
+		final String blobId = UUID.randomUUID().toString();
+		storage.writeBuffer(blobId, buff, contentType, filename, new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject event) {
+				if ("ok".equals(event.getString("status"))) {
+					indexBlob(id, blobId, blobKey(blobId), buff.length(), event.putString("_id", id), handler, false);
+				} else {
+					handler.handle(event);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void writeBuffer(final String basePath, final String id, final Buffer buff, final String contentType,
+			final String filename, final Handler<JsonObject> handler) {
+		// the caller chooses where the bytes are written, they aren't deduplicated
+		unindex(id, new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean shared) {
+				if (shared) {
+					storePrivateBlob(id, buff, contentType, filename, handler);
+				} else {
+					storage.writeBuffer(basePath, id, buff, contentType, filename, handler);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void writeFsFile(final String id, final String filename, final Handler<JsonObject> handler) {
+		unindex(id, new Handler<Boolean>() {
+			@Override
+			public void handle(final Boolean shared) {
+				// bytes still referenced by copies must not be overwritten
+				final String blobId = shared ? UUID.randomUUID().toString() : id;
+				if (!indexing) {
+					storeFsFile(id, blobId, null, -1, filename, handler);
+					return;
+				}
+				vertx.fileSystem().props(filename, new Handler<AsyncResult<FileProps>>() {
+					@Override
+					public void handle(final AsyncResult<FileProps> props) {
+						if (props.failed() || props.result().size() > maxSize) {
+							storeFsFile(id, blobId, null, props.succeeded() ? props.result().size() : -1,
+									filename, handler);
+							return;
+						}
+						final long size = props.result().size();
+						hashFile(filename, new Handler<String>() {
+							@Override
+							public void handle(String hash) {
+								if (hash == null) {
+									storeFsFile(id, blobId, null, size, filename, handler);
+								} else {
+									writeFsFile(id, blobId, hash, size, filename, handler);
+								}
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	private void writeFsFile(final String id, final String blobId, final String hash, final long size,
+			final String filename, final Handler<JsonObject> handler) {
+		findBlob(hash, new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject blob) {
+				if (blob == null) {
+					storeFsFile(id, blobId, hash, size, filename, handler);
+					return;
+				}
+				addReference(id, blob, new Handler<Boolean>() {
+					@Override
+					public void handle(Boolean referenced) {
+						if (referenced) {
+							handler.handle(new JsonObject().putString("status", "ok").putString("_id", id));
+						} else {
+							storeFsFile(id, blobId, hash, size, filename, handler);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * @param hash null if the content isn't deduplicated
+	 */
+	private void storeFsFile(final String id, final String blobId, final String hash, final long size,
+			String filename, final Handler<JsonObject> handler) {
+		storage.writeFsFile(blobId, filename, new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject event) {
+				if (!"ok".equals(event.getString("status"))) {
+					handler.handle(event);
+				} else if (hash != null) {
+					indexBlob(id, blobId, hash, size, event.putString("_id", id), handler);
+				} else if (!id.equals(blobId)) {
+					indexBlob(id, blobId, blobKey(blobId), Math.max(size, 0l), event.putString("_id", id),
+							handler, false);
+				} else {
+					handler.handle(event);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void readFile(String id, final Handler<Buffer> handler) {
+		resolve(id, new Handler<String>() {
+			@Override
+			public void handle(String blobId) {
+				storage.readFile(blobId, handler);
+			}
+		});
+	}
+
+	@Override
+	public void sendFile(String id, String downloadName, HttpServerRequest request, boolean inline,
+			JsonObject metadata) {
+		sendFile(id, downloadName, request, inline, metadata, null);
+	}
+
+	@Override
+	public void sendFile(String id, final String downloadName, final HttpServerRequest request, final boolean inline,
+			final JsonObject metadata, final Handler<AsyncResult<Void>> resultHandler) {
+		request.pause();
+		resolve(id, new Handler<String>() {
+			@Override
+			public void handle(String blobId) {
+				request.resume();
+				storage.sendFile(blobId, downloadName, request, inline, metadata, resultHandler);
+			}
+		});
+	}
+
+	@Override
+	public void removeFile(final String id, final Handler<JsonObject> handler) {
+		mongo.findOne(FILES_COLLECTION, new JsonObject().putString("_id", id), new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonObject file = event.body().getObject("result");
+				if (!"ok".equals(event.body().getString("status")) || file == null) {
+					storage.removeFile(id, handler);
+				} else {
+					removeReference(file, handler);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void removeFiles(JsonArray ids, final Handler<JsonObject> handler) {
+		new BulkOperation<>(ids.toList(), bulkConcurrency, new BulkOperation.Operation<Object>() {
+			@Override
+			public void execute(final Object o, final Handler<JsonObject> done) {
+				if (o == null) {
+					done.handle(null);
+					return;
+				}
+				removeFile(o.toString(), new Handler<JsonObject>() {
+					@Override
+					public void handle(JsonObject event) {
+						done.handle("ok".equals(event.getString("status")) ? null : new JsonObject()
+								.putString("id", o.toString()).putString("message", event.getString("message")));
+					}
+				});
+			}
+		}).start(handler);
+	}
+
+	@Override
+	public void copyFile(final String id, final Handler<JsonObject> handler) {
+		mongo.findOne(FILES_COLLECTION, new JsonObject().putString("_id", id), new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonObject file = event.body().getObject("result");
+				if (!"ok".equals(event.body().getString("status")) || file == null) {
+					storage.copyFile(id, handler);
+					return;
+				}
+				final String newId = UUID.randomUUID().toString();
+				final JsonObject blob = new JsonObject().putString("_id", file.getString("key"))
+						.putString("blob", file.getString("blob"))
+						.putNumber("size", file.getLong("size", 0l));
+				addReference(newId, blob, new Handler<Boolean>() {
+					@Override
+					public void handle(Boolean referenced) {
+						if (referenced) {
+							handler.handle(new JsonObject().putString("status", "ok").putString("_id", newId));
+						} else {
+							storage.copyFile(file.getString("blob"), handler);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	@Override
+	public void writeToFileSystem(String[] ids, final String destinationPath, final JsonObject alias,
+			final Handler<JsonObject> handler) {
+		// one call by file : several ids can share a blob under different names
+		new BulkOperation<>(Arrays.asList(ids), bulkConcurrency, new BulkOperation.Operation<String>() {
+			@Override
+			public void execute(final String id, final Handler<JsonObject> done) {
+				if (id == null || id.isEmpty()) {
+					done.handle(null);
+					return;
+				}
+				resolve(id, new Handler<String>() {
+					@Override
+					public void handle(String blobId) {
+						final String name = (alias != null) ? alias.getString(id, id) : id;
+						storage.writeToFileSystem(new String[]{blobId}, destinationPath,
+								new JsonObject().putString(blobId, name), new Handler<JsonObject>() {
+							@Override
+							public void handle(JsonObject event) {
+								done.handle("ok".equals(event.getString("status")) ? null : event);
+							}
+						});
+					}
+				});
+			}
+		}).start(handler);
+	}
+
+	@Override
+	public String getProtocol() {
+		return storage.getProtocol();
+	}
+
+	@Override
+	public String getBucket() {
+		return storage.getBucket();
+	}
+
+	@Override
+	public void stats(final AsyncResultHandler<BucketStats> handler) {
+		storage.stats(new AsyncResultHandler<BucketStats>() {
+			@Override
+			public void handle(final AsyncResult<BucketStats> event) {
+				if (event.failed()) {
+					handler.handle(event);
+					return;
+				}
+				mongo.findOne(STATS_COLLECTION, new JsonObject().putString("_id", getBucket()),
+						new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(Message<JsonObject> m) {
+						final BucketStats bucketStats = event.result();
+						final JsonObject stats = m.body().getObject("result");
+						if (stats != null) {
+							bucketStats.setLogicalSize(stats.getLong("logicalSize", 0l));
+							bucketStats.setPhysicalSize(stats.getLong("physicalSize", 0l));
+						}
+						handler.handle(new DefaultAsyncResult<>(bucketStats));
+					}
+				});
+			}
+		});
+	}
+
+	public void setBulkConcurrency(int bulkConcurrency) {
+		this.bulkConcurrency = bulkConcurrency;
+	}
+
+	/**
+	 * @return the storage holding the blobs
+	 */
+	public Storage getStorage() {
+		return storage;
+	}
+
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @param indexing if false new files are stored as is, indexed ids are still resolved.
+	 */
+	public void setIndexing(boolean indexing) {
+		this.indexing = indexing;
+	}
+
+	@Override
+	public FileValidator getValidator() {
+		return storage.getValidator();
+	}
+
+	private void resolve(final String id, final Handler<String> handler) {
+		mongo.findOne(FILES_COLLECTION, new JsonObject().putString("_id", id), new JsonObject().putNumber("blob", 1),
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonObject file = event.body().getObject("result");
+				if (file != null && file.getString("blob") != null) {
+					handler.handle(file.getString("blob"));
+				} else {
+					handler.handle(id);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Remove the index entry of an id before new content is written under it.
+	 * The handler receives true if the bytes stored under the id are still referenced by copies.
+	 */
+	private void unindex(final String id, final Handler<Boolean> handler) {
+		mongo.findOne(FILES_COLLECTION, new JsonObject().putString("_id", id), new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonObject previous = event.body().getObject("result");
+				if (previous == null) {
+					isReferenced(id, handler);
+					return;
+				}
+				removeReference(previous, new Handler<JsonObject>() {
+					@Override
+					public void handle(JsonObject event) {
+						isReferenced(id, handler);
+					}
+				});
+			}
+		});
+	}
+
+	private void isReferenced(String blobId, final Handler<Boolean> handler) {
+		mongo.findOne(BLOBS_COLLECTION, new JsonObject().putString("blob", blobId), new JsonObject().putNumber("_id", 1),
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				handler.handle(!"ok".equals(event.body().getString("status")) ||
+						event.body().getObject("result") != null);
+			}
+		});
+	}
+
+	private void findBlob(String hash, final Handler<JsonObject> handler) {
+		mongo.findOne(BLOBS_COLLECTION, new JsonObject().putString("_id", blobKey(hash)),
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				handler.handle(event.body().getObject("result"));
+			}
+		});
+	}
+
+	private void indexBlob(final String id, final String blobId, final String hash, final long size,
+			final JsonObject res, final Handler<JsonObject> handler) {
+		indexBlob(id, blobId, blobKey(hash), size, res, handler, true);
+	}
+
+	private void indexBlob(final String id, final String blobId, final String key, final long size,
+			final JsonObject res, final Handler<JsonObject> handler, final boolean shared) {
+		final JsonObject blob = new JsonObject().putString("_id", key).putString("blob", blobId)
+				.putNumber("refs", 1).putNumber("size", size);
+		mongo.insert(BLOBS_COLLECTION, blob, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if ("ok".equals(event.body().getString("status"))) {
+					insertFile(id, blob, handler, res, size);
+				} else if (shared) {
+					// concurrent write of the same content : this copy is indexed apart from the shared blob
+					indexBlob(id, blobId, key + ":" + blobId, size, res, handler, false);
+				} else {
+					log.error("Error indexing blob " + blobId + " : " + event.body().getString("message"));
+					handler.handle(event.body());
+				}
+			}
+		});
+	}
+
+	private void addReference(final String id, final JsonObject blob, final Handler<Boolean> handler) {
+		final JsonObject query = new JsonObject().putString("_id", blob.getString("_id"))
+				.putObject("refs", new JsonObject().putNumber("$gt", 0));
+		final JsonObject inc = new JsonObject().putObject("$inc", new JsonObject().putNumber("refs", 1));
+		mongo.update(BLOBS_COLLECTION, query, inc, false, false, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if ("ok".equals(event.body().getString("status")) && event.body().getInteger("number", 0) == 1) {
+					insertFile(id, blob, new Handler<JsonObject>() {
+						@Override
+						public void handle(JsonObject event) {
+							if ("ok".equals(event.getString("status"))) {
+								handler.handle(true);
+								return;
+							}
+							release(blob.getString("_id"), blob.getString("blob"), 0,
+									blob.getLong("size", 0l), new Handler<JsonObject>() {
+								@Override
+								public void handle(JsonObject event) {
+									handler.handle(false);
+								}
+							});
+						}
+					}, new JsonObject().putString("status", "ok"), 0);
+				} else {
+					handler.handle(false);
+				}
+			}
+		});
+	}
+
+	private void insertFile(final String id, final JsonObject blob, final Handler<JsonObject> handler,
+			final JsonObject res, final long physicalSize) {
+		final long size = blob.getLong("size", 0l);
+		final JsonObject file = new JsonObject().putString("_id", id).putString("blob", blob.getString("blob"))
+				.putString("key", blob.getString("_id")).putNumber("size", size);
+		mongo.save(FILES_COLLECTION, file, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if ("ok".equals(event.body().getString("status"))) {
+					incrementStats(size, physicalSize);
+					handler.handle(res);
+				} else {
+					log.error("Error indexing file " + id + " : " + event.body().getString("message"));
+					handler.handle(event.body());
+				}
+			}
+		});
+	}
+
+	private void removeReference(final JsonObject file, final Handler<JsonObject> handler) {
+		final String key = file.getString("key");
+		final String blobId = file.getString("blob");
+		final long size = file.getLong("size", 0l);
+		mongo.delete(FILES_COLLECTION, new JsonObject().putString("_id", file.getString("_id")),
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if (!"ok".equals(event.body().getString("status"))) {
+					handler.handle(event.body());
+				} else if (event.body().getInteger("number", 0) == 0) {
+					// reference already removed by a concurrent call
+					handler.handle(new JsonObject().putString("status", "ok"));
+				} else {
+					release(key, blobId, size, size, handler);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Decrements the blob references with one find and modify : only the call which sets the count
+	 * to zero removes the blob and a blob without reference can't be referenced again.
+	 */
+	private void release(final String key, final String blobId, final long logicalSize, final long physicalSize,
+			final Handler<JsonObject> handler) {
+		final JsonObject command = new JsonObject()
+				.putString("findAndModify", BLOBS_COLLECTION)
+				.putObject("query", new JsonObject().putString("_id", key)
+						.putObject("refs", new JsonObject().putNumber("$gt", 0)))
+				.putObject("update", new JsonObject().putObject("$inc", new JsonObject().putNumber("refs", -1)))
+				.putBoolean("new", true);
+		mongo.command(command.encode(), new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonObject blob = "ok".equals(event.body().getString("status")) ?
+						event.body().getObject("result", new JsonObject()).getObject("value") : null;
+				if (blob == null) {
+					if (!"ok".equals(event.body().getString("status"))) {
+						log.error("Error releasing blob " + blobId + " : " + event.body().getString("message"));
+					}
+					handler.handle(new JsonObject().putString("status", "ok"));
+					return;
+				}
+				if (blob.getInteger("refs", 0) > 0) {
+					incrementStats(-logicalSize, 0);
+					handler.handle(new JsonObject().putString("status", "ok"));
+					return;
+				}
+				final JsonObject last = new JsonObject().putString("_id", key).putNumber("refs", 0);
+				mongo.delete(BLOBS_COLLECTION, last, new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(Message<JsonObject> event) {
+						incrementStats(-logicalSize, -physicalSize);
+						storage.removeFile(blobId, handler);
+					}
+				});
+			}
+		});
+	}
+
+	private void incrementStats(long logicalSize, long physicalSize) {
+		final JsonObject inc = new JsonObject().putNumber("logicalSize", logicalSize)
+				.putNumber("physicalSize", physicalSize);
+		mongo.update(STATS_COLLECTION, new JsonObject().putString("_id", getBucket()),
+				new JsonObject().putObject("$inc", inc), true, false);
+	}
+
+	private String blobKey(String hash) {
+		return getBucket() + ":" + hash;
+	}
+
+	private void hash(final Buffer buff, final Handler<String> handler) {
+		final Context context = vertx.currentContext();
+		hashExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				reply(context, sha256(buff.getBytes()), handler);
+			}
+		});
+	}
+
+	/**
+	 * Hash a local file as it is read, without loading it in memory.
+	 */
+	private void hashFile(final String filename, final Handler<String> handler) {
+		final Context context = vertx.currentContext();
+		hashExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				String hash = null;
+				try (InputStream in = new FileInputStream(filename)) {
+					final MessageDigest md = MessageDigest.getInstance("SHA-256");
+					final byte[] b = new byte[8192];
+					int n;
+					while ((n = in.read(b)) >= 0) {
+						md.update(b, 0, n);
+					}
+					hash = hex(md.digest());
+				} catch (IOException | NoSuchAlgorithmException e) {
+					log.error("Error hashing file " + filename, e);
+				}
+				reply(context, hash, handler);
+			}
+		});
+	}
+
+	private static void reply(Context context, final String hash, final Handler<String> handler) {
+		context.runOnContext(new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				handler.handle(hash);
+			}
+		});
+	}
+
+	private static String sha256(byte[] bytes) {
+		try {
+			return hex(MessageDigest.getInstance("SHA-256").digest(bytes));
+		} catch (NoSuchAlgorithmException e) {
+			log.error(e.getMessage(), e);
+			return null;
+		}
+	}
+
+	private static String hex(byte[] digest) {
+		final Formatter formatter = new Formatter();
+		for (byte b : digest) {
+			formatter.format("%02x", b);
+		}
+		return formatter.toString();
+	}
+
+}
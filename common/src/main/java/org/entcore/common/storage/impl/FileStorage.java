@@ -19,12 +19,16 @@
 
 package org.entcore.common.storage.impl;
 
+import fr.wseduc.mongodb.MongoDb;
 import fr.wseduc.swift.utils.FileUtils;
 import fr.wseduc.webutils.DefaultAsyncResult;
 import fr.wseduc.webutils.http.ETag;
+import org.entcore.common.http.request.ByteRange;
 import org.entcore.common.storage.AntivirusClient;
 import org.entcore.common.storage.BucketStats;
+import org.entcore.common.storage.BulkOperation;
 import org.entcore.common.storage.Storage;
+import org.entcore.common.storage.StorageException;
 import org.entcore.common.validation.AbstractValidator;
 import org.entcore.common.validation.FileValidator;
 import org.vertx.java.core.AsyncResult;
@@ -32,6 +36,9 @@ import org.vertx.java.core.AsyncResultHandler;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.file.AsyncFile;
+import org.vertx.java.core.file.FileProps;
 import org.vertx.java.core.file.FileSystem;
 import org.vertx.java.core.file.FileSystemProps;
 import org.vertx.java.core.http.HttpServerFileUpload;
@@ -44,24 +51,48 @@ import org.vertx.java.core.logging.impl.LoggerFactory;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.Arrays;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static fr.wseduc.webutils.Utils.isNotEmpty;
 
 public class FileStorage implements Storage {
 
 	private static final Logger log = LoggerFactory.getLogger(FileStorage.class);
+	private static final int RANGE_BUFFER_SIZE = 64 * 1024;
+	public static final String USAGE_COLLECTION = "storage.usage";
+	public static final int DEFAULT_LEVELS = 2;
+	private static final long USAGE_FLUSH_DELAY = 5000l;
 	private final String basePath;
+	private final Vertx vertx;
 	private final FileSystem fs;
-	private final boolean flat;
+	private final int levels;
+	private final int previousLevels;
+	private boolean usageCounter = false;
+	private long usageSize = 0;
+	private long usageCount = 0;
+	private long usageTimer = -1;
 	private AntivirusClient antivirus;
+	private AntivirusScanQueue scanQueue;
 	private FileValidator validator;
+	private int bulkConcurrency = BulkOperation.DEFAULT_CONCURRENCY;
 
 	public FileStorage(Vertx vertx, String basePath, boolean flat) {
+		this(vertx, basePath, flat ? 0 : DEFAULT_LEVELS, -1);
+	}
+
+	/**
+	 * @param levels number of two characters directory levels, taken from the end of the file id
+	 * @param previousLevels levels of the layout being migrated, used to read files not moved yet,
+	 *                       or -1 without migration
+	 */
+	public FileStorage(Vertx vertx, String basePath, int levels, int previousLevels) {
 		this.basePath = (basePath != null && !basePath.endsWith("/")) ? basePath + "/" : basePath;
-		this.flat = flat;
+		this.vertx = vertx;
 		this.fs = vertx.fileSystem();
+		this.levels = levels;
+		this.previousLevels = (previousLevels != levels) ? previousLevels : -1;
 	}
 
 	@Override
@@ -126,12 +157,18 @@ public class FileStorage implements Storage {
 								} catch (FileNotFoundException e) {
 									log.error(e.getMessage(), e);
 								}
+								return;
 							}
 						}
-						handler.handle(res.putString("_id", id)
-								.putString("status", "ok")
-								.putObject("metadata", metadata));
-						scanFile(path);
+						updateUsage(metadata.getLong("size", 0l), 1);
+						scanFile(path, new Handler<Void>() {
+							@Override
+							public void handle(Void v) {
+								handler.handle(res.putString("_id", id)
+										.putString("status", "ok")
+										.putObject("metadata", metadata));
+							}
+						});
 					}
 				});
 				upload.exceptionHandler(new Handler<Throwable>() {
@@ -157,9 +194,25 @@ public class FileStorage implements Storage {
 		});
 	}
 
-	private void scanFile(String path) {
-		if (antivirus != null) {
-			antivirus.scan(path);
+	private void scanFile(final String path, final Handler<Void> next) {
+		if (scanQueue != null) {
+			scanQueue.enqueue(path, new Handler<AsyncResult<Void>>() {
+				@Override
+				public void handle(AsyncResult<Void> event) {
+					if (event.failed()) {
+						log.error("Error enqueuing antivirus scan, scan it now : " + path, event.cause());
+						if (antivirus != null) {
+							antivirus.scan(path);
+						}
+					}
+					next.handle(null);
+				}
+			});
+		} else {
+			if (antivirus != null) {
+				antivirus.scan(path);
+			}
+			next.handle(null);
 		}
 	}
 
@@ -216,11 +269,17 @@ public class FileStorage implements Storage {
 							final JsonObject metadata = new JsonObject().putString("content-type", contentType)
 									.putString("filename", filename).putNumber("size", buff.length());
 							res.putString("status", "ok").putString("_id", id).putObject("metadata", metadata);
-							scanFile(path);
+							updateUsage(buff.length(), 1);
+							scanFile(path, new Handler<Void>() {
+								@Override
+								public void handle(Void v) {
+									handler.handle(res);
+								}
+							});
 						} else {
 							res.putString("status", "error").putString("message", event.cause().getMessage());
+							handler.handle(res);
 						}
-						handler.handle(res);
 					}
 				});
 			}
@@ -235,7 +294,15 @@ public class FileStorage implements Storage {
 				@Override
 				public void handle(AsyncResult<Void> event) {
 					if (event.succeeded()) {
-						copyFile(filename, path, handler);
+						copyFile(filename, path, new Handler<JsonObject>() {
+							@Override
+							public void handle(JsonObject event) {
+								if ("ok".equals(event.getString("status"))) {
+									addUsage(path);
+								}
+								handler.handle(event);
+							}
+						});
 					} else {
 						handler.handle(new JsonObject().putString("status", "error")
 								.putString("message", event.cause().getMessage()));
@@ -251,22 +318,27 @@ public class FileStorage implements Storage {
 
 	@Override
 	public void readFile(String id, final Handler<Buffer> handler) {
-		try {
-			fs.readFile(getPath(id), new AsyncResultHandler<Buffer>() {
-				@Override
-				public void handle(AsyncResult<Buffer> event) {
-					if (event.succeeded()) {
-						handler.handle(event.result());
-					} else {
-						handler.handle(null);
-						log.error(event.cause().getMessage(), event.cause());
-					}
+		resolvePath(id, new AsyncResultHandler<String>() {
+			@Override
+			public void handle(AsyncResult<String> path) {
+				if (path.failed()) {
+					handler.handle(null);
+					log.warn(path.cause().getMessage(), path.cause());
+					return;
 				}
-			});
-		} catch (FileNotFoundException e) {
-			handler.handle(null);
-			log.warn(e.getMessage(), e);
-		}
+				fs.readFile(path.result(), new AsyncResultHandler<Buffer>() {
+					@Override
+					public void handle(AsyncResult<Buffer> event) {
+						if (event.succeeded()) {
+							handler.handle(event.result());
+						} else {
+							handler.handle(null);
+							log.error(event.cause().getMessage(), event.cause());
+						}
+					}
+				});
+			}
+		});
 	}
 
 	@Override
@@ -275,119 +347,256 @@ public class FileStorage implements Storage {
 	}
 
 	@Override
-	public void sendFile(String id, String downloadName, HttpServerRequest request, boolean inline,
-			JsonObject metadata, Handler<AsyncResult<Void>> resultHandler) {
+	public void sendFile(final String id, final String downloadName, final HttpServerRequest request,
+			final boolean inline, final JsonObject metadata, final Handler<AsyncResult<Void>> resultHandler) {
 		final HttpServerResponse resp = request.response();
-		try {
-			final String path = getPath(id);
-			if (!inline) {
-				String name = FileUtils.getNameWithExtension(downloadName, metadata);
-				resp.putHeader("Content-Disposition", "attachment; filename=\"" + name + "\"");
+		resolvePath(id, new AsyncResultHandler<String>() {
+			@Override
+			public void handle(AsyncResult<String> event) {
+				if (event.failed()) {
+					resp.setStatusCode(404).setStatusMessage("Not Found").end();
+					sendFileDone(resultHandler, null);
+					log.warn(event.cause().getMessage(), event.cause());
+					return;
+				}
+				final String path = event.result();
+				if (ByteRange.notModified(request, id)) {
+					sendNotModified(id, path, request, resultHandler);
+					return;
+				}
+				if (!inline) {
+					String name = FileUtils.getNameWithExtension(downloadName, metadata);
+					resp.putHeader("Content-Disposition", "attachment; filename=\"" + name + "\"");
+				}
+				ETag.addHeader(resp, id);
+				if (metadata != null && metadata.getString("content-type") != null) {
+					resp.putHeader("Content-Type", metadata.getString("content-type"));
+				}
+				resp.putHeader("Accept-Ranges", "bytes");
+				if (ByteRange.hasRange(request, id)) {
+					sendRange(id, path, request, resultHandler);
+				} else if (resultHandler != null) {
+					resp.sendFile(path, resultHandler);
+				} else {
+					resp.sendFile(path);
+				}
 			}
-			ETag.addHeader(resp, id);
-			if (metadata != null && metadata.getString("content-type") != null) {
-				resp.putHeader("Content-Type", metadata.getString("content-type"));
+		});
+	}
+
+	private void sendNotModified(final String id, String path, final HttpServerRequest request,
+			final Handler<AsyncResult<Void>> resultHandler) {
+		fs.exists(path, new Handler<AsyncResult<Boolean>>() {
+			@Override
+			public void handle(AsyncResult<Boolean> event) {
+				if (event.succeeded() && Boolean.TRUE.equals(event.result())) {
+					ByteRange.sendNotModified(request, id);
+				} else {
+					request.response().setStatusCode(404).setStatusMessage("Not Found").end();
+				}
+				sendFileDone(resultHandler, null);
 			}
-			if (resultHandler != null) {
-				resp.sendFile(path, resultHandler);
-			} else {
-				resp.sendFile(path);
+		});
+	}
+
+	private void sendRange(final String id, final String path, final HttpServerRequest request,
+			final Handler<AsyncResult<Void>> resultHandler) {
+		final HttpServerResponse resp = request.response();
+		fs.props(path, new Handler<AsyncResult<FileProps>>() {
+			@Override
+			public void handle(AsyncResult<FileProps> props) {
+				if (props.failed()) {
+					resp.setStatusCode(404).setStatusMessage("Not Found").end();
+					sendFileDone(resultHandler, null);
+					return;
+				}
+				final long length = props.result().size();
+				final ByteRange range = ByteRange.parse(request, id, length);
+				if (range == null) {
+					if (resultHandler != null) {
+						resp.sendFile(path, resultHandler);
+					} else {
+						resp.sendFile(path);
+					}
+					return;
+				}
+				if (!range.prepareResponse(resp, length)) {
+					sendFileDone(resultHandler, null);
+					return;
+				}
+				fs.open(path, null, true, false, false, new Handler<AsyncResult<AsyncFile>>() {
+					@Override
+					public void handle(AsyncResult<AsyncFile> file) {
+						if (file.failed()) {
+							resp.close();
+							sendFileDone(resultHandler, file.cause());
+							return;
+						}
+						writeRange(file.result(), resp, range.getStart(), range.getEnd() + 1, resultHandler);
+					}
+				});
 			}
-		} catch (FileNotFoundException e) {
-			resp.setStatusCode(404).setStatusMessage("Not Found").end();
-			if (resultHandler != null) {
+		});
+	}
+
+	private static void writeRange(final AsyncFile file, final HttpServerResponse resp, final long position,
+			final long end, final Handler<AsyncResult<Void>> resultHandler) {
+		if (position >= end) {
+			file.close();
+			resp.end();
+			sendFileDone(resultHandler, null);
+			return;
+		}
+		final int length = (int) Math.min(RANGE_BUFFER_SIZE, end - position);
+		file.read(new Buffer(length), 0, position, length, new Handler<AsyncResult<Buffer>>() {
+			@Override
+			public void handle(AsyncResult<Buffer> read) {
+				if (read.failed()) {
+					file.close();
+					resp.close();
+					sendFileDone(resultHandler, read.cause());
+					return;
+				}
+				resp.write(read.result());
+				if (resp.writeQueueFull()) {
+					resp.drainHandler(new Handler<Void>() {
+						@Override
+						public void handle(Void event) {
+							resp.drainHandler(null);
+							writeRange(file, resp, position + length, end, resultHandler);
+						}
+					});
+				} else {
+					writeRange(file, resp, position + length, end, resultHandler);
+				}
+			}
+		});
+	}
+
+	private static void sendFileDone(Handler<AsyncResult<Void>> resultHandler, Throwable cause) {
+		if (resultHandler != null) {
+			if (cause != null) {
+				resultHandler.handle(new DefaultAsyncResult<Void>(cause));
+			} else {
 				resultHandler.handle(new DefaultAsyncResult<>((Void) null));
 			}
-			log.warn(e.getMessage(), e);
 		}
 	}
 
 	@Override
 	public void removeFile(String id, final Handler<JsonObject> handler) {
 		final JsonObject res = new JsonObject();
-		try {
-			final String path = getPath(id);
-			fs.delete(path, new Handler<AsyncResult<Void>>() {
-				@Override
-				public void handle(AsyncResult<Void> event) {
-					if (event.succeeded()) {
-						res.putString("status", "ok");
-					} else {
-						res.putString("status", "error").putString("message", event.cause().getMessage());
-					}
-					handler.handle(res);
+		deleteFile(id, new AsyncResultHandler<Void>() {
+			@Override
+			public void handle(AsyncResult<Void> event) {
+				if (event.succeeded()) {
+					res.putString("status", "ok");
+				} else {
+					res.putString("status", "error").putString("message", event.cause().getMessage());
 				}
-			});
-		} catch (FileNotFoundException e) {
-			handler.handle(res.putString("status", "error").putString("message", "invalid.path"));
-			log.warn(e.getMessage(), e);
-		}
+				handler.handle(res);
+			}
+		});
 	}
 
 	@Override
 	public void removeFiles(JsonArray ids, final Handler<JsonObject> handler) {
-		final JsonObject res = new JsonObject();
-		final AtomicInteger count = new AtomicInteger(ids.size());
-		final JsonArray errors = new JsonArray();
-		for (final Object o: ids) {
-			if (o == null) {
-				decrementRemove(count, errors, handler, res);
-				continue;
-			}
-			try {
-				final String path = getPath(o.toString());
-				fs.delete(path, new AsyncResultHandler<Void>() {
+		new BulkOperation<>(ids.toList(), bulkConcurrency, new BulkOperation.Operation<Object>() {
+			@Override
+			public void execute(final Object o, final Handler<JsonObject> done) {
+				if (o == null) {
+					done.handle(null);
+					return;
+				}
+				deleteFile(o.toString(), new AsyncResultHandler<Void>() {
 					@Override
 					public void handle(AsyncResult<Void> event) {
 						if (event.failed()) {
-							errors.add(new JsonObject().putString("id", o.toString())
+							done.handle(new JsonObject().putString("id", o.toString())
 									.putString("message", event.cause().getMessage()));
+						} else {
+							done.handle(null);
 						}
-						decrementRemove(count, errors, handler, res);
 					}
 				});
-			} catch (FileNotFoundException e) {
-				errors.add(new JsonObject().putString("id", o.toString())
-						.putString("message", "invalid.path"));
-				decrementRemove(count, errors, handler, res);
-				log.warn(e.getMessage(), e);
 			}
-		}
+		}).start(handler);
 	}
 
-	private void decrementRemove(AtomicInteger count, JsonArray errors, Handler<JsonObject> handler, JsonObject res) {
-		if (count.decrementAndGet() <= 0) {
-
-			if (errors.size() == 0) {
-				handler.handle(res.putString("status", "ok"));
-			} else {
-				handler.handle(res.putString("status", "error").putArray("errors", errors));
+	private void deleteFile(final String id, final AsyncResultHandler<Void> handler) {
+		resolvePath(id, new AsyncResultHandler<String>() {
+			@Override
+			public void handle(AsyncResult<String> event) {
+				if (event.failed()) {
+					log.warn(event.cause().getMessage(), event.cause());
+					handler.handle(new DefaultAsyncResult<Void>(new StorageException("invalid.path")));
+					return;
+				}
+				final String path = event.result();
+				if (!usageCounter) {
+					fs.delete(path, handler);
+					return;
+				}
+				fs.props(path, new Handler<AsyncResult<FileProps>>() {
+					@Override
+					public void handle(final AsyncResult<FileProps> props) {
+						fs.delete(path, new Handler<AsyncResult<Void>>() {
+							@Override
+							public void handle(AsyncResult<Void> event) {
+								if (event.succeeded() && props.succeeded()) {
+									updateUsage(-props.result().size(), -1);
+								}
+								handler.handle(event);
+							}
+						});
+					}
+				});
 			}
-		}
+		});
 	}
 
 	@Override
 	public void copyFile(final String id, final Handler<JsonObject> handler) {
+		final String newId = UUID.randomUUID().toString();
+		final String path;
 		try {
-			final String newId = UUID.randomUUID().toString();
-			final String path = getPath(newId);
-			final String sourcePath = getPath(id);
-			mkdirsIfNotExists(newId, path, new AsyncResultHandler<Void>() {
-				@Override
-				public void handle(AsyncResult<Void> event) {
-					if (event.succeeded()) {
-						copyFile(sourcePath, path, newId, handler);
-					} else {
-						handler.handle(new JsonObject().putString("status", "error")
-								.putString("message", event.cause().getMessage()));
-						log.error(event.cause().getMessage(), event.cause());
-					}
-				}
-			});
+			path = getPath(newId);
 		} catch (FileNotFoundException e) {
 			handler.handle(new JsonObject().putString("status", "error").putString("message", "invalid.path"));
 			log.warn(e.getMessage(), e);
+			return;
 		}
+		resolvePath(id, new AsyncResultHandler<String>() {
+			@Override
+			public void handle(AsyncResult<String> source) {
+				if (source.failed()) {
+					handler.handle(new JsonObject().putString("status", "error").putString("message", "invalid.path"));
+					log.warn(source.cause().getMessage(), source.cause());
+					return;
+				}
+				final String sourcePath = source.result();
+				mkdirsIfNotExists(newId, path, new AsyncResultHandler<Void>() {
+					@Override
+					public void handle(AsyncResult<Void> event) {
+						if (event.succeeded()) {
+							copyFile(sourcePath, path, newId, new Handler<JsonObject>() {
+								@Override
+								public void handle(JsonObject event) {
+									if ("ok".equals(event.getString("status"))) {
+										addUsage(path);
+									}
+									handler.handle(event);
+								}
+							});
+						} else {
+							handler.handle(new JsonObject().putString("status", "error")
+									.putString("message", event.cause().getMessage()));
+							log.error(event.cause().getMessage(), event.cause());
+						}
+					}
+				});
+			}
+		});
 	}
 
 	private void copyFile(String id, final String to, final Handler<JsonObject> handler) {
@@ -411,44 +620,35 @@ public class FileStorage implements Storage {
 	}
 
 	@Override
-	public void writeToFileSystem(String[] ids, String destinationPath, JsonObject alias,
+	public void writeToFileSystem(String[] ids, final String destinationPath, final JsonObject alias,
 			final Handler<JsonObject> handler) {
-		final AtomicInteger count = new AtomicInteger(ids.length);
-		final JsonArray errors = new JsonArray();
-		for (final String id: ids) {
-			if (id == null || id.isEmpty()) {
-				decrementWriteToFS(count, errors, handler);
-				continue;
-			}
-			final String d = destinationPath + File.separator + alias.getString(id, id);
-			try {
-				copyFile(getPath(id), d, new Handler<JsonObject>() {
+		new BulkOperation<>(Arrays.asList(ids), bulkConcurrency, new BulkOperation.Operation<String>() {
+			@Override
+			public void execute(String id, final Handler<JsonObject> done) {
+				if (id == null || id.isEmpty()) {
+					done.handle(null);
+					return;
+				}
+				final String d = destinationPath + File.separator + alias.getString(id, id);
+				resolvePath(id, new AsyncResultHandler<String>() {
 					@Override
-					public void handle(JsonObject event) {
-						if (!"ok".equals(event.getString("status"))) {
-							errors.add(event);
+					public void handle(AsyncResult<String> path) {
+						if (path.failed()) {
+							done.handle(new JsonObject().putString("status", "error")
+									.putString("message", "invalid.path"));
+							log.warn(path.cause().getMessage(), path.cause());
+							return;
 						}
-						decrementWriteToFS(count, errors, handler);
+						copyFile(path.result(), d, new Handler<JsonObject>() {
+							@Override
+							public void handle(JsonObject event) {
+								done.handle("ok".equals(event.getString("status")) ? null : event);
+							}
+						});
 					}
 				});
-			} catch (FileNotFoundException e) {
-				errors.add(new JsonObject().putString("status", "error").putString("message", "invalid.path"));
-				decrementWriteToFS(count, errors, handler);
-				log.warn(e.getMessage(), e);
 			}
-		}
-	}
-
-	private void decrementWriteToFS(AtomicInteger count, JsonArray errors, Handler<JsonObject> handler) {
-		if (count.decrementAndGet() <= 0) {
-			JsonObject j = new JsonObject();
-			if (errors.size() == 0) {
-				handler.handle(j.putString("status", "ok"));
-			} else {
-				handler.handle(j.putString("status", "error").putArray("errors", errors)
-						.putString("message", errors.encode()));
-			}
-		}
+		}).start(handler);
 	}
 
 	@Override
@@ -463,6 +663,32 @@ public class FileStorage implements Storage {
 
 	@Override
 	public void stats(final AsyncResultHandler<BucketStats> handler) {
+		if (usageCounter) {
+			MongoDb.getInstance().findOne(USAGE_COLLECTION, new JsonObject().putString("_id", basePath),
+					new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> event) {
+					final JsonObject usage = event.body().getObject("result");
+					// counter totals are only meaningful from a recomputed baseline
+					if ("ok".equals(event.body().getString("status")) && usage != null &&
+							usage.getLong("baseline") != null) {
+						final BucketStats bucketStats = new BucketStats();
+						synchronized (FileStorage.this) {
+							bucketStats.setStorageSize(usage.getLong("size", 0l) + usageSize);
+							bucketStats.setObjectNumber(usage.getLong("count", 0l) + usageCount);
+						}
+						handler.handle(new DefaultAsyncResult<>(bucketStats));
+					} else {
+						fsStats(handler);
+					}
+				}
+			});
+		} else {
+			fsStats(handler);
+		}
+	}
+
+	private void fsStats(final AsyncResultHandler<BucketStats> handler) {
 		fs.fsProps(basePath, new Handler<AsyncResult<FileSystemProps>>() {
 			@Override
 			public void handle(AsyncResult<FileSystemProps> event) {
@@ -478,31 +704,300 @@ public class FileStorage implements Storage {
 		});
 	}
 
+	private void addUsage(String path) {
+		if (!usageCounter) {
+			return;
+		}
+		fs.props(path, new Handler<AsyncResult<FileProps>>() {
+			@Override
+			public void handle(AsyncResult<FileProps> event) {
+				if (event.succeeded()) {
+					updateUsage(event.result().size(), 1);
+				}
+			}
+		});
+	}
+
+	private synchronized void updateUsage(long size, long count) {
+		if (!usageCounter) {
+			return;
+		}
+		usageSize += size;
+		usageCount += count;
+		if (usageTimer == -1) {
+			usageTimer = vertx.setTimer(USAGE_FLUSH_DELAY, new Handler<Long>() {
+				@Override
+				public void handle(Long event) {
+					flushUsage();
+				}
+			});
+		}
+	}
+
+	private void flushUsage() {
+		final long size;
+		final long count;
+		synchronized (this) {
+			size = usageSize;
+			count = usageCount;
+			usageSize = 0;
+			usageCount = 0;
+			usageTimer = -1;
+		}
+		if (size == 0 && count == 0) {
+			return;
+		}
+		final JsonObject inc = new JsonObject().putNumber("size", size).putNumber("count", count);
+		final JsonObject query = new JsonObject().putString("_id", basePath)
+				.putObject("baseline", new JsonObject().putBoolean("$exists", true));
+		MongoDb.getInstance().update(USAGE_COLLECTION, query, new JsonObject().putObject("$inc", inc), false, false);
+	}
+
+	/**
+	 * Recompute the usage counter if it has no baseline yet.
+	 */
+	public void initUsage(final Handler<JsonObject> handler) {
+		if (!usageCounter) {
+			handler.handle(new JsonObject().putString("status", "ok"));
+			return;
+		}
+		MongoDb.getInstance().findOne(USAGE_COLLECTION, new JsonObject().putString("_id", basePath),
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonObject usage = event.body().getObject("result");
+				if (!"ok".equals(event.body().getString("status"))) {
+					handler.handle(event.body());
+				} else if (usage != null && usage.getLong("baseline") != null) {
+					handler.handle(new JsonObject().putString("status", "ok"));
+				} else {
+					recomputeUsage(handler);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Count files of the current layout and reset the usage counter, to initialize it
+	 * or to fix the drift of overwritten files. Increments are applied only once a baseline exists.
+	 */
+	public void recomputeUsage(final Handler<JsonObject> handler) {
+		final AtomicLong size = new AtomicLong();
+		final AtomicLong count = new AtomicLong();
+		walk(basePath, levels, new BulkOperation.Operation<String>() {
+			@Override
+			public void execute(String file, final Handler<JsonObject> done) {
+				fs.props(file, new Handler<AsyncResult<FileProps>>() {
+					@Override
+					public void handle(AsyncResult<FileProps> event) {
+						if (event.succeeded() && event.result().isRegularFile()) {
+							size.addAndGet(event.result().size());
+							count.incrementAndGet();
+						}
+						done.handle(null);
+					}
+				});
+			}
+		}, new Handler<JsonObject>() {
+			@Override
+			public void handle(final JsonObject res) {
+				if (!"ok".equals(res.getString("status"))) {
+					handler.handle(res);
+					return;
+				}
+				final JsonObject usage = new JsonObject().putNumber("size", size.get()).putNumber("count", count.get())
+						.putNumber("baseline", System.currentTimeMillis());
+				MongoDb.getInstance().update(USAGE_COLLECTION, new JsonObject().putString("_id", basePath),
+						new JsonObject().putObject("$set", usage), true, false, new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(Message<JsonObject> event) {
+						log.info("File storage usage of " + basePath + " : " + usage.encode());
+						handler.handle(event.body());
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Move files from the previous layout to the current one. Files not moved yet are still
+	 * read from the previous layout, so the migration can run while the storage is in use.
+	 */
+	public void migrateLayout(final Handler<JsonObject> handler) {
+		if (previousLevels < 0) {
+			handler.handle(new JsonObject().putString("status", "ok"));
+			return;
+		}
+		walk(basePath, previousLevels, new BulkOperation.Operation<String>() {
+			@Override
+			public void execute(final String file, final Handler<JsonObject> done) {
+				final String id = file.substring(file.lastIndexOf(File.separatorChar) + 1);
+				final String path;
+				try {
+					path = getPath(id);
+				} catch (FileNotFoundException e) {
+					done.handle(new JsonObject().putString("id", id).putString("message", "invalid.path"));
+					return;
+				}
+				if (path.equals(file)) {
+					done.handle(null);
+					return;
+				}
+				fs.props(file, new Handler<AsyncResult<FileProps>>() {
+					@Override
+					public void handle(AsyncResult<FileProps> props) {
+						if (props.failed() || !props.result().isRegularFile()) {
+							done.handle(null);
+							return;
+						}
+						mkdirsIfNotExists(id, path, new AsyncResultHandler<Void>() {
+							@Override
+							public void handle(AsyncResult<Void> event) {
+								if (event.failed()) {
+									done.handle(new JsonObject().putString("id", id)
+											.putString("message", event.cause().getMessage()));
+									return;
+								}
+								fs.move(file, path, new Handler<AsyncResult<Void>>() {
+									@Override
+									public void handle(AsyncResult<Void> event) {
+										done.handle(event.succeeded() ? null : new JsonObject().putString("id", id)
+												.putString("message", event.cause().getMessage()));
+									}
+								});
+							}
+						});
+					}
+				});
+			}
+		}, new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject res) {
+				log.info("File storage layout migration of " + basePath + " : " + res.encode());
+				handler.handle(res);
+			}
+		});
+	}
+
+	/**
+	 * Apply the operation to the entries of the directories at the given depth,
+	 * one directory after the other.
+	 */
+	private void walk(final String dir, final int depth, final BulkOperation.Operation<String> operation,
+			final Handler<JsonObject> handler) {
+		fs.readDir(dir, new Handler<AsyncResult<String[]>>() {
+			@Override
+			public void handle(AsyncResult<String[]> event) {
+				if (event.failed()) {
+					handler.handle(new JsonObject().putString("status", "error")
+							.putString("message", event.cause().getMessage()));
+					return;
+				}
+				if (depth <= 0) {
+					new BulkOperation<>(Arrays.asList(event.result()), bulkConcurrency, operation).start(handler);
+					return;
+				}
+				new BulkOperation<>(Arrays.asList(event.result()), 1, new BulkOperation.Operation<String>() {
+					@Override
+					public void execute(final String entry, final Handler<JsonObject> done) {
+						fs.props(entry, new Handler<AsyncResult<FileProps>>() {
+							@Override
+							public void handle(AsyncResult<FileProps> props) {
+								if (props.failed() || !props.result().isDirectory()) {
+									done.handle(null);
+									return;
+								}
+								walk(entry, depth - 1, operation, new Handler<JsonObject>() {
+									@Override
+									public void handle(JsonObject res) {
+										done.handle("ok".equals(res.getString("status")) ? null :
+												new JsonObject().putString("path", entry)
+														.putString("message", res.getString("message")));
+									}
+								});
+							}
+						});
+					}
+				}).start(handler);
+			}
+		});
+	}
+
+	private void resolvePath(final String id, final AsyncResultHandler<String> handler) {
+		final String path;
+		try {
+			path = getPath(id);
+		} catch (FileNotFoundException e) {
+			handler.handle(new DefaultAsyncResult<String>(e));
+			return;
+		}
+		if (previousLevels < 0) {
+			handler.handle(new DefaultAsyncResult<>(path));
+			return;
+		}
+		fs.exists(path, new Handler<AsyncResult<Boolean>>() {
+			@Override
+			public void handle(AsyncResult<Boolean> event) {
+				if (event.succeeded() && Boolean.FALSE.equals(event.result())) {
+					try {
+						handler.handle(new DefaultAsyncResult<>(getPath(id, previousLevels)));
+					} catch (FileNotFoundException e) {
+						handler.handle(new DefaultAsyncResult<String>(e));
+					}
+				} else {
+					handler.handle(new DefaultAsyncResult<>(path));
+				}
+			}
+		});
+	}
+
 	private String getPath(String file) throws FileNotFoundException {
+		return getPath(file, levels);
+	}
+
+	private String getPath(String file, int layoutLevels) throws FileNotFoundException {
 		if (isNotEmpty(file)) {
-			if (flat) {
+			if (layoutLevels <= 0) {
 				return basePath + file;
 			} else {
 				final int startIdx = file.lastIndexOf(File.separatorChar) + 1;
 				final int extIdx = file.lastIndexOf('.');
 				String filename = (extIdx > 0) ? file.substring(startIdx, extIdx) : file.substring(startIdx);
 				if (isNotEmpty(filename)) {
+					final StringBuilder sb = new StringBuilder(filename);
+					while (sb.length() < layoutLevels * 2) {
+						sb.insert(0, '0');
+					}
+					filename = sb.toString();
 					final int l = filename.length();
-					if (l < 4) {
-						filename = "0000".substring(0, 4 - l) + filename;
+					sb.setLength(0);
+					sb.append(basePath);
+					for (int i = 1; i <= layoutLevels; i++) {
+						sb.append(filename, l - 2 * i, l - 2 * (i - 1)).append(File.separator);
 					}
-					return basePath + filename.substring(l - 2) + File.separator + filename.substring(l - 4, l - 2) +
-							File.separator + filename;
+					return sb.append(filename).toString();
 				}
 			}
 		}
 		throw new FileNotFoundException("Invalid file : " + file);
 	}
 
+	public void setUsageCounter(boolean usageCounter) {
+		this.usageCounter = usageCounter;
+	}
+
 	public void setAntivirus(AntivirusClient antivirus) {
 		this.antivirus = antivirus;
 	}
 
+	public void setScanQueue(AntivirusScanQueue scanQueue) {
+		this.scanQueue = scanQueue;
+	}
+
+	public void setBulkConcurrency(int bulkConcurrency) {
+		this.bulkConcurrency = bulkConcurrency;
+	}
+
 	public void setValidator(FileValidator validator) {
 		this.validator = validator;
 	}
@@ -25,7 +25,9 @@ import fr.wseduc.mongodb.MongoQueryBuilder;
 import fr.wseduc.webutils.DefaultAsyncResult;
 import fr.wseduc.webutils.FileUtils;
 import fr.wseduc.webutils.http.ETag;
+import org.entcore.common.http.request.ByteRange;
 import org.entcore.common.storage.BucketStats;
+import org.entcore.common.storage.BulkOperation;
 import org.entcore.common.storage.Storage;
 import org.entcore.common.storage.StorageException;
 import org.entcore.common.validation.FileValidator;
@@ -50,15 +52,18 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 public class GridfsStorage implements Storage {
 
 	public static final long BUFFER_SIZE = 1024 * 1024l;
+	private static final int BULK_BATCH_SIZE = 500;
 	private final EventBus eb;
 	private final String gridfsAddress;
 	private final String bucket;
 	private final Vertx vertx;
 	private final MongoDb mongoDb = MongoDb.getInstance();
+	private int bulkConcurrency = BulkOperation.DEFAULT_CONCURRENCY;
 	private static final Logger log = LoggerFactory.getLogger(GridfsStorage.class);
 
 	public GridfsStorage(Vertx vertx, EventBus eb, String gridfsAddress) {
@@ -225,13 +230,129 @@ public class GridfsStorage implements Storage {
 
 	@Override
 	public void sendFile(String id, String downloadName, HttpServerRequest request, boolean inline, JsonObject metadata) {
-		gridfsSendChunkFile(id, downloadName, eb, gridfsAddress, request.response(), inline, metadata);
+		sendFile(id, downloadName, request, inline, metadata, null);
 	}
 
 	@Override
 	public void sendFile(String id, String downloadName, HttpServerRequest request, boolean inline, JsonObject metadata,
 			Handler<AsyncResult<Void>> resultHandler) {
-		gridfsSendChunkFile(id, downloadName, eb, gridfsAddress, request.response(), inline, metadata, resultHandler);
+		if (ByteRange.notModified(request, id)) {
+			sendNotModified(id, request, resultHandler);
+		} else if (ByteRange.hasRange(request, id)) {
+			sendRange(id, downloadName, request, inline, metadata, resultHandler);
+		} else {
+			gridfsSendChunkFile(id, downloadName, eb, gridfsAddress, request.response(), inline, metadata, resultHandler);
+		}
+	}
+
+	private void sendNotModified(final String id, final HttpServerRequest request,
+			final Handler<AsyncResult<Void>> resultHandler) {
+		mongoDb.findOne(bucket + ".files", new JsonObject().putString("_id", id), new JsonObject().putNumber("_id", 1),
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if ("ok".equals(event.body().getString("status")) && event.body().getObject("result") != null) {
+					ByteRange.sendNotModified(request, id);
+				} else {
+					request.response().setStatusCode(404).setStatusMessage("Not Found").end();
+				}
+				sendFileDone(resultHandler, null);
+			}
+		});
+	}
+
+	private void sendRange(final String id, final String downloadName, final HttpServerRequest request,
+			final boolean inline, final JsonObject metadata, final Handler<AsyncResult<Void>> resultHandler) {
+		final HttpServerResponse response = request.response();
+		final JsonObject keys = new JsonObject().putNumber("length", 1).putNumber("chunkSize", 1);
+		mongoDb.findOne(bucket + ".files", new JsonObject().putString("_id", id), keys,
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonObject file = event.body().getObject("result");
+				if (!"ok".equals(event.body().getString("status")) || file == null ||
+						file.getNumber("length") == null || file.getNumber("chunkSize") == null) {
+					response.setStatusCode(404).setStatusMessage("Not Found").end();
+					sendFileDone(resultHandler, null);
+					return;
+				}
+				final long length = file.getLong("length");
+				final ByteRange range = ByteRange.parse(request, id, length);
+				if (range == null) {
+					gridfsSendChunkFile(id, downloadName, eb, gridfsAddress, response, inline, metadata, resultHandler);
+					return;
+				}
+				putFileHeaders(id, downloadName, response, inline, metadata);
+				if (range.prepareResponse(response, length)) {
+					final int chunkSize = file.getInteger("chunkSize");
+					writeRange(id, response, range, chunkSize, (int) (range.getStart() / chunkSize),
+							(int) (range.getEnd() / chunkSize), resultHandler);
+				} else {
+					sendFileDone(resultHandler, null);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Fetch and write only the chunks of the file overlapping the range.
+	 */
+	private void writeRange(final String id, final HttpServerResponse response, final ByteRange range,
+			final int chunkSize, final int n, final int last, final Handler<AsyncResult<Void>> resultHandler) {
+		if (n > last) {
+			response.end();
+			sendFileDone(resultHandler, null);
+			return;
+		}
+		getChunk(id, n, eb, gridfsAddress, new Handler<Chunk>() {
+			@Override
+			public void handle(Chunk chunk) {
+				if (chunk == null) {
+					response.close();
+					sendFileDone(resultHandler, new StorageException("Missing chunk " + n + " of file " + id));
+					return;
+				}
+				final long chunkStart = (long) n * chunkSize;
+				final int from = (int) Math.max(0, range.getStart() - chunkStart);
+				final int to = (int) Math.min(chunk.data.length(), range.getEnd() + 1 - chunkStart);
+				response.write(chunk.data.getBuffer(from, to));
+				if (response.writeQueueFull()) {
+					response.drainHandler(new Handler<Void>() {
+						@Override
+						public void handle(Void event) {
+							response.drainHandler(null);
+							writeRange(id, response, range, chunkSize, n + 1, last, resultHandler);
+						}
+					});
+				} else {
+					writeRange(id, response, range, chunkSize, n + 1, last, resultHandler);
+				}
+			}
+		});
+	}
+
+	private static void putFileHeaders(String id, String downloadName, HttpServerResponse response, boolean inline,
+			JsonObject metadata) {
+		if (!inline) {
+			String name = fr.wseduc.swift.utils.FileUtils.getNameWithExtension(downloadName, metadata);
+			response.putHeader("Content-Disposition",
+					"attachment; filename=\"" + name + "\"");
+		} else {
+			ETag.addHeader(response, id);
+		}
+		if (metadata != null && metadata.getString("content-type") != null) {
+			response.putHeader("Content-Type", metadata.getString("content-type"));
+		}
+	}
+
+	private static void sendFileDone(Handler<AsyncResult<Void>> resultHandler, Throwable cause) {
+		if (resultHandler != null) {
+			if (cause != null) {
+				resultHandler.handle(new DefaultAsyncResult<Void>(cause));
+			} else {
+				resultHandler.handle(new DefaultAsyncResult<>((Void) null));
+			}
+		}
 	}
 
 	private static void gridfsReadChunkFile(final String id, final EventBus eb, final String gridfsAddress,
@@ -333,12 +454,6 @@ public class GridfsStorage implements Storage {
 		});
 	}
 
-	private static void gridfsSendChunkFile(final String id, final String downloadName, final EventBus eb,
-									  final String gridfsAddress, final HttpServerResponse response, final boolean inline,
-									  final JsonObject metadata) {
-		gridfsSendChunkFile(id, downloadName, eb, gridfsAddress, response, inline, metadata, null);
-	}
-
 	private static void gridfsSendChunkFile(final String id, final String downloadName, final EventBus eb,
 									  final String gridfsAddress, final HttpServerResponse response, final boolean inline,
 									  final JsonObject metadata, final Handler<AsyncResult<Void>> resultHandler) {
@@ -361,16 +476,8 @@ public class GridfsStorage implements Storage {
 					return;
 				}
 				if (chunk.n == 0) {
-					if (!inline) {
-						String name = fr.wseduc.swift.utils.FileUtils.getNameWithExtension(downloadName, metadata);
-						response.putHeader("Content-Disposition",
-								"attachment; filename=\"" + name + "\"");
-					} else {
-						ETag.addHeader(response, id);
-					}
-					if (metadata != null && metadata.getString("content-type") != null) {
-						response.putHeader("Content-Type", metadata.getString("content-type"));
-					}
+					putFileHeaders(id, downloadName, response, inline, metadata);
+					response.putHeader("Accept-Ranges", "bytes");
 				}
 
 				response.write(chunk.data);
@@ -385,28 +492,32 @@ public class GridfsStorage implements Storage {
 
 	@Override
 	public void removeFiles(final JsonArray ids, final Handler<JsonObject> handler) {
-		final JsonObject filesQuery = new JsonObject().putObject("_id", new JsonObject().putArray("$in", ids));
-		mongoDb.delete(getBucket() + ".files", filesQuery, new Handler<Message<JsonObject>>() {
+		new BulkOperation<>(BulkOperation.partition(ids.toList(), BULK_BATCH_SIZE), bulkConcurrency,
+				new BulkOperation.Operation<JsonArray>() {
 			@Override
-			public void handle(Message<JsonObject> event) {
-				if ("ok".equals(event.body().getString("status"))) {
-					final JsonObject chunksQuery = new JsonObject().putObject("files_id", new JsonObject().putArray("$in", ids));
-					mongoDb.delete(getBucket() + ".chunks", chunksQuery, new Handler<Message<JsonObject>>() {
-						@Override
-						public void handle(Message<JsonObject> eventChunks) {
-							if (handler != null) {
-								handler.handle(eventChunks.body());
-							}
+			public void execute(final JsonArray batch, final Handler<JsonObject> done) {
+				final JsonObject filesQuery = new JsonObject().putObject("_id", new JsonObject().putArray("$in", batch));
+				mongoDb.delete(getBucket() + ".files", filesQuery, new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(Message<JsonObject> event) {
+						if ("ok".equals(event.body().getString("status"))) {
+							final JsonObject chunksQuery = new JsonObject()
+									.putObject("files_id", new JsonObject().putArray("$in", batch));
+							mongoDb.delete(getBucket() + ".chunks", chunksQuery, new Handler<Message<JsonObject>>() {
+								@Override
+								public void handle(Message<JsonObject> eventChunks) {
+									done.handle("ok".equals(eventChunks.body().getString("status")) ? null :
+											eventChunks.body().putArray("ids", batch));
+								}
+							});
+						} else {
+							// TODO find and delete orphaned chunks
+							done.handle(event.body().putArray("ids", batch));
 						}
-					});
-				} else {
-					// TODO find and delete orphaned chunks
-					if (handler != null) {
-						handler.handle(event.body());
 					}
-				}
+				});
 			}
-		});
+		}).start(handler);
 	}
 
 	@Override
@@ -415,20 +526,26 @@ public class GridfsStorage implements Storage {
 	}
 
 	@Override
-	public void writeToFileSystem(String [] ids, String destinationPath, JsonObject alias,
+	public void writeToFileSystem(String [] ids, final String destinationPath, final JsonObject alias,
 			final Handler<JsonObject> handler) {
-		QueryBuilder q = QueryBuilder.start("_id").in(ids);
-		JsonObject e = new JsonObject()
-				.putString("action", "write")
-				.putString("path", destinationPath)
-				.putObject("alias", alias)
-				.putObject("query", MongoQueryBuilder.build(q));
-		eb.send(gridfsAddress + ".json", e, new Handler<Message<JsonObject>>() {
+		new BulkOperation<>(BulkOperation.partition(Arrays.asList(ids), BULK_BATCH_SIZE), bulkConcurrency,
+				new BulkOperation.Operation<JsonArray>() {
 			@Override
-			public void handle(Message<JsonObject> event) {
-				handler.handle(event.body());
+			public void execute(JsonArray batch, final Handler<JsonObject> done) {
+				QueryBuilder q = QueryBuilder.start("_id").in(batch.toArray());
+				JsonObject e = new JsonObject()
+						.putString("action", "write")
+						.putString("path", destinationPath)
+						.putObject("alias", alias)
+						.putObject("query", MongoQueryBuilder.build(q));
+				eb.send(gridfsAddress + ".json", e, new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(Message<JsonObject> event) {
+						done.handle("ok".equals(event.body().getString("status")) ? null : event.body());
+					}
+				});
 			}
-		});
+		}).start(handler);
 	}
 
 	@Override
@@ -471,6 +588,10 @@ public class GridfsStorage implements Storage {
 		});
 	}
 
+	public void setBulkConcurrency(int bulkConcurrency) {
+		this.bulkConcurrency = bulkConcurrency;
+	}
+
 	@Override
 	public FileValidator getValidator() {
 		return null;
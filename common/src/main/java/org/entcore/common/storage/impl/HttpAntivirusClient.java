@@ -19,12 +19,16 @@
 
 package org.entcore.common.storage.impl;
 
+import fr.wseduc.webutils.DefaultAsyncResult;
 import org.entcore.common.storage.AntivirusClient;
+import org.entcore.common.storage.StorageException;
+import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.http.HttpClient;
 import org.vertx.java.core.http.HttpClientRequest;
 import org.vertx.java.core.http.HttpClientResponse;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
@@ -34,6 +38,7 @@ public class HttpAntivirusClient implements AntivirusClient {
 	private static final Logger log = LoggerFactory.getLogger(HttpAntivirusClient.class);
 	private HttpClient httpClient;
 	private String credential;
+	private long scanTimeout = 300000l;
 
 	public HttpAntivirusClient(Vertx vertx, String host, String cretential) {
 		this.httpClient = vertx.createHttpClient()
@@ -60,4 +65,33 @@ public class HttpAntivirusClient implements AntivirusClient {
 		req.end(new JsonObject().putString("file", path).encode());
 	}
 
+	@Override
+	public void scan(final JsonArray paths, final Handler<AsyncResult<Void>> handler) {
+		HttpClientRequest req = httpClient.post("/infra/antivirus/scan/batch", new Handler<HttpClientResponse>() {
+			@Override
+			public void handle(HttpClientResponse resp) {
+				if (resp.statusCode() == 200) {
+					handler.handle(new DefaultAsyncResult<>((Void) null));
+				} else {
+					handler.handle(new DefaultAsyncResult<Void>(
+							new StorageException("Error when call scan files : " + resp.statusCode())));
+				}
+			}
+		});
+		req.exceptionHandler(new Handler<Throwable>() {
+			@Override
+			public void handle(Throwable event) {
+				handler.handle(new DefaultAsyncResult<Void>(event));
+			}
+		});
+		req.setTimeout(scanTimeout);
+		req.putHeader("Content-Type", "application/json");
+		req.putHeader("Authorization", "Basic " + credential);
+		req.end(new JsonObject().putArray("files", paths).encode());
+	}
+
+	public void setScanTimeout(long scanTimeout) {
+		this.scanTimeout = scanTimeout;
+	}
+
 }
@@ -23,6 +23,7 @@ import fr.wseduc.swift.SwiftClient;
 import fr.wseduc.swift.storage.StorageObject;
 import fr.wseduc.webutils.DefaultAsyncResult;
 import org.entcore.common.storage.BucketStats;
+import org.entcore.common.storage.BulkOperation;
 import org.entcore.common.storage.Storage;
 import org.entcore.common.validation.FileValidator;
 import org.vertx.java.core.AsyncResult;
@@ -36,12 +37,13 @@ import org.vertx.java.core.json.JsonObject;
 
 import java.io.File;
 import java.net.URI;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Arrays;
 
 public class SwiftStorage implements Storage {
 
 	private final SwiftClient swiftClient;
 	private final String container;
+	private int bulkConcurrency = BulkOperation.DEFAULT_CONCURRENCY;
 
 	public SwiftStorage(Vertx vertx, URI uri, String container, String user, String password) {
 		this.container = container;
@@ -150,27 +152,26 @@ public class SwiftStorage implements Storage {
 
 	@Override
 	public void removeFiles(JsonArray ids, final Handler<JsonObject> handler) {
-		final AtomicInteger count = new AtomicInteger(ids.size());
-		final JsonArray errors = new JsonArray();
-		for (final Object o: ids) {
-			swiftClient.deleteFile(o.toString(), new AsyncResultHandler<Void>() {
-				@Override
-				public void handle(AsyncResult<Void> event) {
-					if (event.failed()) {
-						errors.add(new JsonObject().putString("id", o.toString())
-								.putString("message", event.cause().getMessage()));
-					}
-					if (count.decrementAndGet() <= 0) {
-						JsonObject j = new JsonObject();
-						if (errors.size() == 0) {
-							handler.handle(j.putString("status", "ok"));
+		new BulkOperation<>(ids.toList(), bulkConcurrency, new BulkOperation.Operation<Object>() {
+			@Override
+			public void execute(final Object o, final Handler<JsonObject> done) {
+				if (o == null) {
+					done.handle(null);
+					return;
+				}
+				swiftClient.deleteFile(o.toString(), new AsyncResultHandler<Void>() {
+					@Override
+					public void handle(AsyncResult<Void> event) {
+						if (event.failed()) {
+							done.handle(new JsonObject().putString("id", o.toString())
+									.putString("message", event.cause().getMessage()));
 						} else {
-							handler.handle(j.putString("status", "error").putArray("errors", errors));
+							done.handle(null);
 						}
 					}
-				}
-			});
-		}
+				});
+			}
+		}).start(handler);
 	}
 
 	@Override
@@ -190,35 +191,29 @@ public class SwiftStorage implements Storage {
 	}
 
 	@Override
-	public void writeToFileSystem(String [] ids, String destinationPath, JsonObject alias,
+	public void writeToFileSystem(String [] ids, final String destinationPath, final JsonObject alias,
 			final Handler<JsonObject> handler) {
-		final AtomicInteger count = new AtomicInteger(ids.length);
-		final JsonArray errors = new JsonArray();
-		for (final String id: ids) {
-			if (id == null || id.isEmpty()) {
-				count.decrementAndGet();
-				continue;
-			}
-			String d = destinationPath + File.separator + alias.getString(id, id);
-			swiftClient.writeToFileSystem(id, d, new AsyncResultHandler<String>() {
-				@Override
-				public void handle(AsyncResult<String> event) {
-					if (event.failed()) {
-						errors.add(new JsonObject().putString("id", id)
-								.putString("message", event.cause().getMessage()));
-					}
-					if (count.decrementAndGet() <= 0) {
-						JsonObject j = new JsonObject();
-						if (errors.size() == 0) {
-							handler.handle(j.putString("status", "ok"));
+		new BulkOperation<>(Arrays.asList(ids), bulkConcurrency, new BulkOperation.Operation<String>() {
+			@Override
+			public void execute(final String id, final Handler<JsonObject> done) {
+				if (id == null || id.isEmpty()) {
+					done.handle(null);
+					return;
+				}
+				String d = destinationPath + File.separator + alias.getString(id, id);
+				swiftClient.writeToFileSystem(id, d, new AsyncResultHandler<String>() {
+					@Override
+					public void handle(AsyncResult<String> event) {
+						if (event.failed()) {
+							done.handle(new JsonObject().putString("id", id)
+									.putString("message", event.cause().getMessage()));
 						} else {
-							handler.handle(j.putString("status", "error").putArray("errors", errors)
-									.putString("message", errors.encode()));
+							done.handle(null);
 						}
 					}
-				}
-			});
-		}
+				});
+			}
+		}).start(handler);
 	}
 
 	@Override
@@ -248,6 +243,10 @@ public class SwiftStorage implements Storage {
 		});
 	}
 
+	public void setBulkConcurrency(int bulkConcurrency) {
+		this.bulkConcurrency = bulkConcurrency;
+	}
+
 	@Override
 	public FileValidator getValidator() {
 		return null;
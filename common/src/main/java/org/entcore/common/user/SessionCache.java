@@ -0,0 +1,192 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.common.user;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded near cache of sessions, keyed by oneSessionId, in front of the wse.session address.
+ * Entries are evicted in LRU order, expire after a short TTL and are invalidated by the messages
+ * published by the session manager on {@link #SESSION_INVALIDATION_ADDRESS}.
+ * The TTL must stay below the session manager last activity delay (30s) so that active users
+ * keep refreshing their inactivity timestamp.
+ */
+public class SessionCache implements Handler<Message<JsonObject>> {
+
+	public static final String SESSION_INVALIDATION_ADDRESS = "wse.session.invalidation";
+	private static final int DEFAULT_MAX_SIZE = 10000;
+	private static final long DEFAULT_TTL = 10000l;
+
+	private LinkedHashMap<String, CachedSession> sessions;
+	private final Map<String, Set<String>> sessionsByUser = new HashMap<>();
+	private long ttl;
+	private boolean enabled = false;
+
+	private static final class CachedSession {
+		private final JsonObject session;
+		private final String userId;
+		private final long expire;
+
+		private CachedSession(JsonObject session, long expire) {
+			this.session = session;
+			this.userId = session.getString("userId");
+			this.expire = expire;
+		}
+	}
+
+	private SessionCache() {}
+
+	private static class SessionCacheHolder {
+		private static final SessionCache instance = new SessionCache();
+	}
+
+	public static SessionCache getInstance() {
+		return SessionCacheHolder.instance;
+	}
+
+	public synchronized void init(Vertx vertx, JsonObject config) {
+		if (enabled) {
+			return;
+		}
+		final int maxSize = config.getInteger("session-cache-size", DEFAULT_MAX_SIZE);
+		this.ttl = config.getLong("session-cache-ttl", DEFAULT_TTL);
+		this.sessions = new LinkedHashMap<String, CachedSession>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedSession> eldest) {
+				if (size() > maxSize) {
+					removeUserIndex(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+		vertx.eventBus().registerHandler(SESSION_INVALIDATION_ADDRESS, this);
+		enabled = true;
+	}
+
+	public synchronized JsonObject get(String sessionId) {
+		if (!enabled || sessionId == null) {
+			return null;
+		}
+		CachedSession s = sessions.get(sessionId);
+		if (s == null) {
+			return null;
+		}
+		if (s.expire < System.currentTimeMillis()) {
+			remove(sessionId);
+			return null;
+		}
+		return s.session.copy();
+	}
+
+	public synchronized void put(String sessionId, JsonObject session) {
+		if (!enabled || sessionId == null || session == null) {
+			return;
+		}
+		CachedSession s = new CachedSession(session.copy(), System.currentTimeMillis() + ttl);
+		CachedSession old = sessions.put(sessionId, s);
+		if (old != null) {
+			removeUserIndex(sessionId, old);
+		}
+		if (s.userId != null) {
+			Set<String> ids = sessionsByUser.get(s.userId);
+			if (ids == null) {
+				ids = new HashSet<>();
+				sessionsByUser.put(s.userId, ids);
+			}
+			ids.add(sessionId);
+		}
+	}
+
+	public synchronized void remove(String sessionId) {
+		if (!enabled || sessionId == null) {
+			return;
+		}
+		CachedSession s = sessions.remove(sessionId);
+		if (s != null) {
+			removeUserIndex(sessionId, s);
+		}
+	}
+
+	public synchronized void removeByUserId(String userId) {
+		if (!enabled || userId == null) {
+			return;
+		}
+		Set<String> ids = sessionsByUser.remove(userId);
+		if (ids != null) {
+			for (String sessionId : ids) {
+				sessions.remove(sessionId);
+			}
+		}
+	}
+
+	public synchronized JsonObject stats() {
+		return new JsonObject()
+				.putBoolean("enabled", enabled)
+				.putNumber("size", enabled ? sessions.size() : 0);
+	}
+
+	private void removeUserIndex(String sessionId, CachedSession s) {
+		if (s.userId == null) {
+			return;
+		}
+		Set<String> ids = sessionsByUser.get(s.userId);
+		if (ids != null) {
+			ids.remove(sessionId);
+			if (ids.isEmpty()) {
+				sessionsByUser.remove(s.userId);
+			}
+		}
+	}
+
+	@Override
+	public void handle(Message<JsonObject> message) {
+		final JsonObject body = message.body();
+		final String sessionId = body.getString("sessionId");
+		if (sessionId != null) {
+			remove(sessionId);
+		}
+		final String userId = body.getString("userId");
+		if (userId != null) {
+			removeByUserId(userId);
+		}
+	}
+
+	public static void publishInvalidation(Vertx vertx, String sessionId, String userId) {
+		JsonObject m = new JsonObject();
+		if (sessionId != null) {
+			m.putString("sessionId", sessionId);
+		}
+		if (userId != null) {
+			m.putString("userId", userId);
+		}
+		vertx.eventBus().publish(SESSION_INVALIDATION_ADDRESS, m);
+	}
+
+}
@@ -30,8 +30,6 @@ import org.vertx.java.core.http.HttpServerRequest;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
-import java.io.IOException;
-
 public class UserUtils {
 
 	private static final String COMMUNICATION_USERS = "wse.communication.users";
@@ -43,6 +41,7 @@ public class UserUtils {
 	private static final JsonObject QUERY_VISIBLE_MANUAL_GROUPS = new JsonObject()
 	.putString("action", "visibleManualGroups");
 	private static final I18n i18n = I18n.getInstance();
+	private static final ObjectMapper mapper = new ObjectMapper();
 
 	private static void findUsers(final EventBus eb, HttpServerRequest request,
 								  final JsonObject query, final Handler<JsonArray> handler) {
@@ -310,6 +309,16 @@ public class UserUtils {
 				handler.handle(null);
 				return;
 			} else {
+				if (oneSessionId != null && !oneSessionId.trim().isEmpty()) {
+					JsonObject cached = SessionCache.getInstance().get(oneSessionId);
+					if (cached != null) {
+						if (request instanceof SecureHttpServerRequest) {
+							((SecureHttpServerRequest) request).setSession(cached);
+						}
+						handler.handle(cached);
+						return;
+					}
+				}
 				if (!paused) {
 					request.pause();
 				}
@@ -332,8 +341,8 @@ public class UserUtils {
 		findSession(eb, request, findSession, false, handler);
 	}
 
-	private static void findSession(EventBus eb, final HttpServerRequest request, JsonObject findSession, final boolean paused,
-			final Handler<JsonObject> handler) {
+	private static void findSession(EventBus eb, final HttpServerRequest request, final JsonObject findSession,
+			final boolean paused, final Handler<JsonObject> handler) {
 		eb.send(SESSION_ADDRESS, findSession, new Handler<Message<JsonObject>>() {
 
 			@Override
@@ -343,6 +352,9 @@ public class UserUtils {
 					request.resume();
 				}
 				if ("ok".equals(message.body().getString("status")) && session != null) {
+					if ("find".equals(findSession.getString("action"))) {
+						SessionCache.getInstance().put(findSession.getString("sessionId"), session);
+					}
 					if (request instanceof SecureHttpServerRequest) {
 						((SecureHttpServerRequest) request).setSession(session);
 					}
@@ -363,6 +375,11 @@ public class UserUtils {
 	}
 
 	public static void getSession(EventBus eb, final String sessionId,  final Handler<JsonObject> handler) {
+		JsonObject cached = SessionCache.getInstance().get(sessionId);
+		if (cached != null) {
+			handler.handle(cached);
+			return;
+		}
 		JsonObject findSession = new JsonObject()
 				.putString("action", "find")
 				.putString("sessionId", sessionId);
@@ -373,10 +390,9 @@ public class UserUtils {
 		if (session == null) {
 			return null;
 		}
-		ObjectMapper mapper = new ObjectMapper();
 		try {
-			return mapper.readValue(session.encode(), UserInfos.class);
-		} catch (IOException e) {
+			return mapper.convertValue(session.toMap(), UserInfos.class);
+		} catch (IllegalArgumentException e) {
 			e.printStackTrace();
 			return null;
 		}
@@ -421,6 +437,7 @@ public class UserUtils {
 
 	public static void deleteSession(EventBus eb, String sessionId,
 									 final Handler<Boolean> handler) {
+		SessionCache.getInstance().remove(sessionId);
 		JsonObject json = new JsonObject()
 				.putString("action", "drop")
 				.putString("sessionId", sessionId);
@@ -437,6 +454,7 @@ public class UserUtils {
 
 	public static void deleteSessionWithMetadata(EventBus eb, String sessionId,
 			final Handler<JsonObject> handler) {
+		SessionCache.getInstance().remove(sessionId);
 		JsonObject json = new JsonObject()
 				.putString("action", "drop")
 				.putBoolean("sessionMetadata", true)
@@ -474,6 +492,7 @@ public class UserUtils {
 	}
 
 	public static void deleteCacheSession(EventBus eb, String userId, final Handler<Boolean> handler) {
+		SessionCache.getInstance().removeByUserId(userId);
 		JsonObject json = new JsonObject()
 				.putString("action", "dropCacheSession")
 				.putString("userId", userId);
@@ -490,6 +509,7 @@ public class UserUtils {
 
 	public static void addSessionAttribute(EventBus eb, String userId,
 			String key, Object value, final Handler<Boolean> handler) {
+		SessionCache.getInstance().removeByUserId(userId);
 		JsonObject json = new JsonObject()
 				.putString("action", "addAttribute")
 				.putString("userId", userId)
@@ -508,6 +528,7 @@ public class UserUtils {
 
 	public static void removeSessionAttribute(EventBus eb, String userId,
 			String key, final Handler<Boolean> handler) {
+		SessionCache.getInstance().removeByUserId(userId);
 		JsonObject json = new JsonObject()
 				.putString("action", "removeAttribute")
 				.putString("userId", userId)
@@ -0,0 +1,166 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.common.test.integration.java;
+
+import fr.wseduc.mongodb.MongoDb;
+import org.entcore.common.storage.Storage;
+import org.entcore.common.storage.impl.DedupStorage;
+import org.entcore.common.storage.impl.FileStorage;
+import org.junit.Test;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.testtools.TestVerticle;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import static org.vertx.testtools.VertxAssert.assertEquals;
+import static org.vertx.testtools.VertxAssert.assertTrue;
+import static org.vertx.testtools.VertxAssert.fail;
+import static org.vertx.testtools.VertxAssert.testComplete;
+
+public class DedupStorageTestVerticle extends TestVerticle {
+
+	private static final String ORIGINAL = "original content";
+	private static final String UPDATED = "updated content";
+	private File tmp;
+	private FileStorage fileStorage;
+	private DedupStorage storage;
+
+	@Override
+	public void start() {
+		JsonObject config = new JsonObject()
+				.putBoolean("worker", true)
+				.putBoolean("multi-threaded", true)
+				.putString("address", "wse.mongodb.persistor")
+				.putString("host", "localhost")
+				.putNumber("port", 27017)
+				.putString("db_name", "one_dedup")
+				.putBoolean("use_mongo_types", true)
+				.putNumber("pool_size", 10);
+		container.deployModule("io.vertx~mod-mongo-persistor~2.1.2-WSE", config, new AsyncResultHandler<String>() {
+			@Override
+			public void handle(AsyncResult<String> ar) {
+				if (ar.succeeded()) {
+					MongoDb.getInstance().init(vertx.eventBus(), "wse.mongodb.persistor");
+					try {
+						tmp = Files.createTempDirectory("dedup").toFile();
+					} catch (IOException e) {
+						e.printStackTrace();
+						return;
+					}
+					fileStorage = new FileStorage(vertx, tmp.getAbsolutePath(), true);
+					storage = new DedupStorage(vertx, fileStorage);
+					DedupStorageTestVerticle.super.start();
+				} else {
+					ar.cause().printStackTrace();
+				}
+			}
+		});
+	}
+
+	@Test
+	public void overwriteFsFileKeepsCopies() {
+		final String id = UUID.randomUUID().toString();
+		storage.writeFsFile(id, localFile(ORIGINAL + id), new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject event) {
+				assertEquals("ok", event.getString("status"));
+				copyThenOverwrite(id, ORIGINAL + id, storage, new Handler<Handler<JsonObject>>() {
+					@Override
+					public void handle(Handler<JsonObject> next) {
+						storage.writeFsFile(id, localFile(UPDATED + id), next);
+					}
+				});
+			}
+		});
+	}
+
+	@Test
+	public void overwriteWithoutIndexingKeepsCopies() {
+		final String id = UUID.randomUUID().toString();
+		final DedupStorage notIndexing = new DedupStorage(vertx, fileStorage);
+		notIndexing.setIndexing(false);
+		storage.writeFsFile(id, localFile(ORIGINAL + id), new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject event) {
+				assertEquals("ok", event.getString("status"));
+				copyThenOverwrite(id, ORIGINAL + id, notIndexing, new Handler<Handler<JsonObject>>() {
+					@Override
+					public void handle(Handler<JsonObject> next) {
+						notIndexing.writeBuffer(id, new Buffer(UPDATED + id), "text/plain", "f.txt", next);
+					}
+				});
+			}
+		});
+	}
+
+	private void copyThenOverwrite(final String id, final String original, final Storage storage,
+			final Handler<Handler<JsonObject>> overwrite) {
+		storage.copyFile(id, new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject copy) {
+				assertEquals("ok", copy.getString("status"));
+				final String copyId = copy.getString("_id");
+				overwrite.handle(new Handler<JsonObject>() {
+					@Override
+					public void handle(JsonObject event) {
+						assertEquals("ok", event.getString("status"));
+						storage.readFile(copyId, new Handler<Buffer>() {
+							@Override
+							public void handle(Buffer buffer) {
+								assertTrue(buffer != null);
+								assertEquals(original, buffer.toString());
+								storage.readFile(id, new Handler<Buffer>() {
+									@Override
+									public void handle(Buffer buffer) {
+										assertTrue(buffer != null);
+										assertEquals(UPDATED + id, buffer.toString());
+										testComplete();
+									}
+								});
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	private String localFile(String content) {
+		try {
+			File f = File.createTempFile("dedup", ".txt", tmp);
+			try (FileOutputStream out = new FileOutputStream(f)) {
+				out.write(content.getBytes("UTF-8"));
+			}
+			return f.getAbsolutePath();
+		} catch (IOException e) {
+			fail(e.getMessage());
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.common.test.unit;
+
+import org.entcore.common.storage.BulkOperation;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BulkOperationTest {
+
+	private static List<Integer> items(int n) {
+		final List<Integer> items = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			items.add(i);
+		}
+		return items;
+	}
+
+	@Test
+	public void emptyList() {
+		final JsonObject[] res = new JsonObject[1];
+		new BulkOperation<>(Collections.<Integer>emptyList(), 4, new BulkOperation.Operation<Integer>() {
+			@Override
+			public void execute(Integer item, Handler<JsonObject> done) {
+				fail("no item");
+			}
+		}).start(new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject event) {
+				res[0] = event;
+			}
+		});
+		assertNotNull(res[0]);
+		assertEquals("ok", res[0].getString("status"));
+		assertEquals(0, (int) res[0].getObject("metrics").getInteger("count"));
+	}
+
+	@Test
+	public void concurrencyLimit() {
+		final LinkedList<Handler<JsonObject>> pending = new LinkedList<>();
+		final int[] maxInFlight = new int[1];
+		final JsonObject[] res = new JsonObject[1];
+		new BulkOperation<>(items(10), 3, new BulkOperation.Operation<Integer>() {
+			@Override
+			public void execute(Integer item, Handler<JsonObject> done) {
+				pending.add(done);
+				maxInFlight[0] = Math.max(maxInFlight[0], pending.size());
+			}
+		}).start(new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject event) {
+				res[0] = event;
+			}
+		});
+		assertEquals(3, pending.size());
+		while (!pending.isEmpty()) {
+			assertNull(res[0]);
+			pending.poll().handle(null);
+		}
+		assertEquals(3, maxInFlight[0]);
+		assertNotNull(res[0]);
+		assertEquals("ok", res[0].getString("status"));
+		assertEquals(10, (int) res[0].getObject("metrics").getInteger("count"));
+	}
+
+	@Test
+	public void errorsAggregated() {
+		final JsonObject[] res = new JsonObject[1];
+		new BulkOperation<>(items(6), 2, new BulkOperation.Operation<Integer>() {
+			@Override
+			public void execute(Integer item, Handler<JsonObject> done) {
+				if (item == 4) {
+					throw new IllegalStateException("failed " + item);
+				}
+				done.handle(item % 2 == 1 ? new JsonObject().putNumber("item", item) : null);
+			}
+		}).start(new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject event) {
+				res[0] = event;
+			}
+		});
+		assertEquals("error", res[0].getString("status"));
+		assertEquals(4, res[0].getArray("errors").size());
+		assertEquals(4, (int) res[0].getObject("metrics").getInteger("failed"));
+	}
+
+	@Test
+	public void progress() {
+		final List<Integer> processed = new ArrayList<>();
+		new BulkOperation<>(items(5), 2, new BulkOperation.Operation<Integer>() {
+			@Override
+			public void execute(Integer item, Handler<JsonObject> done) {
+				done.handle(null);
+			}
+		}).progressHandler(2, new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject event) {
+				assertEquals(5, (int) event.getInteger("total"));
+				processed.add(event.getInteger("processed"));
+			}
+		}).start(null);
+		assertEquals(Arrays.asList(2, 4, 5), processed);
+	}
+
+	@Test
+	public void partition() {
+		final List<JsonArray> batches = BulkOperation.partition(items(7), 3);
+		assertEquals(3, batches.size());
+		assertEquals(3, batches.get(0).size());
+		assertEquals(3, batches.get(1).size());
+		assertEquals(1, batches.get(2).size());
+		assertEquals(6, (int) batches.get(2).<Integer>get(0));
+		assertTrue(BulkOperation.partition(Collections.emptyList(), 3).isEmpty());
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2016
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.common.test.unit;
+
+import org.entcore.common.http.request.ByteRange;
+import org.entcore.common.http.request.JsonHttpServerRequest;
+import org.junit.Test;
+import org.vertx.java.core.json.JsonObject;
+
+import static org.junit.Assert.*;
+
+public class ByteRangeTest {
+
+	private static final String ID = "0c7b5a0c-5e83-4a2d-9d4f-3f5d7e1c2b11";
+
+	private static ByteRange parse(String range, String ifRange, long length) {
+		final JsonObject headers = new JsonObject();
+		if (range != null) {
+			headers.putString("Range", range);
+		}
+		if (ifRange != null) {
+			headers.putString("If-Range", ifRange);
+		}
+		return ByteRange.parse(new JsonHttpServerRequest(new JsonObject().putObject("headers", headers)), ID, length);
+	}
+
+	@Test
+	public void noRange() {
+		assertNull(parse(null, null, 100));
+		assertNull(parse("items=0-10", null, 100));
+	}
+
+	@Test
+	public void closedRange() {
+		final ByteRange r = parse("bytes=10-19", null, 100);
+		assertTrue(r.isSatisfiable());
+		assertEquals(10, r.getStart());
+		assertEquals(19, r.getEnd());
+		assertEquals(10, r.length());
+	}
+
+	@Test
+	public void openRange() {
+		final ByteRange r = parse("bytes=90-", null, 100);
+		assertEquals(90, r.getStart());
+		assertEquals(99, r.getEnd());
+	}
+
+	@Test
+	public void endBeyondLength() {
+		final ByteRange r = parse("bytes=50-500", null, 100);
+		assertEquals(50, r.getStart());
+		assertEquals(99, r.getEnd());
+	}
+
+	@Test
+	public void suffixRange() {
+		ByteRange r = parse("bytes=-10", null, 100);
+		assertEquals(90, r.getStart());
+		assertEquals(99, r.getEnd());
+		r = parse("bytes=-500", null, 100);
+		assertEquals(0, r.getStart());
+		assertEquals(99, r.getEnd());
+	}
+
+	@Test
+	public void unsatisfiable() {
+		assertFalse(parse("bytes=100-", null, 100).isSatisfiable());
+		assertFalse(parse("bytes=20-10", null, 100).isSatisfiable());
+		assertFalse(parse("bytes=-0", null, 100).isSatisfiable());
+	}
+
+	@Test
+	public void wholeFile() {
+		assertNull(parse("bytes=0-10,20-30", null, 100));
+		assertNull(parse("bytes=10", null, 100));
+		assertNull(parse("bytes=a-b", null, 100));
+	}
+
+	@Test
+	public void ifRange() {
+		assertNotNull(parse("bytes=0-9", "\"" + ID + "\"", 100));
+		assertNull(parse("bytes=0-9", "\"other\"", 100));
+		assertNull(parse("bytes=0-9", "W/\"" + ID + "\"", 100));
+	}
+
+}
@@ -19,9 +19,13 @@
 
 package org.entcore.communication;
 
+import org.entcore.common.appregistry.AppRegistryEventsHandler;
 import org.entcore.common.http.BaseServer;
 import org.entcore.communication.controllers.CommunicationController;
 import org.entcore.communication.filters.CommunicationFilter;
+import org.entcore.communication.services.impl.DefaultCommunicationService;
+import org.entcore.communication.services.impl.VisibleGroupsCache;
+import org.entcore.communication.services.impl.VisibleGroupsEventsService;
 
 public class Communication extends BaseServer {
 
@@ -30,6 +34,12 @@ public class Communication extends BaseServer {
 		super.start();
 		addController(new CommunicationController());
 		setDefaultResourceFilter(new CommunicationFilter());
+		if (config.getBoolean("visible-groups-cache", true)) {
+			VisibleGroupsCache.getInstance().init(vertx, config);
+		}
+		if (config.getBoolean("visible-groups-index", false) || VisibleGroupsCache.getInstance().isEnabled()) {
+			new AppRegistryEventsHandler(vertx, new VisibleGroupsEventsService(new DefaultCommunicationService()));
+		}
 	}
 
 }
@@ -35,6 +35,7 @@ import org.entcore.common.http.filter.AdminFilter;
 import org.entcore.common.http.filter.ResourceFilter;
 import org.entcore.communication.services.CommunicationService;
 import org.entcore.communication.services.impl.DefaultCommunicationService;
+import org.entcore.communication.services.impl.VisibleGroupsCache;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.http.HttpServerRequest;
@@ -288,6 +289,12 @@ public class CommunicationController extends BaseController {
 				communicationService.applyRules(
 						message.body().getString("groupId"), responseHandler);
 				break;
+			case "rebuildVisibleGroups" :
+				communicationService.rebuildVisibleGroups(message.body().getArray("structures"), responseHandler);
+				break;
+			case "visibleGroupsCacheStats" :
+				message.reply(VisibleGroupsCache.getInstance().stats().putString("status", "ok"));
+				break;
 			default:
 				message.reply(new JsonObject().putString("status", "error")
 						.putString("message", "invalid.action"));
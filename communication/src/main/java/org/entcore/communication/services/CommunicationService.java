@@ -72,4 +72,8 @@ public interface CommunicationService {
 	void visibleManualGroups(String userId, String customReturn, JsonObject additionnalParams,
 			Handler<Either<String, JsonArray>> handler);
 
+	void refreshVisibleGroups(JsonArray userIds, Handler<Either<String, JsonObject>> handler);
+
+	void rebuildVisibleGroups(JsonArray structures, Handler<Either<String, JsonObject>> handler);
+
 }
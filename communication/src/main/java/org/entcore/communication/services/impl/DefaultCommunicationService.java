@@ -23,6 +23,7 @@ import fr.wseduc.webutils.Either;
 import fr.wseduc.webutils.collections.Joiner;
 import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.neo4j.StatementsBuilder;
+import org.entcore.common.utils.Config;
 import org.entcore.communication.services.CommunicationService;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
@@ -39,7 +40,20 @@ import static org.entcore.common.neo4j.Neo4jResult.*;
 public class DefaultCommunicationService implements CommunicationService {
 
 	private final Neo4j neo4j = Neo4j.getInstance();
+	private final VisibleGroupsCache cache = VisibleGroupsCache.getInstance();
 	private static final Logger log = LoggerFactory.getLogger(DefaultCommunicationService.class);
+	private static final String REFRESH_VISIBLE_GROUPS =
+			"WITH DISTINCT u " +
+			"OPTIONAL MATCH u-[:COMMUNIQUE]->()-[:COMMUNIQUE]->(vg:Group) " +
+			"WITH u, COLLECT(DISTINCT vg.id) as visibleGroups " +
+			"SET u.visibleGroups = visibleGroups ";
+	private static final String STALE_VISIBLE_GROUPS = "StaleVisibleGroups";
+	private final boolean visibleGroupsIndex;
+
+	public DefaultCommunicationService() {
+		final JsonObject config = Config.getConf();
+		visibleGroupsIndex = config != null && config.getBoolean("visible-groups-index", false);
+	}
 
 	@Override
 	public void addLink(String startGroupId, String endGroupId, Handler<Either<String, JsonObject>> handler) {
@@ -51,7 +65,7 @@ public class DefaultCommunicationService implements CommunicationService {
 		JsonObject params = new JsonObject()
 				.putString("startGroupId", startGroupId)
 				.putString("endGroupId", endGroupId);
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		execute(query, params, "MATCH (:Group {id : {startGroupId}})<-[:COMMUNIQUE]-(u:User) ", true, handler);
 	}
 
 	@Override
@@ -64,7 +78,7 @@ public class DefaultCommunicationService implements CommunicationService {
 		JsonObject params = new JsonObject()
 				.putString("startGroupId", startGroupId)
 				.putString("endGroupId", endGroupId);
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		execute(query, params, "MATCH (:Group {id : {startGroupId}})<-[:COMMUNIQUE]-(u:User) ", true, handler);
 	}
 
 	@Override
@@ -88,7 +102,7 @@ public class DefaultCommunicationService implements CommunicationService {
 				"CREATE UNIQUE " + createRelationship +
 				"RETURN COUNT(*) as number ";
 		JsonObject params = new JsonObject().putString("groupId", groupId).putString("direction", direction.name());
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		execute(query, params, "MATCH (:Group {id : {groupId}})<-[:IN]-(u:User) ", true, handler);
 	}
 
 	@Override
@@ -116,7 +130,7 @@ public class DefaultCommunicationService implements CommunicationService {
 				"DELETE r " +
 				"RETURN COUNT(*) as number ";
 		JsonObject params = new JsonObject().putString("groupId", groupId);
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		execute(query, params, "MATCH (:Group {id : {groupId}})<-[:IN]-(u:User) ", true, handler);
 	}
 
 	@Override
@@ -398,7 +412,11 @@ public class DefaultCommunicationService implements CommunicationService {
 				"WITH DISTINCT v " +
 				"SET v:Visible ";
 		s.add(setVisible2, params);
-		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(handler));
+		if (visibleGroupsIndex) {
+			s.add("MATCH (s:Structure)<-[:DEPENDS*1..2]-(:Group)<-[:IN]-(u:User) " +
+					"WHERE s.id IN {structures} " + REFRESH_VISIBLE_GROUPS, params);
+		}
+		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(invalidateOnSuccess(handler)));
 	}
 
 	@Override
@@ -442,7 +460,10 @@ public class DefaultCommunicationService implements CommunicationService {
 				"WITH DISTINCT v " +
 				"SET v:Visible ";
 		s.add(setVisible, params);
-		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(handler));
+		if (visibleGroupsIndex) {
+			s.add("MATCH (:Group {id : {groupId}})<-[:IN|COMMUNIQUE]-(u:User) " + REFRESH_VISIBLE_GROUPS, params);
+		}
+		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(invalidateOnSuccess(handler)));
 	}
 
 	@Override
@@ -461,7 +482,26 @@ public class DefaultCommunicationService implements CommunicationService {
 					"OPTIONAL MATCH ()-[r1:COMMUNIQUE_DIRECT]->() " +
 					"DELETE r, r1 ";
 		}
-		neo4j.execute(query, params, validEmptyHandler(handler));
+		if (!visibleGroupsIndex) {
+			neo4j.execute(query, params, validEmptyHandler(invalidateOnSuccess(handler)));
+			return;
+		}
+		StatementsBuilder s = new StatementsBuilder();
+		if (params.containsField("schoolId")) {
+			// deleted links may come from groups of other structures : affected users are marked before
+			// the deletion and refreshed after it, in the same transaction.
+			s.add("MATCH (s:Structure {id : {schoolId}})<-[:DEPENDS*1..2]-(:ProfileGroup)-[:COMMUNIQUE]-()" +
+					"<-[:COMMUNIQUE*0..1]-(u:User) " +
+					"WITH DISTINCT u " +
+					"SET u:" + STALE_VISIBLE_GROUPS + " ", params);
+			s.add(query, params);
+			s.add("MATCH (u:" + STALE_VISIBLE_GROUPS + ") " +
+					"REMOVE u:" + STALE_VISIBLE_GROUPS + " " + REFRESH_VISIBLE_GROUPS);
+		} else {
+			s.add(query, params);
+			s.add("MATCH (u:User) WHERE HAS(u.visibleGroups) SET u.visibleGroups = [] ");
+		}
+		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(invalidateOnSuccess(handler)));
 	}
 
 	@Override
@@ -474,6 +514,24 @@ public class DefaultCommunicationService implements CommunicationService {
 		if (structureId != null && !structureId.trim().isEmpty()) {
 			query.append("MATCH (n:User)-[:COMMUNIQUE*1..3]->m-[:DEPENDS*1..2]->(s:Structure {id:{schoolId}})"); //TODO manage leaf
 			params.putString("schoolId", structureId);
+		} else if (visibleGroupsIndex) {
+			// groups reached in two hops are read from the index, users without index are computed live
+			query.append("MATCH (n:User {id : {userId}}) " +
+					"OPTIONAL MATCH n-[:COMMUNIQUE]->t " +
+					"WITH n, COLLECT(t) as t1 " +
+					"UNWIND (CASE WHEN size(coalesce(n.visibleGroups, [])) > 0 THEN n.visibleGroups ELSE [null] END) as gid " +
+					"OPTIONAL MATCH (vg:Group {id : gid}) " +
+					"WITH n, t1, COLLECT(vg) as indexed " +
+					"OPTIONAL MATCH n-[:COMMUNIQUE]->()-[:COMMUNIQUE]->(lg:Group) " +
+					"WHERE NOT(HAS(n.visibleGroups)) " +
+					"WITH n, t1, indexed + COLLECT(DISTINCT lg) as t2 " +
+					"UNWIND ([n] + t1 + t2) as g " +
+					"MATCH g-[x:COMMUNIQUE|COMMUNIQUE_DIRECT|DEPENDS*0..1]-m ");
+			String l = (myGroup) ? " OR (g IN t1 AND m.users <> 'INCOMING')" : "";
+			condition += "AND ((g = n AND LENGTH(x) = 1 AND type(x[0]) = 'COMMUNIQUE_DIRECT' AND startNode(x[0]) = n) " +
+					"OR (g <> n AND ((LENGTH(x) = 0 AND (g IN t2" + l + ")) " +
+					"OR (LENGTH(x) = 1 AND type(x[0]) = 'DEPENDS' AND endNode(x[0]) = g) " +
+					"OR (LENGTH(x) = 1 AND type(x[0]) = 'COMMUNIQUE' AND startNode(x[0]) = g AND m:User)))) ";
 		} else {
 			String l = (myGroup) ? " AND (length(p) >= 2 OR m.users <> 'INCOMING')" : " AND length(p) >= 2";
 			query.append(" MATCH p=(n:User)-[r:COMMUNIQUE|COMMUNIQUE_DIRECT]->t-[:COMMUNIQUE*0..1]->ipg" +
@@ -538,6 +596,12 @@ public class DefaultCommunicationService implements CommunicationService {
 	@Override
 	public void visibleProfilsGroups(String userId, String customReturn, JsonObject additionnalParams,
 			String preFilter, Handler<Either<String, JsonArray>> handler) {
+		final String key = VisibleGroupsCache.key("profilsGroups", userId, preFilter, customReturn, additionnalParams);
+		final JsonArray cached = cache.get(key);
+		if (cached != null) {
+			handler.handle(new Either.Right<String, JsonArray>(cached));
+			return;
+		}
 		String r;
 		if (customReturn != null && !customReturn.trim().isEmpty()) {
 			r = "WITH gp as profileGroup, profile " + customReturn;
@@ -554,12 +618,18 @@ public class DefaultCommunicationService implements CommunicationService {
 				"WHERE n.id = {userId} AND (length(p) > 1 OR gp.users <> 'INCOMING') " + (preFilter != null ? preFilter : "") +
 				"OPTIONAL MATCH gp-[:DEPENDS*0..1]->(pg:ProfileGroup)-[:HAS_PROFILE]->(profile:Profile) " +
 				r;
-		neo4j.execute(query, params, validResultHandler(handler));
+		neo4j.execute(query, params, validResultHandler(cacheOnSuccess(key, userId, handler)));
 	}
 
 	@Override
 	public void visibleManualGroups(String userId, String customReturn, JsonObject additionnalParams,
 			Handler<Either<String, JsonArray>> handler) {
+		final String key = VisibleGroupsCache.key("manualGroups", userId, null, customReturn, additionnalParams);
+		final JsonArray cached = cache.get(key);
+		if (cached != null) {
+			handler.handle(new Either.Right<String, JsonArray>(cached));
+			return;
+		}
 		String r;
 		if (customReturn != null && !customReturn.trim().isEmpty()) {
 			r = "WITH mg as manualGroup " + customReturn;
@@ -575,7 +645,115 @@ public class DefaultCommunicationService implements CommunicationService {
 				"MATCH p=(n:User)-[:COMMUNIQUE*1..2]->l<-[:DEPENDS*0..1]-(mg:ManualGroup) " +
 				"WHERE n.id = {userId} AND (length(p) > 1 OR mg.users <> 'INCOMING') " +
 				r;
-		neo4j.execute(query, params, validResultHandler(handler));
+		neo4j.execute(query, params, validResultHandler(cacheOnSuccess(key, userId, handler)));
+	}
+
+	@Override
+	public void refreshVisibleGroups(JsonArray userIds, Handler<Either<String, JsonObject>> handler) {
+		if (!visibleGroupsIndex) {
+			handler.handle(new Either.Right<String, JsonObject>(new JsonObject()));
+			return;
+		}
+		String query = "MATCH (u:User) WHERE u.id IN {users} " + REFRESH_VISIBLE_GROUPS;
+		neo4j.execute(query, new JsonObject().putArray("users", userIds), validEmptyHandler(handler));
+	}
+
+	@Override
+	public void rebuildVisibleGroups(final JsonArray structures, final Handler<Either<String, JsonObject>> handler) {
+		if (!visibleGroupsIndex) {
+			handler.handle(new Either.Right<String, JsonObject>(new JsonObject()));
+			return;
+		}
+		final String query;
+		final JsonObject params = new JsonObject();
+		if (structures != null) {
+			query = "MATCH (s:Structure) WHERE s.externalId IN {structures} RETURN COLLECT(s.id) as structures";
+			params.putArray("structures", structures);
+		} else {
+			query = "MATCH (s:Structure) RETURN COLLECT(s.id) as structures";
+		}
+		neo4j.execute(query, params, validUniqueResultHandler(new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> event) {
+				if (event.isRight()) {
+					rebuildVisibleGroups(event.right().getValue().getArray("structures", new JsonArray()), 0,
+							structures == null, handler);
+				} else {
+					handler.handle(event);
+				}
+			}
+		}));
+	}
+
+	private void rebuildVisibleGroups(final JsonArray structures, final int idx, final boolean all,
+			final Handler<Either<String, JsonObject>> handler) {
+		if (idx >= structures.size()) {
+			if (all) {
+				String query = "MATCH (u:User) WHERE NOT(HAS(u.visibleGroups)) " + REFRESH_VISIBLE_GROUPS;
+				neo4j.execute(query, new JsonObject(), validEmptyHandler(handler));
+			} else {
+				handler.handle(new Either.Right<String, JsonObject>(new JsonObject()));
+			}
+			return;
+		}
+		String query =
+				"MATCH (s:Structure {id : {structureId}})<-[:DEPENDS*1..2]-(:Group)<-[:IN]-(u:User) " +
+				REFRESH_VISIBLE_GROUPS;
+		JsonObject params = new JsonObject().putString("structureId", (String) structures.get(idx));
+		neo4j.execute(query, params, validEmptyHandler(new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> event) {
+				if (event.isLeft()) {
+					log.error("Error rebuilding visible groups of structure " + structures.get(idx) +
+							" : " + event.left().getValue());
+				}
+				rebuildVisibleGroups(structures, idx + 1, all, handler);
+			}
+		}));
+	}
+
+	private void execute(String query, JsonObject params, String refreshedUsers, boolean uniqueResult,
+			Handler<Either<String, JsonObject>> h) {
+		final Handler<Either<String, JsonObject>> handler = invalidateOnSuccess(h);
+		if (!visibleGroupsIndex) {
+			neo4j.execute(query, params, uniqueResult ? validUniqueResultHandler(handler) : validEmptyHandler(handler));
+			return;
+		}
+		StatementsBuilder s = new StatementsBuilder()
+				.add(query, params)
+				.add(refreshedUsers + REFRESH_VISIBLE_GROUPS, params);
+		neo4j.executeTransaction(s.build(), null, true,
+				uniqueResult ? validUniqueResultHandler(0, handler) : validEmptyHandler(handler));
+	}
+
+	private Handler<Either<String, JsonArray>> cacheOnSuccess(final String key, final String userId,
+			final Handler<Either<String, JsonArray>> handler) {
+		if (!cache.isEnabled()) {
+			return handler;
+		}
+		final long generation = cache.generation();
+		return new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if (event.isRight()) {
+					cache.put(key, userId, event.right().getValue(), generation);
+				}
+				handler.handle(event);
+			}
+		};
+	}
+
+	private Handler<Either<String, JsonObject>> invalidateOnSuccess(
+			final Handler<Either<String, JsonObject>> handler) {
+		return new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> event) {
+				if (event.isRight()) {
+					cache.publishInvalidation(null);
+				}
+				handler.handle(event);
+			}
+		};
 	}
 
 }
@@ -0,0 +1,203 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.communication.services.impl;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded LRU cache of the visible profile and manual groups of users.
+ * Entries are dropped on the messages published on {@link #INVALIDATION_ADDRESS} by the
+ * communication rules updates, the users groups updates and the imports, and expire after a TTL
+ * for the changes which are not notified (groups deletion for example).
+ * A result computed while an invalidation happens is not cached.
+ */
+public class VisibleGroupsCache implements Handler<Message<JsonObject>> {
+
+	public static final String INVALIDATION_ADDRESS = "wse.communication.cache.invalidation";
+	private static final int DEFAULT_MAX_SIZE = 5000;
+	private static final long DEFAULT_TTL = 300000l;
+
+	private Vertx vertx;
+	private LinkedHashMap<String, CachedResult> results;
+	private final Map<String, Set<String>> keysByUser = new HashMap<>();
+	private long ttl;
+	private boolean enabled = false;
+	private long generation = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	private static final class CachedResult {
+		private final String userId;
+		private final JsonArray result;
+		private final long expire;
+
+		private CachedResult(String userId, JsonArray result, long expire) {
+			this.userId = userId;
+			this.result = result;
+			this.expire = expire;
+		}
+	}
+
+	private VisibleGroupsCache() {}
+
+	private static class VisibleGroupsCacheHolder {
+		private static final VisibleGroupsCache instance = new VisibleGroupsCache();
+	}
+
+	public static VisibleGroupsCache getInstance() {
+		return VisibleGroupsCacheHolder.instance;
+	}
+
+	public synchronized void init(Vertx vertx, JsonObject config) {
+		if (enabled) {
+			return;
+		}
+		this.vertx = vertx;
+		final int maxSize = config.getInteger("visible-groups-cache-size", DEFAULT_MAX_SIZE);
+		this.ttl = config.getLong("visible-groups-cache-ttl", DEFAULT_TTL);
+		this.results = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+				if (size() > maxSize) {
+					removeUserIndex(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+		vertx.eventBus().registerHandler(INVALIDATION_ADDRESS, this);
+		enabled = true;
+	}
+
+	public static String key(String type, String userId, String preFilter, String customReturn,
+			JsonObject additionnalParams) {
+		return type + "|" + userId + "|" + preFilter + "|" + customReturn + "|" +
+				(additionnalParams != null ? additionnalParams.encode() : "");
+	}
+
+	public synchronized boolean isEnabled() {
+		return enabled;
+	}
+
+	public synchronized long generation() {
+		return generation;
+	}
+
+	public synchronized JsonArray get(String key) {
+		if (!enabled) {
+			return null;
+		}
+		CachedResult r = results.get(key);
+		if (r == null || r.expire < System.currentTimeMillis()) {
+			if (r != null) {
+				results.remove(key);
+				removeUserIndex(key, r);
+			}
+			misses++;
+			return null;
+		}
+		hits++;
+		return r.result.copy();
+	}
+
+	public synchronized void put(String key, String userId, JsonArray result, long generation) {
+		if (!enabled || result == null || generation != this.generation) {
+			return;
+		}
+		CachedResult old = results.put(key, new CachedResult(userId, result.copy(), System.currentTimeMillis() + ttl));
+		if (old != null) {
+			removeUserIndex(key, old);
+		}
+		Set<String> keys = keysByUser.get(userId);
+		if (keys == null) {
+			keys = new HashSet<>();
+			keysByUser.put(userId, keys);
+		}
+		keys.add(key);
+	}
+
+	public synchronized JsonObject stats() {
+		return new JsonObject()
+				.putBoolean("enabled", enabled)
+				.putNumber("size", enabled ? results.size() : 0)
+				.putNumber("hits", hits)
+				.putNumber("misses", misses);
+	}
+
+	/**
+	 * Publish an invalidation to all the communication instances.
+	 * @param userIds users to invalidate, all the cache if null
+	 */
+	public void publishInvalidation(JsonArray userIds) {
+		final Vertx v;
+		synchronized (this) {
+			if (!enabled) {
+				return;
+			}
+			v = vertx;
+		}
+		JsonObject m = new JsonObject();
+		if (userIds != null) {
+			m.putArray("users", userIds);
+		}
+		v.eventBus().publish(INVALIDATION_ADDRESS, m);
+	}
+
+	@Override
+	public synchronized void handle(Message<JsonObject> message) {
+		generation++;
+		final JsonArray users = message.body().getArray("users");
+		if (users == null) {
+			results.clear();
+			keysByUser.clear();
+			return;
+		}
+		for (Object userId : users) {
+			if (!(userId instanceof String)) continue;
+			Set<String> keys = keysByUser.remove(userId);
+			if (keys != null) {
+				for (String key : keys) {
+					results.remove(key);
+				}
+			}
+		}
+	}
+
+	private void removeUserIndex(String key, CachedResult r) {
+		Set<String> keys = keysByUser.get(r.userId);
+		if (keys != null) {
+			keys.remove(key);
+			if (keys.isEmpty()) {
+				keysByUser.remove(r.userId);
+			}
+		}
+	}
+
+}
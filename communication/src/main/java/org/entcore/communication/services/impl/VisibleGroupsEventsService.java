@@ -0,0 +1,87 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.communication.services.impl;
+
+import fr.wseduc.webutils.Either;
+import org.entcore.common.appregistry.ImportEventsService;
+import org.entcore.communication.services.CommunicationService;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+/**
+ * Keeps the users visible groups index and cache up to date when users change groups or after an import.
+ */
+public class VisibleGroupsEventsService implements ImportEventsService {
+
+	private static final Logger log = LoggerFactory.getLogger(VisibleGroupsEventsService.class);
+	private final CommunicationService communicationService;
+
+	public VisibleGroupsEventsService(CommunicationService communicationService) {
+		this.communicationService = communicationService;
+	}
+
+	@Override
+	public void authorizedActionsUpdated(JsonArray groups) {
+
+	}
+
+	@Override
+	public void userGroupUpdated(JsonArray users, final Message<JsonObject> message) {
+		if (users == null || users.size() == 0) {
+			message.reply(new JsonObject().putString("status", "ok"));
+			return;
+		}
+		VisibleGroupsCache.getInstance().publishInvalidation(users);
+		communicationService.refreshVisibleGroups(users, new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> event) {
+				if (event.isLeft()) {
+					log.error("Error refreshing users visible groups : " + event.left().getValue());
+				}
+				message.reply(new JsonObject().putString("status", "ok"));
+			}
+		});
+	}
+
+	@Override
+	public void importSucceeded() {
+		importSucceeded(null);
+	}
+
+	@Override
+	public void importSucceeded(JsonArray structures) {
+		VisibleGroupsCache.getInstance().publishInvalidation(null);
+		communicationService.rebuildVisibleGroups(structures, new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> event) {
+				if (event.isLeft()) {
+					log.error("Error rebuilding visible groups : " + event.left().getValue());
+				} else {
+					log.info("Visible groups index rebuilt.");
+				}
+			}
+		});
+	}
+
+}
@@ -23,8 +23,12 @@ import org.entcore.common.http.request.JsonHttpServerRequest;
 import org.entcore.common.http.response.JsonHttpResponse;
 import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.neo4j.StatementsBuilder;
+import fr.wseduc.webutils.Either;
 import org.entcore.common.user.UserUtils;
+import org.entcore.common.utils.Config;
 import org.entcore.communication.controllers.CommunicationController;
+import org.entcore.communication.services.CommunicationService;
+import org.entcore.communication.services.impl.DefaultCommunicationService;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.vertx.java.core.AsyncResult;
@@ -39,7 +43,9 @@ import org.vertx.testtools.TestVerticle;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashSet;
 import java.util.Scanner;
+import java.util.Set;
 
 import static org.vertx.testtools.VertxAssert.*;
 import static org.vertx.testtools.VertxAssert.assertEquals;
@@ -157,13 +163,18 @@ public class CommunicationTest extends TestVerticle {
 								checkComUser2(new VoidHandler() {
 									@Override
 									protected void handle() {
-										initAndApplyDefaultCommunicationRules(structureId, new VoidHandler() {
+										checkVisibleGroupsIndex(new VoidHandler() {
 											@Override
 											protected void handle() {
-												checkComUser2(new VoidHandler() {
+												initAndApplyDefaultCommunicationRules(structureId, new VoidHandler() {
 													@Override
 													protected void handle() {
-														testComplete();
+														checkComUser2(new VoidHandler() {
+															@Override
+															protected void handle() {
+																testComplete();
+															}
+														});
 													}
 												});
 											}
@@ -425,6 +436,75 @@ public class CommunicationTest extends TestVerticle {
 		});
 	}
 
+	/**
+	 * visibleUsers must return the same users with the visible groups index, for users
+	 * computed live (not indexed yet) and for indexed users, as with the legacy query.
+	 */
+	private void checkVisibleGroupsIndex(final VoidHandler handler) {
+		final JsonObject conf = Config.getConf();
+		Config.getInstance().setConfig(new JsonObject());
+		final CommunicationService legacy = new DefaultCommunicationService();
+		Config.getInstance().setConfig(new JsonObject().putBoolean("visible-groups-index", true));
+		final CommunicationService indexed = new DefaultCommunicationService();
+		Config.getInstance().setConfig(conf);
+		neo4j.execute("MATCH (u:User) REMOVE u.visibleGroups RETURN COLLECT(u.id) as ids", new JsonObject(),
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				assertEquals("ok", event.body().getString("status"));
+				final JsonArray userIds = ((JsonObject) event.body().getArray("result").get(0)).getArray("ids");
+				assertTrue(userIds.size() > 0);
+				compareVisibleUsers(legacy, indexed, userIds, 0, new VoidHandler() {
+					@Override
+					protected void handle() {
+						indexed.rebuildVisibleGroups(null, new Handler<Either<String, JsonObject>>() {
+							@Override
+							public void handle(Either<String, JsonObject> r) {
+								assertTrue(r.isRight());
+								compareVisibleUsers(legacy, indexed, userIds, 0, handler);
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	private void compareVisibleUsers(final CommunicationService legacy, final CommunicationService indexed,
+			final JsonArray userIds, final int idx, final VoidHandler handler) {
+		if (idx >= userIds.size()) {
+			handler.handle(null);
+			return;
+		}
+		final String userId = (String) userIds.get(idx);
+		final boolean myGroup = idx % 2 == 0;
+		legacy.visibleUsers(userId, null, null, false, myGroup, false, null, null, null,
+				new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(final Either<String, JsonArray> expected) {
+				assertTrue(expected.isRight());
+				indexed.visibleUsers(userId, null, null, false, myGroup, false, null, null, null,
+						new Handler<Either<String, JsonArray>>() {
+					@Override
+					public void handle(Either<String, JsonArray> actual) {
+						assertTrue(actual.isRight());
+						assertEquals("visible users of " + userId, ids(expected.right().getValue()),
+								ids(actual.right().getValue()));
+						compareVisibleUsers(legacy, indexed, userIds, idx + 1, handler);
+					}
+				});
+			}
+		});
+	}
+
+	private static Set<String> ids(JsonArray users) {
+		final Set<String> ids = new HashSet<>();
+		for (Object o : users) {
+			ids.add(((JsonObject) o).getString("id"));
+		}
+		return ids;
+	}
+
 	private void initAndApplyDefaultCommunicationRules(String structureId, final VoidHandler handler) {
 		eb.send(ENTCORE_COMMUNICATION, new JsonObject()
 				.putString("action", "initAndApplyDefaultCommunicationRules")
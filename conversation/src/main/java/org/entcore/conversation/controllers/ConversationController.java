@@ -46,6 +46,7 @@ import org.entcore.conversation.filters.MessageUserFilter;
 import org.entcore.conversation.filters.VisiblesFilter;
 import org.entcore.conversation.filters.FoldersFilter;
 import org.entcore.conversation.service.ConversationService;
+import org.entcore.conversation.service.impl.DeliveryMetrics;
 import org.entcore.conversation.service.impl.Neo4jConversationService;
 import org.entcore.conversation.service.impl.SqlConversationService;
 
@@ -1390,6 +1391,9 @@ public class ConversationController extends BaseController {
 		switch (message.body().getString("action", "")) {
 			case "send" : send(message);
 				break;
+			case "deliveryStats" :
+				message.reply(DeliveryMetrics.getInstance().stats().putString("status", "ok"));
+				break;
 			default:
 				message.reply(new JsonObject().putString("status", "error")
 						.putString("message", "invalid.action"));
@@ -0,0 +1,72 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.conversation.service.impl;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Latency of message deliveries, grouped by order of magnitude of the recipients count.
+ */
+public class DeliveryMetrics {
+
+	private static final String[] BUCKETS = { "1-9", "10-99", "100-999", "1000-9999", "10000+" };
+	private final long[] count = new long[BUCKETS.length];
+	private final long[] failed = new long[BUCKETS.length];
+	private final long[] totalLatency = new long[BUCKETS.length];
+	private final long[] maxLatency = new long[BUCKETS.length];
+
+	private DeliveryMetrics() {}
+
+	private static class DeliveryMetricsHolder {
+		private static final DeliveryMetrics instance = new DeliveryMetrics();
+	}
+
+	public static DeliveryMetrics getInstance() {
+		return DeliveryMetricsHolder.instance;
+	}
+
+	public synchronized void record(int recipients, long latency, boolean succeeded) {
+		int idx = 0;
+		for (int r = recipients / 10; r > 0 && idx < BUCKETS.length - 1; r /= 10) {
+			idx++;
+		}
+		count[idx]++;
+		if (!succeeded) {
+			failed[idx]++;
+		}
+		totalLatency[idx] += latency;
+		if (latency > maxLatency[idx]) {
+			maxLatency[idx] = latency;
+		}
+	}
+
+	public synchronized JsonObject stats() {
+		final JsonObject stats = new JsonObject();
+		for (int i = 0; i < BUCKETS.length; i++) {
+			stats.putObject(BUCKETS[i], new JsonObject()
+					.putNumber("count", count[i])
+					.putNumber("failed", failed[i])
+					.putNumber("averageLatency", (count[i] > 0) ? totalLatency[i] / count[i] : 0)
+					.putNumber("maxLatency", maxLatency[i]));
+		}
+		return stats;
+	}
+
+}
@@ -23,7 +23,9 @@ import static fr.wseduc.webutils.Utils.isNotEmpty;
 import static org.entcore.common.user.UserUtils.findVisibles;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import org.entcore.common.sql.Sql;
@@ -39,6 +41,7 @@ import org.entcore.conversation.service.ConversationService;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
@@ -48,10 +51,13 @@ import fr.wseduc.webutils.Utils;
 
 public class SqlConversationService implements ConversationService{
 
+	private static final int DEFAULT_SEND_CHUNK_SIZE = 1000;
+
 	private final EventBus eb;
 	private final Sql sql;
 
 	private final int maxFolderDepth;
+	private final int sendChunkSize;
 
 	private final String messageTable;
 	private final String folderTable;
@@ -63,6 +69,7 @@ public class SqlConversationService implements ConversationService{
 		this.eb = Server.getEventBus(vertx);
 		this.sql = Sql.getInstance();
 		this.maxFolderDepth = Config.getConf().getInteger("max-folder-depth", Conversation.DEFAULT_FOLDER_DEPTH);
+		this.sendChunkSize = Config.getConf().getInteger("send-chunk-size", DEFAULT_SEND_CHUNK_SIZE);
 		messageTable = schema + ".messages";
 		folderTable = schema + ".folders";
 		attachmentTable = schema + ".attachments";
@@ -173,41 +180,115 @@ public class SqlConversationService implements ConversationService{
 					return;
 				}
 
-				JsonArray attachmentIds = event.right().getValue().getArray("attachmentids");
-				long totalQuota = event.right().getValue().getLong("totalquota");
-
-				final JsonArray ids = message.getArray("allUsers", new JsonArray());
-
-				SqlStatementsBuilder builder = new SqlStatementsBuilder();
-
-				String updateMessage =
-						"UPDATE " + messageTable + " SET state = ? WHERE id = ? "+
-								"RETURNING id, subject";
-				String updateUnread = "UPDATE " + userMessageTable + " " +
-						"SET unread = true " +
-						"WHERE user_id = ? AND message_id = ? ";
-				builder.prepared(updateMessage, new JsonArray().add("SENT").add(draftId));
-				builder.prepared(updateUnread, new JsonArray().add(user.getUserId()).add(draftId));
-
-				for(Object toObj : ids){
-					if(toObj.equals(user.getUserId()))
-						continue;
-
-					builder.insert(userMessageTable, new JsonObject()
-						.putString("user_id", toObj.toString())
-						.putString("message_id", draftId)
-						.putNumber("total_quota", totalQuota)
-					);
-					for(Object attachmentId : attachmentIds){
-						builder.insert(userMessageAttachmentTable, new JsonObject()
-							.putString("user_id", toObj.toString())
-							.putString("message_id", draftId)
-							.putString("attachment_id", attachmentId.toString())
-						);
+				final JsonArray attachmentIds = event.right().getValue().getArray("attachmentids");
+				final long totalQuota = event.right().getValue().getLong("totalquota");
+
+				final List<String> recipients = new ArrayList<>();
+				final Set<String> ids = new LinkedHashSet<>();
+				for (Object toObj : message.getArray("allUsers", new JsonArray())) {
+					if (toObj != null && !toObj.equals(user.getUserId())) {
+						ids.add(toObj.toString());
+					}
+				}
+				recipients.addAll(ids);
+
+				final long start = System.currentTimeMillis();
+				final Handler<Either<String, JsonObject>> measured = new Handler<Either<String, JsonObject>>() {
+					@Override
+					public void handle(Either<String, JsonObject> r) {
+						DeliveryMetrics.getInstance().record(recipients.size(),
+								System.currentTimeMillis() - start, r.isRight());
+						result.handle(r);
 					}
+				};
+
+				if (recipients.size() <= sendChunkSize) {
+					SqlStatementsBuilder builder = new SqlStatementsBuilder();
+					sentStatements(builder, user.getUserId(), draftId);
+					deliveryStatements(builder, recipients, draftId, totalQuota, attachmentIds);
+					sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, measured));
+				} else {
+					deliverChunks(recipients, 0, user.getUserId(), draftId, totalQuota, attachmentIds, measured);
 				}
+			}
+		});
+	}
+
+	private void sentStatements(SqlStatementsBuilder builder, String userId, String messageId) {
+		String updateMessage =
+				"UPDATE " + messageTable + " SET state = ? WHERE id = ? "+
+						"RETURNING id, subject";
+		String updateUnread = "UPDATE " + userMessageTable + " " +
+				"SET unread = true " +
+				"WHERE user_id = ? AND message_id = ? ";
+		builder.prepared(updateMessage, new JsonArray().add("SENT").add(messageId));
+		builder.prepared(updateUnread, new JsonArray().add(userId).add(messageId));
+	}
+
+	/**
+	 * Link the message and its attachments to all the recipients with two set-based inserts.
+	 */
+	private void deliveryStatements(SqlStatementsBuilder builder, List<String> recipients, String messageId,
+			long totalQuota, JsonArray attachmentIds) {
+		if (recipients.isEmpty()) {
+			return;
+		}
+		final Object[] r = recipients.toArray();
+		final String unnestRecipients = "unnest(" + Sql.arrayPrepared(r) + "::varchar[]) AS r";
 
-				sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, result));
+		JsonArray values = new JsonArray().add(messageId).add(totalQuota);
+		for (Object o : r) {
+			values.add(o);
+		}
+		builder.prepared("INSERT INTO " + userMessageTable + " (user_id, message_id, total_quota) " +
+				"SELECT r, CAST(? AS VARCHAR), CAST(? AS BIGINT) FROM " + unnestRecipients, values);
+
+		if (attachmentIds != null && attachmentIds.size() > 0) {
+			final Object[] a = attachmentIds.toArray();
+			values = new JsonArray().add(messageId);
+			for (Object o : r) {
+				values.add(o);
+			}
+			for (Object o : a) {
+				values.add(o.toString());
+			}
+			builder.prepared("INSERT INTO " + userMessageAttachmentTable + " (user_id, message_id, attachment_id) " +
+					"SELECT r, CAST(? AS VARCHAR), a FROM " + unnestRecipients + ", " +
+					"unnest(" + Sql.arrayPrepared(a) + "::varchar[]) AS a", values);
+		}
+	}
+
+	/**
+	 * Deliver a message to a large recipients list, with one transaction by chunk of recipients.
+	 * Recipients only see the message once the last transaction sets its state to SENT ;
+	 * if a chunk fails, the deliveries already done are removed and the message stays a draft.
+	 */
+	private void deliverChunks(final List<String> recipients, final int offset, final String userId,
+			final String messageId, final long totalQuota, final JsonArray attachmentIds,
+			final Handler<Either<String, JsonObject>> result) {
+		if (offset >= recipients.size()) {
+			SqlStatementsBuilder builder = new SqlStatementsBuilder();
+			sentStatements(builder, userId, messageId);
+			sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, result));
+			return;
+		}
+		final int end = Math.min(offset + sendChunkSize, recipients.size());
+		SqlStatementsBuilder builder = new SqlStatementsBuilder();
+		deliveryStatements(builder, recipients.subList(offset, end), messageId, totalQuota, attachmentIds);
+		sql.transaction(builder.build(), new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(final Message<JsonObject> res) {
+				if ("ok".equals(res.body().getString("status"))) {
+					deliverChunks(recipients, end, userId, messageId, totalQuota, attachmentIds, result);
+				} else {
+					String cancel = "DELETE FROM " + userMessageTable + " WHERE message_id = ? AND user_id <> ?";
+					sql.prepared(cancel, new JsonArray().add(messageId).add(userId), new Handler<Message<JsonObject>>() {
+						@Override
+						public void handle(Message<JsonObject> event) {
+							result.handle(new Either.Left<String, JsonObject>(res.body().getString("message")));
+						}
+					});
+				}
 			}
 		});
 	}
@@ -25,6 +25,7 @@ import fr.wseduc.webutils.I18n;
 import org.entcore.common.events.EventStoreFactory;
 import org.entcore.common.neo4j.Neo4j;
 import org.entcore.feeder.aaf.AafFeeder;
+import org.entcore.feeder.aaf.BaseImportProcessing;
 import org.entcore.feeder.aaf1d.Aaf1dFeeder;
 import org.entcore.feeder.csv.CsvFeeder;
 import org.entcore.feeder.csv.CsvImportsLauncher;
@@ -50,6 +51,7 @@ import org.vertx.java.core.json.JsonObject;
 import java.text.ParseException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static fr.wseduc.webutils.Utils.isNotEmpty;
@@ -133,6 +135,13 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 			return;
 		}
 		Validator.initLogin(neo4j, vertx);
+		Importer.getInstance().setBatching(container.config().getInteger("import-batch-rows", 1000),
+				container.config().getInteger("import-batch-bytes", 4 * 1024 * 1024));
+		Importer.getInstance().setPipelineWindow(container.config().getInteger("import-pipeline-window", 0));
+		BaseImportProcessing.setParseThreads(container.config().getInteger("aaf-parse-threads", 2));
+		Importer.getInstance().setDelta(container.config().getString("import-delta-path"),
+				container.config().getLong("import-delta-max-age", 7 * 24 * 3600 * 1000l));
+		DuplicateMatcher.setScoreThreads(container.config().getInteger("duplicates-score-threads", 2));
 		manual = new ManualFeeder(neo4j);
 		duplicateUsers = new DuplicateUsers(container.config().getBoolean("timetable", true),
 				container.config().getBoolean("autoMergeOnlyInSameStructure", true));
@@ -420,6 +429,7 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 				@Override
 				public void handle(Message<JsonObject> m) {
 					if (m != null && "ok".equals(m.body().getString("status"))) {
+						Importer.getInstance().invalidateDelta();
 						Transition.publishDeleteGroups(eb, logger, m.body().getArray("result", new JsonArray()));
 						AbstractTimetableImporter.transition(structureExternalId);
 						if (handler != null) {
@@ -550,7 +560,9 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 								if (m != null && "ok".equals(m.body().getString("status"))) {
 									logger.info(m.body().encode());
 									if (executePostImport) {
-										postImport.execute(feed.getSource());
+										final Set<String> structures = importer.getImportedStructures();
+										postImport.execute(feed.getSource(), structures.isEmpty() ?
+												null : new JsonArray(structures.toArray()));
 									}
 								} else {
 									Validator.initLogin(neo4j, vertx);
@@ -562,6 +574,7 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 										report.addError("import.error");
 									}
 								}
+								importer.commitDelta(m != null && "ok".equals(m.body().getString("status")));
 								report.setUsersExternalId(new JsonArray(importer.getUserImportedExternalId().toArray()));
 								h.handle(report);
 								final long endTime = System.currentTimeMillis();
@@ -36,9 +36,9 @@ public final class AAFHandler extends DefaultHandler {
 	private StringBuilder s;
 	private JsonObject currentStructure;
 	private final JsonObject mapping;
-	private final ImportProcessing processing;
+	private final RecordSink processing;
 
-	public AAFHandler(ImportProcessing processing) {
+	public AAFHandler(RecordSink processing) {
 		this.processing = processing;
 		this.mapping = JsonUtil.loadFromResource(processing.getMappingResource());
 		this.s = new StringBuilder();
@@ -21,9 +21,10 @@ package org.entcore.feeder.aaf;
 
 import org.apache.commons.lang3.text.translate.*;
 import org.entcore.feeder.dictionary.structures.Importer;
+import org.entcore.feeder.utils.TransactionHelper;
+import org.entcore.feeder.utils.UnescapeReader;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
-import org.vertx.java.core.VoidHandler;
 import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
@@ -36,9 +37,15 @@ import org.xml.sax.ext.EntityResolver2;
 import org.xml.sax.helpers.XMLReaderFactory;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public abstract class BaseImportProcessing implements ImportProcessing {
 
@@ -47,6 +54,10 @@ public abstract class BaseImportProcessing implements ImportProcessing {
 	protected final Vertx vertx;
 	protected final Importer importer = Importer.getInstance();
 	private String academyPrefix;
+	private static final int RECORDS_QUEUE_SIZE = 1000;
+	private static final int RECORDS_PER_TICK = 200;
+	private static final long WAIT_RECORDS_DELAY = 20l;
+	private static int parseThreads = 2;
 	private static final String[][] OTHER_UNESCAPE = {{"&quot;", "\""}};
 	public static final CharSequenceTranslator UNESCAPE_AAF =
 			new AggregateTranslator(
@@ -62,75 +73,183 @@ public abstract class BaseImportProcessing implements ImportProcessing {
 		this.vertx = vertx;
 	}
 
+	public static void setParseThreads(int threads) {
+		parseThreads = Math.max(1, threads);
+	}
+
+	/**
+	 * Files are parsed in parallel by streaming them through the SAX handler. Parsed records
+	 * are queued in a bounded queue by file and processed on the verticle context, which keeps
+	 * handling Neo4j replies between two series of records. Files are consumed one after the
+	 * other in name order and the transaction is persisted at the end of each file, as when
+	 * they were parsed sequentially.
+	 */
 	protected void parse(final Handler<Message<JsonObject>> handler, final ImportProcessing importProcessing) {
 		initAcademyPrefix(path);
 		final String [] files = vertx.fileSystem()
 				.readDirSync(path, getFileRegex());
-		final VoidHandler[] handlers = new VoidHandler[files.length + 1];
-		handlers[handlers.length -1] = new VoidHandler() {
+		if (files.length == 0) {
+			next(handler, importProcessing);
+			return;
+		}
+		Arrays.sort(files);
+		final List<BlockingQueue<Object>> queues = new ArrayList<>(files.length);
+		final AtomicBoolean cancelled = new AtomicBoolean(false);
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parseThreads, files.length));
+		for (final String file : files) {
+			importer.getReport().loadedFile(file);
+			final BlockingQueue<Object> records = new ArrayBlockingQueue<>(RECORDS_QUEUE_SIZE);
+			queues.add(records);
+			// tasks start in files order : the file being consumed is always parsed
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (!cancelled.get()) {
+						parseFile(file, records, cancelled);
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		consume(queues, 0, cancelled, handler, importProcessing);
+	}
+
+	private void parseFile(String file, final BlockingQueue<Object> records, final AtomicBoolean cancelled) {
+		Object end = file;
+		try (Reader reader = new UnescapeReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), UNESCAPE_AAF)) {
+			log.info("Parsing file : " + file);
+			AAFHandler sh = new AAFHandler(new QueuedRecordSink(records, cancelled));
+			XMLReader xr = XMLReaderFactory.createXMLReader();
+			xr.setContentHandler(sh);
+			xr.setEntityResolver(new EntityResolver2() {
+				@Override
+				public InputSource getExternalSubset(String name, String baseURI) throws SAXException, IOException {
+					return null;
+				}
+
+				@Override
+				public InputSource resolveEntity(String name, String publicId, String baseURI, String systemId) throws SAXException, IOException {
+					return resolveEntity(publicId, systemId);
+				}
+
+				@Override
+				public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+					if (systemId.equals("ficAlimMENESR.dtd")) {
+						Reader reader = new FileReader(path + File.separator + "ficAlimMENESR.dtd");
+						return new InputSource(reader);
+					} else {
+						return null;
+					}
+				}
+			});
+			xr.parse(new InputSource(reader));
+		} catch (Exception e) {
+			end = e;
+		}
+		if (!cancelled.get()) {
+			try {
+				enqueue(records, end, cancelled);
+			} catch (IllegalStateException e) {
+				log.debug(e.getMessage());
+			}
+		}
+	}
+
+	private static void enqueue(BlockingQueue<Object> records, Object o, AtomicBoolean cancelled) {
+		try {
+			while (!records.offer(o, 1, TimeUnit.SECONDS)) {
+				if (cancelled.get()) {
+					throw new IllegalStateException("Import cancelled.");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Import interrupted.", e);
+		}
+	}
+
+	private void consume(final List<BlockingQueue<Object>> queues, final int index, final AtomicBoolean cancelled,
+			final Handler<Message<JsonObject>> handler, final ImportProcessing importProcessing) {
+		final Handler<Void> resume = new Handler<Void>() {
 			@Override
-			protected void handle() {
-				next(handler, importProcessing);
+			public void handle(Void v) {
+				consume(queues, index, cancelled, handler, importProcessing);
 			}
 		};
-		Arrays.sort(files);
-		for (int i = files.length - 1; i >= 0; i--) {
-			final int j = i;
-			handlers[i] = new VoidHandler() {
-				@Override
-				protected void handle() {
-					try {
-						String file = files[j];
-						log.info("Parsing file : " + file);
-						importer.getReport().loadedFile(file);
-						byte[] encoded = Files.readAllBytes(Paths.get(file));
-						String content = UNESCAPE_AAF.translate(new String(encoded, "UTF-8"));
-						InputSource in = new InputSource(new StringReader(content));
-						AAFHandler sh = new AAFHandler(BaseImportProcessing.this);
-						XMLReader xr = XMLReaderFactory.createXMLReader();
-						xr.setContentHandler(sh);
-						xr.setEntityResolver(new EntityResolver2() {
-							@Override
-							public InputSource getExternalSubset(String name, String baseURI) throws SAXException, IOException {
-								return null;
-							}
-
-							@Override
-							public InputSource resolveEntity(String name, String publicId, String baseURI, String systemId) throws SAXException, IOException {
-								return resolveEntity(publicId, systemId);
-							}
-
-							@Override
-							public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
-								if (systemId.equals("ficAlimMENESR.dtd")) {
-									Reader reader = new FileReader(path + File.separator + "ficAlimMENESR.dtd");
-									return new InputSource(reader);
-								} else {
-									return null;
-								}
-							}
-						});
-						xr.parse(in);
-						importer.persist(new Handler<Message<JsonObject>>() {
-							@Override
-							public void handle(Message<JsonObject> message) {
-								if ("ok".equals(message.body().getString("status"))) {
-									handlers[j + 1].handle(null);
-								} else {
-									error(message, handler);
-								}
-							}
-						});
-					} catch (Exception e) {
-						error(e, handler);
-					} catch (OutOfMemoryError err) { // badly catch Error to unlock importer
-						log.error("OOM reading import files", err);
-						error(new Exception("OOM"), handler);
+		final BlockingQueue<Object> records = queues.get(index);
+		int count = 0;
+		Object o;
+		while (count < RECORDS_PER_TICK && (o = records.poll()) != null) {
+			count++;
+			if (o instanceof JsonObject) {
+				try {
+					process((JsonObject) o);
+				} catch (Exception e) {
+					cancelled.set(true);
+					error(e, handler);
+					return;
+				}
+			} else if (o instanceof Exception) {
+				cancelled.set(true);
+				error((Exception) o, handler);
+				return;
+			} else {
+				importer.persist(new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(Message<JsonObject> message) {
+						if (!"ok".equals(message.body().getString("status"))) {
+							cancelled.set(true);
+							error(message, handler);
+						} else if (index + 1 < queues.size()) {
+							consume(queues, index + 1, cancelled, handler, importProcessing);
+						} else {
+							next(handler, importProcessing);
+						}
 					}
+				});
+				return;
+			}
+		}
+		final TransactionHelper tx = importer.getTransaction();
+		if (tx != null && tx.writeQueueFull()) {
+			tx.drainHandler(resume);
+		} else if (count == 0) {
+			vertx.setTimer(WAIT_RECORDS_DELAY, new Handler<Long>() {
+				@Override
+				public void handle(Long timerId) {
+					resume.handle(null);
 				}
-			};
+			});
+		} else {
+			vertx.runOnContext(resume);
 		}
-		handlers[0].handle(null);
+	}
+
+	private class QueuedRecordSink implements RecordSink {
+
+		private final BlockingQueue<Object> records;
+		private final AtomicBoolean cancelled;
+
+		private QueuedRecordSink(BlockingQueue<Object> records, AtomicBoolean cancelled) {
+			this.records = records;
+			this.cancelled = cancelled;
+		}
+
+		@Override
+		public String getMappingResource() {
+			return BaseImportProcessing.this.getMappingResource();
+		}
+
+		@Override
+		public void process(JsonObject object) {
+			enqueue(records, object, cancelled);
+		}
+
+		@Override
+		public String getAcademyPrefix() {
+			return BaseImportProcessing.this.getAcademyPrefix();
+		}
+
 	}
 
 	protected void next(final Handler<Message<JsonObject>> handler, final ImportProcessing importProcessing) {
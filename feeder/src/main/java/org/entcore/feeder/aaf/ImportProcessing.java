@@ -24,14 +24,8 @@ import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.json.JsonObject;
 
 
-public interface ImportProcessing {
+public interface ImportProcessing extends RecordSink {
 
 	void start(Handler<Message<JsonObject>> handler);
 
-	String getMappingResource();
-
-	void process(JsonObject object);
-
-	String getAcademyPrefix();
-
 }
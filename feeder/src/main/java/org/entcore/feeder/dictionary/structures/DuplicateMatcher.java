@@ -0,0 +1,275 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2015
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package org.entcore.feeder.dictionary.structures;
+
+import org.entcore.feeder.utils.Validator;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * In memory search of duplicate users in a profile.
+ * A pair is scored 2 plus one point by exact match on lastName, firstName, birthDate and email, and is
+ * only kept above 3 : every kept pair shares two attributes, so users are grouped in blocks keyed by
+ * each couple of cleaned attributes and only the users sharing a block with a modified user are compared.
+ * Names must also be similar, with the similarity of the fuzzy lucene search used before
+ * (1 - edit distance / shortest length above 0.6). Unlike the lucene search, names are compared
+ * without case, accents and punctuation, and a pair is also kept when only the names of the
+ * unmodified user match the other one : the lucene query was only built from the modified user.
+ */
+public class DuplicateMatcher {
+
+	private static final Logger log = LoggerFactory.getLogger(DuplicateMatcher.class);
+	private static final String[] ATTRIBUTES = {"lastName", "firstName", "birthDate", "email"};
+	private static final float MIN_NAME_SIMILARITY = 0.6f;
+	private static int scoreThreads = 2;
+
+	private final List<String> notDeduplicateSource;
+	private final List<Candidate> modified = new ArrayList<>();
+	private final Map<String, List<Candidate>> blocks = new HashMap<>();
+
+	private static final class Candidate {
+		private final String id;
+		private final String[] attributes;
+		private final String lastName;
+		private final String firstName;
+		private final String source;
+		private final Long disappearanceDate;
+		private final boolean modified;
+
+		private Candidate(JsonObject user, String[] attributes, boolean modified) {
+			this.id = user.getString("id");
+			this.attributes = attributes;
+			this.lastName = user.getString("lastName");
+			this.firstName = user.getString("firstName");
+			this.source = user.getString("source");
+			this.disappearanceDate = user.getLong("disappearanceDate");
+			this.modified = modified;
+		}
+	}
+
+	public DuplicateMatcher(List<String> notDeduplicateSource) {
+		this.notDeduplicateSource = notDeduplicateSource;
+	}
+
+	public static void setScoreThreads(int threads) {
+		scoreThreads = Math.max(1, threads);
+	}
+
+	/**
+	 * Index the users of a profile. Only the modified users and the users sharing a block with them are kept.
+	 * @param users id, lastName, firstName, birthDate, email, source, disappearanceDate and modified of each user
+	 */
+	public void load(JsonArray users) {
+		for (Object o : users) {
+			if (!(o instanceof JsonObject) || !Boolean.TRUE.equals(((JsonObject) o).getBoolean("modified"))) continue;
+			final Candidate c = new Candidate((JsonObject) o, cleanAttributes((JsonObject) o), true);
+			if (c.id == null || isEmpty(c.lastName) || isEmpty(c.firstName)) continue;
+			modified.add(c);
+			for (String key : keys(c.attributes)) {
+				if (!blocks.containsKey(key)) {
+					blocks.put(key, new ArrayList<Candidate>());
+				}
+			}
+		}
+		final Map<String, Candidate> modifiedById = new HashMap<>();
+		for (Candidate c : modified) {
+			modifiedById.put(c.id, c);
+		}
+		int candidates = 0;
+		for (Object o : users) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject user = (JsonObject) o;
+			final String[] attributes = cleanAttributes(user);
+			Candidate c = modifiedById.get(user.getString("id"));
+			for (String key : keys(attributes)) {
+				final List<Candidate> block = blocks.get(key);
+				if (block != null) {
+					if (c == null) {
+						c = new Candidate(user, attributes, false);
+					}
+					block.add(c);
+				}
+			}
+			if (c != null) {
+				candidates++;
+			}
+		}
+		log.info("Duplicates search : " + modified.size() + " modified users, " + candidates +
+				" candidates in " + blocks.size() + " blocks.");
+	}
+
+	/**
+	 * Score the candidates of the modified users, in parallel.
+	 * @return pairs of duplicates as {sId, dId, score}, each pair appearing once
+	 */
+	public List<JsonObject> match() {
+		final List<JsonObject> duplicates = new ArrayList<>();
+		if (modified.isEmpty()) {
+			return duplicates;
+		}
+		final int threads = Math.min(scoreThreads, modified.size());
+		final int sliceSize = (modified.size() + threads - 1) / threads;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<List<JsonObject>>> results = new ArrayList<>();
+			for (int i = 0; i < modified.size(); i += sliceSize) {
+				final List<Candidate> slice = modified.subList(i, Math.min(i + sliceSize, modified.size()));
+				results.add(executor.submit(new Callable<List<JsonObject>>() {
+					@Override
+					public List<JsonObject> call() {
+						final List<JsonObject> res = new ArrayList<>();
+						for (Candidate c : slice) {
+							match(c, res);
+						}
+						return res;
+					}
+				}));
+			}
+			for (Future<List<JsonObject>> f : results) {
+				duplicates.addAll(f.get());
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			log.error("Error scoring duplicate users.", e);
+			duplicates.clear();
+		} finally {
+			executor.shutdown();
+		}
+		return duplicates;
+	}
+
+	private void match(Candidate u, List<JsonObject> res) {
+		final Set<String> compared = new HashSet<>();
+		for (String key : keys(u.attributes)) {
+			for (Candidate d : blocks.get(key)) {
+				if (u.id.equals(d.id) || (d.modified && d.id.compareTo(u.id) < 0) || !compared.add(d.id)) {
+					continue;
+				}
+				int score = 2;
+				for (int i = 0; i < ATTRIBUTES.length; i++) {
+					score += exactMatch(u.attributes[i], d.attributes[i]);
+				}
+				if (score > 3 && (!notDeduplicateSource.contains(u.source) || !u.source.equals(d.source) ||
+						u.disappearanceDate != null || d.disappearanceDate != null) &&
+						similarName(u.lastName, d.lastName) && similarName(u.firstName, d.firstName)) {
+					res.add(new JsonObject().putString("sId", u.id).putString("dId", d.id).putNumber("score", score));
+				}
+			}
+		}
+	}
+
+	private static List<String> keys(String[] attributes) {
+		final List<String> keys = new ArrayList<>();
+		for (int i = 0; i < attributes.length; i++) {
+			if (attributes[i] == null) continue;
+			for (int j = i + 1; j < attributes.length; j++) {
+				if (attributes[j] == null) continue;
+				keys.add(i + "" + j + "\u0000" + attributes[i] + "\u0000" + attributes[j]);
+			}
+		}
+		return keys;
+	}
+
+	private static boolean similarName(String name0, String name1) {
+		return fuzzyMatch(name0, name1) || fuzzyMatch(name1, name0);
+	}
+
+	/**
+	 * Same rules as the lucene fuzzy query : one of the words of the searched value must be similar
+	 * to the whole value, ignoring short words when the searched value contains several words.
+	 */
+	private static boolean fuzzyMatch(String search, String value) {
+		if (isEmpty(search) || isEmpty(value)) {
+			return false;
+		}
+		final String v = normalizeWord(value.trim());
+		final String[] words = search.trim().split("\\s+");
+		for (String w : words) {
+			w = normalizeWord(w);
+			if (w.isEmpty() || (w.length() < 4 && words.length > 1)) continue;
+			final int minLength = Math.min(w.length(), v.length());
+			if (minLength == 0) continue;
+			if (1f - ((float) levenshtein(w, v) / minLength) > MIN_NAME_SIMILARITY) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String normalizeWord(String word) {
+		return Validator.removeAccents(word).replaceAll("\\W+", "").toLowerCase();
+	}
+
+	private static int levenshtein(String s0, String s1) {
+		int[] previous = new int[s1.length() + 1];
+		int[] current = new int[s1.length() + 1];
+		for (int j = 0; j <= s1.length(); j++) {
+			previous[j] = j;
+		}
+		for (int i = 1; i <= s0.length(); i++) {
+			current[0] = i;
+			for (int j = 1; j <= s1.length(); j++) {
+				final int cost = (s0.charAt(i - 1) == s1.charAt(j - 1)) ? 0 : 1;
+				current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+			}
+			final int[] tmp = previous;
+			previous = current;
+			current = tmp;
+		}
+		return previous[s1.length()];
+	}
+
+	private static String[] cleanAttributes(JsonObject user) {
+		final String[] attributes = new String[ATTRIBUTES.length];
+		for (int i = 0; i < ATTRIBUTES.length; i++) {
+			attributes[i] = cleanAttribute(user.getString(ATTRIBUTES[i]));
+		}
+		return attributes;
+	}
+
+	private static int exactMatch(String attribute0, String attribute1) {
+		return (attribute0 == null || attribute1 == null || !attribute0.equals(attribute1)) ? 0 : 1;
+	}
+
+	private static String cleanAttribute(String attribute) {
+		if (isEmpty(attribute)) {
+			return null;
+		}
+		return Validator.removeAccents(attribute).replaceAll("\\s+", "").toLowerCase();
+	}
+
+	private static boolean isEmpty(String s) {
+		return s == null || s.trim().isEmpty();
+	}
+
+}
@@ -26,7 +26,6 @@ import org.entcore.feeder.timetable.AbstractTimetableImporter;
 import org.entcore.feeder.utils.ResultMessage;
 import org.entcore.feeder.utils.TransactionHelper;
 import org.entcore.feeder.utils.TransactionManager;
-import org.entcore.feeder.utils.Validator;
 import org.joda.time.DateTime;
 import org.vertx.java.core.AsyncResultHandler;
 import org.vertx.java.core.Handler;
@@ -70,6 +69,8 @@ public class DuplicateUsers {
 			"WHERE NOT(HAS(u1.IDPN)) AND NOT(IDPN IS NULL) " +
 			"SET u1.IDPN = IDPN " +
 			"RETURN DISTINCT oldId, u1.id as id, HEAD(u1.profiles) as profile ";
+	private static final int BATCH_ROWS = 1000;
+	private static final int BATCH_BYTES = 4 * 1024 * 1024;
 	private final List<String> notDeduplicateSource = Arrays.asList("AAF", "AAF1D");
 	private final Map<String, Integer> sourcePriority = new HashMap<>();
 	private final boolean updateCourses;
@@ -443,11 +444,37 @@ public class DuplicateUsers {
 		return (priority != null) ? priority : 0;
 	}
 
-	private void searchDuplicatesByProfile(String last, final String profile, final VoidHandler handler) {
+	private void searchDuplicatesByProfile(final String last, final String profile, final VoidHandler handler) {
+		// only modified users are compared : users of the profile are loaded if at least one was modified
+		final String query =
+				"MATCH (u:User) WHERE HEAD(u.profiles) = {profile} AND NOT(HAS(u.deleteDate)) " +
+				"AND u.modified > {lastSearchDuplicate} " +
+				"RETURN u.id as id LIMIT 1";
+		final JsonObject params = new JsonObject().putString("profile", profile).putString("lastSearchDuplicate", last);
+		TransactionManager.getNeo4jHelper().execute(query, params, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonArray result = event.body().getArray("result");
+				if (!"ok".equals(event.body().getString("status"))) {
+					log.error("Error finding modified users for search duplicates : " +
+							event.body().getString("message"));
+					handler.handle(null);
+				} else if (result == null || result.size() == 0) {
+					log.info("No modified user in profile " + profile + " for search duplicates");
+					handler.handle(null);
+				} else {
+					loadUsersByProfile(last, profile, handler);
+				}
+			}
+		});
+	}
+
+	private void loadUsersByProfile(String last, final String profile, final VoidHandler handler) {
 		String query =
-				"MATCH (u:User) WHERE u.modified > {lastSearchDuplicate} AND HEAD(u.profiles) = {profile} AND NOT(HAS(u.deleteDate)) " +
+				"MATCH (u:User) WHERE HEAD(u.profiles) = {profile} AND NOT(HAS(u.deleteDate)) " +
 				"RETURN u.id as id, u.firstName as firstName, u.lastName as lastName, " +
-						"u.birthDate as birthDate, u.email as email, u.source as source, u.disappearanceDate as disappearanceDate";
+						"u.birthDate as birthDate, u.email as email, u.source as source, u.disappearanceDate as disappearanceDate, " +
+						"coalesce(u.modified > {lastSearchDuplicate}, false) as modified";
 		JsonObject params = new JsonObject().putString("profile", profile).putString("lastSearchDuplicate", last);
 		TransactionManager.getNeo4jHelper().execute(query, params, new Handler<Message<JsonObject>>() {
 			@Override
@@ -467,145 +494,45 @@ public class DuplicateUsers {
 		});
 	}
 
-	private void scoreDuplicates(final String profile, final JsonArray search, final VoidHandler handler) {
+	private void scoreDuplicates(final String profile, final JsonArray users, final VoidHandler handler) {
+		final DuplicateMatcher matcher = new DuplicateMatcher(notDeduplicateSource);
+		matcher.load(users);
+		final List<JsonObject> duplicates = matcher.match();
+		if (duplicates.isEmpty()) {
+			log.info("No duplicate user with score > 3 found in profile " + profile);
+			handler.handle(null);
+			return;
+		}
 		final String query =
-				"START u=node:node_auto_index({luceneQuery}) " +
-				"WHERE HEAD(u.profiles) = {profile} AND u.id <> {id} AND NOT(HAS(u.deleteDate)) " +
-				"RETURN u.id as id, u.firstName as firstName, u.lastName as lastName, " +
-				"u.birthDate as birthDate, u.email as email, u.source as source, u.disappearanceDate as disappearanceDate";
-		final JsonObject params = new JsonObject().putString("profile", profile);
+				"MATCH (u:User {id : {sId}}), (d:User {id : {dId}}) " +
+				"WHERE NOT({dId} IN coalesce(u.ignoreDuplicates, [])) AND NOT({sId} IN coalesce(d.ignoreDuplicates, [])) " +
+				"MERGE u-[:DUPLICATE {score:{score}}]-d ";
 		TransactionHelper tx;
 		try {
-			tx = TransactionManager.getTransaction(false);
+			tx = TransactionManager.getTransaction();
+			tx.setAutoSend(false);
+			tx.setBatching(BATCH_ROWS, BATCH_BYTES);
 		} catch (TransactionException e) {
-			log.error("Error when find duplicate users.", e);
+			log.error("Error when score duplicate users.", e);
+			handler.handle(null);
 			return;
 		}
-		final JsonArray result = new JsonArray();
-		for (int i = 0; i < search.size(); i++) {
-			final JsonObject json = search.get(i);
-			final String firstNameAttr = luceneAttribute("firstName", json.getString("firstName"), 0.6);
-			final String lastNameAttr = luceneAttribute("lastName", json.getString("lastName"), 0.6);
-			String luceneQuery;
-			if (firstNameAttr != null && lastNameAttr != null &&
-					!firstNameAttr.trim().isEmpty() && !lastNameAttr.trim().isEmpty()) {
-				luceneQuery = firstNameAttr + " AND " + lastNameAttr;
-				result.add(json);
-				tx.add(query, params.copy().putString("luceneQuery", luceneQuery).putString("id", json.getString("id")));
-			}
+		for (JsonObject params : duplicates) {
+			tx.addBatch(query, params);
 		}
 		tx.commit(new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> event) {
-				JsonArray results = event.body().getArray("results");
-				if ("ok".equals(event.body().getString("status")) && results != null && results.size() > 0) {
-					TransactionHelper tx;
-					try {
-						tx = TransactionManager.getTransaction();
-						tx.setAutoSend(false);
-					} catch (TransactionException e) {
-						log.error("Error when score duplicate users.", e);
-						return;
-					}
-					for (int i = 0; i < results.size(); i++) {
-						JsonArray findUsers = results.get(i);
-						if (findUsers == null || findUsers.size() == 0) continue;
-						JsonObject searchUser = result.get(i);
-						calculateAndStoreScore(searchUser, findUsers, tx);
-					}
-					if (!tx.isEmpty()) {
-						tx.commit(new Handler<Message<JsonObject>>() {
-							@Override
-							public void handle(Message<JsonObject> event) {
-								if ("ok".equals(event.body().getString("status"))) {
-									log.info("Mark duplicates " + profile + " finished.");
-								} else {
-									log.error("Error marking duplicates : " + event.body().getString("message"));
-								}
-								handler.handle(null);
-							}
-						});
-					} else {
-						log.info("No duplicate user with score > 3 found in profile " + profile);
-						handler.handle(null);
-					}
+				if ("ok".equals(event.body().getString("status"))) {
+					log.info("Mark duplicates " + profile + " finished.");
 				} else {
-					if ("ok".equals(event.body().getString("status"))) {
-						log.info("No duplicate user found in profile " + profile);
-					} else {
-						log.error("Error finding users for search duplicates : " + event.body().getString("message"));
-					}
-					handler.handle(null);
+					log.error("Error marking duplicates : " + event.body().getString("message"));
 				}
+				handler.handle(null);
 			}
 		});
 	}
 
-	private String luceneAttribute(String attributeName, String value, double distance) {
-		if (value == null || value.trim().isEmpty() || attributeName == null || attributeName.trim().isEmpty()) {
-			return "";
-		}
-		String d = (distance > 0.9 || distance < 0.1) ? "" : ("~" + distance);
-		StringBuilder sb = new StringBuilder().append("(");
-		String[] values = value.split("\\s+");
-		for (String v : values) {
-			if (v.startsWith("-")) {
-				v = v.replaceFirst("-+", "");
-			}
-			v = v.replaceAll("\\W+", "");
-			if (v.isEmpty() || (v.length() < 4 && values.length > 1)) continue;
-			if ("OR".equalsIgnoreCase(v) || "AND".equalsIgnoreCase(v) || "NOT".equalsIgnoreCase(v)) {
-				v = "\"" + v + "\"";
-			}
-			sb.append(attributeName).append(":").append(v).append(d).append(" OR ");
-		}
-		int len = sb.length();
-		if (len == 1) {
-			return "";
-		}
-		sb.delete(len - 4, len);
-		return sb.append(")").toString();
-	}
-
-	private void calculateAndStoreScore(JsonObject searchUser, JsonArray findUsers, TransactionHelper tx) {
-		String query =
-				"MATCH (u:User {id : {sId}}), (d:User {id : {dId}}) " +
-				"WHERE NOT({dId} IN coalesce(u.ignoreDuplicates, [])) AND NOT({sId} IN coalesce(d.ignoreDuplicates, [])) " +
-				"MERGE u-[:DUPLICATE {score:{score}}]-d ";
-		JsonObject params = new JsonObject().putString("sId", searchUser.getString("id"));
-
-		final String lastName = cleanAttribute(searchUser.getString("lastName"));
-		final String firstName = cleanAttribute(searchUser.getString("firstName"));
-		final String birthDate = cleanAttribute(searchUser.getString("birthDate"));
-		final String email = cleanAttribute(searchUser.getString("email"));
-		final String source = searchUser.getString("source");
-		final Long disappearanceDate = searchUser.getLong("disappearanceDate");
-
-		for (int i = 0; i < findUsers.size(); i++) {
-			int score = 2;
-			JsonObject fu = findUsers.get(i);
-			score += exactMatch(lastName, cleanAttribute(fu.getString("lastName")));
-			score += exactMatch(firstName, cleanAttribute(fu.getString("firstName")));
-			score += exactMatch(birthDate, cleanAttribute(fu.getString("birthDate")));
-			score += exactMatch(email, cleanAttribute(fu.getString("email")));
-			if (score > 3 && (!notDeduplicateSource.contains(source) || !source.equals(fu.getString("source")) ||
-					disappearanceDate != null || fu.getLong("disappearanceDate") != null)) {
-				tx.add(query, params.copy().putString("dId", fu.getString("id")).putNumber("score", score));
-			}
-		}
-	}
-
-	private int exactMatch(String attribute0, String attribute1) {
-		return (attribute0 == null || attribute1 == null || !attribute0.equals(attribute1)) ? 0 : 1;
-	}
-
-	private String cleanAttribute(String attribute) {
-		if (attribute == null || attribute.trim().isEmpty()) {
-			return null;
-		}
-		return Validator.removeAccents(attribute).replaceAll("\\s+", "").toLowerCase();
-	}
-
 	public void autoMergeDuplicatesInStructure(final AsyncResultHandler<JsonArray> handler) {
 		final Handler<JsonObject> duplicatesHandler = new Handler<JsonObject>() {
 			@Override
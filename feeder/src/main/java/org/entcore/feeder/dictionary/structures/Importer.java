@@ -31,6 +31,7 @@ import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -43,6 +44,7 @@ public class Importer {
 	private ConcurrentMap<String, Structure> structures;
 	private ConcurrentMap<String, Profile> profiles;
 	private Set<String> userImportedExternalId = new HashSet<>();
+	private Set<String> importedStructures = new HashSet<>();
 	private TransactionHelper transactionHelper;
 	private final Validator structureValidator;
 	private final Validator profileValidator;
@@ -59,6 +61,12 @@ public class Importer {
 	private ConcurrentHashMap<String, List<String>> groupClasses = new ConcurrentHashMap<>();
 	private ConcurrentMap<String, String> fieldOfStudy= new ConcurrentHashMap<>();
 	private Report report;
+	private int batchRows = 1000;
+	private int batchBytes = 4 * 1024 * 1024;
+	private int pipelineWindow = 0;
+	private String deltaPath;
+	private long deltaMaxAge;
+	private DeltaState delta;
 
 	private Importer() {
 		structureValidator = new Validator("dictionary/schema/Structure.json");
@@ -83,7 +91,8 @@ public class Importer {
 		this.currentSource = source;
 		this.report = new Report(acceptLanguage);
 		this.report.setSource(source);
-		this.transactionHelper = new TransactionHelper(neo4j, 1000);
+		this.transactionHelper = newTransactionHelper();
+		this.delta = (deltaPath != null) ? DeltaState.load(deltaPath, source, deltaMaxAge) : null;
 		GraphData.loadData(neo4j, new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> event) {
@@ -93,6 +102,7 @@ public class Importer {
 				externalIdMapping = GraphData.getExternalIdMapping();
 				profiles = GraphData.getProfiles();
 				persEducNat = new PersEducNat(transactionHelper, externalIdMapping, userImportedExternalId, report, currentSource);
+				persEducNat.setDelta(delta);
 				if ("CSV".equals(source) && "ok".equals(event.body().getString("status"))) {
 					loadFieldOfStudy(handler);
 				} else {
@@ -124,6 +134,72 @@ public class Importer {
 		});
 	}
 
+	private TransactionHelper newTransactionHelper() {
+		final TransactionHelper tx = new TransactionHelper(neo4j, 1000, pipelineWindow);
+		tx.setBatching(batchRows, batchBytes);
+		return tx;
+	}
+
+	/**
+	 * Users and links statements are merged in UNWIND statements of at most batchRows rows
+	 * or batchBytes encoded parameters. Batching is disabled when batchRows is lower than 2.
+	 */
+	public void setBatching(int batchRows, int batchBytes) {
+		this.batchRows = batchRows;
+		this.batchBytes = batchBytes;
+	}
+
+	/**
+	 * Number of statements chunks executed concurrently, each one in its own transaction.
+	 * The default value 0 keeps one transaction per imported file.
+	 */
+	public void setPipelineWindow(int pipelineWindow) {
+		this.pipelineWindow = pipelineWindow;
+	}
+
+	/**
+	 * Enable the delta mode : records unchanged since the previous successful import are skipped.
+	 * @param deltaPath directory of the content hashes files
+	 * @param deltaMaxAge max age of the content hashes before a full import
+	 */
+	public void setDelta(String deltaPath, long deltaMaxAge) {
+		this.deltaPath = deltaPath;
+		this.deltaMaxAge = deltaMaxAge;
+	}
+
+	/**
+	 * Add the delta counts to the report and keep the content hashes for the next import if it succeeded.
+	 */
+	public void commitDelta(boolean succeeded) {
+		if (delta == null) {
+			return;
+		}
+		if (report != null) {
+			report.setDelta(delta.stats());
+		}
+		if (succeeded) {
+			try {
+				delta.save();
+			} catch (IOException e) {
+				log.error("Error saving delta state.", e);
+			}
+		}
+	}
+
+	/**
+	 * Force a full import on next imports, e.g. after relationships have been removed outside the import.
+	 */
+	public void invalidateDelta() {
+		if (deltaPath != null) {
+			DeltaState.invalidate(deltaPath);
+		}
+	}
+
+	private boolean isUnchanged(String type, JsonObject object, Object... content) {
+		return delta != null && delta.isUnchanged(type, object.getString("externalId"),
+				object.getString("checksum"), object.getArray("structures"), content);
+	}
+
 	public TransactionHelper getTransaction() {
 		return transactionHelper;
 	}
@@ -132,9 +208,11 @@ public class Importer {
 		structures.clear();
 		profiles.clear();
 		userImportedExternalId.clear();
+		importedStructures.clear();
 		groupClasses.clear();
 		report = null;
 		transactionHelper = null;
+		delta = null;
 	}
 
 	public boolean isReady() {
@@ -142,11 +220,14 @@ public class Importer {
 	}
 
 	public void persist(final Handler<Message<JsonObject>> handler) {
-		if (transactionHelper != null) {
-			transactionHelper.commit(new Handler<Message<JsonObject>>() {
+		final TransactionHelper tx = transactionHelper;
+		transactionHelper = null;
+		if (tx != null) {
+			tx.commit(new Handler<Message<JsonObject>>() {
 				@Override
 				public void handle(Message<JsonObject> message) {
-					transactionHelper = new TransactionHelper(neo4j, 1000);
+					log.info("Import transaction stats : " + tx.stats().encode());
+					transactionHelper = newTransactionHelper();
 					persEducNat.setTransactionHelper(transactionHelper);
 					if (handler != null) {
 						handler.handle(message);
@@ -154,7 +235,6 @@ public class Importer {
 				}
 			});
 		}
-		transactionHelper = null;
 	}
 
 	public void flush(Handler<Message<JsonObject>> handler) {
@@ -167,7 +247,7 @@ public class Importer {
 	 * Warning : all data in old uncommitted transaction will be lost.
 	 */
 	public void reinitTransaction() {
-		transactionHelper = new TransactionHelper(neo4j, 1000);
+		transactionHelper = newTransactionHelper();
 	}
 
 	public Structure createOrUpdateStructure(JsonObject struct) {
@@ -183,6 +263,8 @@ public class Importer {
 		} else {
 			struct.putString("source", currentSource);
 			final String externalId = struct.getString("externalId");
+			final boolean unchanged = delta != null &&
+					delta.isUnchanged("Structure", externalId, struct.getString("checksum"), groups);
 			if (groups != null) {
 				for (Object gcMapping : groups) {
 					if (!(gcMapping instanceof String)) continue;
@@ -200,7 +282,9 @@ public class Importer {
 			}
 			s = structures.get(externalId);
 			if (s != null) {
-				s.update(struct);
+				if (!unchanged) {
+					s.update(struct);
+				}
 			} else {
 				String UAI = struct.getString("UAI");
 				if (UAI != null) {
@@ -225,6 +309,9 @@ public class Importer {
 					}
 				}
 			}
+			if (s != null) {
+				importedStructures.add(s.getExternalId());
+			}
 		}
 		return s;
 	}
@@ -314,18 +401,12 @@ public class Importer {
 		if (error != null) {
 			report.addIgnored("Relative", error, object);
 			log.warn(error);
+		} else if (isUnchanged("Relative", object, linkStudent, linkRelativeWithoutChild)) {
+			userImportedExternalId.add(object.getString("externalId"));
 		} else {
 			object.putString("source", currentSource);
 			userImportedExternalId.add(object.getString("externalId"));
-			String query =
-					"MERGE (u:User { externalId : {externalId}}) " +
-					"ON CREATE SET u.id = {id}, u.login = {login}, u.activationCode = {activationCode}, " +
-					"u.displayName = {displayName}, u.created = {created} " +
-					"WITH u " +
-					"WHERE u.checksum IS NULL OR u.checksum <> {checksum} " +
-					"SET " + Neo4jUtils.nodeSetPropertiesFromJson("u", object,
-							"id", "externalId", "login", "activationCode", "displayName", "email", "created");
-			transactionHelper.add(query, object);
+			transactionHelper.addBatch(AbstractUser.MERGE_USER_QUERY, AbstractUser.mergeUserParams(object));
 			checkUpdateEmail(object);
 			if (linkStudent != null && linkStudent.size() > 0) {
 				String query2 =
@@ -353,10 +434,11 @@ public class Importer {
 							"MERGE u-[:IN]->g";
 					p.putArray("structuresAdmin", structures)
 							.putString("profileExternalId", DefaultProfiles.RELATIVE_PROFILE_EXTERNAL_ID);
-					transactionHelper.add(q1, p);
+					transactionHelper.addBatch(q1, p);
 				}
 			}
 		}
+		transactionHelper.checkpoint();
 	}
 
 	public void createOrUpdateGuest(JsonObject object, String[][] linkClasses) {
@@ -364,19 +446,13 @@ public class Importer {
 		if (error != null) {
 			report.addIgnored("Guest", error, object);
 			log.warn(error);
+		} else if (isUnchanged("Guest", object, linkClasses)) {
+			userImportedExternalId.add(object.getString("externalId"));
 		} else {
 			object.putString("source", currentSource);
 			final String externalId = object.getString("externalId");
 			userImportedExternalId.add(externalId);
-			String query =
-					"MERGE (u:User { externalId : {externalId}}) " +
-					"ON CREATE SET u.id = {id}, u.login = {login}, u.activationCode = {activationCode}, " +
-					"u.displayName = {displayName}, u.created = {created} " +
-					"WITH u " +
-					"WHERE u.checksum IS NULL OR u.checksum <> {checksum} " +
-					"SET " + Neo4jUtils.nodeSetPropertiesFromJson("u", object,
-					"id", "externalId", "login", "activationCode", "displayName", "email", "created");
-			transactionHelper.add(query, object);
+			transactionHelper.addBatch(AbstractUser.MERGE_USER_QUERY, AbstractUser.mergeUserParams(object));
 			checkUpdateEmail(object);
 			JsonArray structures = getMappingStructures(object.getArray("structures"));
 			if (externalId != null && structures != null && structures.size() > 0) {
@@ -390,7 +466,7 @@ public class Importer {
 							"MERGE u-[:IN]->g";
 				p.putArray("structuresAdmin", structures)
 						.putString("profileExternalId", DefaultProfiles.GUEST_PROFILE_EXTERNAL_ID);
-				transactionHelper.add(q1, p);
+				transactionHelper.addBatch(q1, p);
 				String qs =
 						"MATCH (:User {externalId : {userExternalId}})-[r:IN|COMMUNIQUE]-(:Group)-[:DEPENDS]->(s:Structure) " +
 						"WHERE NOT(s.externalId IN {structures}) AND (NOT(HAS(r.source)) OR r.source = {source}) " +
@@ -399,7 +475,7 @@ public class Importer {
 						.putString("userExternalId", externalId)
 						.putString("source", currentSource)
 						.putArray("structures", structures);
-				transactionHelper.add(qs, ps);
+				transactionHelper.addBatch(qs, ps);
 			}
 			if (externalId != null && linkClasses != null) {
 				JsonArray classes = new JsonArray();
@@ -419,7 +495,7 @@ public class Importer {
 								.putString("profileExternalId", DefaultProfiles.GUEST_PROFILE_EXTERNAL_ID)
 								.putString("structure", structClass[0])
 								.putString("class", structClass[1]);
-						transactionHelper.add(q, p);
+						transactionHelper.addBatch(q, p);
 						classes.add(structClass[1]);
 					}
 				}
@@ -431,9 +507,10 @@ public class Importer {
 						.putString("userExternalId", externalId)
 						.putString("source", currentSource)
 						.putArray("classes", classes);
-				transactionHelper.add(q, p);
+				transactionHelper.addBatch(q, p);
 			}
 		}
+		transactionHelper.checkpoint();
 	}
 
 	private void checkUpdateEmail(JsonObject object) {
@@ -452,6 +529,7 @@ public class Importer {
 			String[][] linkClasses, String[][] linkGroups, boolean nodeQueries, boolean relationshipQueries) {
 		persEducNat.createOrUpdatePersonnel(object, profileExternalId, structuresByFunctions,
 				linkClasses, linkGroups, nodeQueries, relationshipQueries);
+		transactionHelper.checkpoint();
 	}
 
 	public void createOrUpdateStudent(JsonObject object, String profileExternalId, String module, JsonArray fieldOfStudy,
@@ -461,19 +539,16 @@ public class Importer {
 		if (error != null) {
 			report.addIgnored("Student", error, object);
 			log.warn(error);
+		} else if (isUnchanged((nodeQueries ? "Student" : "StudentLinks"), object, profileExternalId, module,
+				fieldOfStudy, linkClasses, linkGroups, relative, nodeQueries, relationshipQueries)) {
+			if (nodeQueries) {
+				userImportedExternalId.add(object.getString("externalId"));
+			}
 		} else {
 			if (nodeQueries) {
 				object.putString("source", currentSource);
 				userImportedExternalId.add(object.getString("externalId"));
-				String query =
-					"MERGE (u:`User` { externalId : {externalId}}) " +
-					"ON CREATE SET u.id = {id}, u.login = {login}, u.activationCode = {activationCode}, " +
-					"u.displayName = {displayName}, u.created = {created} " +
-					"WITH u " +
-					"WHERE u.checksum IS NULL OR u.checksum <> {checksum} " +
-					"SET " + Neo4jUtils.nodeSetPropertiesFromJson("u", object,
-							"id", "externalId", "login", "activationCode", "displayName", "email", "created");
-				transactionHelper.add(query, object);
+				transactionHelper.addBatch(AbstractUser.MERGE_USER_QUERY, AbstractUser.mergeUserParams(object));
 				checkUpdateEmail(object);
 			}
 			if (relationshipQueries) {
@@ -502,7 +577,7 @@ public class Importer {
 						p.putArray("structuresAdmin", structures)
 								.putString("profileExternalId", profileExternalId);
 					}
-					transactionHelper.add(query, p);
+					transactionHelper.addBatch(query, p);
 					String qs =
 							"MATCH (:User {externalId : {userExternalId}})-[r:IN|COMMUNIQUE]-(:Group)-[:DEPENDS]->(s:Structure) " +
 							"WHERE NOT(s.externalId IN {structures}) AND (NOT(HAS(r.source)) OR r.source = {source}) " +
@@ -511,7 +586,7 @@ public class Importer {
 							.putString("userExternalId", externalId)
 							.putString("source", currentSource)
 							.putArray("structures", structures);
-					transactionHelper.add(qs, ps);
+					transactionHelper.addBatch(qs, ps);
 				}
 				if (externalId != null && linkClasses != null) {
 					JsonArray classes = new JsonArray();
@@ -530,7 +605,7 @@ public class Importer {
 							.putString("userExternalId", externalId)
 							.putString("profileExternalId", profileExternalId)
 							.putArray("classes", classes);
-					transactionHelper.add(query, p0);
+					transactionHelper.addBatch(query, p0);
 					String q =
 							"MATCH (:User {externalId : {userExternalId}})-[r:IN|COMMUNIQUE]-(:Group)-[:DEPENDS]->(c:Class) " +
 							"WHERE NOT(c.externalId IN {classes}) AND (NOT(HAS(r.source)) OR r.source = {source}) " +
@@ -539,7 +614,7 @@ public class Importer {
 							.putString("userExternalId", externalId)
 							.putString("source", currentSource)
 							.putArray("classes", classes);
-					transactionHelper.add(q, p);
+					transactionHelper.addBatch(q, p);
 				}
 				final JsonArray groups = new JsonArray();
 				if (externalId != null && linkGroups != null) {
@@ -555,7 +630,7 @@ public class Importer {
 					JsonObject p = new JsonObject()
 							.putString("userExternalId", externalId)
 							.putArray("groups", groups);
-					transactionHelper.add(query, p);
+					transactionHelper.addBatch(query, p);
 				}
 				if (externalId != null) {
 					final String qdfg =
@@ -566,7 +641,7 @@ public class Importer {
 							.putString("userExternalId", externalId)
 							.putString("source", currentSource)
 							.putArray("groups", groups);
-					transactionHelper.add(qdfg, pdfg);
+					transactionHelper.addBatch(qdfg, pdfg);
 				}
 
 				if (externalId != null && module != null) {
@@ -577,7 +652,7 @@ public class Importer {
 					JsonObject p = new JsonObject()
 							.putString("userExternalId", externalId)
 							.putString("moduleStudent", module);
-					transactionHelper.add(query, p);
+					transactionHelper.addBatch(query, p);
 				}
 				if (externalId != null && fieldOfStudy != null && fieldOfStudy.size() > 0) {
 					String query =
@@ -587,7 +662,7 @@ public class Importer {
 					JsonObject p = new JsonObject()
 								.putString("userExternalId", externalId)
 								.putArray("fieldOfStudyStudent", fieldOfStudy);
-					transactionHelper.add(query, p);
+					transactionHelper.addBatch(query, p);
 				}
 				if (externalId != null && relative != null && relative.size() > 0) {
 					String query2 =
@@ -597,7 +672,7 @@ public class Importer {
 					JsonObject p2 = new JsonObject()
 							.putString("userExternalId", externalId)
 							.putArray("relatives", relative);
-					transactionHelper.add(query2, p2);
+					transactionHelper.addBatch(query2, p2);
 					for (Object o : relative) {
 						if (!(o instanceof String)) continue;
 						String query =
@@ -610,11 +685,12 @@ public class Importer {
 						JsonObject p = new JsonObject()
 								.putString("userExternalId", externalId)
 								.putString("user", (String) o);
-						transactionHelper.add(query, p);
+						transactionHelper.addBatch(query, p);
 					}
 				}
 			}
 		}
+		transactionHelper.checkpoint();
 	}
 
 	public void linkRelativeToStructure(String profileExternalId) {
@@ -841,6 +917,10 @@ public class Importer {
 		return userImportedExternalId;
 	}
 
+	public Set<String> getImportedStructures() {
+		return importedStructures;
+	}
+
 	public ConcurrentHashMap<String, List<String>> getGroupClasses() {
 		return groupClasses;
 	}
@@ -64,6 +64,13 @@ public class PostImport {
 	}
 
 	public void execute(String source) {
+		execute(source, null);
+	}
+
+	/**
+	 * @param structures externalIds of the imported structures, notified to the applications. Null when unknown.
+	 */
+	public void execute(String source, final JsonArray structures) {
 		storeImportedEvent();
 		if (source == null || config.getArray("exclude-mark-duplicates-by-source") == null ||
 				!config.getArray("exclude-mark-duplicates-by-source").contains(source)) {
@@ -77,7 +84,7 @@ public class PostImport {
 								@Override
 								protected void handle() {
 									if (config.getBoolean("notify-apps-after-import", true)) {
-										ApplicationUtils.afterImport(eb);
+										ApplicationUtils.afterImport(eb, structures);
 									}
 									if (config.getObject("ws-call-after-import") != null) {
 										wsCall(config.getObject("ws-call-after-import"));
@@ -93,7 +100,7 @@ public class PostImport {
 				@Override
 				protected void handle() {
 					if (config.getBoolean("notify-apps-after-import", true)) {
-						ApplicationUtils.afterImport(eb);
+						ApplicationUtils.afterImport(eb, structures);
 					}
 					if (config.getObject("ws-call-after-import") != null) {
 						wsCall(config.getObject("ws-call-after-import"));
@@ -28,6 +28,8 @@ import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -36,6 +38,15 @@ import static org.entcore.feeder.utils.AAFUtil.convertDate;
 public abstract class AbstractUser {
 
 	protected static final Logger log = LoggerFactory.getLogger(AbstractUser.class);
+	public static final String MERGE_USER_QUERY =
+			"MERGE (u:User { externalId : {externalId}}) " +
+			"ON CREATE SET u.id = {id}, u.login = {login}, u.activationCode = {activationCode}, " +
+			"u.displayName = {displayName}, u.created = {created} " +
+			"WITH u " +
+			"WHERE u.checksum IS NULL OR u.checksum <> {checksum} " +
+			"SET u += {props} ";
+	private static final List<String> MERGE_USER_IGNORED_ATTRIBUTES = Arrays.asList(
+			"id", "externalId", "login", "activationCode", "displayName", "email", "created");
 	protected TransactionHelper transactionHelper;
 	private final Map<String, String> externalIdMapping;
 	protected final Set<String> userImportedExternalId;
@@ -65,10 +76,32 @@ public abstract class AbstractUser {
 					"MATCH (u:User {externalId: {externalId}}) " +
 					"WHERE NOT(HAS(u.email)) OR (HAS(u.activationCode) AND u.email <> {email}) " +
 					"SET u.email = {email}";
-			transactionHelper.add(queryUpdateEmail, object);
+			transactionHelper.addBatch(queryUpdateEmail, object);
 		}
 	}
 
+	/**
+	 * Parameters of {@link #MERGE_USER_QUERY}. The updated attributes are passed as a map
+	 * so the query text is the same for all users and can be batched.
+	 */
+	public static JsonObject mergeUserParams(JsonObject object) {
+		final JsonObject props = new JsonObject();
+		for (String a : object.getFieldNames()) {
+			final String attr = a.replaceAll("\\W+", "");
+			if (MERGE_USER_IGNORED_ATTRIBUTES.contains(attr)) continue;
+			props.putValue(attr, object.getValue(attr));
+		}
+		return new JsonObject()
+				.putString("externalId", object.getString("externalId"))
+				.putValue("id", object.getValue("id"))
+				.putValue("login", object.getValue("login"))
+				.putValue("activationCode", object.getValue("activationCode"))
+				.putValue("displayName", object.getValue("displayName"))
+				.putValue("created", object.getValue("created"))
+				.putValue("checksum", object.getValue("checksum"))
+				.putObject("props", props);
+	}
+
 	public JsonArray getMappingStructures(JsonArray structures) {
 		if (externalIdMapping != null) {
 			return getUserMappingStructures(structures, externalIdMapping);
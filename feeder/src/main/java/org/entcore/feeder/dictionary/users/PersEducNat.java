@@ -21,6 +21,7 @@ package org.entcore.feeder.dictionary.users;
 
 import org.entcore.common.neo4j.Neo4jUtils;
 import org.entcore.feeder.timetable.edt.EDTImporter;
+import org.entcore.feeder.utils.DeltaState;
 import org.entcore.feeder.utils.Report;
 import org.entcore.feeder.utils.TransactionHelper;
 import org.entcore.feeder.utils.Validator;
@@ -35,6 +36,7 @@ import static fr.wseduc.webutils.Utils.isNotEmpty;
 public class PersEducNat extends AbstractUser {
 
 	private final Validator personnelValidator = new Validator("dictionary/schema/Personnel.json");
+	private DeltaState delta;
 
 	public PersEducNat(TransactionHelper transactionHelper, Report report, String currentSource) {
 		super(transactionHelper, report, currentSource);
@@ -54,28 +56,31 @@ public class PersEducNat extends AbstractUser {
 				report.addIgnored("Personnel", error, object);
 			}
 			log.warn(error);
+		} else if (delta != null && delta.isUnchanged((nodeQueries ? "Personnel" : "PersonnelLinks"),
+				object.getString("externalId"), object.getString("checksum"), object.getArray("structures"),
+				profileExternalId, structuresByFunctions, linkClasses, linkGroups, nodeQueries, relationshipQueries)) {
+			if (nodeQueries && userImportedExternalId != null) {
+				userImportedExternalId.add(object.getString("externalId"));
+			}
 		} else {
 			if (nodeQueries) {
 				object.putString("source", currentSource);
 				if (userImportedExternalId != null) {
 					userImportedExternalId.add(object.getString("externalId"));
 				}
-				StringBuilder sb = new StringBuilder();
-				JsonObject params;
-				sb.append("MERGE (u:`User` { externalId : {externalId}}) ");
-				sb.append("ON CREATE SET u.id = {id}, u.login = {login}, u.activationCode = {activationCode}, ");
-				sb.append("u.displayName = {displayName}, u.created = {created} ");
-				sb.append("WITH u ");
-				if (!EDTImporter.EDT.equals(currentSource)) {
-					sb.append("WHERE u.checksum IS NULL OR u.checksum <> {checksum} ");
-				}
-				sb.append("SET ").append(Neo4jUtils.nodeSetPropertiesFromJson("u", object,
-						"id", "externalId", "login", "activationCode", "displayName", "email", "created"));
 				if (EDTImporter.EDT.equals(currentSource)) {
-					sb.append("RETURN u.id as id, u.IDPN as IDPN, head(u.profiles) as profile");
+					final String query =
+							"MERGE (u:`User` { externalId : {externalId}}) " +
+							"ON CREATE SET u.id = {id}, u.login = {login}, u.activationCode = {activationCode}, " +
+							"u.displayName = {displayName}, u.created = {created} " +
+							"WITH u " +
+							"SET " + Neo4jUtils.nodeSetPropertiesFromJson("u", object,
+									"id", "externalId", "login", "activationCode", "displayName", "email", "created") +
+							"RETURN u.id as id, u.IDPN as IDPN, head(u.profiles) as profile";
+					transactionHelper.add(query, object);
+				} else {
+					transactionHelper.addBatch(MERGE_USER_QUERY, mergeUserParams(object));
 				}
-				params = object;
-				transactionHelper.add(sb.toString(), params);
 				checkUpdateEmail(object);
 			}
 			if (relationshipQueries) {
@@ -94,7 +99,7 @@ public class PersEducNat extends AbstractUser {
 								"MERGE u-[:ADMINISTRATIVE_ATTACHMENT]->s ";
 						p.putArray("structuresAdmin", structures);
 					}
-					transactionHelper.add(query, p);
+					transactionHelper.addBatch(query, p);
 				}
 				if (externalId != null && structuresByFunctions != null && structuresByFunctions.size() > 0) {
 					String query;
@@ -116,7 +121,7 @@ public class PersEducNat extends AbstractUser {
 						p.putArray("structuresAdmin", structuresByFunctions)
 								.putString("profileExternalId", profileExternalId);
 					}
-					transactionHelper.add(query, p);
+					transactionHelper.addBatch(query, p);
 					String qs =
 							"MATCH (:User {externalId : {userExternalId}})-[r:IN|COMMUNIQUE]-(:Group)-[:DEPENDS]->(s:Structure) " +
 									"WHERE NOT(s.externalId IN {structures}) AND (NOT(HAS(r.source)) OR r.source = {source}) " +
@@ -125,7 +130,7 @@ public class PersEducNat extends AbstractUser {
 							.putString("userExternalId", externalId)
 							.putString("source", currentSource)
 							.putArray("structures", structuresByFunctions);
-					transactionHelper.add(qs, ps);
+					transactionHelper.addBatch(qs, ps);
 				}
 				final JsonObject fosm = new JsonObject();
 				final JsonArray classes = new JsonArray();
@@ -154,7 +159,7 @@ public class PersEducNat extends AbstractUser {
 							.putString("userExternalId", externalId)
 							.putString("profileExternalId", profileExternalId)
 							.putArray("classes", classes);
-					transactionHelper.add(query, p0);
+					transactionHelper.addBatch(query, p0);
 					JsonObject p = new JsonObject()
 							.putString("userExternalId", externalId)
 							.putString("source", currentSource)
@@ -165,7 +170,7 @@ public class PersEducNat extends AbstractUser {
 								"MATCH (u:User {externalId : {userExternalId}}), (f:FieldOfStudy {externalId:{feId}}) " +
 								"MERGE u-[r:TEACHES_FOS]->f " +
 								"SET r.classes = {classes} ";
-						transactionHelper.add(q2, p.copy().putArray("classes", fcm.getArray(fos)).putString("feId", fos));
+						transactionHelper.addBatch(q2, p.copy().putArray("classes", fcm.getArray(fos)).putString("feId", fos));
 					}
 				}
 				if (externalId != null) {
@@ -177,7 +182,7 @@ public class PersEducNat extends AbstractUser {
 							.putString("userExternalId", externalId)
 							.putString("source", currentSource)
 							.putArray("classes", classes);
-					transactionHelper.add(q, p);
+					transactionHelper.addBatch(q, p);
 				}
 				final JsonArray groups = new JsonArray();
 				final JsonObject fgm = new JsonObject();
@@ -202,7 +207,7 @@ public class PersEducNat extends AbstractUser {
 					JsonObject p = new JsonObject()
 							.putString("userExternalId", externalId)
 							.putArray("groups", groups);
-					transactionHelper.add(query, p);
+					transactionHelper.addBatch(query, p);
 				}
 				if (externalId != null) {
 					final String qdfg =
@@ -213,25 +218,29 @@ public class PersEducNat extends AbstractUser {
 							.putString("userExternalId", externalId)
 							.putString("source", currentSource)
 							.putArray("groups", groups);
-					transactionHelper.add(qdfg, pdfg);
+					transactionHelper.addBatch(qdfg, pdfg);
 					fosm.mergeIn(fgm);
 					final String deleteOldFoslg =
 							"MATCH (u:User {externalId : {userExternalId}})-[r:TEACHES_FOS]->(f:FieldOfStudy) " +
 							"WHERE NOT(f.externalId IN {fos}) AND (NOT(HAS(r.source)) OR r.source = {source}) " +
 							"DELETE r";
-					transactionHelper.add(deleteOldFoslg, pdfg.copy().putArray("fos", new JsonArray(fosm.getFieldNames().toArray())));
+					transactionHelper.addBatch(deleteOldFoslg, pdfg.copy().putArray("fos", new JsonArray(fosm.getFieldNames().toArray())));
 					for (String fos: fgm.getFieldNames()) {
 						String q2 =
 								"MATCH (u:User {externalId : {userExternalId}}), (f:FieldOfStudy {externalId:{feId}}) " +
 								"MERGE u-[r:TEACHES_FOS]->f " +
 								"SET r.groups = {groups} ";
-						transactionHelper.add(q2, pdfg.copy().putArray("groups", fgm.getArray(fos)).putString("feId", fos));
+						transactionHelper.addBatch(q2, pdfg.copy().putArray("groups", fgm.getArray(fos)).putString("feId", fos));
 					}
 				}
 			}
 		}
 	}
 
+	public void setDelta(DeltaState delta) {
+		this.delta = delta;
+	}
+
 	public void createAndLinkSubjects() {
 		createAndLinkSubjects(null);
 	}
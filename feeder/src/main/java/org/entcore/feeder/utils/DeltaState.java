@@ -0,0 +1,181 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.feeder.utils;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content hashes of the records imported by the previous successful import of a source.
+ * A record whose hash didn't change can be skipped before any statement is built.
+ * The state is dropped, forcing a full import, when it is older than the max age.
+ */
+public class DeltaState {
+
+	private static final Logger log = LoggerFactory.getLogger(DeltaState.class);
+	private static final int VERSION = 1;
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private final File file;
+	private final long fullImportTime;
+	private final Map<String, Long> previous;
+	private final Map<String, Long> current = new HashMap<>();
+	private final Map<String, int[]> counts = new LinkedHashMap<>();
+
+	private DeltaState(File file, long fullImportTime, Map<String, Long> previous) {
+		this.file = file;
+		this.fullImportTime = fullImportTime;
+		this.previous = previous;
+	}
+
+	public static DeltaState load(String directory, String source, long maxAge) {
+		final File file = new File(directory, source + ".delta");
+		final long now = System.currentTimeMillis();
+		if (file.exists()) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new GZIPInputStream(new FileInputStream(file))))) {
+				if (in.readInt() == VERSION) {
+					final long fullImportTime = in.readLong();
+					if (now - fullImportTime < maxAge) {
+						final int size = in.readInt();
+						final Map<String, Long> previous = new HashMap<>(size * 4 / 3 + 1);
+						for (int i = 0; i < size; i++) {
+							previous.put(in.readUTF(), in.readLong());
+						}
+						return new DeltaState(file, fullImportTime, previous);
+					}
+					log.info("Delta state of source " + source + " expired : full import.");
+				}
+			} catch (IOException | RuntimeException e) {
+				log.error("Error loading delta state of source " + source + " : full import.", e);
+			}
+		}
+		return new DeltaState(file, now, new HashMap<String, Long>());
+	}
+
+	public static void invalidate(String directory) {
+		final File[] files = new File(directory).listFiles();
+		if (files != null) {
+			for (File f : files) {
+				if (f.getName().endsWith(".delta") && !f.delete()) {
+					log.error("Unable to delete delta state " + f.getAbsolutePath());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Record the content hash of a record for the next import.
+	 * @param type records type, counted in the stats
+	 * @param externalId record external identifier
+	 * @param content values used to build the record statements
+	 * @return true if the record didn't change since the previous import
+	 */
+	public boolean isUnchanged(String type, String externalId, Object... content) {
+		if (externalId == null) {
+			return false;
+		}
+		final String key = type + ":" + externalId;
+		final long hash = hash(content);
+		current.put(key, hash);
+		final Long old = previous.get(key);
+		int[] c = counts.get(type);
+		if (c == null) {
+			c = new int[3];
+			counts.put(type, c);
+		}
+		if (old == null) {
+			c[0]++;
+		} else if (old != hash) {
+			c[1]++;
+		} else {
+			c[2]++;
+			return true;
+		}
+		return false;
+	}
+
+	public void save() throws IOException {
+		final File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Unable to create delta directory " + parent.getAbsolutePath());
+		}
+		final File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(tmp))))) {
+			out.writeInt(VERSION);
+			out.writeLong(fullImportTime);
+			out.writeInt(current.size());
+			for (Map.Entry<String, Long> e : current.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeLong(e.getValue());
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	public JsonArray stats() {
+		final JsonArray stats = new JsonArray();
+		for (Map.Entry<String, int[]> e : counts.entrySet()) {
+			stats.addObject(new JsonObject()
+					.putString("type", e.getKey())
+					.putNumber("added", e.getValue()[0])
+					.putNumber("changed", e.getValue()[1])
+					.putNumber("unchanged", e.getValue()[2]));
+		}
+		return stats;
+	}
+
+	private static long hash(Object... content) {
+		long h = FNV_OFFSET;
+		for (Object o : content) {
+			final String s;
+			if (o instanceof Object[]) {
+				s = Arrays.deepToString((Object[]) o);
+			} else if (o instanceof JsonArray) {
+				s = ((JsonArray) o).encode();
+			} else if (o instanceof JsonObject) {
+				s = ((JsonObject) o).encode();
+			} else {
+				s = String.valueOf(o);
+			}
+			for (int i = 0; i < s.length(); i++) {
+				h ^= s.charAt(i);
+				h *= FNV_PRIME;
+			}
+			h ^= 0xff;
+			h *= FNV_PRIME;
+		}
+		return h;
+	}
+
+}
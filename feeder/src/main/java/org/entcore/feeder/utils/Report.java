@@ -153,6 +153,11 @@ public class Report {
 		return result;
 	}
 
+	public void setDelta(JsonArray delta) {
+		// object section : the report header is only rendered in delta mode
+		result.putObject("delta", new JsonObject().putArray("types", delta));
+	}
+
 	public void setUsersExternalId(JsonArray usersExternalIds) {
 		result.putArray("usersExternalIds", usersExternalIds);
 	}
@@ -0,0 +1,159 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.feeder.utils;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Groups statements sharing the same query text into a single
+ * <code>UNWIND {rows} AS row ...</code> statement, each row holding the parameters of one statement.
+ * Groups are drained in creation order, so callers must only batch statements whose relative
+ * order between two groups does not matter (e.g. the same sequence of queries repeated for each user).
+ */
+public class StatementBatcher {
+
+	private static final Pattern PARAM = Pattern.compile("\\{(\\w+)\\}");
+	private static final Pattern WITH = Pattern.compile("(?i)(?<!STARTS |ENDS )\\bWITH\\s+(DISTINCT\\s+)?");
+	private static final Pattern NOT_BATCHABLE = Pattern.compile(
+			"(?i)^\\s*START\\b|\\bRETURN\\b|\\bUNWIND\\b|\\bLOAD\\s+CSV\\b|\\bWITH\\s+\\*|\\brow\\b");
+	private static final int MAX_COMPILED_QUERIES = 256;
+	private static final Compiled NOT_COMPILABLE = new Compiled(null, null);
+
+	private final int maxRows;
+	private final int maxBytes;
+	private final Map<String, Compiled> compiled = new HashMap<>();
+	private final Map<String, Batch> batches = new LinkedHashMap<>();
+	private int rows = 0;
+	private int bytes = 0;
+
+	private static final class Compiled {
+		private final String statement;
+		private final Set<String> params;
+
+		private Compiled(String statement, Set<String> params) {
+			this.statement = statement;
+			this.params = params;
+		}
+	}
+
+	private static final class Batch {
+		private final Compiled compiled;
+		private final JsonArray rows = new JsonArray();
+
+		private Batch(Compiled compiled) {
+			this.compiled = compiled;
+		}
+	}
+
+	public StatementBatcher(int maxRows, int maxBytes) {
+		this.maxRows = maxRows;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Add a statement to the batch of its query text.
+	 * @return false if the query can't be batched, the statement must then be sent as is
+	 */
+	public boolean add(String query, JsonObject params) {
+		if (query == null || query.trim().isEmpty()) {
+			return false;
+		}
+		final Compiled c = compile(query);
+		if (c == NOT_COMPILABLE) {
+			return false;
+		}
+		Batch batch = batches.get(query);
+		if (batch == null) {
+			batch = new Batch(c);
+			batches.put(query, batch);
+		}
+		final JsonObject row = new JsonObject();
+		if (params != null) {
+			for (String param : c.params) {
+				row.putValue(param, params.getValue(param));
+			}
+		}
+		batch.rows.addObject(row);
+		rows++;
+		bytes += row.encode().length();
+		return true;
+	}
+
+	public boolean isFull() {
+		return rows >= maxRows || bytes >= maxBytes;
+	}
+
+	public boolean isEmpty() {
+		return rows == 0;
+	}
+
+	/**
+	 * Remove the pending batches.
+	 * @return UNWIND statements in batches creation order
+	 */
+	public List<JsonObject> drain() {
+		final List<JsonObject> statements = new ArrayList<>(batches.size());
+		for (Batch batch : batches.values()) {
+			statements.add(new JsonObject()
+					.putString("statement", batch.compiled.statement)
+					.putObject("parameters", new JsonObject().putArray("rows", batch.rows)));
+		}
+		batches.clear();
+		rows = 0;
+		bytes = 0;
+		return statements;
+	}
+
+	private Compiled compile(String query) {
+		Compiled c = compiled.get(query);
+		if (c != null) {
+			return c;
+		}
+		if (NOT_BATCHABLE.matcher(query).find()) {
+			c = NOT_COMPILABLE;
+		} else {
+			final Set<String> params = new LinkedHashSet<>();
+			final Matcher m = PARAM.matcher(query);
+			while (m.find()) {
+				params.add(m.group(1));
+			}
+			String statement = PARAM.matcher(query).replaceAll("row.$1");
+			statement = WITH.matcher(statement).replaceAll("WITH $1row, ");
+			c = new Compiled("UNWIND {rows} AS row " + statement, params);
+		}
+		if (compiled.size() >= MAX_COMPILED_QUERIES) {
+			compiled.clear();
+		}
+		compiled.put(query, c);
+		return c;
+	}
+
+}
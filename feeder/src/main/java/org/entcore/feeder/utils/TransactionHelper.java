@@ -27,6 +27,8 @@ import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -47,6 +49,16 @@ public class TransactionHelper {
 	private boolean flush = false;
 	private Handler<Message<JsonObject>> flushHandler;
 	private boolean autoSend = true;
+	private StatementBatcher batcher;
+	private final int window;
+	private int inFlight = 0;
+	private final LinkedList<JsonArray> chunks = new LinkedList<>();
+	private Handler<Void> drainHandler;
+	private Message<JsonObject> lastResult;
+	private long chunkCount = 0;
+	private long chunkStatements = 0;
+	private long chunkTime = 0;
+	private long chunkMaxTime = 0;
 
 	class ResetTransactionTimer extends TimerTask {
 
@@ -67,16 +79,58 @@ public class TransactionHelper {
 	}
 
 	public TransactionHelper(Neo4j neo4j, int statementNumber) {
+		this(neo4j, statementNumber, 0);
+	}
+
+	/**
+	 * @param window maximum number of chunks executed concurrently. When greater than 0, each chunk
+	 * is committed in its own transaction and chunks are only cut on {@link #checkpoint()} :
+	 * use it only when atomicity across chunks isn't needed.
+	 */
+	public TransactionHelper(Neo4j neo4j, int statementNumber, int window) {
 		this.neo4j = neo4j;
 		this.remainingStatementNumber = new AtomicInteger(statementNumber);
 		this.statementNumber = statementNumber;
 		this.statements = new JsonArray();
-		send(new JsonArray());
+		this.window = window;
+		if (window < 1) {
+			send(new JsonArray());
+		}
 	}
 
 	public void add(String query, JsonObject params) {
-		if (autoSend && !waitingQuery && transactionId != null &&
-				remainingStatementNumber.getAndDecrement() == 0) {
+		drainBatches();
+		add(query, params, 1);
+	}
+
+	/**
+	 * Add a statement which can be merged with the pending statements sharing the same query text.
+	 * Falls back to {@link #add(String, JsonObject)} when batching is disabled or the query can't be batched.
+	 */
+	public void addBatch(String query, JsonObject params) {
+		if (batcher == null || !batcher.add(query, params)) {
+			add(query, params);
+		} else if (batcher.isFull()) {
+			drainBatches();
+		}
+	}
+
+	private void drainBatches() {
+		if (batcher == null || batcher.isEmpty()) {
+			return;
+		}
+		final List<JsonObject> batches = batcher.drain();
+		for (JsonObject b : batches) {
+			final JsonObject params = b.getObject("parameters");
+			add(b.getString("statement"), params, params.getArray("rows").size());
+		}
+	}
+
+	private void add(String query, JsonObject params, int rows) {
+		if (window > 0) {
+			remainingStatementNumber.addAndGet(-rows);
+		} else if (autoSend && !waitingQuery && transactionId != null &&
+				remainingStatementNumber.getAndAdd(-rows) <= 0) {
 			final JsonArray s = statements;
 			statements = new JsonArray();
 			send(s);
@@ -94,18 +148,133 @@ public class TransactionHelper {
 		}
 	}
 
+	/**
+	 * Marks the end of an independent unit of statements (e.g. one imported user).
+	 * In pipelined mode, a chunk is queued when it is full and the unit is complete,
+	 * so the statements of a unit are never split between concurrent transactions.
+	 */
+	public void checkpoint() {
+		if (window > 0 && remainingStatementNumber.get() <= 0) {
+			queueChunk();
+			sendChunks();
+		}
+	}
+
+	/**
+	 * @return true when the pipelined chunks queue is full. Producers should then pause
+	 * until the drain handler is called.
+	 */
+	public boolean writeQueueFull() {
+		return window > 0 && chunks.size() >= window;
+	}
+
+	public void drainHandler(Handler<Void> handler) {
+		this.drainHandler = handler;
+	}
+
+	private void queueChunk() {
+		drainBatches();
+		if (statements.size() > 0) {
+			chunks.add(statements);
+			statements = new JsonArray();
+		}
+		remainingStatementNumber = new AtomicInteger(statementNumber);
+	}
+
+	private void sendChunks() {
+		while (error == null && inFlight < window && !chunks.isEmpty()) {
+			final JsonArray chunk = chunks.poll();
+			final long start = System.currentTimeMillis();
+			inFlight++;
+			neo4j.executeTransaction(chunk, null, true, new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> message) {
+					inFlight--;
+					chunkSent(chunk.size(), start);
+					if ("ok".equals(message.body().getString("status"))) {
+						lastResult = message;
+					} else {
+						error = message;
+						log.error(message.body().encode());
+					}
+					sendChunks();
+					if (drainHandler != null && !writeQueueFull()) {
+						final Handler<Void> h = drainHandler;
+						drainHandler = null;
+						h.handle(null);
+					}
+					if (inFlight == 0 && (chunks.isEmpty() || error != null)) {
+						if (commit) {
+							endChunks(commitHandler, true);
+						} else if (flush) {
+							endChunks(flushHandler, false);
+						}
+					}
+				}
+			});
+		}
+	}
+
+	private void endChunks(Handler<Message<JsonObject>> handler, boolean commit) {
+		queueChunk();
+		sendChunks();
+		if (inFlight > 0) {
+			if (commit) {
+				this.commit = true;
+				this.commitHandler = handler;
+			} else {
+				this.flush = true;
+				this.flushHandler = handler;
+			}
+			return;
+		}
+		this.commit = false;
+		this.flush = false;
+		if (handler != null) {
+			handler.handle(error != null ? error : (lastResult != null ? lastResult : new ResultMessage()));
+		}
+	}
+
+	private void chunkSent(int size, long start) {
+		final long time = System.currentTimeMillis() - start;
+		chunkCount++;
+		chunkStatements += size;
+		chunkTime += time;
+		if (time > chunkMaxTime) {
+			chunkMaxTime = time;
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Chunk of " + size + " statements executed in " + time + " ms.");
+		}
+	}
+
+	public JsonObject stats() {
+		return new JsonObject()
+				.putNumber("chunks", chunkCount)
+				.putNumber("statements", chunkStatements)
+				.putNumber("averageTime", (chunkCount > 0 ? chunkTime / chunkCount : 0))
+				.putNumber("maxTime", chunkMaxTime)
+				.putNumber("window", window)
+				.putNumber("inFlight", inFlight)
+				.putNumber("queued", chunks.size());
+	}
+
 	private void send(JsonArray s) {
 		send(s, null);
 	}
 
-	private void send(JsonArray s, final Handler<Message<JsonObject>> handler) {
+	private void send(final JsonArray s, final Handler<Message<JsonObject>> handler) {
 		if (error != null) {
 			throw new IllegalStateException(error.body().getString("message"));
 		}
 		waitingQuery = true;
+		final long start = System.currentTimeMillis();
 		neo4j.executeTransaction(s, transactionId, false, new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> message) {
+				if (s.size() > 0) {
+					chunkSent(s.size(), start);
+				}
 				if (handler != null) {
 					handler.handle(message);
 				}
@@ -134,7 +303,15 @@ public class TransactionHelper {
 		commit(handler, true);
 	}
 
-	public void commit(Handler<Message<JsonObject>> handler, boolean th) {
+	public void commit(final Handler<Message<JsonObject>> handler, boolean th) {
+		drainBatches();
+		if (window > 0) {
+			if (error != null && th) {
+				throw new IllegalStateException(error.body().getString("message"));
+			}
+			endChunks(handler, true);
+			return;
+		}
 		if (error != null) {
 			if (!th && handler != null) {
 				handler.handle(error);
@@ -148,7 +325,17 @@ public class TransactionHelper {
 			return;
 		}
 		if (transactionId != null || statements.size() > 0) {
-			neo4j.executeTransaction(statements, transactionId, true, handler);
+			final long start = System.currentTimeMillis();
+			final int size = statements.size();
+			neo4j.executeTransaction(statements, transactionId, true, new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> message) {
+					chunkSent(size, start);
+					if (handler != null) {
+						handler.handle(message);
+					}
+				}
+			});
 			if (transactionId != null) {
 				resetTimeOutTimer.cancel();
 				resetTimeOutTimer.purge();
@@ -160,6 +347,14 @@ public class TransactionHelper {
 	}
 
 	public void rollback() {
+		if (window > 0) {
+			log.warn("Rollback of pipelined transaction : already executed chunks are committed.");
+			if (batcher != null) {
+				batcher.drain();
+			}
+			chunks.clear();
+			statements = new JsonArray();
+		}
 		if (transactionId != null) {
 			neo4j.rollbackTransaction(transactionId, null);
 			resetTimeOutTimer.cancel();
@@ -173,6 +368,14 @@ public class TransactionHelper {
 	}
 
 	public void flush(Handler<Message<JsonObject>> handler, boolean th) {
+		drainBatches();
+		if (window > 0) {
+			if (error != null && th) {
+				throw new IllegalStateException(error.body().getString("message"));
+			}
+			endChunks(handler, false);
+			return;
+		}
 		if (error != null) {
 			if (!th && handler != null) {
 				handler.handle(error);
@@ -200,9 +403,18 @@ public class TransactionHelper {
 	}
 
 	public boolean isEmpty() {
-		return statements == null || statements.size() == 0;
+		return (statements == null || statements.size() == 0) && (batcher == null || batcher.isEmpty()) &&
+				chunks.isEmpty();
 	}
 
+	/**
+	 * Enable UNWIND batching of the statements added with {@link #addBatch(String, JsonObject)}.
+	 * @param maxRows rows count triggering the batches drain
+	 * @param maxBytes encoded rows size triggering the batches drain
+	 */
+	public void setBatching(int maxRows, int maxBytes) {
+		this.batcher = (maxRows > 1) ? new StatementBatcher(maxRows, maxBytes) : null;
+	}
 
 	public boolean isAutoSend() {
 		return autoSend;
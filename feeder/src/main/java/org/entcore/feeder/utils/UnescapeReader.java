@@ -0,0 +1,143 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.feeder.utils;
+
+import org.apache.commons.lang3.text.translate.CharSequenceTranslator;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Applies an entities unescape translator on the fly, so a file can be unescaped
+ * without loading it entirely in memory. Only the characters following an '&amp;'
+ * are buffered, up to the ';' or the max entity length.
+ */
+public class UnescapeReader extends FilterReader {
+
+	private static final int MAX_ENTITY_LENGTH = 12;
+	private static final int NONE = -2;
+	private final CharSequenceTranslator translator;
+	private final char[] buffer = new char[8192];
+	private int position = 0;
+	private int limit = 0;
+	private int lookahead = NONE;
+	private final StringBuilder entity = new StringBuilder(MAX_ENTITY_LENGTH);
+	private String translated = "";
+	private int translatedPosition = 0;
+
+	public UnescapeReader(Reader in, CharSequenceTranslator translator) {
+		super(in);
+		this.translator = translator;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (translatedPosition < translated.length()) {
+			return translated.charAt(translatedPosition++);
+		}
+		final int c = next();
+		if (c != '&') {
+			return c;
+		}
+		entity.setLength(0);
+		entity.append('&');
+		int n;
+		while (true) {
+			n = next();
+			if (n == ';') {
+				entity.append(';');
+				break;
+			}
+			if (n == -1 || !isEntityChar(n) || entity.length() >= MAX_ENTITY_LENGTH) {
+				lookahead = n;
+				break;
+			}
+			entity.append((char) n);
+		}
+		translated = translator.translate(entity);
+		translatedPosition = 0;
+		return translated.charAt(translatedPosition++);
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		int i = 0;
+		while (i < len) {
+			final int c = read();
+			if (c == -1) {
+				return (i == 0) ? -1 : i;
+			}
+			cbuf[off + i++] = (char) c;
+		}
+		return i;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long i = 0;
+		while (i < n && read() != -1) {
+			i++;
+		}
+		return i;
+	}
+
+	@Override
+	public boolean ready() throws IOException {
+		return translatedPosition < translated.length() || lookahead != NONE || position < limit || in.ready();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void mark(int readAheadLimit) throws IOException {
+		throw new IOException("mark() not supported");
+	}
+
+	@Override
+	public void reset() throws IOException {
+		throw new IOException("reset() not supported");
+	}
+
+	private int next() throws IOException {
+		if (lookahead != NONE) {
+			final int c = lookahead;
+			lookahead = NONE;
+			return c;
+		}
+		if (position >= limit) {
+			limit = in.read(buffer, 0, buffer.length);
+			position = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return buffer[position++];
+	}
+
+	private static boolean isEntityChar(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '#';
+	}
+
+}
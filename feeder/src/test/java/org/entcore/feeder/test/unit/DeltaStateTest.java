@@ -0,0 +1,118 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.feeder.test.unit;
+
+import org.entcore.feeder.utils.DeltaState;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class DeltaStateTest {
+
+	private static final long DAY = 24 * 3600 * 1000l;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void unchangedRecordsSkippedOnNextImport() throws IOException {
+		final String dir = folder.getRoot().getAbsolutePath();
+		DeltaState state = DeltaState.load(dir, "AAF", DAY);
+		assertFalse(state.isUnchanged("User", "u1", "Jean", "Dupont", new JsonArray().add("c1")));
+		assertFalse(state.isUnchanged("User", "u2", "Marie", "Curie", new JsonArray()));
+		assertFalse(state.isUnchanged("Structure", "s1", new JsonObject().putString("name", "Lycée")));
+		state.save();
+		assertTrue(new File(dir, "AAF.delta").exists());
+
+		state = DeltaState.load(dir, "AAF", DAY);
+		assertTrue(state.isUnchanged("User", "u1", "Jean", "Dupont", new JsonArray().add("c1")));
+		assertFalse(state.isUnchanged("User", "u2", "Marie", "Curie", new JsonArray().add("c2")));
+		assertFalse(state.isUnchanged("User", "u3", "Paul", "Martin", new JsonArray()));
+		assertTrue(state.isUnchanged("Structure", "s1", new JsonObject().putString("name", "Lycée")));
+
+		final JsonObject users = (JsonObject) state.stats().get(0);
+		assertEquals("User", users.getString("type"));
+		assertEquals(1, (int) users.getInteger("added"));
+		assertEquals(1, (int) users.getInteger("changed"));
+		assertEquals(1, (int) users.getInteger("unchanged"));
+		final JsonObject structures = (JsonObject) state.stats().get(1);
+		assertEquals(1, (int) structures.getInteger("unchanged"));
+	}
+
+	@Test
+	public void recordsOfAnotherTypeOrSourceAreNew() throws IOException {
+		final String dir = folder.getRoot().getAbsolutePath();
+		DeltaState state = DeltaState.load(dir, "AAF", DAY);
+		state.isUnchanged("User", "u1", "Jean");
+		state.save();
+		assertFalse(DeltaState.load(dir, "AAF", DAY).isUnchanged("Structure", "u1", "Jean"));
+		assertFalse(DeltaState.load(dir, "AAF1D", DAY).isUnchanged("User", "u1", "Jean"));
+	}
+
+	@Test
+	public void valuesBoundariesChangeHash() throws IOException {
+		final String dir = folder.getRoot().getAbsolutePath();
+		DeltaState state = DeltaState.load(dir, "AAF", DAY);
+		state.isUnchanged("User", "u1", "ab", "c");
+		state.isUnchanged("User", "u2", new Object[] { "a", null });
+		state.save();
+		state = DeltaState.load(dir, "AAF", DAY);
+		assertFalse(state.isUnchanged("User", "u1", "a", "bc"));
+		assertFalse(state.isUnchanged("User", "u2", new Object[] { "a", "b" }));
+	}
+
+	@Test
+	public void expiredStateForcesFullImport() throws IOException, InterruptedException {
+		final String dir = folder.getRoot().getAbsolutePath();
+		DeltaState state = DeltaState.load(dir, "AAF", DAY);
+		state.isUnchanged("User", "u1", "Jean");
+		state.save();
+		Thread.sleep(5);
+		assertFalse(DeltaState.load(dir, "AAF", 1).isUnchanged("User", "u1", "Jean"));
+	}
+
+	@Test
+	public void invalidate() throws IOException {
+		final String dir = folder.getRoot().getAbsolutePath();
+		DeltaState state = DeltaState.load(dir, "AAF", DAY);
+		state.isUnchanged("User", "u1", "Jean");
+		state.save();
+		DeltaState.invalidate(dir);
+		assertFalse(new File(dir, "AAF.delta").exists());
+		assertFalse(DeltaState.load(dir, "AAF", DAY).isUnchanged("User", "u1", "Jean"));
+	}
+
+	@Test
+	public void corruptedStateForcesFullImport() throws IOException {
+		final String dir = folder.getRoot().getAbsolutePath();
+		assertTrue(new File(dir, "AAF.delta").createNewFile());
+		final DeltaState state = DeltaState.load(dir, "AAF", DAY);
+		assertFalse(state.isUnchanged("User", "u1", "Jean"));
+		assertFalse(state.isUnchanged("User", null, "Jean"));
+	}
+
+}
@@ -0,0 +1,131 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.feeder.test.unit;
+
+import org.entcore.feeder.dictionary.structures.DuplicateMatcher;
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DuplicateMatcherTest {
+
+	private static JsonObject user(String id, String lastName, String firstName, String birthDate, boolean modified) {
+		return new JsonObject().putString("id", id).putString("lastName", lastName)
+				.putString("firstName", firstName).putString("birthDate", birthDate)
+				.putString("source", "AAF").putBoolean("modified", modified);
+	}
+
+	private static List<JsonObject> match(List<String> notDeduplicateSource, JsonObject... users) {
+		final DuplicateMatcher matcher = new DuplicateMatcher(notDeduplicateSource);
+		matcher.load(new JsonArray(Arrays.asList((Object[]) users)));
+		return matcher.match();
+	}
+
+	private static List<JsonObject> match(JsonObject... users) {
+		return match(Collections.<String>emptyList(), users);
+	}
+
+	private static void assertPair(List<JsonObject> duplicates, String id0, String id1, int score) {
+		assertEquals(1, duplicates.size());
+		final JsonObject d = duplicates.get(0);
+		assertTrue((id0.equals(d.getString("sId")) && id1.equals(d.getString("dId"))) ||
+				(id1.equals(d.getString("sId")) && id0.equals(d.getString("dId"))));
+		assertEquals(score, (int) d.getInteger("score"));
+	}
+
+	@Test
+	public void accentsAndCase() {
+		assertPair(match(
+				user("1", "MARTIN", "Élodie", "2005-03-12", true),
+				user("2", "Martin", "Elodie", "2005-03-12", false)
+		), "1", "2", 5);
+	}
+
+	@Test
+	public void typoInFirstName() {
+		assertPair(match(
+				user("1", "Bernard", "Mathieu", "2004-11-02", true),
+				user("2", "Bernard", "Matthieu", "2004-11-02", false)
+		), "1", "2", 4);
+	}
+
+	@Test
+	public void compoundNames() {
+		assertPair(match(
+				user("1", "Le Goff", "Anne-Sophie", "2006-01-20", true),
+				user("2", "Legoff", "Anne Sophie", "2006-01-20", false)
+		), "1", "2", 4);
+	}
+
+	@Test
+	public void sharedAttributesWithDifferentNames() {
+		final JsonObject u1 = user("1", "Durand", "Paul", "2005-05-05", true).putString("email", "a@b.fr");
+		final JsonObject u2 = user("2", "Lefevre", "Marie", "2005-05-05", false).putString("email", "a@b.fr");
+		assertTrue(match(u1, u2).isEmpty());
+	}
+
+	@Test
+	public void onlyOneSharedAttribute() {
+		assertTrue(match(
+				user("1", "Dupont", "Jean", "2005-01-01", true),
+				user("2", "Dupont", "Jeanne", "2007-06-30", false)
+		).isEmpty());
+	}
+
+	@Test
+	public void onlyModifiedUsersSearched() {
+		assertTrue(match(
+				user("1", "Petit", "Louis", "2005-01-01", false),
+				user("2", "Petit", "Louis", "2005-01-01", false)
+		).isEmpty());
+	}
+
+	@Test
+	public void pairReportedOnce() {
+		assertPair(match(
+				user("1", "Petit", "Louis", "2005-01-01", true),
+				user("2", "Petit", "Louis", "2005-01-01", true)
+		), "1", "2", 5);
+	}
+
+	@Test
+	public void notDeduplicateSource() {
+		final List<String> sources = Collections.singletonList("AAF");
+		assertTrue(match(sources,
+				user("1", "Petit", "Louis", "2005-01-01", true),
+				user("2", "Petit", "Louis", "2005-01-01", false)
+		).isEmpty());
+		assertPair(match(sources,
+				user("1", "Petit", "Louis", "2005-01-01", true),
+				user("2", "Petit", "Louis", "2005-01-01", false).putNumber("disappearanceDate", 1l)
+		), "1", "2", 5);
+		assertPair(match(sources,
+				user("1", "Petit", "Louis", "2005-01-01", true),
+				user("2", "Petit", "Louis", "2005-01-01", false).putString("source", "CSV")
+		), "1", "2", 5);
+	}
+
+}
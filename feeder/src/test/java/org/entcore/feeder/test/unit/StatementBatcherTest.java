@@ -0,0 +1,104 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.feeder.test.unit;
+
+import org.entcore.feeder.utils.StatementBatcher;
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StatementBatcherTest {
+
+	private static final String MERGE_USER =
+			"MERGE (u:User {externalId : {externalId}}) SET u.lastName = {lastName} ";
+	private static final String LINK_GROUP =
+			"MATCH (u:User {externalId : {externalId}}), (g:Group {externalId : {groupId}}) " +
+			"WITH u, g CREATE UNIQUE u-[:IN]->g ";
+
+	@Test
+	public void groupsStatementsByQuery() {
+		final StatementBatcher batcher = new StatementBatcher(100, 1024 * 1024);
+		assertTrue(batcher.isEmpty());
+		assertTrue(batcher.add(MERGE_USER, new JsonObject().putString("externalId", "1").putString("lastName", "A")));
+		assertTrue(batcher.add(LINK_GROUP, new JsonObject().putString("externalId", "1").putString("groupId", "G")));
+		assertTrue(batcher.add(MERGE_USER, new JsonObject().putString("externalId", "2").putString("lastName", "B")
+				.putString("unused", "x")));
+		assertFalse(batcher.isEmpty());
+		final List<JsonObject> statements = batcher.drain();
+		assertTrue(batcher.isEmpty());
+		assertEquals(2, statements.size());
+
+		final JsonObject merge = statements.get(0);
+		assertEquals("UNWIND {rows} AS row MERGE (u:User {externalId : row.externalId}) SET u.lastName = row.lastName ",
+				merge.getString("statement"));
+		final JsonArray rows = merge.getObject("parameters").getArray("rows");
+		assertEquals(2, rows.size());
+		assertEquals("1", ((JsonObject) rows.get(0)).getString("externalId"));
+		assertEquals("B", ((JsonObject) rows.get(1)).getString("lastName"));
+		assertFalse(((JsonObject) rows.get(1)).containsField("unused"));
+
+		assertEquals("UNWIND {rows} AS row MATCH (u:User {externalId : row.externalId}), " +
+				"(g:Group {externalId : row.groupId}) WITH row, u, g CREATE UNIQUE u-[:IN]->g ",
+				statements.get(1).getString("statement"));
+	}
+
+	@Test
+	public void keepsRowThroughWithDistinct() {
+		final StatementBatcher batcher = new StatementBatcher(100, 1024 * 1024);
+		assertTrue(batcher.add("MATCH (u:User {id : {id}}) WITH DISTINCT u WHERE u.login STARTS WITH {prefix} " +
+				"SET u.checked = true ", new JsonObject().putString("id", "1").putString("prefix", "a")));
+		assertEquals("UNWIND {rows} AS row MATCH (u:User {id : row.id}) WITH DISTINCT row, u " +
+				"WHERE u.login STARTS WITH row.prefix SET u.checked = true ",
+				batcher.drain().get(0).getString("statement"));
+	}
+
+	@Test
+	public void rejectsNotBatchableQueries() {
+		final StatementBatcher batcher = new StatementBatcher(100, 1024 * 1024);
+		assertFalse(batcher.add("MATCH (u:User) RETURN u.id ", new JsonObject()));
+		assertFalse(batcher.add("UNWIND {ids} as id MATCH (u:User {id : id}) DELETE u ", new JsonObject()));
+		assertFalse(batcher.add("START n=node(*) SET n.x = 1 ", new JsonObject()));
+		assertFalse(batcher.add("MATCH (u:User) WITH * SET u.x = 1 ", new JsonObject()));
+		assertFalse(batcher.add("MATCH (row:User) SET row.x = {x} ", new JsonObject()));
+		assertFalse(batcher.add(" ", new JsonObject()));
+		assertTrue(batcher.isEmpty());
+	}
+
+	@Test
+	public void fullByRowsOrBytes() {
+		StatementBatcher batcher = new StatementBatcher(2, 1024 * 1024);
+		batcher.add(MERGE_USER, new JsonObject().putString("externalId", "1"));
+		assertFalse(batcher.isFull());
+		batcher.add(MERGE_USER, new JsonObject().putString("externalId", "2"));
+		assertTrue(batcher.isFull());
+		batcher.drain();
+		assertFalse(batcher.isFull());
+
+		batcher = new StatementBatcher(100, 50);
+		batcher.add(MERGE_USER, new JsonObject().putString("externalId", "1")
+				.putString("lastName", "a very long last name to fill the batch"));
+		assertTrue(batcher.isFull());
+	}
+
+}
@@ -0,0 +1,97 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.feeder.test.unit;
+
+import org.entcore.feeder.aaf.BaseImportProcessing;
+import org.entcore.feeder.utils.UnescapeReader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class UnescapeReaderTest {
+
+	private static final String[] SAMPLES = {
+			"<nom>H&eacute;l&egrave;ne</nom>",
+			"<nom>&#233;l&#xE9;ve</nom>",
+			"a &quot;quoted&quot; &apos;text&apos;",
+			"xml entities &amp; &lt;kept&gt;",
+			"& alone, &unknown; entity, &;",
+			"too long &abcdefghijklmnopqrstuvwxyz; entity",
+			"ends with &",
+			"ends with &eacute",
+			"&eacute;&eacute;&&eacute;",
+			""
+	};
+
+	private static String read(Reader reader) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		final char[] b = new char[3];
+		int n;
+		while ((n = reader.read(b, 0, b.length)) != -1) {
+			sb.append(b, 0, n);
+		}
+		reader.close();
+		return sb.toString();
+	}
+
+	@Test
+	public void sameAsWholeTextTranslation() throws IOException {
+		for (String sample : SAMPLES) {
+			assertEquals(sample, BaseImportProcessing.UNESCAPE_AAF.translate(sample),
+					read(new UnescapeReader(new StringReader(sample), BaseImportProcessing.UNESCAPE_AAF)));
+		}
+	}
+
+	@Test
+	public void entitiesSplitBetweenReads() throws IOException {
+		for (String sample : SAMPLES) {
+			// underlying reader returning one char per read
+			final Reader slow = new StringReader(sample) {
+				@Override
+				public int read(char[] cbuf, int off, int len) throws IOException {
+					return super.read(cbuf, off, Math.min(len, 1));
+				}
+			};
+			assertEquals(sample, BaseImportProcessing.UNESCAPE_AAF.translate(sample),
+					read(new UnescapeReader(slow, BaseImportProcessing.UNESCAPE_AAF)));
+		}
+	}
+
+	@Test
+	public void unescapes() throws IOException {
+		assertEquals("<nom>Hélène</nom>", read(new UnescapeReader(
+				new StringReader("<nom>H&eacute;l&egrave;ne</nom>"), BaseImportProcessing.UNESCAPE_AAF)));
+		assertEquals("&amp; \"", read(new UnescapeReader(
+				new StringReader("&amp; &quot;"), BaseImportProcessing.UNESCAPE_AAF)));
+	}
+
+	@Test
+	public void skip() throws IOException {
+		final Reader reader = new UnescapeReader(new StringReader("&eacute;t&eacute;"), BaseImportProcessing.UNESCAPE_AAF);
+		assertEquals(2, reader.skip(2));
+		assertEquals('é', reader.read());
+		assertEquals(-1, reader.read());
+	}
+
+}
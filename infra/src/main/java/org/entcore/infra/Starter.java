@@ -27,6 +27,10 @@ import fr.wseduc.webutils.validation.JsonSchemaValidator;
 import org.entcore.common.email.EmailFactory;
 import org.entcore.common.http.BaseServer;
 import org.entcore.common.notification.TimelineHelper;
+import org.entcore.common.storage.Storage;
+import org.entcore.common.storage.StorageFactory;
+import org.entcore.common.storage.impl.DedupStorage;
+import org.entcore.common.storage.impl.FileStorage;
 import org.entcore.common.utils.StringUtils;
 import org.entcore.infra.controllers.AntiVirusController;
 import org.entcore.infra.controllers.EmbedController;
@@ -34,9 +38,11 @@ import org.entcore.infra.controllers.EventStoreController;
 import org.entcore.infra.controllers.MonitoringController;
 import org.entcore.infra.cron.HardBounceTask;
 import org.entcore.infra.services.EventStoreService;
+import org.entcore.infra.services.impl.AbstractAntivirusService;
 import org.entcore.infra.services.impl.ClamAvService;
 import org.entcore.infra.services.impl.ExecCommandWorker;
 import org.entcore.infra.services.impl.MongoDbEventStore;
+import org.entcore.infra.services.impl.StubAntivirusService;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.VoidHandler;
@@ -143,7 +149,8 @@ public class Starter extends BaseServer {
 		addController(new MonitoringController());
 		addController(new EmbedController());
 		if (config.getBoolean("antivirus", false)) {
-			ClamAvService antivirusService = new ClamAvService();
+			final boolean stub = config.getBoolean("antivirus-stub", false);
+			AbstractAntivirusService antivirusService = stub ? new StubAntivirusService() : new ClamAvService();
 			antivirusService.setVertx(vertx);
 			antivirusService.setTimeline(new TimelineHelper(vertx, getEventBus(vertx), container));
 			antivirusService.setRender(new Renders(vertx, container));
@@ -151,8 +158,65 @@ public class Starter extends BaseServer {
 			AntiVirusController antiVirusController = new AntiVirusController();
 			antiVirusController.setAntivirusService(antivirusService);
 			addController(antiVirusController);
-			container.deployWorkerVerticle(ExecCommandWorker.class.getName());
+			if (!stub) {
+				container.deployWorkerVerticle(ExecCommandWorker.class.getName());
+			}
+		}
+		if (config.getBoolean("file-storage-maintenance", false)) {
+			fileStorageMaintenance();
+		} else {
+			initFileStorageUsage();
+		}
+	}
+
+	/**
+	 * @return the file storage, unwrapped from the deduplication index, or null
+	 */
+	private FileStorage fileStorage() {
+		Storage storage = new StorageFactory(vertx).getStorage();
+		if (storage instanceof DedupStorage) {
+			storage = ((DedupStorage) storage).getStorage();
+		}
+		return (storage instanceof FileStorage) ? (FileStorage) storage : null;
+	}
+
+	private void initFileStorageUsage() {
+		final FileStorage storage = fileStorage();
+		if (storage == null) {
+			log.info("Storage usage counter disabled : the storage is not a file storage.");
+			return;
+		}
+		storage.initUsage(new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject event) {
+				if (!"ok".equals(event.getString("status"))) {
+					log.error("Error initializing file storage usage : " + event.getString("message"));
+				}
+			}
+		});
+	}
+
+	private void fileStorageMaintenance() {
+		final FileStorage fileStorage = fileStorage();
+		if (fileStorage == null) {
+			return;
 		}
+		fileStorage.migrateLayout(new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject event) {
+				if (!"ok".equals(event.getString("status"))) {
+					log.error("Error migrating file storage layout : " + event.getString("message"));
+				}
+				fileStorage.recomputeUsage(new Handler<JsonObject>() {
+					@Override
+					public void handle(JsonObject event) {
+						if (!"ok".equals(event.getString("status"))) {
+							log.error("Error computing file storage usage : " + event.getString("message"));
+						}
+					}
+				});
+			}
+		});
 	}
 
 	private void loadInvalidEmails() {
@@ -27,8 +27,10 @@ import fr.wseduc.webutils.request.RequestUtils;
 import org.entcore.common.http.filter.ResourceFilter;
 import org.entcore.common.http.filter.SuperAdminFilter;
 import org.entcore.infra.services.AntivirusService;
+import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 import static fr.wseduc.webutils.Utils.isNotEmpty;
@@ -69,6 +71,32 @@ public class AntiVirusController extends BaseController {
 		});
 	}
 
+	@Post("/antivirus/scan/batch")
+	@SecuredAction(value = "", type = ActionType.RESOURCE)
+	@ResourceFilter(SuperAdminFilter.class)
+	public void scanBatch(final HttpServerRequest request) {
+		RequestUtils.bodyToJson(request, new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject event) {
+				final JsonArray files = (event != null) ? event.getArray("files") : null;
+				if (files != null && files.size() > 0) {
+					antivirusService.scan(files, new Handler<AsyncResult<Void>>() {
+						@Override
+						public void handle(AsyncResult<Void> event) {
+							if (event.succeeded()) {
+								ok(request);
+							} else {
+								renderError(request, new JsonObject().putString("error", event.cause().getMessage()));
+							}
+						}
+					});
+				} else {
+					badRequest(request);
+				}
+			}
+		});
+	}
+
 	public void setAntivirusService(AntivirusService antivirusService) {
 		this.antivirusService = antivirusService;
 	}
@@ -69,6 +69,21 @@ public class EventStoreController extends BaseController {
 		}
 	}
 
+	@Post("/event/localhost/store/bulk")
+	public void storeLocalhostBulk(final HttpServerRequest request) {
+		if (("localhost:"+ container.config().getInteger("port", 8001))
+				.equalsIgnoreCase(request.headers().get("Host"))) {
+			RequestUtils.bodyToJson(request, new Handler<JsonObject>() {
+				@Override
+				public void handle(JsonObject body) {
+					eventStoreService.store(authorizedEvents(body.getArray("events")), voidResponseHandler(request));
+				}
+			});
+		} else {
+			forbidden(request, "invalid.host");
+		}
+	}
+
 	@BusAddress("event.store")
 	public void eventStore(final Message<JsonObject> message) {
 		if (!authorizedUser(message.body())) {
@@ -88,6 +103,22 @@ public class EventStoreController extends BaseController {
 		}
 	}
 
+	@BusAddress("event.store.bulk")
+	public void eventStoreBulk(final Message<JsonObject> message) {
+		eventStoreService.store(authorizedEvents(message.body().getArray("events")),
+				new Handler<Either<String, Void>>() {
+			@Override
+			public void handle(Either<String, Void> event) {
+				if (event.isRight()) {
+					message.reply(new JsonObject().putString("status", "ok"));
+				} else {
+					message.reply(new JsonObject().putString("status", "error")
+							.putString("message", event.left().getValue()));
+				}
+			}
+		});
+	}
+
 	@BusAddress("event.blacklist")
 	public void getBlacklist(final Message<Void> message) {
 		message.reply(this.userBlackList);
@@ -101,4 +132,16 @@ public class EventStoreController extends BaseController {
 		return !this.userBlackList.contains(event.getString("userId"));
 	}
 
+	private JsonArray authorizedEvents(JsonArray events) {
+		JsonArray authorized = new JsonArray();
+		if (events != null) {
+			for (Object o : events) {
+				if (o instanceof JsonObject && authorizedUser((JsonObject) o)) {
+					authorized.addObject((JsonObject) o);
+				}
+			}
+		}
+		return authorized;
+	}
+
 }
@@ -20,7 +20,9 @@
 package org.entcore.infra.services;
 
 import fr.wseduc.webutils.Either;
+import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 
@@ -30,4 +32,11 @@ public interface AntivirusService {
 
 	void scan(String file);
 
+	/**
+	 * Scan several files.
+	 * @param files files to scan
+	 * @param handler called when the scan is finished, infected files being replaced
+	 */
+	void scan(JsonArray files, Handler<AsyncResult<Void>> handler);
+
 }
@@ -25,6 +25,7 @@ import org.vertx.java.core.AsyncResultHandler;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 import java.util.LinkedList;
@@ -64,7 +65,19 @@ public class ClamAvService extends AbstractAntivirusService {
 
 	@Override
 	public void scan(String file) {
-		String command = "clamdscan -m --fdpass " + file;
+		exec("clamdscan -m --fdpass " + file, null);
+	}
+
+	@Override
+	public void scan(JsonArray files, Handler<AsyncResult<Void>> handler) {
+		final StringBuilder command = new StringBuilder("clamdscan -m --fdpass");
+		for (Object file : files) {
+			command.append(" ").append(file);
+		}
+		exec(command.toString(), handler);
+	}
+
+	private void exec(String command, final Handler<AsyncResult<Void>> handler) {
 		JsonObject m = new JsonObject().putString("command", command);
 		vertx.eventBus().send("exec.command", m, new Handler<Message<JsonObject>>() {
 			@Override
@@ -74,6 +87,11 @@ public class ClamAvService extends AbstractAntivirusService {
 					if (infectedFiles.size() > 0) {
 						launchReplace(infectedFiles);
 					}
+					if (handler != null) {
+						handler.handle(new DefaultAsyncResult<>((Void) null));
+					}
+				} else if (handler != null) {
+					handler.handle(new DefaultAsyncResult<Void>(new Exception(event.body().getString("message"))));
 				}
 			}
 		});
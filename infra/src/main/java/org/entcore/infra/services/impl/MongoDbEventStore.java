@@ -24,6 +24,7 @@ import fr.wseduc.webutils.Either;
 import org.entcore.infra.services.EventStoreService;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 public class MongoDbEventStore implements EventStoreService {
@@ -46,4 +47,23 @@ public class MongoDbEventStore implements EventStoreService {
 		});
 	}
 
+	@Override
+	public void store(JsonArray events, final Handler<Either<String, Void>> handler) {
+		if (events.size() == 0) {
+			handler.handle(new Either.Right<String, Void>(null));
+			return;
+		}
+		mongoDb.insert(COLLECTION, events, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if ("ok".equals(event.body().getString("status"))) {
+					handler.handle(new Either.Right<String, Void>(null));
+				} else {
+					handler.handle(new Either.Left<String, Void>(
+							"Error : " + event.body().getString("message")));
+				}
+			}
+		});
+	}
+
 }
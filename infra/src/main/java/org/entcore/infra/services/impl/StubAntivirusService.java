@@ -0,0 +1,89 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.infra.services.impl;
+
+import fr.wseduc.webutils.DefaultAsyncResult;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonArray;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Antivirus without scan engine, for development and tests.
+ * Files containing the EICAR test signature are reported as infected, other files are clean.
+ */
+public class StubAntivirusService extends AbstractAntivirusService {
+
+	private static final String EICAR_SIGNATURE = "EICAR-STANDARD-ANTIVIRUS-TEST-FILE";
+
+	@Override
+	protected void parseScanReport(String path, AsyncResultHandler<List<InfectedFile>> handler) {
+		handler.handle(new DefaultAsyncResult<>(Collections.<InfectedFile>emptyList()));
+	}
+
+	@Override
+	public void scan(final String file) {
+		scan(file, null);
+	}
+
+	@Override
+	public void scan(JsonArray files, final Handler<AsyncResult<Void>> handler) {
+		if (files.size() == 0) {
+			handler.handle(new DefaultAsyncResult<>((Void) null));
+			return;
+		}
+		final AtomicInteger remaining = new AtomicInteger(files.size());
+		for (Object file : files) {
+			scan(file.toString(), new Handler<Void>() {
+				@Override
+				public void handle(Void v) {
+					if (remaining.decrementAndGet() == 0) {
+						handler.handle(new DefaultAsyncResult<>((Void) null));
+					}
+				}
+			});
+		}
+	}
+
+	private void scan(final String file, final Handler<Void> done) {
+		vertx.fileSystem().readFile(file, new AsyncResultHandler<Buffer>() {
+			@Override
+			public void handle(AsyncResult<Buffer> event) {
+				if (event.failed()) {
+					log.warn("Stub antivirus can't read file : " + file);
+				} else if (event.result().toString().contains(EICAR_SIGNATURE)) {
+					final List<InfectedFile> infectedFiles = new LinkedList<>();
+					infectedFiles.add(new InfectedFile(file, "Eicar-Test-Signature"));
+					launchReplace(infectedFiles);
+				}
+				if (done != null) {
+					done.handle(null);
+				}
+			}
+		});
+	}
+
+}
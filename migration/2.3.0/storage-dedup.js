@@ -0,0 +1 @@
+db.getCollection("storage.dedup.blobs").ensureIndex({ "blob" : 1 });
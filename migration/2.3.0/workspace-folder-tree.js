@@ -0,0 +1,14 @@
+db.documents.find({ "folder" : { "$exists" : true, "$ne" : "" }}, { "folder" : 1 }).forEach(function(doc) {
+  var ancestors = [];
+  var idx = doc.folder.indexOf("_");
+  while (idx >= 0) {
+    ancestors.push(doc.folder.substring(0, idx));
+    idx = doc.folder.indexOf("_", idx + 1);
+  }
+  ancestors.push(doc.folder);
+  db.documents.update({ "_id" : doc._id }, { "$set" : { "ancestors" : ancestors, "depth" : ancestors.length }});
+});
+db.documents.update({ "folder" : "" }, { "$unset" : { "ancestors" : 1, "depth" : 1 }}, { "multi" : true });
+
+db.documents.ensureIndex({ "owner" : 1, "ancestors" : 1, "depth" : 1 });
+db.documents.ensureIndex({ "ancestors" : 1, "depth" : 1 });
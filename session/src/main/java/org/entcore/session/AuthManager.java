@@ -19,12 +19,14 @@
 
 package org.entcore.session;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.hazelcast.core.BaseMap;
 import com.hazelcast.core.IMap;
 import com.hazelcast.nio.serialization.HazelcastSerializationException;
 import fr.wseduc.mongodb.MongoDb;
-import fr.wseduc.webutils.eventbus.ResultMessage;
 import org.entcore.common.neo4j.Neo4j;
+import org.entcore.common.user.SessionCache;
 import org.vertx.java.busmods.BusModBase;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
@@ -34,29 +36,54 @@ import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.shareddata.ConcurrentSharedMap;
 import org.vertx.java.core.spi.cluster.ClusterManager;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 
+import static org.entcore.common.appregistry.AppRegistryEvents.RIGHTS_UPDATED_PUBLISH_ADDRESS;
+
 public class AuthManager extends BusModBase implements Handler<Message<JsonObject>> {
 
 	private static final long LAST_ACTIVITY_DELAY = 30000l;
-	protected Map<String, String> sessions;
+	protected Map<String, Object> sessions;
 	protected Map<String, List<LoginInfo>> logins;
 	protected Map<String, Long> inactivity;
+	private final Map<String, Long> localActivity = new HashMap<>();
+	private final Map<String, Long> pendingActivity = new HashMap<>();
 
 	private static final long DEFAULT_SESSION_TIMEOUT = 30 * 60 * 1000;
+	private static final long DEFAULT_EXPIRY_SWEEP_DELAY = 1000l;
+	private static final long DEFAULT_INACTIVITY_FLUSH_DELAY = 5000l;
+	private static final long DEFAULT_RIGHTS_CACHE_TTL = 5 * 60 * 1000l;
+	private static final int DEFAULT_RIGHTS_CACHE_SIZE = 1000;
 	private static final String SESSIONS_COLLECTION = "sessions";
+	private static final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
 
 	private long sessionTimeout;
 	private MongoDb mongo;
 	private Neo4j neo4j;
+	private SessionExpiryIndex expiryIndex;
+	private long lastSweepExpired = 0;
+	private long totalExpired = 0;
+	private final Map<String, String> structuresMapping = new HashMap<>();
+	private Map<String, RightsCacheEntry> rightsCache;
+	private long rightsCacheTtl;
+
+	private static final class RightsCacheEntry {
+		final JsonObject rights;
+		final long expire;
+
+		private RightsCacheEntry(JsonObject rights, long expire) {
+			this.rights = rights;
+			this.expire = expire;
+		}
+	}
 
 	private static final class LoginInfo implements Serializable {
-		final long timerId;
+		private static final long serialVersionUID = 1L;
 		final String sessionId;
 
-		private LoginInfo(long timerId, String sessionId) {
-			this.timerId = timerId;
+		private LoginInfo(String sessionId) {
 			this.sessionId = sessionId;
 		}
 	}
@@ -98,6 +125,52 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 			this.sessionTimeout = DEFAULT_SESSION_TIMEOUT;
 		}
 
+		final long sweepDelay = config.getLong("expiry-sweep-delay", DEFAULT_EXPIRY_SWEEP_DELAY);
+		expiryIndex = new SessionExpiryIndex(sweepDelay);
+		vertx.setPeriodic(sweepDelay, new Handler<Long>() {
+			@Override
+			public void handle(Long timerId) {
+				sweepExpiredSessions();
+			}
+		});
+
+		if (inactivity != null) {
+			vertx.setPeriodic(config.getLong("inactivity-flush-delay", DEFAULT_INACTIVITY_FLUSH_DELAY),
+					new Handler<Long>() {
+				@Override
+				public void handle(Long timerId) {
+					flushActivity();
+				}
+			});
+			// sessions dropped by other nodes
+			eb.registerHandler(SessionCache.SESSION_INVALIDATION_ADDRESS, new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> event) {
+					final String sessionId = event.body().getString("sessionId");
+					if (sessionId != null) {
+						localActivity.remove(sessionId);
+						pendingActivity.remove(sessionId);
+					}
+				}
+			});
+		}
+
+		rightsCacheTtl = config.getLong("rights-cache-ttl", DEFAULT_RIGHTS_CACHE_TTL);
+		final int rightsCacheSize = config.getInteger("rights-cache-size", DEFAULT_RIGHTS_CACHE_SIZE);
+		rightsCache = new LinkedHashMap<String, RightsCacheEntry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, RightsCacheEntry> eldest) {
+				return size() > rightsCacheSize;
+			}
+		};
+		eb.registerHandler(RIGHTS_UPDATED_PUBLISH_ADDRESS, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				rightsCache.clear();
+			}
+		});
+		loadStructuresMapping();
+
 		eb.registerLocalHandler(address, this);
 	}
 
@@ -135,6 +208,9 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		case "removeAttribute":
 			doRemoveAttribute(message);
 			break;
+		case "expiryStats":
+			doExpiryStats(message);
+			break;
 		default:
 			sendError(message, "Invalid action: " + action);
 		}
@@ -230,13 +306,29 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		return null;
 	}
 
-	private JsonObject unmarshal(String s) {
-		if (s != null) {
-			return new JsonObject(s);
+	@SuppressWarnings("unchecked")
+	private JsonObject unmarshal(Object s) {
+		if (s instanceof byte[]) {
+			try {
+				return new JsonObject(smileMapper.readValue((byte[]) s, Map.class));
+			} catch (IOException e) {
+				logger.error("Error decoding binary session.", e);
+				return null;
+			}
+		} else if (s instanceof String) { // sessions created before binary storage
+			return new JsonObject((String) s);
 		}
 		return null;
 	}
 
+	private byte[] marshal(JsonObject session) {
+		try {
+			return smileMapper.writeValueAsBytes(session.toMap());
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Error encoding binary session.", e);
+		}
+	}
+
 	private void doFind(final Message<JsonObject> message) {
 		final String sessionId = message.body().getString("sessionId");
 		if (sessionId == null || sessionId.trim().isEmpty()) {
@@ -313,10 +405,11 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		} else {
 			sendOK(message, new JsonObject().putString("status", "ok").putObject("session", session));
 			if (inactivity != null) {
-				Long lastActivity = inactivity.get(sessionId);
-				String userId = sessions.get(sessionId);
-				if (userId != null && (lastActivity == null || (lastActivity + LAST_ACTIVITY_DELAY) < System.currentTimeMillis())) {
-					inactivity.put(sessionId, System.currentTimeMillis());
+				final long now = System.currentTimeMillis();
+				final Long lastActivity = localActivity.get(sessionId);
+				if (lastActivity == null || (lastActivity + LAST_ACTIVITY_DELAY) < now) {
+					localActivity.put(sessionId, now);
+					pendingActivity.put(sessionId, now);
 				}
 			}
 		}
@@ -352,18 +445,18 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 			@Override
 			public void handle(JsonObject infos) {
 				if (infos != null) {
-					long timerId = setTimer(userId, sessionId);
+					setTimer(userId, sessionId);
 
 					try {
-						sessions.put(sessionId, infos.encode());
-						addLoginInfo(userId, timerId, sessionId);
+						sessions.put(sessionId, marshal(infos));
+						addLoginInfo(userId, sessionId);
 					} catch (HazelcastSerializationException e) {
 						logger.error("Error putting session in hazelcast map");
 						try {
 							if (sessions instanceof IMap) {
-								((IMap) sessions).putAsync(sessionId, infos.encode());
+								((IMap) sessions).putAsync(sessionId, marshal(infos));
 							}
-							addLoginInfo(userId, timerId, sessionId);
+							addLoginInfo(userId, sessionId);
 						} catch (HazelcastSerializationException e1) {
 							logger.error("Error putting async session in hazelcast map", e1);
 						}
@@ -389,43 +482,101 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		});
 	}
 
-	protected long setTimer(final String userId, final String sessionId) {
+	protected void setTimer(final String userId, final String sessionId) {
+		final long now = System.currentTimeMillis();
 		if (inactivity != null) {
-			inactivity.put(sessionId, System.currentTimeMillis());
+			localActivity.put(sessionId, now);
+			pendingActivity.put(sessionId, now);
 		}
-		return setTimer(userId, sessionId, sessionTimeout);
+		expiryIndex.schedule(sessionId, userId, now + sessionTimeout);
 	}
 
-	protected long setTimer(final String userId, final String sessionId, final long sessionTimeout) {
-		return vertx.setTimer(sessionTimeout, new Handler<Long>() {
-							public void handle(Long timerId) {
-								if (inactivity != null) {
-									final Long lastActivity = inactivity.get(sessionId);
-									if(lastActivity != null) {
-										final long timeoutTimestamp = lastActivity + AuthManager.this.sessionTimeout;
-										final long now = System.currentTimeMillis();
-										if (timeoutTimestamp > now) {
-											setTimer(userId, sessionId, (timeoutTimestamp - now));
-										} else {
-											dropSession(new ResultMessage(), sessionId, null);
-										}
-									} else {
-										dropSession(new ResultMessage(), sessionId, null);
-									}
-								} else {
-									logins.remove(userId);
-									sessions.remove(sessionId);
-								}
-							}
-						});
+	private void sweepExpiredSessions() {
+		final long now = System.currentTimeMillis();
+		final Map<String, String> expired = expiryIndex.pollExpired(now);
+		if (expired.isEmpty()) {
+			lastSweepExpired = 0;
+			return;
+		}
+		final List<String> toDrop = new ArrayList<>();
+		if (inactivity != null) {
+			final Map<String, Long> lastActivities;
+			if (inactivity instanceof IMap) {
+				lastActivities = inactivityMap().getAll(expired.keySet());
+			} else {
+				lastActivities = new HashMap<>();
+				for (String sessionId : expired.keySet()) {
+					lastActivities.put(sessionId, inactivity.get(sessionId));
+				}
+			}
+			for (Map.Entry<String, String> e : expired.entrySet()) {
+				Long lastActivity = lastActivities.get(e.getKey());
+				final Long pending = pendingActivity.get(e.getKey());
+				if (pending != null && (lastActivity == null || pending > lastActivity)) {
+					lastActivity = pending;
+				}
+				if (lastActivity != null && (lastActivity + sessionTimeout) > now) {
+					expiryIndex.schedule(e.getKey(), e.getValue(), lastActivity + sessionTimeout);
+				} else {
+					toDrop.add(e.getKey());
+				}
+			}
+			if (!toDrop.isEmpty()) {
+				dropSessions(toDrop);
+			}
+		} else {
+			for (Map.Entry<String, String> e : expired.entrySet()) {
+				logins.remove(e.getValue());
+				sessions.remove(e.getKey());
+				SessionCache.publishInvalidation(vertx, e.getKey(), e.getValue());
+				toDrop.add(e.getKey());
+			}
+		}
+		lastSweepExpired = toDrop.size();
+		totalExpired += toDrop.size();
+		if (logger.isDebugEnabled()) {
+			logger.debug("Sessions expired in sweep : " + toDrop.size() + ", rescheduled : " +
+					(expired.size() - toDrop.size()) + ", pending : " + expiryIndex.size());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private IMap<String, Long> inactivityMap() {
+		return (IMap<String, Long>) inactivity;
 	}
 
-	private void addLoginInfo(String userId, long timerId, String sessionId) {
+	private void flushActivity() {
+		// dropped sessions are removed from pending activities by removeSession and invalidations
+		if (!pendingActivity.isEmpty()) {
+			final Map<String, Long> updates = new HashMap<>(pendingActivity);
+			pendingActivity.clear();
+			try {
+				inactivity.putAll(updates);
+			} catch (HazelcastSerializationException e) {
+				logger.error("Error flushing last activities in hazelcast map", e);
+			}
+		}
+		final long limit = System.currentTimeMillis() - sessionTimeout;
+		for (Iterator<Map.Entry<String, Long>> it = localActivity.entrySet().iterator(); it.hasNext();) {
+			if (it.next().getValue() < limit) {
+				it.remove();
+			}
+		}
+	}
+
+	private void doExpiryStats(Message<JsonObject> message) {
+		sendOK(message, new JsonObject()
+				.putNumber("pending", expiryIndex.size())
+				.putNumber("lastSweepExpired", lastSweepExpired)
+				.putNumber("totalExpired", totalExpired));
+	}
+
+	private void addLoginInfo(String userId, String sessionId) {
 		List<LoginInfo> loginInfos = logins.get(userId);
 		if (loginInfos == null) {
 			loginInfos = new ArrayList<>();
 		}
-		loginInfos.add(new LoginInfo(timerId, sessionId));
+		loginInfos.add(new LoginInfo(sessionId));
 		logins.put(userId, loginInfos);
 	}
 
@@ -451,8 +602,27 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		}
 	}
 
+	private void dropSessions(List<String> sessionIds) {
+		mongo.delete(SESSIONS_COLLECTION, new JsonObject().putObject("_id",
+				new JsonObject().putArray("$in", new JsonArray(sessionIds.toArray()))));
+		for (String sessionId : sessionIds) {
+			removeSession(sessionId);
+		}
+	}
+
 	private void dropSession(Message<JsonObject> message, String sessionId, JsonObject meta) {
 		mongo.delete(SESSIONS_COLLECTION, new JsonObject().putString("_id", sessionId));
+		removeSession(sessionId);
+		JsonObject res = new JsonObject().putString("status", "ok");
+		if (meta != null) {
+			res.putObject("sessionMetadata", meta);
+		}
+		if (message != null) {
+			sendOK(message, res);
+		}
+	}
+
+	private void removeSession(String sessionId) {
 		JsonObject session =  null;
 		try {
 			session = unmarshal(sessions.get(sessionId));
@@ -471,25 +641,19 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 			JsonObject s = unmarshal(sessions.remove(sessionId));
 			if (s != null) {
 				final String userId = s.getString("userId");
-				LoginInfo info = removeLoginInfo(sessionId, userId);
+				removeLoginInfo(sessionId, userId);
 				if (config.getBoolean("slo", false)) {
 					eb.send("cas", new JsonObject().putString("action", "logout").putString("userId", userId));
 				}
-				if (info != null) {
-					vertx.cancelTimer(info.timerId);
-				}
 			}
 		}
+		expiryIndex.cancel(sessionId);
 		if (inactivity != null) {
+			localActivity.remove(sessionId);
+			pendingActivity.remove(sessionId);
 			inactivity.remove(sessionId);
 		}
-		JsonObject res = new JsonObject().putString("status", "ok");
-		if (meta != null) {
-			res.putObject("sessionMetadata", meta);
-		}
-		if (message != null) {
-			sendOK(message, res);
-		}
+		SessionCache.publishInvalidation(vertx, sessionId, null);
 	}
 
 	private LoginInfo removeLoginInfo(String sessionId, String userId) {
@@ -581,11 +745,12 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		}
 		for (LoginInfo info : infos) {
 			try {
-				sessions.put(info.sessionId, session.encode());
+				sessions.put(info.sessionId, marshal(session));
 			} catch (HazelcastSerializationException e) {
 				logger.error("Error putting session in hazelcast map : " + info.sessionId, e);
 			}
 		}
+		SessionCache.publishInvalidation(vertx, null, userId);
 	}
 
 	private void doRemoveAttribute(Message<JsonObject> message) {
@@ -605,6 +770,55 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		sendOK(message);
 	}
 
+	private void loadStructuresMapping() {
+		final String query = "MATCH (s:Structure) RETURN s.id as id, s.externalId as externalId";
+		neo4j.execute(query, new JsonObject(), new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				JsonArray result = message.body().getArray("result");
+				if ("ok".equals(message.body().getString("status")) && result != null) {
+					addStructuresMapping(result);
+				} else {
+					logger.error("Error loading structures mapping : " + message.body().getString("message"));
+				}
+			}
+		});
+	}
+
+	private void addStructuresMapping(JsonArray structures) {
+		for (Object o : structures) {
+			if (!(o instanceof JsonObject)) continue;
+			JsonObject jsonObject = (JsonObject) o;
+			if (jsonObject.getString("externalId") != null && jsonObject.getString("id") != null) {
+				structuresMapping.put(jsonObject.getString("externalId"), jsonObject.getString("id"));
+			}
+		}
+	}
+
+	private JsonObject getCachedRights(String key) {
+		RightsCacheEntry entry = rightsCache.get(key);
+		if (entry != null && entry.expire < System.currentTimeMillis()) {
+			rightsCache.remove(key);
+			entry = null;
+		}
+		return (entry != null) ? entry.rights : null;
+	}
+
+	private static String rightsCacheKey(JsonArray groupsIds) {
+		final List<String> ids = new ArrayList<>();
+		for (Object o : groupsIds) {
+			if (o instanceof String) {
+				ids.add((String) o);
+			}
+		}
+		Collections.sort(ids);
+		final StringBuilder sb = new StringBuilder();
+		for (String id : ids) {
+			sb.append(id).append(',');
+		}
+		return sb.toString();
+	}
+
 	private void generateSessionInfos(final String userId, final Handler<JsonObject> handler) {
 		final String query =
 				"MATCH (n:User {id : {id}}) " +
@@ -622,150 +836,38 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 				"COLLECT(distinct s.id) as structures, COLLECT(distinct [f.externalId, rf.scope]) as functions, " +
 				"COLLECT(distinct s.name) as structureNames, COLLECT(distinct s.UAI) as uai, " +
 				"COLLECT(distinct gp.id) as groupsIds, n.federatedIDP as federatedIDP, n.functions as aafFunctions";
-		final String query2 =
-				"MATCH (n:User {id : {id}})-[:IN]->()-[:AUTHORIZED]->(:Role)-[:AUTHORIZE]->(a:Action)" +
-				"<-[:PROVIDE]-(app:Application) " +
-				"WHERE HAS(n.login) " +
-				"RETURN DISTINCT COLLECT(distinct [a.name,a.displayName,a.type]) as authorizedActions, " +
-				"COLLECT(distinct [app.name,app.address,app.icon,app.target,app.displayName,app.display,app.prefix]) as apps";
-		final String query3 =
-				"MATCH (u:User {id: {id}})-[:IN]->(g:Group)-[auth:AUTHORIZED]->(w:Widget) " +
-				"WHERE HAS(u.login) " +
-				"AND ( NOT(w<-[:HAS_WIDGET]-(:Application)-[:PROVIDE]->(:WorkflowAction)) " +
-				"XOR w<-[:HAS_WIDGET]-(:Application)-[:PROVIDE]->(:WorkflowAction)<-[:AUTHORIZE]-(:Role)<-[:AUTHORIZED]-g )  " +
-				"OPTIONAL MATCH (w)<-[:HAS_WIDGET]-(app:Application) " +
-				"WITH w, app, collect(auth) as authorizations " +
-				"RETURN DISTINCT COLLECT({" +
-					"id: w.id, name: w.name, " +
-					"path: coalesce(app.address, '') + w.path, " +
-					"js: coalesce(app.address, '') + w.js, "+
-					"i18n: coalesce(app.address, '') + w.i18n, "+
-					"application: app.name, " +
-					"mandatory: ANY(a IN authorizations WHERE HAS(a.mandatory) AND a.mandatory = true)"+
-				"}) as widgets";
-		final String query4 = "MATCH (s:Structure) return s.id as id, s.externalId as externalId";
-		final String query5 = "MATCH (u:User {id: {id}})-[:PREFERS]->(uac:UserAppConf) RETURN uac AS preferences";
+		final String query2 = "MATCH (u:User {id: {id}})-[:PREFERS]->(uac:UserAppConf) RETURN uac AS preferences";
 		JsonObject params = new JsonObject();
 		params.putString("id", userId);
 		JsonArray statements = new JsonArray()
 				.add(new JsonObject().putString("statement", query).putObject("parameters", params))
-				.add(new JsonObject().putString("statement", query2).putObject("parameters", params))
-				.add(new JsonObject().putString("statement", query3).putObject("parameters", params))
-				.add(new JsonObject().putString("statement", query4))
-				.add(new JsonObject().putString("statement", query5).putObject("parameters", params));
+				.add(new JsonObject().putString("statement", query2).putObject("parameters", params));
 		neo4j.executeTransaction(statements, null, true, new Handler<Message<JsonObject>>() {
 
 			@Override
 			public void handle(Message<JsonObject> message) {
 				JsonArray results = message.body().getArray("results");
-				if ("ok".equals(message.body().getString("status")) && results != null && results.size() == 5 &&
-						results.<JsonArray>get(0).size() > 0 && results.<JsonArray>get(1).size() > 0) {
-					JsonObject j = results.<JsonArray>get(0).get(0);
-					JsonObject j2 = results.<JsonArray>get(1).get(0);
-					JsonObject j3 = results.<JsonArray>get(2).get(0);
-					JsonObject structureMapping = new JsonObject();
-					for (Object o : results.<JsonArray>get(3)) {
-						if (!(o instanceof JsonObject)) continue;
-						JsonObject jsonObject = (JsonObject) o;
-						structureMapping.putString(jsonObject.getString("externalId"), jsonObject.getString("id"));
-					}
-					j.putString("userId", userId);
-					JsonObject functions = new JsonObject();
-					JsonArray actions = new JsonArray();
-					JsonArray apps = new JsonArray();
-					for (Object o : j2.getArray("authorizedActions", new JsonArray())) {
-						if (!(o instanceof JsonArray)) continue;
-						JsonArray a = (JsonArray) o;
-						actions.addObject(new JsonObject()
-								.putString("name", (String) a.get(0))
-								.putString("displayName", (String) a.get(1))
-								.putString("type", (String) a.get(2)));
-					}
-					for (Object o : j2.getArray("apps", new JsonArray())) {
-						if (!(o instanceof JsonArray)) continue;
-						JsonArray a = (JsonArray) o;
-						apps.addObject(new JsonObject()
-								.putString("name", (String) a.get(0))
-								.putString("address", (String) a.get(1))
-								.putString("icon", (String) a.get(2))
-								.putString("target", (String) a.get(3))
-								.putString("displayName", (String) a.get(4))
-								.putBoolean("display", ((a.get(5) == null) || (boolean) a.get(5)))
-								.putString("prefix", (String) a.get(6))
-						);
-					}
+				if ("ok".equals(message.body().getString("status")) && results != null && results.size() == 2 &&
+						results.<JsonArray>get(0).size() > 0) {
+					final JsonObject j = results.<JsonArray>get(0).get(0);
+					final JsonObject cache = (results.<JsonArray>get(1) != null && results.<JsonArray>get(1).size() > 0 &&
+							results.<JsonArray>get(1).get(0) != null) ? results.<JsonArray>get(1).<JsonObject>get(0) : new JsonObject();
+					final JsonArray groupsIds = j.getArray("groupsIds", new JsonArray());
+					final String rightsKey = rightsCacheKey(groupsIds);
+					final JsonObject rights = getCachedRights(rightsKey);
+					final JsonArray missingStructures = new JsonArray();
 					for (Object o : j.getArray("aafFunctions", new JsonArray())) {
 						if (o == null) continue;
 						String [] sf = o.toString().split("\\$");
-						if (sf.length == 5) {
-							JsonObject jo = functions.getObject(sf[1]);
-							if (jo == null) {
-								jo = new JsonObject().putString("code", sf[1])
-										.putString("functionName", sf[2])
-										.putArray("scope", new JsonArray())
-										.putArray("structureExternalIds", new JsonArray())
-										.putObject("subjects", new JsonObject());
-								functions.putObject(sf[1], jo);
-							}
-							JsonObject subject = jo.getObject("subjects").getObject(sf[3]);
-							if (subject == null) {
-								subject = new JsonObject()
-										.putString("subjectCode", sf[3])
-										.putString("subjectName", sf[4])
-										.putArray("scope", new JsonArray())
-										.putArray("structureExternalIds", new JsonArray());
-								jo.getObject("subjects").putObject(sf[3], subject);
-							}
-							jo.getArray("structureExternalIds").addString(sf[0]);
-							subject.getArray("structureExternalIds").addString(sf[0]);
-							String sid = structureMapping.getString(sf[0]);
-							if (sid != null) {
-								jo.getArray("scope").addString(sid);
-								subject.getArray("scope").addString(sid);
-							}
+						if (sf.length == 5 && !structuresMapping.containsKey(sf[0]) && !missingStructures.contains(sf[0])) {
+							missingStructures.addString(sf[0]);
 						}
 					}
-					j.removeField("aafFunctions");
-					for (Object o : j.getArray("functions", new JsonArray())) {
-						if (!(o instanceof JsonArray)) continue;
-						JsonArray a = (JsonArray) o;
-						String code = a.get(0);
-						if (code != null) {
-							functions.putObject(code, new JsonObject()
-									.putString("code", code)
-									.putArray("scope", (JsonArray) a.get(1))
-							);
-						}
-					}
-					final JsonObject children = new JsonObject();
-					final List<String> childrenIds = new ArrayList<String>();
-					for (Object o : j.getArray("childrenInfo", new JsonArray())) {
-						if (!(o instanceof JsonArray)) continue;
-						final JsonArray a = (JsonArray) o;
-						final String childId = a.get(0);
-						if (childId != null) {
-							childrenIds.add(childId);
-							JsonObject jo = children.getObject(childId);
-							if (jo == null) {
-								jo = new JsonObject()
-										.putString("lastName", (String) a.get(1))
-										.putString("firstName", (String) a.get(2));
-								children.putObject(childId, jo);
-							}
-						}
+					if (rights != null && missingStructures.size() == 0) {
+						handler.handle(buildSessionInfos(userId, j, rights, cache));
+					} else {
+						loadRightsAndStructures(userId, j, rights, rightsKey, groupsIds, missingStructures, cache, handler);
 					}
-					j.removeField("childrenInfo");
-
-					j.putObject("functions", functions);
-					j.putArray("authorizedActions", actions);
-					j.putArray("apps", apps);
-					j.putArray("childrenIds", new JsonArray(childrenIds));
-					j.putObject("children", children);
-					final JsonObject cache = (results.<JsonArray>get(4) != null && results.<JsonArray>get(4).size() > 0 &&
-							results.<JsonArray>get(4).get(0) != null) ? results.<JsonArray>get(4).<JsonObject>get(0) : new JsonObject();
-					j.putObject("cache", cache);
-					j.putArray("widgets", j3.getArray("widgets", new JsonArray()));
-					handler.handle(j);
 				} else {
 					handler.handle(null);
 				}
@@ -773,4 +875,174 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		});
 	}
 
+	private void loadRightsAndStructures(final String userId, final JsonObject j, final JsonObject cachedRights,
+			final String rightsKey, JsonArray groupsIds, JsonArray missingStructures, final JsonObject cache,
+			final Handler<JsonObject> handler) {
+		final JsonArray statements = new JsonArray();
+		if (cachedRights == null) {
+			final String query =
+					"MATCH (g:Group)-[:AUTHORIZED]->(:Role)-[:AUTHORIZE]->(a:Action)<-[:PROVIDE]-(app:Application) " +
+					"WHERE g.id IN {groupsIds} " +
+					"RETURN DISTINCT COLLECT(distinct [a.name,a.displayName,a.type]) as authorizedActions, " +
+					"COLLECT(distinct [app.name,app.address,app.icon,app.target,app.displayName,app.display,app.prefix]) as apps";
+			final String query2 =
+					"MATCH (g:Group)-[auth:AUTHORIZED]->(w:Widget) " +
+					"WHERE g.id IN {groupsIds} " +
+					"AND ( NOT(w<-[:HAS_WIDGET]-(:Application)-[:PROVIDE]->(:WorkflowAction)) " +
+					"XOR w<-[:HAS_WIDGET]-(:Application)-[:PROVIDE]->(:WorkflowAction)<-[:AUTHORIZE]-(:Role)<-[:AUTHORIZED]-g )  " +
+					"OPTIONAL MATCH (w)<-[:HAS_WIDGET]-(app:Application) " +
+					"WITH w, app, collect(auth) as authorizations " +
+					"RETURN DISTINCT COLLECT({" +
+						"id: w.id, name: w.name, " +
+						"path: coalesce(app.address, '') + w.path, " +
+						"js: coalesce(app.address, '') + w.js, "+
+						"i18n: coalesce(app.address, '') + w.i18n, "+
+						"application: app.name, " +
+						"mandatory: ANY(a IN authorizations WHERE HAS(a.mandatory) AND a.mandatory = true)"+
+					"}) as widgets";
+			final JsonObject params = new JsonObject().putArray("groupsIds", groupsIds);
+			statements.add(new JsonObject().putString("statement", query).putObject("parameters", params));
+			statements.add(new JsonObject().putString("statement", query2).putObject("parameters", params));
+		}
+		if (missingStructures.size() > 0) {
+			final String query = "MATCH (s:Structure) WHERE s.externalId IN {externalIds} " +
+					"RETURN s.id as id, s.externalId as externalId";
+			statements.add(new JsonObject().putString("statement", query)
+					.putObject("parameters", new JsonObject().putArray("externalIds", missingStructures)));
+		}
+		neo4j.executeTransaction(statements, null, true, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				JsonArray results = message.body().getArray("results");
+				if (!"ok".equals(message.body().getString("status")) || results == null ||
+						results.size() != statements.size()) {
+					handler.handle(null);
+					return;
+				}
+				JsonObject rights = cachedRights;
+				int idx = 0;
+				if (rights == null) {
+					if (results.<JsonArray>get(0).size() == 0) {
+						handler.handle(null);
+						return;
+					}
+					JsonObject j2 = results.<JsonArray>get(0).get(0);
+					JsonObject j3 = results.<JsonArray>get(1).get(0);
+					rights = formatRights(j2, j3);
+					rightsCache.put(rightsKey, new RightsCacheEntry(rights, System.currentTimeMillis() + rightsCacheTtl));
+					idx = 2;
+				}
+				if (idx < results.size()) {
+					addStructuresMapping(results.<JsonArray>get(idx));
+				}
+				handler.handle(buildSessionInfos(userId, j, rights, cache));
+			}
+		});
+	}
+
+	private JsonObject formatRights(JsonObject j2, JsonObject j3) {
+		JsonArray actions = new JsonArray();
+		JsonArray apps = new JsonArray();
+		for (Object o : j2.getArray("authorizedActions", new JsonArray())) {
+			if (!(o instanceof JsonArray)) continue;
+			JsonArray a = (JsonArray) o;
+			actions.addObject(new JsonObject()
+					.putString("name", (String) a.get(0))
+					.putString("displayName", (String) a.get(1))
+					.putString("type", (String) a.get(2)));
+		}
+		for (Object o : j2.getArray("apps", new JsonArray())) {
+			if (!(o instanceof JsonArray)) continue;
+			JsonArray a = (JsonArray) o;
+			apps.addObject(new JsonObject()
+					.putString("name", (String) a.get(0))
+					.putString("address", (String) a.get(1))
+					.putString("icon", (String) a.get(2))
+					.putString("target", (String) a.get(3))
+					.putString("displayName", (String) a.get(4))
+					.putBoolean("display", ((a.get(5) == null) || (boolean) a.get(5)))
+					.putString("prefix", (String) a.get(6))
+			);
+		}
+		return new JsonObject()
+				.putArray("authorizedActions", actions)
+				.putArray("apps", apps)
+				.putArray("widgets", (j3 != null) ? j3.getArray("widgets", new JsonArray()) : new JsonArray());
+	}
+
+	private JsonObject buildSessionInfos(String userId, JsonObject j, JsonObject rights, JsonObject cache) {
+		j.putString("userId", userId);
+		JsonObject functions = new JsonObject();
+		for (Object o : j.getArray("aafFunctions", new JsonArray())) {
+			if (o == null) continue;
+			String [] sf = o.toString().split("\\$");
+			if (sf.length == 5) {
+				JsonObject jo = functions.getObject(sf[1]);
+				if (jo == null) {
+					jo = new JsonObject().putString("code", sf[1])
+							.putString("functionName", sf[2])
+							.putArray("scope", new JsonArray())
+							.putArray("structureExternalIds", new JsonArray())
+							.putObject("subjects", new JsonObject());
+					functions.putObject(sf[1], jo);
+				}
+				JsonObject subject = jo.getObject("subjects").getObject(sf[3]);
+				if (subject == null) {
+					subject = new JsonObject()
+							.putString("subjectCode", sf[3])
+							.putString("subjectName", sf[4])
+							.putArray("scope", new JsonArray())
+							.putArray("structureExternalIds", new JsonArray());
+					jo.getObject("subjects").putObject(sf[3], subject);
+				}
+				jo.getArray("structureExternalIds").addString(sf[0]);
+				subject.getArray("structureExternalIds").addString(sf[0]);
+				String sid = structuresMapping.get(sf[0]);
+				if (sid != null) {
+					jo.getArray("scope").addString(sid);
+					subject.getArray("scope").addString(sid);
+				}
+			}
+		}
+		j.removeField("aafFunctions");
+		for (Object o : j.getArray("functions", new JsonArray())) {
+			if (!(o instanceof JsonArray)) continue;
+			JsonArray a = (JsonArray) o;
+			String code = a.get(0);
+			if (code != null) {
+				functions.putObject(code, new JsonObject()
+						.putString("code", code)
+						.putArray("scope", (JsonArray) a.get(1))
+				);
+			}
+		}
+		final JsonObject children = new JsonObject();
+		final List<String> childrenIds = new ArrayList<String>();
+		for (Object o : j.getArray("childrenInfo", new JsonArray())) {
+			if (!(o instanceof JsonArray)) continue;
+			final JsonArray a = (JsonArray) o;
+			final String childId = a.get(0);
+			if (childId != null) {
+				childrenIds.add(childId);
+				JsonObject jo = children.getObject(childId);
+				if (jo == null) {
+					jo = new JsonObject()
+							.putString("lastName", (String) a.get(1))
+							.putString("firstName", (String) a.get(2));
+					children.putObject(childId, jo);
+				}
+			}
+		}
+		j.removeField("childrenInfo");
+
+		j.putObject("functions", functions);
+		j.putArray("authorizedActions", rights.getArray("authorizedActions").copy());
+		j.putArray("apps", rights.getArray("apps").copy());
+		j.putArray("childrenIds", new JsonArray(childrenIds));
+		j.putObject("children", children);
+		j.putObject("cache", cache);
+		j.putArray("widgets", rights.getArray("widgets").copy());
+		return j;
+	}
+
 }
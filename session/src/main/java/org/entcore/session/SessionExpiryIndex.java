@@ -0,0 +1,92 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.session;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bucketed index of session expiry dates, swept periodically by the session manager
+ * instead of arming one timer per session. Expiry dates are rounded up to the bucket
+ * resolution, so a session may live at most one resolution longer than its timeout.
+ * Not thread safe : it must only be used from the session manager context.
+ */
+public class SessionExpiryIndex {
+
+	private final long resolution;
+	private final TreeMap<Long, Map<String, String>> buckets = new TreeMap<>();
+	private final Map<String, Long> sessionBuckets = new HashMap<>();
+
+	public SessionExpiryIndex(long resolution) {
+		this.resolution = resolution;
+	}
+
+	public void schedule(String sessionId, String userId, long expireAt) {
+		cancel(sessionId);
+		final long bucket = (expireAt + resolution - 1) / resolution;
+		Map<String, String> sessions = buckets.get(bucket);
+		if (sessions == null) {
+			sessions = new HashMap<>();
+			buckets.put(bucket, sessions);
+		}
+		sessions.put(sessionId, userId);
+		sessionBuckets.put(sessionId, bucket);
+	}
+
+	public void cancel(String sessionId) {
+		final Long bucket = sessionBuckets.remove(sessionId);
+		if (bucket != null) {
+			final Map<String, String> sessions = buckets.get(bucket);
+			if (sessions != null) {
+				sessions.remove(sessionId);
+				if (sessions.isEmpty()) {
+					buckets.remove(bucket);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove and return the sessions expired at the given date.
+	 * @param now current timestamp
+	 * @return expired sessions as sessionId -> userId
+	 */
+	public Map<String, String> pollExpired(long now) {
+		final Map<String, String> expired = new HashMap<>();
+		final Iterator<Map.Entry<Long, Map<String, String>>> it =
+				buckets.headMap(now / resolution, true).entrySet().iterator();
+		while (it.hasNext()) {
+			final Map<String, String> sessions = it.next().getValue();
+			for (String sessionId : sessions.keySet()) {
+				sessionBuckets.remove(sessionId);
+			}
+			expired.putAll(sessions);
+			it.remove();
+		}
+		return expired;
+	}
+
+	public int size() {
+		return sessionBuckets.size();
+	}
+
+}
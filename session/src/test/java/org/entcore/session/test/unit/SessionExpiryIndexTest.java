@@ -0,0 +1,88 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.session.test.unit;
+
+import org.entcore.session.SessionExpiryIndex;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SessionExpiryIndexTest {
+
+	@Test
+	public void neverExpiresBeforeTimeout() {
+		final SessionExpiryIndex index = new SessionExpiryIndex(1000);
+		index.schedule("s1", "u1", 1500);
+		index.schedule("s2", "u2", 2000);
+		index.schedule("s3", "u3", 2001);
+		assertEquals(3, index.size());
+		assertTrue(index.pollExpired(1499).isEmpty());
+		assertTrue(index.pollExpired(1999).isEmpty());
+		final Map<String, String> expired = index.pollExpired(2000);
+		assertEquals(2, expired.size());
+		assertEquals("u1", expired.get("s1"));
+		assertEquals("u2", expired.get("s2"));
+		assertEquals(1, index.size());
+		assertTrue(index.pollExpired(2999).isEmpty());
+		assertEquals("u3", index.pollExpired(3000).get("s3"));
+		assertEquals(0, index.size());
+	}
+
+	@Test
+	public void rescheduleMovesSession() {
+		final SessionExpiryIndex index = new SessionExpiryIndex(1000);
+		index.schedule("s1", "u1", 1000);
+		index.schedule("s1", "u1", 5000);
+		assertEquals(1, index.size());
+		assertTrue(index.pollExpired(4999).isEmpty());
+		assertEquals(1, index.pollExpired(5000).size());
+	}
+
+	@Test
+	public void cancel() {
+		final SessionExpiryIndex index = new SessionExpiryIndex(1000);
+		index.schedule("s1", "u1", 1000);
+		index.schedule("s2", "u1", 1000);
+		index.cancel("s1");
+		index.cancel("unknown");
+		assertEquals(1, index.size());
+		final Map<String, String> expired = index.pollExpired(10000);
+		assertEquals(1, expired.size());
+		assertTrue(expired.containsKey("s2"));
+		assertTrue(index.pollExpired(20000).isEmpty());
+	}
+
+	@Test
+	public void expiredSessionsAreRemoved() {
+		final SessionExpiryIndex index = new SessionExpiryIndex(10);
+		for (int i = 0; i < 100; i++) {
+			index.schedule("s" + i, "u", i * 10);
+		}
+		assertEquals(50, index.pollExpired(495).size());
+		assertEquals(50, index.size());
+		index.cancel("s10");
+		assertEquals(50, index.size());
+		assertEquals(50, index.pollExpired(1000).size());
+		assertEquals(0, index.size());
+	}
+
+}
@@ -19,10 +19,12 @@
 
 package org.entcore.workspace;
 
+import fr.wseduc.cron.CronTrigger;
 import org.entcore.common.http.BaseServer;
 import org.entcore.common.storage.impl.MongoDBApplicationStorage;
 import org.entcore.workspace.controllers.AudioRecorderHandler;
 import org.entcore.workspace.controllers.QuotaController;
+import org.entcore.workspace.cron.QuotaReconciliationTask;
 import org.entcore.workspace.dao.DocumentDao;
 import org.entcore.workspace.security.WorkspaceResourcesProvider;
 import org.entcore.workspace.service.QuotaService;
@@ -34,6 +36,8 @@ import org.entcore.common.storage.Storage;
 import org.entcore.common.storage.StorageFactory;
 import org.entcore.workspace.service.impl.WorkspaceSearchingEvents;
 
+import java.text.ParseException;
+
 public class Workspace extends BaseServer {
 
 	public static final String REVISIONS_COLLECTION = "documentsRevisions";
@@ -65,6 +69,13 @@ public class Workspace extends BaseServer {
 		quotaController.setQuotaService(quotaService);
 		addController(quotaController);
 
+		try {
+			new CronTrigger(vertx, config.getString("quota-reconciliation-cron", "0 0 4 * * ?"))
+					.schedule(new QuotaReconciliationTask(quotaService));
+		} catch (ParseException e) {
+			log.error("Invalid quota reconciliation cron expression.", e);
+		}
+
 		if (config.getInteger("wsPort") != null) {
 			container.deployWorkerVerticle(AudioRecorderWorker.class.getName(), config);
 			vertx.createHttpServer().setMaxWebSocketFrameSize(1024 * 1024)
@@ -0,0 +1,74 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.workspace.cron;
+
+import fr.wseduc.mongodb.MongoDb;
+import fr.wseduc.webutils.Either;
+import org.entcore.workspace.service.QuotaService;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+/**
+ * Reconcile quota aggregates. The cron fires on every Workspace instance : the run is claimed
+ * by inserting a document keyed by the minute of the trigger, so only one instance runs it.
+ */
+public class QuotaReconciliationTask implements Handler<Long> {
+
+	private static final Logger log = LoggerFactory.getLogger(QuotaReconciliationTask.class);
+	public static final String RUNS_COLLECTION = "quotaReconciliations";
+	private final QuotaService quotaService;
+
+	public QuotaReconciliationTask(QuotaService quotaService) {
+		this.quotaService = quotaService;
+	}
+
+	@Override
+	public void handle(Long event) {
+		final JsonObject run = new JsonObject()
+				.putString("_id", Long.toString(System.currentTimeMillis() / 60000l))
+				.putObject("date", MongoDb.now());
+		MongoDb.getInstance().insert(RUNS_COLLECTION, run, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if ("ok".equals(event.body().getString("status"))) {
+					reconcile();
+				}
+			}
+		});
+	}
+
+	private void reconcile() {
+		log.info("[Quota reconciliation] Starting ...");
+		quotaService.reconcileUsage(new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> event) {
+				if (event.isLeft()) {
+					log.error("[Quota reconciliation] Error encountered : " + event.left().getValue());
+				} else {
+					log.info("[Quota reconciliation] Completed : " + event.right().getValue().encode());
+				}
+			}
+		});
+	}
+
+}
@@ -32,6 +32,13 @@ public interface QuotaService {
 
 	void decrementStorage(String userId, Long size, int threshold, Handler<Either<String, JsonObject>> handler);
 
+	/**
+	 * Apply several storage deltas.
+	 * @param sizes array of <code>{"userId" : "", "size" : n}</code>
+	 * @param handler receives an array of <code>{"userId" : "", "storage" : n, "notify" : bool}</code>
+	 */
+	void incrementStorage(JsonArray sizes, int threshold, Handler<Either<String, JsonArray>> handler);
+
 	void quotaAndUsage(String userId, Handler<Either<String, JsonObject>> handler);
 
 	void quotaAndUsageStructure(String structureId, Handler<Either<String, JsonObject>> handler);
@@ -47,4 +54,9 @@ public interface QuotaService {
 
 	void init(String userId);
 
+	/**
+	 * Recompute structures and global quota and storage aggregates from users.
+	 */
+	void reconcileUsage(Handler<Either<String, JsonObject>> handler);
+
 }
@@ -54,6 +54,9 @@ import org.entcore.workspace.Workspace;
 import org.entcore.workspace.dao.DocumentDao;
 import org.entcore.workspace.dao.GenericDao;
 import org.entcore.workspace.service.impl.DefaultFolderService;
+import org.entcore.workspace.service.impl.FolderTree;
+import org.entcore.workspace.service.impl.ImageJobQueue;
+import org.entcore.workspace.service.impl.QuotaDeltaAccumulator;
 import org.entcore.common.storage.Storage;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
@@ -89,12 +92,14 @@ public class WorkspaceService extends BaseController {
 	public static final String DOCUMENT_REVISION_COLLECTION = "documentsRevisions";
 	private static final JsonObject PROPERTIES_KEYS = new JsonObject().putNumber("name", 1).putNumber("alt", 1).putNumber("legend", 1);
 	private String imageResizerAddress;
+	private ImageJobQueue imageJobs;
 	private MongoDb mongo;
 	private DocumentDao documentDao;
 	private TimelineHelper notification;
 	private ShareService shareService;
 	private FolderService folderService;
 	private QuotaService quotaService;
+	private QuotaDeltaAccumulator quotaAccumulator;
 	private int threshold;
 	private EventStore eventStore;
 	private enum WokspaceEvent { ACCESS, GET_RESOURCE }
@@ -109,11 +114,22 @@ public class WorkspaceService extends BaseController {
 			node = "";
 		}
 		imageResizerAddress = node + container.config().getString("image-resizer-address", "wse.image.resizer");
+		imageJobs = new ImageJobQueue(vertx, storage, imageResizerAddress, container.config());
 		documentDao = new DocumentDao(mongo);
 		notification = new TimelineHelper(vertx, eb, container);
 		this.shareService = new MongoDbShareService(eb, mongo, "documents", securedActions, null);
-		this.folderService = new DefaultFolderService(mongo, storage);
+		this.folderService = new DefaultFolderService(mongo, storage,
+				container.config().getBoolean("folder-tree-index", false));
 		this.threshold = container.config().getInteger("alertStorage", 80);
+		if (container.config().getBoolean("quota-write-behind", true)) {
+			this.quotaAccumulator = new QuotaDeltaAccumulator(vertx, quotaService, threshold, container.config(),
+					new Handler<JsonObject>() {
+				@Override
+				public void handle(JsonObject j) {
+					storageUpdated(j.getString("userId"), j);
+				}
+			});
+		}
 		eventStore = EventStoreFactory.getFactory().getEventStore(Workspace.class.getSimpleName());
 		post("/documents/copy/:ids", "copyDocuments");
 		put("/documents/move/:ids", "moveDocuments");
@@ -453,7 +469,7 @@ public class WorkspaceService extends BaseController {
 		try {
 			long quota = Long.valueOf(userInfos.getAttribute("quota").toString());
 			long storage = Long.valueOf(userInfos.getAttribute("storage").toString());
-			emptySizeHandler.handle(quota - storage);
+			emptySizeHandler.handle(quota - storage - pendingStorage(userInfos.getUserId()));
 		} catch (Exception e) {
 			quotaService.quotaAndUsage(userInfos.getUserId(), new Handler<Either<String, JsonObject>>() {
 				@Override
@@ -466,7 +482,7 @@ public class WorkspaceService extends BaseController {
 							for (String attr : j.getFieldNames()) {
 								UserUtils.addSessionAttribute(eb, userInfos.getUserId(), attr, j.getLong(attr), null);
 							}
-							emptySizeHandler.handle(quota - storage);
+							emptySizeHandler.handle(quota - storage - pendingStorage(userInfos.getUserId()));
 						}
 					}
 				}
@@ -486,7 +502,7 @@ public class WorkspaceService extends BaseController {
 						for (String attr : j.getFieldNames()) {
 							UserUtils.addSessionAttribute(eb, userId, attr, j.getLong(attr), null);
 						}
-						emptySizeHandler.handle(quota - storage);
+						emptySizeHandler.handle(quota - storage - pendingStorage(userId));
 					}
 				}
 			}
@@ -543,8 +559,8 @@ public class WorkspaceService extends BaseController {
 				if ("ok".equals(res.body().getString("status"))) {
 					incrementStorage(doc);
 					createRevision(res.body().getString("_id"), uploaded.getString("_id"), doc.getString("name"), doc.getString("owner"), doc.getString("owner"), doc.getString("ownerName"), doc.getObject("metadata"));
-					createThumbnailIfNeeded(mongoCollection, uploaded,
-							res.body().getString("_id"), null, thumbs, new Handler<Message<JsonObject>>() {
+					createThumbnailIfNeeded(mongoCollection, uploaded, res.body().getString("_id"),
+							doc.getString("owner"), null, thumbs, new Handler<Message<JsonObject>>() {
 								@Override
 								public void handle(Message<JsonObject> event) {
 									if (handler != null) {
@@ -630,15 +646,15 @@ public class WorkspaceService extends BaseController {
 		}
 
 		for (final Map.Entry<String, Long> e : sizes.entrySet()) {
+			if (quotaAccumulator != null) {
+				quotaAccumulator.add(e.getKey(), e.getValue(), handler);
+				continue;
+			}
 			quotaService.incrementStorage(e.getKey(), e.getValue(), threshold, new Handler<Either<String, JsonObject>>() {
 				@Override
 				public void handle(Either<String, JsonObject> r) {
 					if (r.isRight()) {
-						JsonObject j = r.right().getValue();
-						UserUtils.addSessionAttribute(eb, e.getKey(), "storage", j.getLong("storage"), null);
-						if (j.getBoolean("notify", false)) {
-							notifyEmptySpaceIsSmall(e.getKey());
-						}
+						storageUpdated(e.getKey(), r.right().getValue());
 					} else {
 						log.error(r.left().getValue());
 					}
@@ -650,6 +666,17 @@ public class WorkspaceService extends BaseController {
 		}
 	}
 
+	private void storageUpdated(String userId, JsonObject j) {
+		UserUtils.addSessionAttribute(eb, userId, "storage", j.getLong("storage"), null);
+		if (j.getBoolean("notify", false)) {
+			notifyEmptySpaceIsSmall(userId);
+		}
+	}
+
+	private long pendingStorage(String userId) {
+		return (quotaAccumulator != null) ? quotaAccumulator.pending(userId) : 0l;
+	}
+
 	private void notifyEmptySpaceIsSmall(String userId) {
 		List<String> recipients = new ArrayList<>();
 		recipients.add(userId);
@@ -861,12 +888,20 @@ public class WorkspaceService extends BaseController {
 	}
 
 	private void createThumbnailIfNeeded(final String collection, final JsonObject srcFile,
-			final String documentId, final JsonObject oldThumbnail, final List<String> thumbs,
+			final String documentId, final String owner, final JsonObject oldThumbnail, final List<String> thumbs,
 			final Handler<Message<JsonObject>> callback) {
 		if (documentId != null && thumbs != null && !documentId.trim().isEmpty() && !thumbs.isEmpty() &&
 				srcFile != null && isImage(srcFile) && srcFile.getString("_id") != null) {
-			createThumbnails(thumbs, srcFile, collection, documentId, callback);
-		} else {
+			imageJobs.thumbnails(collection, documentId, owner, srcFile.getString("_id"), thumbs,
+					new Handler<Either<String, JsonObject>>() {
+				@Override
+				public void handle(Either<String, JsonObject> event) {
+					if (callback != null) {
+						callback.handle(null);
+					}
+				}
+			});
+		} else if (callback != null) {
 			callback.handle(null);
 		}
 		if (oldThumbnail != null) {
@@ -884,53 +919,6 @@ public class WorkspaceService extends BaseController {
 		}
 	}
 
-	private void createThumbnails(List<String> thumbs, JsonObject srcFile, final String collection,
-			final String documentId, final Handler<Message<JsonObject>> callback) {
-		Pattern size = Pattern.compile("([0-9]+)x([0-9]+)");
-		JsonArray outputs = new JsonArray();
-		for (String thumb: thumbs) {
-			Matcher m = size.matcher(thumb);
-			if (m.matches()) {
-				try {
-					int width = Integer.parseInt(m.group(1));
-					int height = Integer.parseInt(m.group(2));
-					if (width == 0 && height == 0) continue;
-					JsonObject j = new JsonObject().putString("dest",
-							storage.getProtocol() + "://" + storage.getBucket());
-					if (width != 0) {
-						j.putNumber("width", width);
-					}
-					if (height != 0) {
-						j.putNumber("height", height);
-					}
-					outputs.addObject(j);
-				} catch (NumberFormatException e) {
-					log.error("Invalid thumbnail size.", e);
-				}
-			}
-		}
-		if (outputs.size() > 0) {
-			JsonObject json = new JsonObject()
-					.putString("action", "resizeMultiple")
-					.putString("src", storage.getProtocol() + "://" + storage.getBucket() + ":"
-							+ srcFile.getString("_id"))
-					.putArray("destinations", outputs);
-			eb.send(imageResizerAddress, json, new Handler<Message<JsonObject>>() {
-				@Override
-				public void handle(Message<JsonObject> event) {
-					JsonObject thumbnails = event.body().getObject("outputs");
-					if ("ok".equals(event.body().getString("status")) && thumbnails != null) {
-						mongo.update(collection, new JsonObject().putString("_id", documentId),
-								new JsonObject().putObject("$set", new JsonObject()
-										.putObject("thumbnails", thumbnails)), callback);
-					}
-				}
-			});
-		} else if (callback != null) {
-			callback.handle(null);
-		}
-	}
-
 	private void compressImage(JsonObject srcFile, String quality, final Handler<Integer> handler) {
 		if (!isImage(srcFile)) {
 			handler.handle(null);
@@ -952,13 +940,7 @@ public class WorkspaceService extends BaseController {
 				.putNumber("quality", q)
 				.putString("src", storage.getProtocol() + "://" + storage.getBucket() + ":" + srcFile.getString("_id"))
 				.putString("dest", storage.getProtocol() + "://" + storage.getBucket() + ":" + srcFile.getString("_id"));
-		eb.send(imageResizerAddress, json, new Handler<Message<JsonObject>>() {
-			@Override
-			public void handle(Message<JsonObject> event) {
-				Integer size = event.body().getInteger("size");
-				handler.handle(size);
-			}
-		});
+		imageJobs.compress(json, handler);
 	}
 
 	@Put("/document/:id")
@@ -1058,7 +1040,7 @@ public class WorkspaceService extends BaseController {
 										incrementStorage(doc);
 										createRevision(id, doc.getString("file"), doc.getString("name"), result.getString("owner"), userId, userName, metadata);
 										createThumbnailIfNeeded(DocumentDao.DOCUMENTS_COLLECTION,
-												uploaded, id, thumbs, t, new Handler<Message<JsonObject>>() {
+												uploaded, id, result.getString("owner"), thumbs, t, new Handler<Message<JsonObject>>() {
 													@Override
 													public void handle(Message<JsonObject> event) {
 														if (handler != null) {
@@ -1116,8 +1098,13 @@ public class WorkspaceService extends BaseController {
 				if ("ok".equals(status) && result != null) {
 					String file;
 					if (thumbSize != null && !thumbSize.trim().isEmpty()) {
-						file = result.getObject("thumbnails", new JsonObject())
-								.getString(thumbSize, result.getString("file"));
+						file = result.getObject("thumbnails", new JsonObject()).getString(thumbSize);
+						if (file == null) {
+							file = result.getString("file");
+							if (file != null && isImage(result)) {
+								imageJobs.request(file);
+							}
+						}
 					} else {
 						file = result.getString("file");
 					}
@@ -1317,6 +1304,7 @@ public class WorkspaceService extends BaseController {
 									} else {
 										dest.removeField("folder");
 									}
+									FolderTree.putAncestors(dest, folder);
 									insert.add(dest);
 									final String filePath = orig.getString("file");
 
@@ -1469,6 +1457,7 @@ public class WorkspaceService extends BaseController {
 						log.warn(e.getMessage(), e);
 					}
 					dest.putString("folder", folder);
+					FolderTree.putAncestors(dest, folder);
 					String filePath = orig.getString("file");
 					if (filePath != null) {
 						storage.copyFile(filePath, new Handler<JsonObject>() {
@@ -1858,16 +1847,12 @@ public class WorkspaceService extends BaseController {
 			@Override
 			public void handle(JsonObject res) {
 				if ("ok".equals(res.getString("status"))) {
-					String obj2 = "";
+					MongoUpdateBuilder obj2 = FolderTree.setFolder(new MongoUpdateBuilder(), folder)
+							.set("modified", MongoDb.formatDate(new Date()));
 					if("Trash".equals(folder)){
-						obj2 = "{ \"$set\" : { \"folder\": \"" + folder +"\", "
-								+ "\"modified\" : \""+ MongoDb.formatDate(new Date()) + "\"}, "
-								+ "\"$unset\": { \"shared\": true }}";
-					} else {
-						obj2 = "{ \"$set\" : { \"folder\": \"" + folder +
-								"\", \"modified\" : \""+ MongoDb.formatDate(new Date()) + "\" }}";
+						obj2.unset("shared");
 					}
-					dao.update(request.params().get("id"), new JsonObject(obj2), owner, new Handler<JsonObject>() {
+					dao.update(request.params().get("id"), obj2.build(), owner, new Handler<JsonObject>() {
 						@Override
 						public void handle(JsonObject res) {
 							if ("ok".equals(res.getString("status"))) {
@@ -1925,7 +1910,9 @@ public class WorkspaceService extends BaseController {
 											null : event.right().getValue();
 
 									String obj = "{ \"$set\" : { \"folder\": \"" + cleanedFolder +
-												"\", \"modified\" : \""+ MongoDb.formatDate(new Date()) + "\"";
+												"\", \"modified\" : \""+ MongoDb.formatDate(new Date()) + "\"" +
+												", \"" + FolderTree.ANCESTORS + "\" : " + FolderTree.ancestors(folder).encode() +
+												", \"" + FolderTree.DEPTH + "\" : " + FolderTree.depth(folder);
 									if(parentSharedRights != null && parentSharedRights.size() > 0)
 										obj += ", \"shared\" : "+parentSharedRights.toString()+" }}";
 									else
@@ -1947,7 +1934,8 @@ public class WorkspaceService extends BaseController {
 							});
 						} else {
 							String obj = "{ \"$set\" : { \"modified\" : \""+ MongoDb.formatDate(new Date()) + "\" }, " +
-									" \"$unset\" : { \"folder\" : 1, \"shared\": 1 }}";
+									" \"$unset\" : { \"folder\" : 1, \"shared\": 1, \"" + FolderTree.ANCESTORS + "\" : 1, \"" +
+									FolderTree.DEPTH + "\" : 1 }}";
 
 							mongo.update(DocumentDao.DOCUMENTS_COLLECTION, new JsonObject(criteria),
 									new JsonObject(obj), false, true, new Handler<Message<JsonObject>>() {
@@ -2104,6 +2092,7 @@ public class WorkspaceService extends BaseController {
 							doc.removeField("folder");
 						}
 						doc.removeField("old-folder");
+						FolderTree.putAncestors(doc, doc.getString("folder"));
 						dao.update(id, doc, to, new Handler<JsonObject>() {
 							@Override
 							public void handle(JsonObject res) {
@@ -2139,6 +2128,9 @@ public class WorkspaceService extends BaseController {
 				break;
 			case "getDocument" : getDocument(message);
 				break;
+			case "imageJobsStats" :
+				message.reply(imageJobs.stats().putString("status", "ok"));
+				break;
 			default:
 				message.reply(new JsonObject().putString("status", "error")
 						.putString("message", "invalid.action"));
@@ -59,11 +59,32 @@ public class DefaultFolderService implements FolderService {
 	private final MongoDb mongo;
 	private final Storage storage;
 	private final DateFormat format;
+	private final boolean treeIndex;
 
 	public DefaultFolderService(MongoDb mongo, Storage storage) {
+		this(mongo, storage, false);
+	}
+
+	/**
+	 * @param treeIndex resolve subtrees with the materialized {@link FolderTree} fields instead of
+	 * regexes on folder paths. Enable it once the documents collection has been migrated.
+	 */
+	public DefaultFolderService(MongoDb mongo, Storage storage, boolean treeIndex) {
 		this.mongo = mongo;
 		this.storage = storage;
 		this.format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+		this.treeIndex = treeIndex;
+	}
+
+	private QueryBuilder subtree(QueryBuilder q, String folder) {
+		if (treeIndex) {
+			return q.put(FolderTree.ANCESTORS).is(folder);
+		}
+		return q.put("folder").regex(Pattern.compile("^" + Pattern.quote(folder) + "($|_)"));
+	}
+
+	private DBObject subtree(String folder) {
+		return subtree(QueryBuilder.start(), folder).get();
 	}
 
 	public void getParentRights(final String parentName, final String parentFolder, final UserInfos owner, final Handler<Either<String, JsonArray>> result){
@@ -114,6 +135,7 @@ public class DefaultFolderService implements FolderService {
 			folder = name;
 		}
 		doc.putString("folder", folder);
+		FolderTree.putAncestors(doc, folder);
 		doc.putString("application", getOrElse(application, WorkspaceService.WORKSPACE_NAME));
 		QueryBuilder alreadyExist = QueryBuilder.start("owner").is(owner.getUserId()).put("folder").is(folder);
 		mongo.count(DOCUMENTS_COLLECTION, MongoQueryBuilder.build(alreadyExist),
@@ -218,8 +240,12 @@ public class DefaultFolderService implements FolderService {
 	private void recursiveMove(final String folder, final String name, final String owner,
 				final String path, final Handler<Either<String, JsonObject>> result) {
 		final String folderAttr = "Trash".equals(path) ? "old-folder" : "folder";
-		final QueryBuilder q = QueryBuilder.start("owner").is(owner).put(folderAttr)
-				.regex(Pattern.compile("^" + Pattern.quote(folder) + "($|_)"));
+		final QueryBuilder q = QueryBuilder.start("owner").is(owner);
+		if ("folder".equals(folderAttr)) {
+			subtree(q, folder);
+		} else {
+			q.put(folderAttr).regex(Pattern.compile("^" + Pattern.quote(folder) + "($|_)"));
+		}
 
 		//If the folder has a parent folder, replicate sharing rights
 		String[] splittedPath = path.split("_");
@@ -251,7 +277,8 @@ public class DefaultFolderService implements FolderService {
 									QueryBuilder qf = QueryBuilder.start("owner").is(owner)
 											.put(folderAttr).is(dir);
 									MongoUpdateBuilder modifier = new MongoUpdateBuilder();
-									modifier.set("folder", dir.replaceFirst("^" + Pattern.quote(folder), Matcher.quoteReplacement(dest)));
+									FolderTree.setFolder(modifier,
+											dir.replaceFirst("^" + Pattern.quote(folder), Matcher.quoteReplacement(dest)));
 
 									if("Trash".equals(path) || parentSharedRights == null)
 										modifier.unset("shared");
@@ -316,9 +343,7 @@ public class DefaultFolderService implements FolderService {
 						final String n1 = event.body().getObject("result", new JsonObject()).getString("name");
 						if ("ok".equals(event.body().getString("status")) &&
 								folder != null && !folder.trim().isEmpty() && n1 != null && !n1.trim().isEmpty()) {
-							final String folderAttr = "folder";
-							QueryBuilder q = QueryBuilder.start("owner").is(owner.getUserId()).put(folderAttr)
-									.regex(Pattern.compile("^" + Pattern.quote(folder) + "($|_)"));
+							QueryBuilder q = subtree(QueryBuilder.start("owner").is(owner.getUserId()), folder);
 							mongo.find(DOCUMENTS_COLLECTION, MongoQueryBuilder.build(q),
 									new Handler<Message<JsonObject>>() {
 								@Override
@@ -365,6 +390,7 @@ public class DefaultFolderService implements FolderService {
 													dest.putString("modified", now);
 													dest.putString("folder", dest.getString("folder", "")
 															.replaceFirst("^" + Pattern.quote(folder),  Matcher.quoteReplacement(destFolder)));
+													FolderTree.putAncestors(dest, dest.getString("folder"));
 													dest.putArray("shared", parentSharedRights);
 													insert.add(dest);
 													String filePath = orig.getString("file");
@@ -452,8 +478,7 @@ public class DefaultFolderService implements FolderService {
 						final String owner = event.body().getObject("result", new JsonObject()).getString("owner");
 						if ("ok".equals(event.body().getString("status")) &&
 								folder != null && !folder.trim().isEmpty()) {
-							QueryBuilder q = QueryBuilder.start("owner").is(owner).put("folder")
-									.regex(Pattern.compile("^" + Pattern.quote(folder) + "($|_)"));
+							QueryBuilder q = subtree(QueryBuilder.start("owner").is(owner), folder);
 							MongoUpdateBuilder modifier = new MongoUpdateBuilder();
 							modifier.rename("folder", "old-folder");
 							mongo.update(DOCUMENTS_COLLECTION, MongoQueryBuilder.build(q),
@@ -492,8 +517,7 @@ public class DefaultFolderService implements FolderService {
 			public void handle(Message<JsonObject> event) {
 				String folder = event.body().getObject("result", new JsonObject()).getString("folder");
 				if ("ok".equals(event.body().getString("status")) && folder != null && !folder.trim().isEmpty()) {
-					QueryBuilder q = QueryBuilder.start("owner").is(owner.getUserId()).put("folder")
-							.regex(Pattern.compile("^" + Pattern.quote(folder) + "($|_)"));
+					QueryBuilder q = subtree(QueryBuilder.start("owner").is(owner.getUserId()), folder);
 					JsonObject keys = new JsonObject().putNumber("metadata", 1)
 							.putNumber("owner", 1).putNumber("name", 1).putNumber("file", 1);
 					final JsonObject query = MongoQueryBuilder.build(q);
@@ -571,7 +595,18 @@ public class DefaultFolderService implements FolderService {
 		q.and("file").exists(false)
 		 .and("application").is(WorkspaceService.WORKSPACE_NAME);
 
-		if (path != null && !path.trim().isEmpty()) {
+		if (treeIndex) {
+			if (path != null && !path.trim().isEmpty()) {
+				q = q.put(FolderTree.ANCESTORS).is(path);
+				if (hierarchical) {
+					q = q.put(FolderTree.DEPTH).is(FolderTree.depth(path) + 1);
+				} else {
+					q = q.put(FolderTree.DEPTH).greaterThan(FolderTree.depth(path));
+				}
+			} else if (hierarchical) {
+				q = q.put(FolderTree.DEPTH).is(1);
+			}
+		} else if (path != null && !path.trim().isEmpty()) {
 			if (hierarchical) {
 				q = q.put("folder").regex(Pattern.compile("^" + Pattern.quote(path) + "_[^_]+$"));
 			} else {
@@ -607,15 +642,18 @@ public class DefaultFolderService implements FolderService {
 						final String folder = event.body().getObject("result", new JsonObject()).getString("folder");
 						if ("ok".equals(event.body().getString("status")) &&
 								folder != null && !folder.trim().isEmpty()) {
-							QueryBuilder q = QueryBuilder.start("owner").is(owner.getUserId()).put("folder")
-									.regex(Pattern.compile("^" + Pattern.quote(folder) + "($|_)")).put("old-folder").exists(true);
-							MongoUpdateBuilder modifier = new MongoUpdateBuilder();
-							modifier.rename("old-folder", "folder");
-							mongo.update(DOCUMENTS_COLLECTION, MongoQueryBuilder.build(q),
-									modifier.build(), false, true, new Handler<Message<JsonObject>>() {
+							final QueryBuilder q = subtree(QueryBuilder.start("owner").is(owner.getUserId()), folder)
+									.put("old-folder").exists(true);
+							mongo.distinct(DOCUMENTS_COLLECTION, "old-folder", MongoQueryBuilder.build(q),
+									new Handler<Message<JsonObject>>() {
 								@Override
-								public void handle(Message<JsonObject> res) {
-									result.handle(Utils.validResult(res));
+								public void handle(Message<JsonObject> d) {
+									JsonArray directories = d.body().getArray("values", new JsonArray());
+									if ("ok".equals(d.body().getString("status")) && directories.size() > 0) {
+										restoreDirectories(q, directories, result);
+									} else {
+										result.handle(Utils.validResult(d));
+									}
 								}
 							});
 						} else {
@@ -625,6 +663,33 @@ public class DefaultFolderService implements FolderService {
 				});
 	}
 
+	private void restoreDirectories(QueryBuilder q, JsonArray directories,
+			final Handler<Either<String, JsonObject>> result) {
+		final AtomicInteger remaining = new AtomicInteger(directories.size());
+		final AtomicInteger count = new AtomicInteger(0);
+		for (Object o : directories) {
+			if (!(o instanceof String)) {
+				remaining.decrementAndGet();
+				continue;
+			}
+			final String dir = (String) o;
+			final QueryBuilder qf = QueryBuilder.start().and(q.get(), QueryBuilder.start("old-folder").is(dir).get());
+			final MongoUpdateBuilder modifier = FolderTree.setFolder(new MongoUpdateBuilder(), dir);
+			modifier.unset("old-folder");
+			mongo.update(DOCUMENTS_COLLECTION, MongoQueryBuilder.build(qf),
+					modifier.build(), false, true, new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> res) {
+					count.getAndAdd(res.body().getInteger("number", 0));
+					if (remaining.decrementAndGet() == 0) {
+						res.body().putNumber("number", count.get());
+						result.handle(Utils.validResult(res));
+					}
+				}
+			});
+		}
+	}
+
 	@Override
 	public void shareFolderAction(final String id, final UserInfos owner, final List<String> actions, final String groupId, final String userId, final ShareService shareService, final boolean remove, final Handler<Either<String, JsonObject>> result) {
 
@@ -662,11 +727,10 @@ public class DefaultFolderService implements FolderService {
 			public void handle(Message<JsonObject> event) {
 				final String folder = event.body().getObject("result", new JsonObject()).getString("folder");
 
-				QueryBuilder q = QueryBuilder.start().or(
+				QueryBuilder q = subtree(QueryBuilder.start().or(
 						QueryBuilder.start("owner").is(owner.getUserId()).get(),
 						managerCheck
-					).put("folder").regex(Pattern.compile("^" + Pattern.quote(folder) + "($|_)"))
-					 .put("_id").notEquals(id);
+					), folder).put("_id").notEquals(id);
 
 				mongo.find(DOCUMENTS_COLLECTION, MongoQueryBuilder.build(q), new Handler<Message<JsonObject>>() {
 
@@ -761,7 +825,7 @@ public class DefaultFolderService implements FolderService {
 
 						QueryBuilder targetQuery = QueryBuilder.start("owner").is(owner.getUserId());
 						targetQuery.or(
-								QueryBuilder.start("folder").regex(Pattern.compile("^" + Pattern.quote(folder) + "($|_)")).get(),
+								subtree(folder),
 								QueryBuilder.start("old-folder").regex(Pattern.compile("^" + Pattern.quote(folder) + "($|_)")).get()
 								);
 
@@ -802,7 +866,7 @@ public class DefaultFolderService implements FolderService {
 											updateModifier.set("old-folder", newPath);
 										} else {
 											String newPath = childFolder.lastIndexOf("_") < 0 ? newName : childFolder.replaceFirst(Pattern.quote(folder), Matcher.quoteReplacement(newFolderPath));
-											updateModifier.set("folder", newPath);
+											FolderTree.setFolder(updateModifier, newPath);
 										}
 
 										mongo.update(DOCUMENTS_COLLECTION, updateMatcher, updateModifier.build(), recursiveHandler);
@@ -817,7 +881,8 @@ public class DefaultFolderService implements FolderService {
 				};
 
 				//2 - Rename target folder
-				mongo.update(DOCUMENTS_COLLECTION, MongoQueryBuilder.build(query), new JsonObject("{ \"$set\": { \"folder\": \""+newFolderPath+"\", \"name\": \""+newName+"\" }}"), renameChildren);
+				MongoUpdateBuilder renameModifier = FolderTree.setFolder(new MongoUpdateBuilder(), newFolderPath).set("name", newName);
+				mongo.update(DOCUMENTS_COLLECTION, MongoQueryBuilder.build(query), renameModifier.build(), renameChildren);
 			}
 		};
 
@@ -23,6 +23,7 @@ import fr.wseduc.webutils.Either;
 import fr.wseduc.webutils.collections.Joiner;
 
 import org.entcore.common.neo4j.Neo4j;
+import org.entcore.common.neo4j.StatementsBuilder;
 import org.entcore.workspace.service.QuotaService;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
@@ -33,14 +34,27 @@ import org.vertx.java.core.logging.impl.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.entcore.common.neo4j.Neo4jResult.validResultHandler;
+import static org.entcore.common.neo4j.Neo4jResult.validResults;
 import static org.entcore.common.neo4j.Neo4jResult.validUniqueResultHandler;
 
 public class DefaultQuotaService implements QuotaService {
 
 	private final Neo4j neo4j = Neo4j.getInstance();
 	private static final Logger log = LoggerFactory.getLogger(DefaultQuotaService.class);
+	// the global storage is only computed by the reconciliation : a single node updated
+	// by every storage transaction would serialize them
+	private static final String STRUCTURES_STORAGE =
+			"UNWIND {sizes} as d " +
+			"MATCH (:UserBook { userid : d.userId})<-[:USERBOOK]-(:User)-[:IN]->(:ProfileGroup)-[:DEPENDS]->(s:Structure) " +
+			"WITH DISTINCT d.userId as userId, d.size as size, s " +
+			"WHERE HAS(s.storage) " +
+			"SET s.storage = s.storage + size ";
+	private static final String QUOTA_GLOBAL_DELTA =
+			"OPTIONAL MATCH (g:QuotaUsage { id : 'global'}) " +
+			"FOREACH (x IN CASE WHEN g IS NULL THEN [] ELSE [g] END | SET x.quota = x.quota + ";
 	private final boolean neo4jPlugin;
 
 	public DefaultQuotaService(boolean neo4jPlugin) {
@@ -48,7 +62,7 @@ public class DefaultQuotaService implements QuotaService {
 	}
 
 	@Override
-	public void incrementStorage(String userId, Long size, int threshold,
+	public void incrementStorage(final String userId, final Long size, int threshold,
 			final Handler<Either<String, JsonObject>> handler) {
 		JsonObject params = new JsonObject()
 				.putNumber("size", size)
@@ -61,13 +75,18 @@ public class DefaultQuotaService implements QuotaService {
 					"SET u.alertSize = ((100.0 * u.storage / u.quota) > {threshold}) " +
 					"RETURN u.storage as storage, (u.alertSize = true AND oldAlert <> u.alertSize) as notify ";
 			params.putString("userId", userId);
-			neo4j.execute(query, params, validUniqueResultHandler(handler));
+			final StatementsBuilder b = new StatementsBuilder().add(query, params);
+			addAggregatesStatements(b, new JsonArray().addObject(
+					new JsonObject().putString("userId", userId).putNumber("size", size)));
+			neo4j.executeTransaction(b.build(), null, true, validUniqueResultHandler(0, handler));
 		} else {
 			neo4j.unmanagedExtension("put", "/entcore/quota/storage/" + userId, params.encode(),
 					new Handler<Message<JsonObject>>() {
 				@Override
 				public void handle(Message<JsonObject> event) {
 					if ("ok".equals(event.body().getString("status"))) {
+						incrementAggregates(new JsonArray().addObject(
+								new JsonObject().putString("userId", userId).putNumber("size", size)));
 						handler.handle(new Either.Right<String, JsonObject>(
 								new JsonObject(event.body().getString("result"))));
 					} else {
@@ -78,6 +97,88 @@ public class DefaultQuotaService implements QuotaService {
 		}
 	}
 
+	@Override
+	public void incrementStorage(final JsonArray sizes, int threshold,
+			final Handler<Either<String, JsonArray>> handler) {
+		if (sizes == null || sizes.size() == 0) {
+			handler.handle(new Either.Right<String, JsonArray>(new JsonArray()));
+			return;
+		}
+		if (!neo4jPlugin) {
+			String query =
+					"UNWIND {sizes} as s " +
+					"MATCH (u:UserBook { userid : s.userId}) " +
+					"SET u.storage = u.storage + s.size " +
+					"WITH u, u.alertSize as oldAlert " +
+					"SET u.alertSize = ((100.0 * u.storage / u.quota) > {threshold}) " +
+					"RETURN u.userid as userId, u.storage as storage, " +
+					"(u.alertSize = true AND oldAlert <> u.alertSize) as notify ";
+			JsonObject params = new JsonObject()
+					.putArray("sizes", sizes)
+					.putNumber("threshold", threshold);
+			final StatementsBuilder b = new StatementsBuilder().add(query, params);
+			addAggregatesStatements(b, sizes);
+			neo4j.executeTransaction(b.build(), null, true, new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> event) {
+					Either<String, JsonArray> r = validResults(event);
+					if (r.isRight()) {
+						final JsonArray results = r.right().getValue();
+						handler.handle(new Either.Right<String, JsonArray>(
+								(results.size() > 0) ? (JsonArray) results.get(0) : new JsonArray()));
+					} else {
+						handler.handle(r);
+					}
+				}
+			});
+		} else {
+			final JsonArray results = new JsonArray();
+			final AtomicInteger count = new AtomicInteger(sizes.size());
+			for (Object o : sizes) {
+				if (!(o instanceof JsonObject)) {
+					if (count.decrementAndGet() == 0) {
+						handler.handle(new Either.Right<String, JsonArray>(results));
+					}
+					continue;
+				}
+				final String userId = ((JsonObject) o).getString("userId");
+				incrementStorage(userId, ((JsonObject) o).getLong("size", 0l), threshold,
+						new Handler<Either<String, JsonObject>>() {
+					@Override
+					public void handle(Either<String, JsonObject> r) {
+						synchronized (results) {
+							if (r.isRight()) {
+								results.addObject(r.right().getValue().putString("userId", userId));
+							} else {
+								log.error("Error updating storage of user " + userId + " : " + r.left().getValue());
+							}
+						}
+						if (count.decrementAndGet() == 0) {
+							handler.handle(new Either.Right<String, JsonArray>(results));
+						}
+					}
+				});
+			}
+		}
+	}
+
+	private void addAggregatesStatements(StatementsBuilder b, JsonArray sizes) {
+		b.add(STRUCTURES_STORAGE, new JsonObject().putArray("sizes", sizes));
+	}
+
+	private void incrementAggregates(JsonArray sizes) {
+		final StatementsBuilder b = new StatementsBuilder();
+		addAggregatesStatements(b, sizes);
+		neo4j.executeTransaction(b.build(), null, true, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if (!"ok".equals(event.body().getString("status"))) {
+					log.error("Error updating quota aggregates : " + event.body().getString("message"));
+				}
+			}
+		});
+	}
+
 	@Override
 	public void decrementStorage(String userId, Long size, int threshold, Handler<Either<String, JsonObject>> handler) {
 		incrementStorage(userId, -1l * size, threshold, handler);
@@ -93,7 +194,25 @@ public class DefaultQuotaService implements QuotaService {
 	}
 
 	@Override
-	public void quotaAndUsageStructure(String structureId, Handler<Either<String, JsonObject>> handler) {
+	public void quotaAndUsageStructure(final String structureId, final Handler<Either<String, JsonObject>> handler) {
+		String query =
+				"MATCH (s:Structure {id : {structureId}}) " +
+				"WHERE HAS(s.storage) AND HAS(s.quota) " +
+				"RETURN s.quota as quota, s.storage as storage ";
+		JsonObject params = new JsonObject().putString("structureId", structureId);
+		neo4j.execute(query, params, validUniqueResultHandler(new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> r) {
+				if (r.isRight() && r.right().getValue().size() == 0) {
+					computeQuotaAndUsageStructure(structureId, handler);
+				} else {
+					handler.handle(r);
+				}
+			}
+		}));
+	}
+
+	private void computeQuotaAndUsageStructure(String structureId, Handler<Either<String, JsonObject>> handler) {
 		String query =
 				"MATCH (s:Structure {id : {structureId}})<-[:DEPENDS]-(:ProfileGroup)" +
 				"<-[:IN]-(:User)-[:USERBOOK]->(u:UserBook) " +
@@ -104,7 +223,23 @@ public class DefaultQuotaService implements QuotaService {
 	}
 
 	@Override
-	public void quotaAndUsageGlobal(Handler<Either<String, JsonObject>> handler) {
+	public void quotaAndUsageGlobal(final Handler<Either<String, JsonObject>> handler) {
+		String query =
+				"MATCH (g:QuotaUsage { id : 'global'}) " +
+				"RETURN g.quota as quota, g.storage as storage ";
+		neo4j.execute(query, new JsonObject(), validUniqueResultHandler(new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> r) {
+				if (r.isRight() && r.right().getValue().size() == 0) {
+					computeQuotaAndUsageGlobal(handler);
+				} else {
+					handler.handle(r);
+				}
+			}
+		}));
+	}
+
+	private void computeQuotaAndUsageGlobal(Handler<Either<String, JsonObject>> handler) {
 		String query =
 				"MATCH (u:UserBook) " +
 				"RETURN sum(u.quota) as quota, sum(u.storage) as storage ";
@@ -116,10 +251,20 @@ public class DefaultQuotaService implements QuotaService {
 	public void update(JsonArray users, long quota,
 			Handler<Either<String, JsonArray>> handler) {
 		String query =
-				"MATCH (u:UserBook)<-[:USERBOOK]-(:User)-[:IN]->(:ProfileGroup)-[:HAS_PROFILE]->(p:Profile) " +
+				"MATCH (u:UserBook)<-[:USERBOOK]-(n:User)-[:IN]->(:ProfileGroup)-[:HAS_PROFILE]->(p:Profile) " +
 				"WHERE u.userid IN {users} AND u.storage < {quota} AND {quota} < coalesce(p.maxQuota, 1073741824) " +
+				"WITH DISTINCT u, n, {quota} - coalesce(u.quota, 0) as delta " +
 				"SET u.quota = {quota}, u.alertSize = false " +
-				"RETURN u.userid as id ";
+				"WITH u, n, delta " +
+				"OPTIONAL MATCH n-[:IN]->(:ProfileGroup)-[:DEPENDS]->(s:Structure) " +
+				"WHERE HAS(s.quota) " +
+				"WITH u, delta, collect(DISTINCT s) as structures " +
+				"FOREACH (s IN structures | SET s.quota = s.quota + delta) " +
+				"WITH collect(u.userid) as ids, sum(delta) as total " +
+				QUOTA_GLOBAL_DELTA + "total) " +
+				"WITH ids " +
+				"UNWIND ids as id " +
+				"RETURN id ";
 		JsonObject params = new JsonObject()
 				.putArray("users", users)
 				.putNumber("quota", quota);
@@ -157,15 +302,60 @@ public class DefaultQuotaService implements QuotaService {
 		neo4j.execute(query, new JsonObject(), validResultHandler(handler));
 	}
 
+	@Override
+	public void reconcileUsage(final Handler<Either<String, JsonObject>> handler) {
+		final String structures =
+				"MATCH (s:Structure) " +
+				"OPTIONAL MATCH s<-[:DEPENDS]-(:ProfileGroup)<-[:IN]-(:User)-[:USERBOOK]->(u:UserBook) " +
+				"WITH s, collect(DISTINCT u) as ubs " +
+				"SET s.quota = reduce(q = 0, u IN ubs | q + coalesce(u.quota, 0)), " +
+				"s.storage = reduce(st = 0, u IN ubs | st + coalesce(u.storage, 0)) " +
+				"RETURN count(s) as structures ";
+		final String global =
+				"MATCH (u:UserBook) " +
+				"WITH sum(u.quota) as quota, sum(u.storage) as storage " +
+				"MERGE (g:QuotaUsage { id : 'global'}) " +
+				"SET g.quota = quota, g.storage = storage " +
+				"RETURN g.quota as quota, g.storage as storage ";
+		final StatementsBuilder b = new StatementsBuilder().add(structures).add(global);
+		neo4j.executeTransaction(b.build(), null, true, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				Either<String, JsonArray> r = validResults(event);
+				if (r.isRight() && r.right().getValue().size() == 2) {
+					final JsonArray results = r.right().getValue();
+					final JsonObject j = new JsonObject();
+					for (Object o : results) {
+						if (o instanceof JsonArray && ((JsonArray) o).size() > 0) {
+							j.mergeIn((JsonObject) ((JsonArray) o).get(0));
+						}
+					}
+					handler.handle(new Either.Right<String, JsonObject>(j));
+				} else {
+					handler.handle(new Either.Left<String, JsonObject>(
+							r.isLeft() ? r.left().getValue() : "invalid.results"));
+				}
+			}
+		});
+	}
+
 	@Override
 	public void init(final String userId) {
 		String query =
 				"MATCH (n:User {id : {userId}})-[:IN]->(:ProfileGroup)-[:HAS_PROFILE]->(p:Profile) " +
 				"WITH n, sum(CASE WHEN has(p.defaultQuota) THEN p.defaultQuota ELSE 104857600 END) as quota " +
 				"MERGE (m:UserBook { userid : {userId}}) " +
+				"WITH n, m, quota, quota - coalesce(m.quota, 0) as quotaDelta, -coalesce(m.storage, 0) as storageDelta " +
 				"SET m.quota = quota, m.storage = 0, m.alertSize = false " +
-				"WITH m, n "+
-				"CREATE UNIQUE n-[:USERBOOK]->m";
+				"CREATE UNIQUE n-[:USERBOOK]->m " +
+				"WITH n, quotaDelta, storageDelta " +
+				"OPTIONAL MATCH n-[:IN]->(:ProfileGroup)-[:DEPENDS]->(s:Structure) " +
+				"WHERE HAS(s.quota) " +
+				"WITH quotaDelta, storageDelta, collect(DISTINCT s) as structures " +
+				"FOREACH (s IN structures | " +
+				"SET s.quota = s.quota + quotaDelta, s.storage = coalesce(s.storage, 0) + storageDelta) " +
+				"WITH quotaDelta " +
+				QUOTA_GLOBAL_DELTA + "quotaDelta) ";
 		JsonObject params = new JsonObject().putString("userId", userId);
 		neo4j.execute(query, params, new Handler<Message<JsonObject>>() {
 			@Override
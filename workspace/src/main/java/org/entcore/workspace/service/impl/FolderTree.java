@@ -0,0 +1,95 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.workspace.service.impl;
+
+import fr.wseduc.mongodb.MongoUpdateBuilder;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Materialized folder tree fields stored with the workspace documents.
+ * <code>ancestors</code> holds every folder path containing the document, its own folder included,
+ * and <code>depth</code> the number of segments of its folder. A document is in the subtree of
+ * <code>path</code> when <code>ancestors</code> contains <code>path</code>, which the
+ * <code>{ owner, ancestors, depth }</code> index resolves without a regex scan.
+ * These fields follow the <code>folder</code> attribute and must be rewritten with it.
+ */
+public final class FolderTree {
+
+	public static final String ANCESTORS = "ancestors";
+	public static final String DEPTH = "depth";
+
+	private FolderTree() {}
+
+	public static JsonArray ancestors(String folder) {
+		final JsonArray ancestors = new JsonArray();
+		if (folder == null || folder.isEmpty()) {
+			return ancestors;
+		}
+		int idx = folder.indexOf('_');
+		while (idx >= 0) {
+			ancestors.addString(folder.substring(0, idx));
+			idx = folder.indexOf('_', idx + 1);
+		}
+		ancestors.addString(folder);
+		return ancestors;
+	}
+
+	public static int depth(String folder) {
+		if (folder == null || folder.isEmpty()) {
+			return 0;
+		}
+		int depth = 1;
+		for (int i = 0; i < folder.length(); i++) {
+			if (folder.charAt(i) == '_') {
+				depth++;
+			}
+		}
+		return depth;
+	}
+
+	/**
+	 * Put the tree fields matching folder in a document (or in a $set object),
+	 * or remove them when the document is not in a folder.
+	 */
+	public static JsonObject putAncestors(JsonObject doc, String folder) {
+		if (folder == null || folder.isEmpty()) {
+			doc.removeField(ANCESTORS);
+			doc.removeField(DEPTH);
+		} else {
+			doc.putArray(ANCESTORS, ancestors(folder));
+			doc.putNumber(DEPTH, depth(folder));
+		}
+		return doc;
+	}
+
+	public static MongoUpdateBuilder setFolder(MongoUpdateBuilder modifier, String folder) {
+		modifier.set("folder", folder);
+		if (folder == null || folder.isEmpty()) {
+			modifier.unset(ANCESTORS);
+			modifier.unset(DEPTH);
+		} else {
+			modifier.set(ANCESTORS, ancestors(folder));
+			modifier.set(DEPTH, depth(folder));
+		}
+		return modifier;
+	}
+
+}
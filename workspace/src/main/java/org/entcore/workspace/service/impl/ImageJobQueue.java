@@ -0,0 +1,604 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.workspace.service.impl;
+
+import fr.wseduc.mongodb.MongoDb;
+import fr.wseduc.webutils.Either;
+import org.entcore.common.storage.Storage;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+import org.vertx.java.core.shareddata.ConcurrentSharedMap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Queue of the requests sent to the image resizer, with at most <code>image-jobs-concurrency</code>
+ * requests in flight per node. Compressions, awaited by the upload request, run first, then
+ * interactive thumbnail jobs, then bulk ones : the jobs of an owner who already has
+ * <code>image-jobs-bulk-threshold</code> pending jobs are queued as bulk.
+ * Thumbnail jobs are persisted in mongo, deduplicated by source file id, retried with an
+ * exponential backoff and reloaded at startup : the jobs left by a previous run of the node are
+ * claimed by one of its queues and reloaded page by page. With <code>thumbnail-lazy</code>,
+ * they are only run on the first request of one of their thumbnails.
+ */
+public class ImageJobQueue {
+
+	private static final Logger log = LoggerFactory.getLogger(ImageJobQueue.class);
+	public static final String JOBS_COLLECTION = "imageJobs";
+	public static final int INTERACTIVE = 0;
+	public static final int BULK = 1;
+	private static final long MAX_RETRY_DELAY = 600000l;
+	private static final int RELOAD_PAGE_SIZE = 500;
+	private static final Pattern SIZE = Pattern.compile("([0-9]+)x([0-9]+)");
+	private final Vertx vertx;
+	private final Storage storage;
+	private final String resizerAddress;
+	private final MongoDb mongo = MongoDb.getInstance();
+	private final String node;
+	private final String run;
+	private final String queue = UUID.randomUUID().toString();
+	private final int concurrency;
+	private final int bulkThreshold;
+	private final int maxAttempts;
+	private final long timeout;
+	private final long retryDelay;
+	private final boolean lazy;
+	private final Map<String, ImageJob> jobs = new HashMap<>();
+	private final Map<String, Integer> pendingByOwner = new HashMap<>();
+	private final Set<String> loading = new HashSet<>();
+	private final Deque<Compression> compressions = new ArrayDeque<>();
+	private final Deque<ImageJob> interactive = new ArrayDeque<>();
+	private final Deque<ImageJob> bulk = new ArrayDeque<>();
+	private int inFlight = 0;
+	private long resized = 0;
+	private long compressed = 0;
+	private long failed = 0;
+	private long retried = 0;
+	private long requests = 0;
+	private long totalLatency = 0;
+	private long maxLatency = 0;
+	private long totalWait = 0;
+
+	private static final class ImageJob {
+		private final String fileId;
+		private final String collection;
+		private final String documentId;
+		private final String owner;
+		private final Set<String> sizes = new LinkedHashSet<>();
+		private long queuedAt;
+		private int priority;
+		private int attempts;
+		private boolean queued;
+		private boolean running;
+
+		private ImageJob(String fileId, String collection, String documentId, String owner, int priority) {
+			this.fileId = fileId;
+			this.collection = collection;
+			this.documentId = documentId;
+			this.owner = owner;
+			this.priority = priority;
+		}
+	}
+
+	private static final class Compression {
+		private final JsonObject message;
+		private final Handler<Integer> handler;
+		private final long queuedAt;
+
+		private Compression(JsonObject message, Handler<Integer> handler, long queuedAt) {
+			this.message = message;
+			this.handler = handler;
+			this.queuedAt = queuedAt;
+		}
+	}
+
+	public ImageJobQueue(Vertx vertx, Storage storage, String resizerAddress, JsonObject config) {
+		this.vertx = vertx;
+		this.storage = storage;
+		this.resizerAddress = resizerAddress;
+		this.concurrency = config.getInteger("image-jobs-concurrency", 4);
+		this.bulkThreshold = config.getInteger("image-jobs-bulk-threshold", 5);
+		this.maxAttempts = config.getInteger("image-jobs-max-attempts", 5);
+		this.timeout = config.getLong("image-jobs-timeout", 60000l);
+		this.retryDelay = config.getLong("image-jobs-retry-delay", 5000l);
+		this.lazy = config.getBoolean("thumbnail-lazy", false);
+		final ConcurrentSharedMap<Object, Object> server = vertx.sharedData().getMap("server");
+		final String n = (String) server.get("node");
+		this.node = (n != null) ? n : "";
+		// same run id for all the queues of the node, jobs of other runs are left by a previous start
+		final String runId = UUID.randomUUID().toString();
+		final Object r = server.putIfAbsent("image-jobs-run", runId);
+		this.run = (r != null) ? (String) r : runId;
+		reload();
+	}
+
+	/**
+	 * Queue a compression, before the other jobs. The handler receives the new size of the file,
+	 * or null if the compression failed.
+	 */
+	public void compress(JsonObject message, Handler<Integer> handler) {
+		synchronized (this) {
+			compressions.add(new Compression(message, handler, System.currentTimeMillis()));
+		}
+		next();
+	}
+
+	/**
+	 * Persist a thumbnails job, merged with the pending job of the same file if any.
+	 * @param thumbs sizes as <code>widthxheight</code>
+	 * @param handler called once the job is persisted
+	 */
+	public void thumbnails(String collection, String documentId, String owner, final String fileId,
+			List<String> thumbs, final Handler<Either<String, JsonObject>> handler) {
+		final JsonArray sizes = new JsonArray();
+		for (String thumb : thumbs) {
+			if (thumb != null && SIZE.matcher(thumb).matches() && !"0x0".equals(thumb)) {
+				sizes.addString(thumb);
+			}
+		}
+		if (sizes.size() == 0) {
+			handler.handle(new Either.Right<String, JsonObject>(new JsonObject()));
+			return;
+		}
+		final JsonObject set = new JsonObject().putString("node", node).putString("run", run)
+				.putString("queue", queue).putBoolean("deferred", lazy);
+		final ImageJob job;
+		synchronized (this) {
+			ImageJob j = jobs.get(fileId);
+			if (j == null) {
+				j = new ImageJob(fileId, collection, documentId, owner, priority(owner));
+				set.putString("collection", collection).putString("documentId", documentId)
+						.putString("owner", owner).putNumber("attempts", 0);
+			}
+			set.putNumber("priority", j.priority);
+			job = j;
+		}
+		mongo.update(JOBS_COLLECTION, new JsonObject().putString("_id", fileId), new JsonObject()
+				.putObject("$set", set)
+				.putObject("$addToSet", new JsonObject().putObject("sizes",
+						new JsonObject().putArray("$each", sizes))),
+				true, false, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if ("ok".equals(event.body().getString("status"))) {
+					if (!lazy) {
+						add(job, sizes);
+					}
+					handler.handle(new Either.Right<String, JsonObject>(new JsonObject()));
+				} else {
+					log.error("Error persisting thumbnails job of file " + fileId + " : " +
+							event.body().getString("message"));
+					handler.handle(new Either.Left<String, JsonObject>(event.body().getString("message")));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Called when a missing thumbnail of a file is requested : the pending job of the file
+	 * is moved to the interactive queue, or loaded and run if it was deferred.
+	 */
+	public void request(final String fileId) {
+		synchronized (this) {
+			final ImageJob job = jobs.get(fileId);
+			if (job != null) {
+				if (job.priority != INTERACTIVE) {
+					job.priority = INTERACTIVE;
+					if (job.queued) {
+						interactive.add(job);
+					}
+				}
+				return;
+			}
+			if (!lazy || !loading.add(fileId)) {
+				return;
+			}
+		}
+		final JsonObject query = new JsonObject().putString("_id", fileId).putBoolean("deferred", true)
+				.putObject("failed", new JsonObject().putBoolean("$exists", false));
+		mongo.findOne(JOBS_COLLECTION, query, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonObject res = event.body().getObject("result");
+				if ("ok".equals(event.body().getString("status")) && res != null) {
+					mongo.update(JOBS_COLLECTION, new JsonObject().putString("_id", fileId), new JsonObject()
+							.putObject("$set", new JsonObject().putString("node", node).putString("run", run)
+									.putString("queue", queue).putBoolean("deferred", false)
+									.putNumber("priority", INTERACTIVE)),
+							false, false);
+					final ImageJob job = fromJson(res);
+					job.priority = INTERACTIVE;
+					add(job, res.getArray("sizes", new JsonArray()));
+				}
+				synchronized (ImageJobQueue.this) {
+					loading.remove(fileId);
+				}
+			}
+		});
+	}
+
+	public synchronized JsonObject stats() {
+		int interactiveDepth = 0;
+		int bulkDepth = 0;
+		for (ImageJob job : jobs.values()) {
+			if (!job.queued) continue;
+			if (job.priority == INTERACTIVE) {
+				interactiveDepth++;
+			} else {
+				bulkDepth++;
+			}
+		}
+		return new JsonObject()
+				.putNumber("compressDepth", compressions.size())
+				.putNumber("interactiveDepth", interactiveDepth)
+				.putNumber("bulkDepth", bulkDepth)
+				.putNumber("inFlight", inFlight)
+				.putNumber("resized", resized)
+				.putNumber("compressed", compressed)
+				.putNumber("failed", failed)
+				.putNumber("retried", retried)
+				.putNumber("averageLatency", (requests > 0) ? totalLatency / requests : 0)
+				.putNumber("maxLatency", maxLatency)
+				.putNumber("averageWait", (requests > 0) ? totalWait / requests : 0);
+	}
+
+	private int priority(String owner) {
+		final Integer pending = pendingByOwner.get(owner);
+		return (pending != null && pending >= bulkThreshold) ? BULK : INTERACTIVE;
+	}
+
+	private void add(ImageJob job, JsonArray sizes) {
+		synchronized (this) {
+			final ImageJob j = jobs.get(job.fileId);
+			if (j == null) {
+				jobs.put(job.fileId, job);
+				final Integer pending = pendingByOwner.get(job.owner);
+				pendingByOwner.put(job.owner, (pending != null) ? pending + 1 : 1);
+			} else {
+				job = j;
+			}
+			for (Object size : sizes) {
+				job.sizes.add((String) size);
+			}
+			if (!job.queued && !job.running && job.attempts == 0) {
+				queue(job);
+			}
+		}
+		next();
+	}
+
+	private void queue(ImageJob job) {
+		job.queued = true;
+		job.queuedAt = System.currentTimeMillis();
+		if (job.priority == INTERACTIVE) {
+			interactive.add(job);
+		} else {
+			bulk.add(job);
+		}
+	}
+
+	private void next() {
+		for (;;) {
+			Compression compression = null;
+			ImageJob job = null;
+			synchronized (this) {
+				if (inFlight >= concurrency) {
+					break;
+				}
+				compression = compressions.poll();
+				if (compression == null) {
+					job = poll(interactive, INTERACTIVE);
+					if (job == null) {
+						job = poll(bulk, BULK);
+					}
+					if (job == null) {
+						break;
+					}
+					job.queued = false;
+					job.running = true;
+				}
+				inFlight++;
+			}
+			if (compression != null) {
+				run(compression);
+			} else {
+				run(job);
+			}
+		}
+	}
+
+	private ImageJob poll(Deque<ImageJob> deque, int priority) {
+		ImageJob job;
+		while ((job = deque.poll()) != null) {
+			if (job.queued && job.priority == priority) {
+				return job;
+			}
+		}
+		return null;
+	}
+
+	private void run(final Compression compression) {
+		final long start = System.currentTimeMillis();
+		vertx.eventBus().sendWithTimeout(resizerAddress, compression.message, timeout,
+				new Handler<AsyncResult<Message<JsonObject>>>() {
+			@Override
+			public void handle(AsyncResult<Message<JsonObject>> ar) {
+				Integer size = null;
+				if (ar.succeeded()) {
+					size = ar.result().body().getInteger("size");
+				} else {
+					log.error("Image compression failed.", ar.cause());
+				}
+				synchronized (ImageJobQueue.this) {
+					inFlight--;
+					if (size != null) {
+						compressed++;
+					}
+					measure(start, compression.queuedAt);
+				}
+				compression.handler.handle(size);
+				next();
+			}
+		});
+	}
+
+	private void run(final ImageJob job) {
+		final List<String> sent;
+		synchronized (this) {
+			sent = new ArrayList<>(job.sizes);
+		}
+		final String bucket = storage.getProtocol() + "://" + storage.getBucket();
+		final JsonArray outputs = new JsonArray();
+		for (String thumb : sent) {
+			final Matcher m = SIZE.matcher(thumb);
+			if (!m.matches()) continue;
+			try {
+				final int width = Integer.parseInt(m.group(1));
+				final int height = Integer.parseInt(m.group(2));
+				final JsonObject j = new JsonObject().putString("dest", bucket);
+				if (width != 0) {
+					j.putNumber("width", width);
+				}
+				if (height != 0) {
+					j.putNumber("height", height);
+				}
+				outputs.addObject(j);
+			} catch (NumberFormatException e) {
+				log.error("Invalid thumbnail size.", e);
+			}
+		}
+		final JsonObject json = new JsonObject()
+				.putString("action", "resizeMultiple")
+				.putString("src", bucket + ":" + job.fileId)
+				.putArray("destinations", outputs);
+		final long start = System.currentTimeMillis();
+		vertx.eventBus().sendWithTimeout(resizerAddress, json, timeout,
+				new Handler<AsyncResult<Message<JsonObject>>>() {
+			@Override
+			public void handle(AsyncResult<Message<JsonObject>> ar) {
+				final JsonObject thumbnails = ar.succeeded() ? ar.result().body().getObject("outputs") : null;
+				synchronized (ImageJobQueue.this) {
+					inFlight--;
+					measure(start, job.queuedAt);
+				}
+				if (thumbnails != null && "ok".equals(ar.result().body().getString("status"))) {
+					save(job, sent, thumbnails);
+				} else {
+					log.error("Thumbnails creation failed for file " + job.fileId + " : " +
+							(ar.succeeded() ? ar.result().body().getString("message") : ar.cause().getMessage()));
+					retry(job);
+				}
+				next();
+			}
+		});
+	}
+
+	private void measure(long start, long queuedAt) {
+		final long now = System.currentTimeMillis();
+		final long latency = now - start;
+		requests++;
+		totalLatency += latency;
+		totalWait += start - queuedAt;
+		if (latency > maxLatency) {
+			maxLatency = latency;
+		}
+	}
+
+	private void save(final ImageJob job, final List<String> sent, final JsonObject thumbnails) {
+		final JsonObject set = new JsonObject();
+		for (String size : thumbnails.getFieldNames()) {
+			set.putString("thumbnails." + size, thumbnails.getString(size));
+		}
+		final JsonObject query = new JsonObject().putString("_id", job.documentId).putString("file", job.fileId);
+		mongo.update(job.collection, query, new JsonObject().putObject("$set", set),
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> res) {
+				if (!"ok".equals(res.body().getString("status"))) {
+					log.error("Error saving thumbnails of document " + job.documentId + " : " +
+							res.body().getString("message"));
+				} else if (res.body().getInteger("number", 0) == 0) {
+					removeOrphans(thumbnails);
+				}
+				done(job, sent);
+			}
+		});
+	}
+
+	private void removeOrphans(final JsonObject thumbnails) {
+		final JsonArray ids = new JsonArray();
+		for (String size : thumbnails.getFieldNames()) {
+			ids.addString(thumbnails.getString(size));
+		}
+		storage.removeFiles(ids, new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject event) {
+				if (!"ok".equals(event.getString("status"))) {
+					log.error("Error removing orphan thumbnails " + ids.encode() + " : " + event.getString("message"));
+				}
+			}
+		});
+	}
+
+	private void done(ImageJob job, List<String> sent) {
+		final boolean remaining;
+		synchronized (this) {
+			resized++;
+			job.running = false;
+			job.sizes.removeAll(sent);
+			job.attempts = 0;
+			remaining = !job.sizes.isEmpty();
+			if (remaining) {
+				queue(job);
+			} else {
+				remove(job);
+			}
+		}
+		final JsonObject query = new JsonObject().putString("_id", job.fileId);
+		if (remaining) {
+			mongo.update(JOBS_COLLECTION, query, new JsonObject().putObject("$pullAll",
+					new JsonObject().putArray("sizes", new JsonArray(sent.toArray()))), false, false);
+			next();
+		} else {
+			mongo.delete(JOBS_COLLECTION, query);
+		}
+	}
+
+	private void retry(final ImageJob job) {
+		final int attempts;
+		synchronized (this) {
+			job.running = false;
+			attempts = ++job.attempts;
+			if (attempts >= maxAttempts) {
+				failed++;
+				remove(job);
+			} else {
+				retried++;
+			}
+		}
+		final JsonObject query = new JsonObject().putString("_id", job.fileId);
+		final JsonObject set = new JsonObject().putNumber("attempts", attempts);
+		if (attempts >= maxAttempts) {
+			log.error("Thumbnails job abandoned after " + attempts + " attempts : " + job.fileId);
+			set.putBoolean("failed", true);
+			mongo.update(JOBS_COLLECTION, query, new JsonObject().putObject("$set", set), false, false);
+			return;
+		}
+		mongo.update(JOBS_COLLECTION, query, new JsonObject().putObject("$set", set), false, false);
+		final long delay = Math.min(retryDelay << (attempts - 1), MAX_RETRY_DELAY);
+		vertx.setTimer(delay, new Handler<Long>() {
+			@Override
+			public void handle(Long event) {
+				synchronized (ImageJobQueue.this) {
+					queue(job);
+				}
+				next();
+			}
+		});
+	}
+
+	private void remove(ImageJob job) {
+		jobs.remove(job.fileId);
+		final Integer pending = pendingByOwner.get(job.owner);
+		if (pending == null || pending <= 1) {
+			pendingByOwner.remove(job.owner);
+		} else {
+			pendingByOwner.put(job.owner, pending - 1);
+		}
+	}
+
+	private ImageJob fromJson(JsonObject j) {
+		return new ImageJob(j.getString("_id"), j.getString("collection"), j.getString("documentId"),
+				j.getString("owner", ""), j.getInteger("priority", BULK));
+	}
+
+	private void reload() {
+		final JsonObject query = new JsonObject()
+				.putString("node", node)
+				.putObject("run", new JsonObject().putString("$ne", run))
+				.putObject("deferred", new JsonObject().putBoolean("$ne", true))
+				.putObject("failed", new JsonObject().putBoolean("$exists", false));
+		final JsonObject claim = new JsonObject().putObject("$set", new JsonObject()
+				.putString("run", run).putString("queue", queue));
+		// each document is claimed atomically : only one queue of the node gets it
+		mongo.update(JOBS_COLLECTION, query, claim, false, true, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if (!"ok".equals(event.body().getString("status"))) {
+					log.error("Error claiming pending thumbnails jobs : " + event.body().getString("message"));
+				} else if (event.body().getInteger("number", 0) > 0) {
+					reload(null, 0);
+				}
+			}
+		});
+	}
+
+	private void reload(final String lastId, final int count) {
+		final JsonObject query = new JsonObject()
+				.putString("queue", queue)
+				.putObject("deferred", new JsonObject().putBoolean("$ne", true))
+				.putObject("failed", new JsonObject().putBoolean("$exists", false));
+		if (lastId != null) {
+			query.putObject("_id", new JsonObject().putString("$gt", lastId));
+		}
+		final JsonObject sort = new JsonObject().putNumber("_id", 1);
+		mongo.find(JOBS_COLLECTION, query, sort, null, 0, RELOAD_PAGE_SIZE, RELOAD_PAGE_SIZE,
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonArray results = event.body().getArray("results");
+				if (!"ok".equals(event.body().getString("status")) || results == null) {
+					log.error("Error loading pending thumbnails jobs : " + event.body().getString("message"));
+					return;
+				}
+				String last = null;
+				for (Object o : results) {
+					if (!(o instanceof JsonObject)) continue;
+					final JsonObject j = (JsonObject) o;
+					last = j.getString("_id");
+					add(fromJson(j), j.getArray("sizes", new JsonArray()));
+				}
+				if (results.size() == RELOAD_PAGE_SIZE && last != null) {
+					reload(last, count + results.size());
+				} else if (count + results.size() > 0) {
+					log.info("Reloaded " + (count + results.size()) + " pending thumbnails jobs.");
+				}
+			}
+		});
+	}
+
+}
@@ -0,0 +1,270 @@
+/* Copyright © WebServices pour l'Éducation, 2014
+ *
+ * This file is part of ENT Core. ENT Core is a versatile ENT engine based on the JVM.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with ENT Core is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of ENT Core, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package org.entcore.workspace.service.impl;
+
+import fr.wseduc.mongodb.MongoDb;
+import fr.wseduc.webutils.Either;
+import org.entcore.workspace.service.QuotaService;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Write-behind accumulator of storage deltas. Deltas are merged by user and applied
+ * to neo4j in one statement every <code>quota-flush-delay</code> ms.
+ * Accepted deltas are journaled in mongo, by accumulator instance. At startup, the entries
+ * left by a previous run of the node are claimed one by one (find and modify with remove),
+ * so each of them is replayed by only one instance.
+ * Replay is at least once : the journal is decremented after the deltas are applied, so a delta
+ * applied just before a crash is applied again at the next start. The reconciliation fixes
+ * these rare drifts.
+ */
+public class QuotaDeltaAccumulator {
+
+	private static final Logger log = LoggerFactory.getLogger(QuotaDeltaAccumulator.class);
+	public static final String JOURNAL_COLLECTION = "quotaDeltas";
+	private final Vertx vertx;
+	private final QuotaService quotaService;
+	private final MongoDb mongo = MongoDb.getInstance();
+	private final Handler<JsonObject> appliedHandler;
+	private final int threshold;
+	private final long flushDelay;
+	private final boolean journal;
+	private final String node;
+	private final String run;
+	private final String instance = UUID.randomUUID().toString();
+	private Map<String, Long> pending = new HashMap<>();
+	private final Map<String, Long> inFlight = new HashMap<>();
+	private boolean flushing = false;
+	private long timerId = -1;
+
+	/**
+	 * @param appliedHandler receives <code>{"userId" : "", "storage" : n, "notify" : bool}</code>
+	 *                       for each user updated by a flush
+	 */
+	public QuotaDeltaAccumulator(Vertx vertx, QuotaService quotaService, int threshold, JsonObject config,
+			Handler<JsonObject> appliedHandler) {
+		this.vertx = vertx;
+		this.quotaService = quotaService;
+		this.threshold = threshold;
+		this.appliedHandler = appliedHandler;
+		this.flushDelay = config.getLong("quota-flush-delay", 1000l);
+		this.journal = config.getBoolean("quota-journal", true);
+		final String n = (String) vertx.sharedData().getMap("server").get("node");
+		this.node = (n != null) ? n : "";
+		// same run id for all the instances of the node, entries of other runs are left by a previous start
+		final String runId = UUID.randomUUID().toString();
+		final Object r = vertx.sharedData().getMap("server").putIfAbsent("quota-journal-run", runId);
+		this.run = (r != null) ? (String) r : runId;
+		if (journal) {
+			replay();
+		}
+	}
+
+	/**
+	 * Add a storage delta.
+	 * @param handler called once the delta is journaled
+	 */
+	public void add(final String userId, final long delta, final Handler<Either<String, JsonObject>> handler) {
+		if (delta == 0) {
+			if (handler != null) {
+				handler.handle(new Either.Right<String, JsonObject>(new JsonObject()));
+			}
+			return;
+		}
+		merge(userId, delta);
+		if (!journal) {
+			if (handler != null) {
+				handler.handle(new Either.Right<String, JsonObject>(new JsonObject()));
+			}
+			return;
+		}
+		mongo.update(JOURNAL_COLLECTION, journalQuery(userId), new JsonObject()
+				.putObject("$inc", new JsonObject().putNumber("delta", delta))
+				.putObject("$set", new JsonObject().putString("node", node).putString("run", run)
+						.putString("userId", userId)),
+				true, false, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if (!"ok".equals(event.body().getString("status"))) {
+					log.error("Error journaling storage delta of user " + userId + " : " +
+							event.body().getString("message"));
+				}
+				if (handler != null) {
+					handler.handle(new Either.Right<String, JsonObject>(new JsonObject()));
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return storage delta not applied yet in neo4j
+	 */
+	public synchronized long pending(String userId) {
+		long delta = 0l;
+		Long p = pending.get(userId);
+		if (p != null) {
+			delta += p;
+		}
+		p = inFlight.get(userId);
+		if (p != null) {
+			delta += p;
+		}
+		return delta;
+	}
+
+	private synchronized void merge(String userId, long delta) {
+		final Long old = pending.get(userId);
+		pending.put(userId, (old != null) ? old + delta : delta);
+		if (timerId == -1) {
+			timerId = vertx.setTimer(flushDelay, new Handler<Long>() {
+				@Override
+				public void handle(Long event) {
+					synchronized (QuotaDeltaAccumulator.this) {
+						timerId = -1;
+					}
+					flush();
+				}
+			});
+		}
+	}
+
+	public void flush() {
+		final Map<String, Long> batch;
+		synchronized (this) {
+			if (flushing || pending.isEmpty()) {
+				return;
+			}
+			flushing = true;
+			batch = pending;
+			pending = new HashMap<>();
+			inFlight.putAll(batch);
+		}
+		final JsonArray sizes = new JsonArray();
+		for (Map.Entry<String, Long> e : batch.entrySet()) {
+			if (e.getValue() != 0) {
+				sizes.addObject(new JsonObject().putString("userId", e.getKey()).putNumber("size", e.getValue()));
+			}
+		}
+		quotaService.incrementStorage(sizes, threshold, new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> r) {
+				synchronized (QuotaDeltaAccumulator.this) {
+					inFlight.clear();
+					flushing = false;
+					if (r.isLeft()) {
+						for (Map.Entry<String, Long> e : batch.entrySet()) {
+							final Long old = pending.get(e.getKey());
+							pending.put(e.getKey(), (old != null) ? old + e.getValue() : e.getValue());
+						}
+					}
+				}
+				if (r.isLeft()) {
+					log.error("Error applying storage deltas, retry later : " + r.left().getValue());
+				} else {
+					if (journal) {
+						for (final Map.Entry<String, Long> e : batch.entrySet()) {
+							mongo.update(JOURNAL_COLLECTION, journalQuery(e.getKey()), new JsonObject().putObject("$inc",
+									new JsonObject().putNumber("delta", -e.getValue())), false, false,
+									new Handler<Message<JsonObject>>() {
+								@Override
+								public void handle(Message<JsonObject> event) {
+									if (!"ok".equals(event.body().getString("status"))) {
+										log.error("Error updating storage deltas journal of user " + e.getKey() +
+												", the delta will be applied again on replay : " +
+												event.body().getString("message"));
+									}
+								}
+							});
+						}
+					}
+					for (Object o : r.right().getValue()) {
+						if (o instanceof JsonObject) {
+							appliedHandler.handle((JsonObject) o);
+						}
+					}
+				}
+				synchronized (QuotaDeltaAccumulator.this) {
+					if (!pending.isEmpty() && timerId == -1) {
+						timerId = vertx.setTimer(flushDelay, new Handler<Long>() {
+							@Override
+							public void handle(Long event) {
+								synchronized (QuotaDeltaAccumulator.this) {
+									timerId = -1;
+								}
+								flush();
+							}
+						});
+					}
+				}
+			}
+		});
+	}
+
+	private void replay() {
+		mongo.delete(JOURNAL_COLLECTION, new JsonObject().putString("node", node)
+				.putObject("run", new JsonObject().putString("$ne", run)).putNumber("delta", 0));
+		replay(0);
+	}
+
+	private void replay(final int count) {
+		final JsonObject command = new JsonObject()
+				.putString("findAndModify", JOURNAL_COLLECTION)
+				.putObject("query", new JsonObject().putString("node", node)
+						.putObject("run", new JsonObject().putString("$ne", run)))
+				.putBoolean("remove", true);
+		mongo.command(command.encode(), new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if (!"ok".equals(event.body().getString("status"))) {
+					log.error("Error loading storage deltas journal : " + event.body().getString("message"));
+					return;
+				}
+				final JsonObject j = event.body().getObject("result", new JsonObject()).getObject("value");
+				if (j == null) {
+					if (count > 0) {
+						log.info("Replay " + count + " journaled storage deltas.");
+					}
+					return;
+				}
+				// journaled again under the key of this instance
+				add(j.getString("userId"), j.getLong("delta", 0l), new Handler<Either<String, JsonObject>>() {
+					@Override
+					public void handle(Either<String, JsonObject> event) {
+						replay(count + 1);
+					}
+				});
+			}
+		});
+	}
+
+	private JsonObject journalQuery(String userId) {
+		return new JsonObject().putString("_id", instance + ":" + userId);
+	}
+
+}